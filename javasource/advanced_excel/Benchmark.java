@@ -0,0 +1,391 @@
+package advanced_excel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import advanced_excel.proxies.BorderStyle;
+import advanced_excel.proxies.CellFormat;
+import advanced_excel.proxies.Color;
+import advanced_excel.proxies.DocumentType;
+import advanced_excel.proxies.TextAlignment;
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.util.ZipSecureFile;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Benchmark of the read and write paths of the module on synthetic workbooks, to compare changes to the
+ * module on the same server. Every scenario runs once to warm up and then the given number of times; the
+ * report holds the average time, the rows per second, the bytes allocated per row by the benchmark thread
+ * and the peak heap use, as JSON.
+ *
+ * The scenarios work below the Mendix objects: exports write the rows the way ListToExcel does with typed
+ * cell writers and styles resolved per column, or the way Cell_WriteByIndex does with Utils.SetCellValue
+ * and Utils.GetStyle per cell; imports convert the cells with an ImportMapping the way ExcelToList and the
+ * streaming imports do, into a sink instead of objects. Styled runs use a mix of cell formats with fonts,
+ * colors, borders and a custom format, so Utils.CreateStyle does its full work.
+ *
+ * Runs on the calling thread and uses as much memory as the workbooks need, so only run it in test environments.
+ */
+public class Benchmark
+{
+	private static final ILogNode logger = Core.getLogger("Advanced_Excel");
+	private static final int MAX_XLS_ROWS = 65535;
+
+	private enum ColumnType { TEXT, NUMBER, DATE, BOOLEAN }
+
+	private interface Scenario
+	{
+		/**
+		 * @return the number of rows processed
+		 */
+		long Run() throws Exception;
+	}
+
+	private final int rows;
+	private final int columns;
+	private final ColumnType[] types;
+	private final boolean styled;
+	// repeated over the columns, null if not styled
+	private final CellFormat[] formats;
+	private final int iterations;
+	private final List<String> results = new ArrayList<String>();
+
+	/**
+	 * @param typeMix ',' separated column types that are repeated over the columns: text, number, date or boolean
+	 * @param styled whether the cells get a mix of cell formats, typed dates always get a date format
+	 */
+	public Benchmark(IContext context, int rows, int columns, String typeMix, boolean styled, int iterations) throws Exception
+	{
+		if (rows < 1 || columns < 1 || iterations < 1) { throw new Exception("Rows, Columns and Iterations should be 1 or higher"); }
+		String[] names = (typeMix == null || typeMix.trim().isEmpty() ? "text,number,date,boolean" : typeMix).split(",");
+		this.types = new ColumnType[names.length];
+		for (int i = 0; i < names.length; i++) {
+			types[i] = ColumnType.valueOf(names[i].trim().toUpperCase(Locale.ROOT));
+		}
+		this.rows = rows;
+		this.columns = columns;
+		this.styled = styled;
+		this.formats = styled ? CreateFormats(context) : null;
+		this.iterations = iterations;
+	}
+
+	/**
+	 * @return unsaved cell formats that differ in font, colors, borders, alignment and custom format
+	 */
+	private static CellFormat[] CreateFormats(IContext context)
+	{
+		CellFormat header = new CellFormat(context);
+		header.setFontName("Arial");
+		header.setFontSize(10);
+		header.setBold(true);
+		header.setFontColor(CreateColor(context, 255, 255, 255));
+		header.setBackgroundColor(CreateColor(context, 31, 78, 121));
+		header.setTextAlignment(TextAlignment.Center);
+		Color grey = CreateColor(context, 128, 128, 128);
+		header.setBorderTop(BorderStyle.THIN);
+		header.setBorderTop_Color(grey);
+		header.setBorderBottom(BorderStyle.THIN);
+		header.setBorderBottom_Color(grey);
+		header.setBorderLeft(BorderStyle.THIN);
+		header.setBorderLeft_Color(grey);
+		header.setBorderRight(BorderStyle.THIN);
+		header.setBorderRight_Color(grey);
+
+		CellFormat amount = new CellFormat(context);
+		amount.setFontName("Calibri");
+		amount.setFontSize(11);
+		amount.setTextAlignment(TextAlignment.Right);
+		amount.setBorderTop(BorderStyle.NONE);
+		amount.setBorderBottom(BorderStyle.MEDIUM);
+		amount.setBorderBottom_Color(CreateColor(context, 0, 0, 0));
+		amount.setBorderLeft(BorderStyle.NONE);
+		amount.setBorderRight(BorderStyle.NONE);
+		amount.setCustomFormat("#,##0.00");
+
+		CellFormat note = new CellFormat(context);
+		note.setFontSize(9);
+		note.setFontColor(CreateColor(context, 192, 0, 0));
+		note.setBackgroundColor(CreateColor(context, 255, 242, 204));
+		note.setTextAlignment(TextAlignment.Left);
+		Color red = CreateColor(context, 255, 0, 0);
+		note.setBorderTop(BorderStyle.NONE);
+		note.setBorderBottom(BorderStyle.NONE);
+		note.setBorderLeft(BorderStyle.DASHED);
+		note.setBorderLeft_Color(red);
+		note.setBorderRight(BorderStyle.DASHED);
+		note.setBorderRight_Color(red);
+
+		return new CellFormat[] { header, amount, note };
+	}
+
+	private static Color CreateColor(IContext context, int r, int g, int b)
+	{
+		Color color = new Color(context);
+		color.setr(r);
+		color.setg(g);
+		color.setb(b);
+		return color;
+	}
+
+	/**
+	 * Runs all scenarios for xls and xlsx files.
+	 * @return the results as JSON
+	 */
+	public String Run() throws Exception
+	{
+		ZipSecureFile.setMinInflateRatio(0);
+		for (DocumentType docType : new DocumentType[] { DocumentType.XLS, DocumentType.XLSX }) {
+			String format = docType.name().toLowerCase(Locale.ROOT);
+			int formatRows = docType == DocumentType.XLS ? Math.min(rows, MAX_XLS_ROWS) : rows;
+			File file = File.createTempFile("advanced_excel_benchmark", "." + format);
+			try {
+				Measure("export-typed-" + format, () -> Export(NewWorkbook(docType), formatRows, true, file));
+				Measure("export-text-" + format, () -> Export(NewWorkbook(docType), formatRows, false, null));
+				if (docType == DocumentType.XLSX) {
+					Measure("export-streaming-" + format, () -> Export(new SXSSFWorkbook(null, 100, true), formatRows, true, null));
+				}
+				Measure("load-dom-" + format, () -> {
+					try (Workbook workbook = WorkbookFactory.create(file, null, true)) {
+						return workbook.getSheetAt(0).getPhysicalNumberOfRows();
+					}
+				});
+				Measure("import-dom-" + format, () -> ImportDom(file));
+				Measure("import-streaming-" + format, () -> ImportStreaming(file, docType));
+			} finally {
+				file.delete();
+			}
+		}
+		return "{\"rows\":" + rows + ",\"columns\":" + columns + ",\"styled\":" + styled + ",\"iterations\":" + iterations
+			+ ",\"results\":" + results.stream().collect(Collectors.joining(",", "[", "]")) + "}";
+	}
+
+	private void Measure(String name, Scenario scenario) throws Exception
+	{
+		scenario.Run();
+
+		long totalNanos = 0;
+		long totalAllocated = 0;
+		long peakHeap = 0;
+		long processed = 0;
+		for (int i = 0; i < iterations; i++) {
+			System.gc();
+			ResetPeakHeap();
+			long allocatedBefore = GetAllocatedBytes();
+			long start = System.nanoTime();
+			processed = scenario.Run();
+			totalNanos += System.nanoTime() - start;
+			totalAllocated += GetAllocatedBytes() - allocatedBefore;
+			peakHeap = Math.max(peakHeap, GetPeakHeap());
+		}
+
+		double seconds = totalNanos / 1e9 / iterations;
+		long allocatedPerRow = GetAllocatedBytes() < 0 || processed == 0 ? -1 : totalAllocated / iterations / processed;
+		results.add(String.format(Locale.ROOT, "{\"scenario\":\"%s\",\"rows\":%d,\"ms\":%.1f,\"rowsPerSecond\":%.0f,\"bytesPerRow\":%d,\"peakHeapBytes\":%d}",
+			name, processed, seconds * 1000, processed / seconds, allocatedPerRow, peakHeap));
+		logger.info("Benchmark " + name + ": " + processed + " rows in " + Math.round(seconds * 1000) + " ms");
+	}
+
+	private static Workbook NewWorkbook(DocumentType docType)
+	{ return docType == DocumentType.XLS ? new HSSFWorkbook() : new XSSFWorkbook(); }
+
+	private long Export(Workbook workbook, int rowCount, boolean typed, File target) throws Exception
+	{
+		try {
+			Sheet sheet = workbook.createSheet("Data");
+			CellFormat[] cellFormats = new CellFormat[columns];
+			CellWriter[] writers = new CellWriter[columns];
+			advanced_excel.proxies.CellType[] cellTypes = new advanced_excel.proxies.CellType[columns];
+			// the typed export resolves the styles of a column once, like ListToExcel
+			CellStyle[] styles = new CellStyle[columns];
+			CellStyle[] dateStyles = new CellStyle[columns];
+			// the text export resolves the style per cell, like Cell_WriteByIndex
+			String[] dataFormats = new String[columns];
+			for (int j = 0; j < columns; j++) {
+				ColumnType type = types[j % types.length];
+				cellFormats[j] = formats != null ? formats[j % formats.length] : null;
+				writers[j] = type == ColumnType.NUMBER ? CellWriter.NUMBER : type == ColumnType.DATE ? CellWriter.DATETIME : type == ColumnType.BOOLEAN ? CellWriter.BOOLEAN : CellWriter.TEXT;
+				cellTypes[j] = type == ColumnType.NUMBER ? advanced_excel.proxies.CellType.decimal : type == ColumnType.DATE ? advanced_excel.proxies.CellType.datetime : type == ColumnType.BOOLEAN ? advanced_excel.proxies.CellType._boolean : advanced_excel.proxies.CellType.text;
+				if (typed) {
+					styles[j] = Utils.GetStyle(workbook, cellFormats[j], false, null);
+					dateStyles[j] = Utils.GetStyle(workbook, cellFormats[j], false, Utils.DATETIME_FORMAT);
+				} else if (cellTypes[j] == advanced_excel.proxies.CellType.datetime && cellFormats[j] != null && cellFormats[j].getCustomFormat() == null) {
+					dataFormats[j] = Utils.DATETIME_FORMAT;
+				}
+			}
+
+			Row title = sheet.createRow(0);
+			for (int j = 0; j < columns; j++) {
+				title.createCell(j).setCellValue("Column" + (j + 1));
+			}
+			long time = new Date().getTime();
+			SimpleDateFormat dateFormat = new SimpleDateFormat(Utils.DATETIME_FORMAT);
+			for (int i = 1; i <= rowCount; i++) {
+				Row row = sheet.createRow(i);
+				for (int j = 0; j < columns; j++) {
+					Cell cell = row.createCell(j);
+					Object value = GetValue(types[j % types.length], i, j, time);
+					if (typed) {
+						writers[j].Write(cell, value);
+						if (writers[j].IsDateTime()) { cell.setCellStyle(dateStyles[j]); }
+						else if (cellFormats[j] != null) { cell.setCellStyle(styles[j]); }
+					} else {
+						Utils.SetCellValue(workbook, cell, cellTypes[j], value instanceof Date ? dateFormat.format((Date) value) : value.toString());
+						if (cellFormats[j] != null) { cell.setCellStyle(Utils.GetStyle(workbook, cellFormats[j], false, dataFormats[j])); }
+					}
+				}
+			}
+
+			File file = target != null ? target : File.createTempFile("advanced_excel_benchmark", ".tmp");
+			try (OutputStream outStream = new FileOutputStream(file)) {
+				workbook.write(outStream);
+			} finally {
+				if (target == null) { file.delete(); }
+			}
+			return rowCount;
+		} finally {
+			StyleRegistry.Remove(workbook);
+			ColumnWidths.Remove(workbook);
+			if (workbook instanceof SXSSFWorkbook) { ((SXSSFWorkbook) workbook).dispose(); }
+		}
+	}
+
+	private static Object GetValue(ColumnType type, int row, int column, long time)
+	{
+		switch (type) {
+			case NUMBER:
+				return row * 1.25 + column;
+			case DATE:
+				return new Date(time - row * 60000L);
+			case BOOLEAN:
+				return row % 2 == 0;
+			default:
+				return "Text " + row + "-" + column;
+		}
+	}
+
+	/**
+	 * @return the mapping of the title row to the column types, as ImportMapping.Compile does for an entity
+	 */
+	private ImportMapping CompileMapping(String[] headings)
+	{
+		IMetaPrimitive.PrimitiveType[] primitiveTypes = new IMetaPrimitive.PrimitiveType[headings.length];
+		for (int j = 0; j < headings.length; j++) {
+			switch (types[j % types.length]) {
+				case NUMBER:
+					primitiveTypes[j] = IMetaPrimitive.PrimitiveType.Decimal;
+					break;
+				case DATE:
+					primitiveTypes[j] = IMetaPrimitive.PrimitiveType.DateTime;
+					break;
+				case BOOLEAN:
+					primitiveTypes[j] = IMetaPrimitive.PrimitiveType.Boolean;
+					break;
+				default:
+					primitiveTypes[j] = IMetaPrimitive.PrimitiveType.String;
+			}
+		}
+		return ImportMapping.ForTypes(headings, primitiveTypes);
+	}
+
+	private static void CheckErrors(ImportMapping mapping) throws Exception
+	{
+		if (mapping.GetErrorCount() > 0) { throw new Exception(mapping.GetErrorCount() + " values could not be imported:\n" + mapping.GetErrorReport()); }
+	}
+
+	private long ImportDom(File file) throws Exception
+	{
+		long count = 0;
+		long[] values = new long[1];
+		DataFormatter formatter = new DataFormatter();
+		try (Workbook workbook = WorkbookFactory.create(file, null, true)) {
+			Sheet sheet = workbook.getSheetAt(0);
+			int rowTotal = sheet.getPhysicalNumberOfRows();
+			Row row = sheet.getRow(0);
+			int cellTotal = row.getPhysicalNumberOfCells();
+			String[] headings = new String[cellTotal];
+			for (int j = 0; j < cellTotal; j++) {
+				Cell cell = row.getCell(j);
+				headings[j] = cell == null ? null : formatter.formatCellValue(cell);
+			}
+			ImportMapping mapping = CompileMapping(headings);
+			for (int i = 1; i < rowTotal; i++) {
+				row = sheet.getRow(i);
+				if (row == null) { continue; }
+
+				mapping.SetValues(row, (attribute, value) -> values[0]++);
+				count++;
+			}
+			CheckErrors(mapping);
+		}
+		return count;
+	}
+
+	private long ImportStreaming(File file, DocumentType docType) throws Exception
+	{
+		long[] count = new long[1];
+		long[] values = new long[1];
+		ImportMapping[] mapping = new ImportMapping[1];
+		try (InputStream inStream = new FileInputStream(file)) {
+			StreamingSheetReader.Read(inStream, docType, "Data", ImportMapping.DATE_PATTERN, (rowNum, cells, rowValues) -> {
+				if (rowNum == 0) {
+					mapping[0] = CompileMapping(cells);
+					return;
+				}
+				mapping[0].SetValues(rowNum, cells, rowValues, (attribute, value) -> values[0]++);
+				count[0]++;
+			});
+		}
+		CheckErrors(mapping[0]);
+		return count[0];
+	}
+
+	private static long GetAllocatedBytes()
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+			return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+		}
+		return -1;
+	}
+
+	private static void ResetPeakHeap()
+	{
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) { pool.resetPeakUsage(); }
+		}
+	}
+
+	private static long GetPeakHeap()
+	{
+		// the sum of the pool peaks, which includes garbage that was not collected yet
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) { peak += pool.getPeakUsage().getUsed(); }
+		}
+		return peak;
+	}
+}
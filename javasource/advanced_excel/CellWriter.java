@@ -0,0 +1,110 @@
+package advanced_excel;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import advanced_excel.proxies.CellType;
+import com.mendix.core.objectmanagement.member.MendixBoolean;
+import com.mendix.core.objectmanagement.member.MendixDateTime;
+import com.mendix.core.objectmanagement.member.MendixDecimal;
+import com.mendix.core.objectmanagement.member.MendixInteger;
+import com.mendix.core.objectmanagement.member.MendixLong;
+import com.mendix.systemwideinterfaces.core.IMendixObjectMember;
+import org.apache.poi.ss.usermodel.Cell;
+
+/**
+ * Writes typed values to cells without converting them to text and back, as Utils.SetCellValue does.
+ * Resolve the writer once per column with {@link #ForMember} or {@link #ForCellType} and use it for every
+ * cell of that column. Null values and empty texts leave the cell empty.
+ */
+public enum CellWriter
+{
+	TEXT {
+		@Override
+		void WriteValue(Cell cell, Object value)
+		{
+			String text = value.toString();
+			if (!text.isEmpty()) { cell.setCellValue(text); }
+		}
+	},
+	/** Integer, Long and BigDecimal values */
+	NUMBER {
+		@Override
+		void WriteValue(Cell cell, Object value)
+		{ cell.setCellValue(((Number) value).doubleValue()); }
+	},
+	BOOLEAN {
+		@Override
+		void WriteValue(Cell cell, Object value)
+		{ cell.setCellValue((Boolean) value); }
+	},
+	/** Date values, the cell needs a style with a date format to show them as such */
+	DATETIME {
+		@Override
+		void WriteValue(Cell cell, Object value)
+		{ cell.setCellValue((Date) value); }
+	},
+	FORMULA {
+		@Override
+		void WriteValue(Cell cell, Object value)
+		{
+			String formula = value.toString();
+			if (!formula.isEmpty()) { cell.setCellFormula(formula); }
+		}
+	};
+
+	abstract void WriteValue(Cell cell, Object value);
+
+	public void Write(Cell cell, Object value)
+	{
+		if (value != null) { WriteValue(cell, value); }
+	}
+
+	public boolean IsDateTime()
+	{ return this == DATETIME; }
+
+	public static CellWriter ForMember(IMendixObjectMember<?> member)
+	{
+		if (member instanceof MendixInteger || member instanceof MendixLong || member instanceof MendixDecimal) { return NUMBER; }
+		if (member instanceof MendixBoolean) { return BOOLEAN; }
+		if (member instanceof MendixDateTime) { return DATETIME; }
+		return TEXT;
+	}
+
+	public static CellWriter ForCellType(CellType cellType)
+	{
+		if (cellType == null) { return TEXT; }
+		switch (cellType) {
+			case decimal:
+			case integer:
+				return NUMBER;
+			case _boolean:
+				return BOOLEAN;
+			case datetime:
+				return DATETIME;
+			case formula:
+				return FORMULA;
+			default:
+				return TEXT;
+		}
+	}
+
+	/**
+	 * Converts a text in the format accepted by Utils.SetCellValue to the value written by this writer,
+	 * so that a text value only has to be parsed once when it is written to several cells.
+	 */
+	public Object Parse(String value) throws ParseException
+	{
+		if (value == null || value.isEmpty()) { return null; }
+		switch (this) {
+			case NUMBER:
+				return Double.parseDouble(value);
+			case BOOLEAN:
+				return Boolean.parseBoolean(value);
+			case DATETIME:
+				return new SimpleDateFormat(Utils.DATETIME_FORMAT).parse(value);
+			default:
+				return value;
+		}
+	}
+}
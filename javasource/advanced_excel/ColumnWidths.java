@@ -0,0 +1,190 @@
+package advanced_excel;
+
+import java.awt.font.FontRenderContext;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * Per workbook estimation of the column widths for the write actions that autofit columns.
+ *
+ * Sheet.autoSizeColumn lays out every cell of the column with the AWT font metrics each time it is called,
+ * which makes autofitting a column after every written cell quadratic in the number of rows, and it only
+ * works for the rows a streaming sheet still holds. Instead, the widest text of each column is recorded
+ * while the cells are written, measured with a character width table per font that is computed once, and
+ * the widths are set once: at the end of the write action, or by Workbook_WriteFile for single cell writes.
+ *
+ * Widths only grow: overwriting a cell with a shorter value does not narrow its column.
+ *
+ * The recorded widths refer to the workbook and its sheets, so they are kept until Remove is called;
+ * WorkbookRegistry does that when it releases or spills the workbook.
+ */
+public class ColumnWidths
+{
+	private static final ILogNode logger = Core.getLogger("Advanced_Excel");
+	private static final Map<Workbook, ColumnWidths> iWidths = Collections.synchronizedMap(new HashMap<Workbook, ColumnWidths>());
+	// character widths in points per font, shared by all workbooks
+	private static final ConcurrentHashMap<String, float[]> iCharWidths = new ConcurrentHashMap<String, float[]>();
+	private static final int TABLE_SIZE = 256;
+	private static final int MAX_COLUMN_WIDTH = 255 * 256;
+	// the sum of the character widths ignores kerning and glyph overhang, a character of padding keeps the text from being cut off
+	private static final double PADDING = 1.0;
+
+	private final Workbook workbook;
+	private final DataFormatter formatter = new DataFormatter();
+	private final HashMap<Sheet, SheetWidths> sheets = new HashMap<Sheet, SheetWidths>();
+	private final HashMap<Integer, float[]> fontTables = new HashMap<Integer, float[]>();
+	private float defaultCharWidth = -1;
+
+	private static class SheetWidths
+	{
+		// widest text per column, in characters of the default font
+		private final HashMap<Integer, Double> widths = new HashMap<Integer, Double>();
+		private final BitSet pending = new BitSet();
+	}
+
+	private ColumnWidths(Workbook workbook)
+	{ this.workbook = workbook; }
+
+	public static ColumnWidths Get(Workbook workbook)
+	{ return iWidths.computeIfAbsent(workbook, ColumnWidths::new); }
+
+	public static void Remove(Workbook workbook)
+	{ iWidths.remove(workbook); }
+
+	/**
+	 * Sets the widths of all columns of the workbook that were recorded but not applied yet.
+	 */
+	public static void ApplyPending(Workbook workbook)
+	{
+		ColumnWidths widths = iWidths.get(workbook);
+		if (widths != null) { widths.ApplyAll(); }
+	}
+
+	/**
+	 * Records the width of the value of the cell, which has to be written and styled already.
+	 */
+	public synchronized void Record(Cell cell)
+	{
+		String text = GetText(cell);
+		if (text == null || text.isEmpty()) { return; }
+
+		float[] table = GetTable(cell.getCellStyle().getFontIndex());
+		double width = 0;
+		double lineWidth = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\n') {
+				width = Math.max(width, lineWidth);
+				lineWidth = 0;
+			} else if (c != '\r') {
+				lineWidth += GetCharWidth(table, c);
+			}
+		}
+		width = Math.max(width, lineWidth) / GetDefaultCharWidth() + cell.getCellStyle().getIndention();
+
+		SheetWidths sheetWidths = sheets.computeIfAbsent(cell.getSheet(), s -> new SheetWidths());
+		int column = cell.getColumnIndex();
+		Double current = sheetWidths.widths.get(column);
+		if (current == null || width > current) {
+			sheetWidths.widths.put(column, width);
+			sheetWidths.pending.set(column);
+		}
+	}
+
+	/**
+	 * Sets the widths of the columns of the sheet that changed since they were last applied.
+	 */
+	public synchronized void Apply(Sheet sheet)
+	{
+		SheetWidths sheetWidths = sheets.get(sheet);
+		if (sheetWidths == null) { return; }
+		for (int column = sheetWidths.pending.nextSetBit(0); column >= 0; column = sheetWidths.pending.nextSetBit(column + 1)) {
+			int width = (int) Math.ceil((sheetWidths.widths.get(column) + PADDING) * 256);
+			sheet.setColumnWidth(column, Math.min(width, MAX_COLUMN_WIDTH));
+		}
+		sheetWidths.pending.clear();
+	}
+
+	public synchronized void ApplyAll()
+	{
+		for (Sheet sheet : sheets.keySet()) {
+			// sheets deleted since their cells were recorded no longer belong to the workbook
+			if (workbook.getSheetIndex(sheet) >= 0) { Apply(sheet); }
+		}
+	}
+
+	private String GetText(Cell cell)
+	{
+		CellType type = cell.getCellType() == CellType.FORMULA ? cell.getCachedFormulaResultType() : cell.getCellType();
+		switch (type) {
+			case STRING:
+				return cell.getRichStringCellValue().getString();
+			case NUMERIC:
+				CellStyle style = cell.getCellStyle();
+				return formatter.formatRawCellContents(cell.getNumericCellValue(), style.getDataFormat(), style.getDataFormatString());
+			case BOOLEAN:
+				return cell.getBooleanCellValue() ? "TRUE" : "FALSE";
+			default:
+				return null;
+		}
+	}
+
+	private float GetDefaultCharWidth()
+	{
+		// column widths are expressed in widths of the digit zero of the default font, as Excel does
+		if (defaultCharWidth < 0) { defaultCharWidth = GetTable(0)['0']; }
+		return defaultCharWidth;
+	}
+
+	private float[] GetTable(int fontIndex)
+	{
+		float[] table = fontTables.get(fontIndex);
+		if (table == null) {
+			Font font = workbook.getFontAt(fontIndex);
+			String key = font.getFontName() + "|" + font.getFontHeightInPoints() + "|" + font.getBold() + "|" + font.getItalic();
+			table = iCharWidths.computeIfAbsent(key, k -> CreateTable(font));
+			fontTables.put(fontIndex, table);
+		}
+		return table;
+	}
+
+	private static float GetCharWidth(float[] table, char c)
+	{
+		if (c < TABLE_SIZE) { return table[c]; }
+		// wide characters of east asian scripts take about two digits, other characters about an average one
+		return Character.isIdeographic(c) || (c >= 0x3000 && c <= 0xFFEF) ? table['0'] * 2 : table['n'];
+	}
+
+	private static float[] CreateTable(Font font)
+	{
+		float[] table = new float[TABLE_SIZE];
+		int style = (font.getBold() ? java.awt.Font.BOLD : 0) | (font.getItalic() ? java.awt.Font.ITALIC : 0);
+		try {
+			java.awt.Font awtFont = new java.awt.Font(font.getFontName(), style, font.getFontHeightInPoints());
+			FontRenderContext context = new FontRenderContext(null, true, true);
+			for (char c = 0; c < TABLE_SIZE; c++) {
+				table[c] = Character.isISOControl(c) ? 0 : (float) awtFont.getStringBounds(String.valueOf(c), context).getWidth();
+			}
+		} catch (Throwable e) {
+			// without fonts on the server, count every character as a digit, slightly wider when bold
+			logger.warn("Font metrics for " + font.getFontName() + " are not available, column widths are estimated from the number of characters: " + e.toString());
+			float width = font.getFontHeightInPoints() * (font.getBold() ? 0.6f : 0.55f);
+			for (char c = 0; c < TABLE_SIZE; c++) {
+				table[c] = Character.isISOControl(c) ? 0 : width;
+			}
+		}
+		return table;
+	}
+}
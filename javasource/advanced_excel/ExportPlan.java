@@ -0,0 +1,231 @@
+package advanced_excel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaAssociation;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+
+/**
+ * Column plan for an export with an attribute order, as used by ListToExcel.
+ *
+ * The attribute order is a ';' separated list of columns. A column is an attribute of the exported
+ * entity or a path over associations ending in an attribute, for example
+ * "Module.Order_Customer/Module.Customer/Name". Entity names in a path only filter the objects on the
+ * specialization given; "Attribute:Title" sets the column title.
+ *
+ * Instead of retrieving the associated objects per row and per column, {@link #Prefetch} retrieves every
+ * association path for the whole list up front: one retrieval per path step for all objects at once, in
+ * chunks of ids, shared between columns that start with the same path. The associated objects of a row are
+ * then looked up in memory.
+ */
+public class ExportPlan
+{
+	private static final int CHUNK_SIZE = 500;
+	private static final ILogNode logger = Core.getLogger("Advanced_Excel");
+
+	private final List<Column> columns = new ArrayList<Column>();
+	// for every path step, identified by the path up to and including the step: the objects reached from each object id
+	private final Map<String, Map<Long, List<IMendixObject>>> steps = new HashMap<String, Map<Long, List<IMendixObject>>>();
+
+	public static class Column
+	{
+		private final String attribute;
+		private final String title;
+		private final List<Step> path = new ArrayList<Step>();
+
+		private Column(String attr) throws Exception
+		{
+			String[] paths = attr.split("/");
+			int attPos = paths.length - 1;
+			String[] names = paths[attPos].split(":");
+			this.attribute = names[0];
+			// titles of path columns without an explicit title have always been the second path segment
+			this.title = names.length > 1 ? names[1] : attPos > 0 ? paths[1] : null;
+
+			String key = "";
+			for (int i = 0; i < attPos; i++) {
+				key = key + "/" + paths[i];
+				IMetaAssociation association = Core.getMetaAssociation(paths[i]);
+				if (association != null) {
+					path.add(new Step(key, association));
+				} else if (Core.getMetaObject(paths[i]) != null && !path.isEmpty()) {
+					path.get(path.size() - 1).SetFilter(key, paths[i]);
+				} else {
+					throw new Exception("Unknown association or entity: " + paths[i] + "\nPath: " + attr);
+				}
+			}
+		}
+
+		public String GetAttribute()
+		{ return attribute; }
+
+		/**
+		 * @return the title given in the attribute order, the second path segment for paths without a title, or null
+		 */
+		public String GetTitle()
+		{ return title; }
+	}
+
+	private static class Step
+	{
+		private String key;
+		private final IMetaAssociation association;
+		private String filter = null;
+
+		Step(String key, IMetaAssociation association)
+		{
+			this.key = key;
+			this.association = association;
+		}
+
+		void SetFilter(String key, String entity)
+		{
+			this.key = key;
+			this.filter = entity;
+		}
+	}
+
+	private ExportPlan()
+	{ }
+
+	public static ExportPlan Compile(String attributeOrder) throws Exception
+	{
+		ExportPlan plan = new ExportPlan();
+		for (String attr : attributeOrder.split(";")) {
+			plan.columns.add(new Column(attr));
+		}
+		return plan;
+	}
+
+	public List<Column> GetColumns()
+	{ return columns; }
+
+	/**
+	 * Retrieves the objects of all association paths of the plan for the given objects.
+	 */
+	public void Prefetch(IContext context, List<IMendixObject> objects) throws CoreException
+	{
+		long start = System.currentTimeMillis();
+		for (Column column : columns) {
+			Map<Long, IMendixObject> sources = ById(objects);
+			for (Step step : column.path) {
+				Map<Long, List<IMendixObject>> targets = steps.get(step.key);
+				if (targets == null) {
+					targets = Retrieve(context, step, sources.values());
+					steps.put(step.key, targets);
+				}
+				sources = new LinkedHashMap<Long, IMendixObject>();
+				for (List<IMendixObject> reached : targets.values()) {
+					sources.putAll(ById(reached));
+				}
+			}
+		}
+		logger.debug("Prefetched " + steps.size() + " association paths for " + objects.size() + " objects in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Returns the objects at the end of the path of the column for the given object, the object itself for
+	 * columns without a path. {@link #Prefetch} must have been called for the list holding the object.
+	 */
+	public List<IMendixObject> Resolve(Column column, IMendixObject obj) throws Exception
+	{
+		List<IMendixObject> curObjs = Collections.singletonList(obj);
+		for (int i = 0; i < column.path.size(); i++) {
+			if (curObjs.isEmpty()) { break; }
+			if (curObjs.size() > 1) { throw new Exception("too much associated object found: " + column.path.get(i - 1).association.getName() + "\nPath: " + column.path.get(i).key); }
+
+			List<IMendixObject> reached = steps.get(column.path.get(i).key).get(curObjs.get(0).getId().toLong());
+			curObjs = reached == null ? Collections.<IMendixObject>emptyList() : reached;
+		}
+		return curObjs;
+	}
+
+	private static Map<Long, List<IMendixObject>> Retrieve(IContext context, Step step, Collection<IMendixObject> sources) throws CoreException
+	{
+		Map<Long, List<IMendixObject>> result = new HashMap<Long, List<IMendixObject>>();
+		if (sources.isEmpty()) { return result; }
+
+		String associationName = step.association.getName();
+		IMetaObject sourceType = sources.iterator().next().getMetaObject();
+		if (sourceType.isSubClassOf(step.association.getParent())) {
+			// the sources own the association, so the ids of the associated objects are known already
+			Map<Long, List<Long>> targetIds = new HashMap<Long, List<Long>>();
+			Set<IMendixIdentifier> ids = new LinkedHashSet<IMendixIdentifier>();
+			for (IMendixObject source : sources) {
+				List<Long> sourceTargets = new ArrayList<Long>();
+				Object value = source.getValue(context, associationName);
+				if (value instanceof IMendixIdentifier) {
+					ids.add((IMendixIdentifier) value);
+					sourceTargets.add(((IMendixIdentifier) value).toLong());
+				} else if (value instanceof List) {
+					for (Object id : (List<?>) value) {
+						ids.add((IMendixIdentifier) id);
+						sourceTargets.add(((IMendixIdentifier) id).toLong());
+					}
+				}
+				targetIds.put(source.getId().toLong(), sourceTargets);
+			}
+
+			Map<Long, IMendixObject> targets = new HashMap<Long, IMendixObject>();
+			List<IMendixIdentifier> idList = new ArrayList<IMendixIdentifier>(ids);
+			for (int i = 0; i < idList.size(); i += CHUNK_SIZE) {
+				targets.putAll(ById(Core.retrieveIdList(context, idList.subList(i, Math.min(i + CHUNK_SIZE, idList.size())))));
+			}
+			for (Map.Entry<Long, List<Long>> entry : targetIds.entrySet()) {
+				List<IMendixObject> reached = new ArrayList<IMendixObject>();
+				for (Long id : entry.getValue()) {
+					IMendixObject target = targets.get(id);
+					if (target != null && Matches(step, target)) { reached.add(target); }
+				}
+				result.put(entry.getKey(), reached);
+			}
+		} else {
+			// the associated objects own the association, find those referring to any of the sources
+			List<Long> sourceIds = new ArrayList<Long>(ById(sources).keySet());
+			String parent = step.filter != null ? step.filter : step.association.getParent().getName();
+			for (int i = 0; i < sourceIds.size(); i += CHUNK_SIZE) {
+				StringBuilder xpath = new StringBuilder("//").append(parent).append("[");
+				List<Long> chunk = sourceIds.subList(i, Math.min(i + CHUNK_SIZE, sourceIds.size()));
+				for (int j = 0; j < chunk.size(); j++) {
+					xpath.append(j == 0 ? "" : " or ").append(associationName).append(" = ").append(chunk.get(j));
+				}
+				xpath.append("]");
+
+				for (IMendixObject target : Core.createXPathQuery(xpath.toString()).execute(context)) {
+					Object value = target.getValue(context, associationName);
+					List<?> referred = value instanceof List ? (List<?>) value : Collections.singletonList(value);
+					for (Object id : referred) {
+						if (id == null) { continue; }
+						result.computeIfAbsent(((IMendixIdentifier) id).toLong(), k -> new ArrayList<IMendixObject>()).add(target);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private static boolean Matches(Step step, IMendixObject target)
+	{ return step.filter == null || target.getMetaObject().isSubClassOf(step.filter); }
+
+	private static Map<Long, IMendixObject> ById(Collection<IMendixObject> objects)
+	{
+		Map<Long, IMendixObject> result = new LinkedHashMap<Long, IMendixObject>();
+		for (IMendixObject obj : objects) {
+			result.put(obj.getId().toLong(), obj);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,352 @@
+package advanced_excel;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+
+/**
+ * Title row of an import compiled into one converter per column, as used by ExcelToList and the streaming imports.
+ *
+ * Column headings are matched with attribute names, AttributesMapping holds "Heading=Attribute" pairs and
+ * AttributesToSkip the headings of columns to ignore, both separated by ';'. The converter of a column is
+ * chosen from the type of its attribute once, so numeric, boolean and date cells are read natively into
+ * the attribute type instead of being formatted as text and parsed again by the attribute. String
+ * attributes get the formatted text of the cell, as before.
+ *
+ * A value that cannot be converted leaves its attribute empty and is recorded in the error report
+ * instead of aborting the import.
+ */
+public class ImportMapping
+{
+	/**
+	 * The text of date cells in string attributes, and the first pattern tried when text is imported into a date attribute.
+	 */
+	public static final String DATE_PATTERN = "yyyy/MM/dd HH:mm:ss";
+
+	private static final int MAX_REPORTED_ERRORS = 100;
+
+	private enum Kind { TEXT, INTEGER, LONG, DECIMAL, BOOLEAN, DATETIME }
+
+	/**
+	 * Receives the converted values of a row instead of an object, see {@link Benchmark}.
+	 */
+	interface ValueSink
+	{
+		void SetValue(String attribute, Object value);
+	}
+
+	private static class Converter
+	{
+		private final String heading;
+		private final String attribute;
+		private final Kind kind;
+
+		Converter(String heading, String attribute, Kind kind)
+		{
+			this.heading = heading;
+			this.attribute = attribute;
+			this.kind = kind;
+		}
+	}
+
+	// indexed by column, null for skipped columns
+	private final Converter[] converters;
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN);
+	private final SimpleDateFormat defaultDateFormat = new SimpleDateFormat(Utils.DATETIME_FORMAT);
+	private final DataFormatter formatter = new DataFormatter();
+	private final List<String> errors = new ArrayList<String>();
+	private long errorCount = 0;
+
+	private ImportMapping(Converter[] converters)
+	{ this.converters = converters; }
+
+	/**
+	 * @param headings the formatted cells of the title row, null for cells that are not present
+	 * @param titleRowIndex zero based index of the title row, for error messages
+	 */
+	public static ImportMapping Compile(IMetaObject metaEntity, String[] headings, int titleRowIndex, String attributesMapping, String attributesToSkip) throws Exception
+	{
+		Set<String> skipSet = new HashSet<String>();
+		if (attributesToSkip != null) {
+			for (String skip : attributesToSkip.split(";")) { skipSet.add(skip); }
+		}
+		Map<String, String> mappingMap = new HashMap<String, String>();
+		if (attributesMapping != null) {
+			for (String mapping : attributesMapping.split(";")) {
+				int pos = mapping.indexOf('=');
+				// the first pair for a heading wins, as with the former linear search
+				if (pos >= 0) { mappingMap.putIfAbsent(mapping.substring(0, pos), mapping.substring(pos + 1)); }
+			}
+		}
+
+		Converter[] converters = new Converter[headings.length];
+		for (int i = 0; i < headings.length; i++) {
+			String heading = headings[i];
+			if (heading == null) { throw new Exception("Cell " + titleRowIndex + " - " + i + " not found"); }
+
+			// Manage Attribute skipped
+			if (skipSet.contains(heading)) { continue; }
+
+			// Manage attribute mapping
+			String field = mappingMap.getOrDefault(heading, heading);
+
+			IMetaPrimitive attribute = metaEntity.getMetaPrimitive(field);
+			if (attribute == null) { throw new Exception("Attribute " + field + " not found in the entity"); }
+			converters[i] = new Converter(heading, field, GetKind(attribute.getType()));
+		}
+		return new ImportMapping(converters);
+	}
+
+	/**
+	 * Maps every column to the string attribute Cell_1, Cell_2, ... of Advanced_Excel.Line.
+	 */
+	public static ImportMapping ForLines(int columns)
+	{
+		Converter[] converters = new Converter[columns];
+		for (int i = 0; i < columns; i++) {
+			converters[i] = new Converter("Cell_" + (i + 1), "Cell_" + (i + 1), Kind.TEXT);
+		}
+		return new ImportMapping(converters);
+	}
+
+	/**
+	 * Maps every column to the attribute named after its heading with the given type, for imports without an entity.
+	 */
+	static ImportMapping ForTypes(String[] headings, IMetaPrimitive.PrimitiveType[] types)
+	{
+		Converter[] converters = new Converter[headings.length];
+		for (int i = 0; i < headings.length; i++) {
+			converters[i] = new Converter(headings[i], headings[i], GetKind(types[i]));
+		}
+		return new ImportMapping(converters);
+	}
+
+	private static Kind GetKind(IMetaPrimitive.PrimitiveType type)
+	{
+		switch (type) {
+			case Integer:
+				return Kind.INTEGER;
+			case Long:
+				return Kind.LONG;
+			case Decimal:
+				return Kind.DECIMAL;
+			case Boolean:
+				return Kind.BOOLEAN;
+			case DateTime:
+				return Kind.DATETIME;
+			default:
+				// strings, enumerations and anything else keep getting the text of the cell
+				return Kind.TEXT;
+		}
+	}
+
+	public int GetColumnCount()
+	{ return converters.length; }
+
+	/**
+	 * Sets the attributes of the object from the cells of the row.
+	 */
+	public void SetValues(IContext context, IMendixObject object, Row row)
+	{ SetValues(row, (attribute, value) -> object.setValue(context, attribute, value)); }
+
+	void SetValues(Row row, ValueSink sink)
+	{
+		int cellTotal = Math.min(converters.length, Math.max(row.getLastCellNum(), 0));
+		for (int j = 0; j < cellTotal; j++) {
+			Converter converter = converters[j];
+			if (converter == null) { continue; } // Attribute skipped
+
+			Cell cell = row.getCell(j);
+			if (cell == null) { continue; }
+			try {
+				Object value = Convert(converter.kind, cell);
+				if (value != null) { sink.SetValue(converter.attribute, value); }
+			} catch (Exception e) {
+				AddError(row.getRowNum(), converter, e);
+			}
+		}
+	}
+
+	/**
+	 * Sets the attributes of the object from the cells as reported by the {@link StreamingSheetReader}: string
+	 * attributes get the formatted text, with dates in the {@link #DATE_PATTERN}, the other attributes the
+	 * stored value of numeric and boolean cells and the parsed text of text cells.
+	 */
+	public void SetValues(IContext context, IMendixObject object, int rowNum, String[] cells, Object[] values)
+	{ SetValues(rowNum, cells, values, (attribute, value) -> object.setValue(context, attribute, value)); }
+
+	void SetValues(int rowNum, String[] cells, Object[] values, ValueSink sink)
+	{
+		int cellTotal = Math.min(converters.length, cells.length);
+		for (int j = 0; j < cellTotal; j++) {
+			Converter converter = converters[j];
+			if (converter == null || cells[j] == null) { continue; } // Attribute skipped or cell not present
+			try {
+				Object value = converter.kind == Kind.TEXT || values[j] == null ? Convert(converter.kind, cells[j]) : Convert(converter.kind, values[j]);
+				if (value != null) { sink.SetValue(converter.attribute, value); }
+			} catch (Exception e) {
+				AddError(rowNum, converter, e);
+			}
+		}
+	}
+
+	private Object Convert(Kind kind, Cell cell) throws Exception
+	{
+		CellType type = cell.getCellType() == CellType.FORMULA ? cell.getCachedFormulaResultType() : cell.getCellType();
+		if (kind == Kind.TEXT) { return GetText(cell, type); }
+
+		switch (type) {
+			case NUMERIC:
+				if (kind == Kind.DATETIME) { return cell.getDateCellValue(); }
+				return ConvertNumber(kind, cell.getNumericCellValue());
+			case BOOLEAN:
+				if (kind == Kind.BOOLEAN) { return cell.getBooleanCellValue(); }
+				throw new Exception("boolean value " + cell.getBooleanCellValue() + " cannot be converted to " + kind.name().toLowerCase());
+			case STRING:
+				return Convert(kind, cell.getRichStringCellValue().getString());
+			case ERROR:
+				throw new Exception("the cell contains an error");
+			default:
+				return null;
+		}
+	}
+
+	private Object Convert(Kind kind, Object stored) throws Exception
+	{
+		if (stored instanceof Boolean) {
+			if (kind == Kind.BOOLEAN) { return stored; }
+			throw new Exception("boolean value " + stored + " cannot be converted to " + kind.name().toLowerCase());
+		}
+		if (stored instanceof Date) {
+			if (kind == Kind.DATETIME) { return stored; }
+			return ConvertNumber(kind, DateUtil.getExcelDate((Date) stored));
+		}
+		return ConvertNumber(kind, (Double) stored);
+	}
+
+	private static Object ConvertNumber(Kind kind, double number) throws Exception
+	{
+		switch (kind) {
+			case INTEGER:
+				return Math.toIntExact(ToWhole(number));
+			case LONG:
+				return ToWhole(number);
+			case DECIMAL:
+				return BigDecimal.valueOf(number);
+			case BOOLEAN:
+				return number != 0;
+			default:
+				return DateUtil.getJavaDate(number);
+		}
+	}
+
+	private Object Convert(Kind kind, String text) throws Exception
+	{
+		if (kind == Kind.TEXT) { return text; }
+		String value = text.trim();
+		if (value.isEmpty()) { return null; }
+		switch (kind) {
+			case INTEGER:
+				return Integer.valueOf(value);
+			case LONG:
+				return Long.valueOf(value);
+			case DECIMAL:
+				return new BigDecimal(value);
+			case BOOLEAN:
+				if (value.equalsIgnoreCase("true")) { return true; }
+				if (value.equalsIgnoreCase("false")) { return false; }
+				throw new Exception("'" + value + "' is not a boolean");
+			default:
+				return ParseDate(value);
+		}
+	}
+
+	private String GetText(Cell cell, CellType type)
+	{
+		if (cell.getCellType() == CellType.FORMULA) {
+			switch (type) {
+				case BOOLEAN:
+					return "" + cell.getBooleanCellValue();
+				case NUMERIC:
+					return String.valueOf(cell.getNumericCellValue());
+				case STRING:
+					return "" + cell.getRichStringCellValue();
+				default:
+					return "";
+			}
+		}
+		if (type == CellType.NUMERIC && DateUtil.isCellDateFormatted(cell)) {
+			return dateFormat.format(cell.getDateCellValue());
+		}
+		return formatter.formatCellValue(cell);
+	}
+
+	private Date ParseDate(String value) throws ParseException
+	{
+		try {
+			return dateFormat.parse(value);
+		} catch (ParseException e) {
+			return defaultDateFormat.parse(value);
+		}
+	}
+
+	private static long ToWhole(double number) throws Exception
+	{
+		if (number != Math.rint(number) || Double.isInfinite(number)) { throw new Exception(number + " is not a whole number"); }
+		return (long) number;
+	}
+
+	private void AddError(int rowNum, Converter converter, Exception e)
+	{
+		errorCount++;
+		if (errors.size() < MAX_REPORTED_ERRORS) {
+			errors.add("Row " + (rowNum + 1) + ", column " + converter.heading + " (" + converter.attribute + "): " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+		}
+	}
+
+	public long GetErrorCount()
+	{ return errorCount; }
+
+	/**
+	 * @return the first {@value #MAX_REPORTED_ERRORS} conversion errors
+	 */
+	public List<String> GetErrors()
+	{ return Collections.unmodifiableList(errors); }
+
+	/**
+	 * @return the conversion errors, one per line, limited to the first {@value #MAX_REPORTED_ERRORS}
+	 */
+	public String GetErrorReport()
+	{
+		String report = String.join("\n", errors);
+		if (errorCount > errors.size()) { report += "\n... and " + (errorCount - errors.size()) + " more"; }
+		return report;
+	}
+
+	/**
+	 * Logs the error report as a warning if any value could not be converted.
+	 */
+	public void LogErrors(ILogNode logger, String entityName)
+	{
+		if (errorCount == 0) { return; }
+		logger.warn(errorCount + " values could not be imported into " + entityName + " and were left empty:\n" + GetErrorReport());
+	}
+}
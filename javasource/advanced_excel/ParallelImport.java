@@ -0,0 +1,359 @@
+package advanced_excel;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import advanced_excel.proxies.DocumentType;
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IDataType;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.ISession;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+
+/**
+ * Imports several sheets of an Excel file, or one large sheet, concurrently.
+ *
+ * The file is spooled to disk once. Reader threads read the sheets with the {@link StreamingSheetReader}
+ * and cut the rows into chunks of the batch size; a bounded pool of workers maps every chunk into objects
+ * in a context of its own and hands it over, by committing it or by calling the batch microflow. The number
+ * of chunks in flight is limited, so memory use depends on the batch size and parallelism only.
+ *
+ * Without preserveOrder the sheets are read concurrently and chunks are handed over as soon as they are
+ * mapped. With preserveOrder the sheets are read one after the other and the chunks are still mapped
+ * concurrently, but handed over strictly in sheet and row order.
+ *
+ * Failed conversions, failed hand-overs and sheets that cannot be read do not stop the import; they are
+ * collected in the report returned by {@link #Run}.
+ */
+public class ParallelImport
+{
+	private static final ILogNode logger = Core.getLogger("Advanced_Excel");
+	private static final int MAX_REPORTED_ERRORS = 100;
+	private static final long PROGRESS_INTERVAL_SECONDS = 10;
+	// chunks read but not yet handed over, per worker
+	private static final int CHUNKS_PER_WORKER = 2;
+
+	private final IContext context;
+	private final String entityName;
+	private final IMetaObject metaEntity;
+	private final int titleRowIndex;
+	private final String attributesMapping;
+	private final String attributesToSkip;
+	private final int batchSize;
+	private final String batchMicroflow;
+	private final String batchParameter;
+	private final int parallelism;
+	private final boolean preserveOrder;
+	private final int maxChunksInFlight;
+	private final Semaphore chunksInFlight;
+
+	private final AtomicLong rowsRead = new AtomicLong();
+	private final AtomicLong rowsImported = new AtomicLong();
+	private final AtomicLong rowsFailed = new AtomicLong();
+	private final AtomicLong conversionErrors = new AtomicLong();
+	private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+	private final AtomicLong errorCount = new AtomicLong();
+
+	// chunks that are mapped but wait for earlier chunks to be handed over, by position, for preserveOrder
+	private final TreeMap<Long, Chunk> mappedChunks = new TreeMap<Long, Chunk>();
+	private long nextPosition = 0;
+	private final AtomicLong positions = new AtomicLong();
+
+	private ExecutorService workers;
+
+	private static class SheetResult
+	{
+		private final String name;
+		private final AtomicLong imported = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private volatile String error;
+
+		SheetResult(String name)
+		{ this.name = name; }
+	}
+
+	private static class Chunk
+	{
+		private final SheetResult sheet;
+		private final String[] headings;
+		private final long position;
+		private final List<Integer> rowNums = new ArrayList<Integer>();
+		private final List<String[]> rows = new ArrayList<String[]>();
+		private final List<Object[]> values = new ArrayList<Object[]>();
+		private IContext context;
+		private List<IMendixObject> objects;
+
+		Chunk(SheetResult sheet, String[] headings, long position)
+		{
+			this.sheet = sheet;
+			this.headings = headings;
+			this.position = position;
+		}
+
+		String Describe()
+		{ return "Sheet " + sheet.name + ", rows " + (rowNums.get(0) + 1) + "-" + (rowNums.get(rowNums.size() - 1) + 1); }
+	}
+
+	public ParallelImport(IContext context, String listType, int titleRowNum, String attributesMapping, String attributesToSkip, int batchSize, String batchMicroflow, int parallelism, boolean preserveOrder) throws Exception
+	{
+		if (titleRowNum < 1) { throw new Exception("TitleRowNum should be 1 or higher"); }
+		if (batchSize < 1) { throw new Exception("BatchSize should be 1 or higher"); }
+		if (parallelism < 1) { throw new Exception("Parallelism should be 1 or higher"); }
+		this.metaEntity = Core.getMetaObject(listType);
+		if (metaEntity == null) { throw new Exception("Entity " + listType + " not found"); }
+		this.context = context;
+		this.entityName = listType;
+		this.titleRowIndex = titleRowNum - 1;
+		this.attributesMapping = attributesMapping;
+		this.attributesToSkip = attributesToSkip;
+		this.batchSize = batchSize;
+		this.batchMicroflow = batchMicroflow == null || batchMicroflow.trim().isEmpty() ? null : batchMicroflow.trim();
+		this.batchParameter = this.batchMicroflow == null ? null : GetListParameter(this.batchMicroflow);
+		this.parallelism = parallelism;
+		this.preserveOrder = preserveOrder;
+		this.maxChunksInFlight = parallelism * CHUNKS_PER_WORKER;
+		this.chunksInFlight = new Semaphore(maxChunksInFlight);
+	}
+
+	/**
+	 * Imports the given sheets of the file and waits until all of them are handed over.
+	 * @param sheetNames the sheets to import, all sheets of the file if empty
+	 * @return the report of the import as JSON
+	 */
+	public String Run(InputStream inStream, DocumentType docType, List<String> sheetNames) throws Exception
+	{
+		long start = System.currentTimeMillis();
+		File file = StreamingSheetReader.Spool(inStream, docType);
+		ExecutorService readers = null;
+		try {
+			List<String> names = sheetNames.isEmpty() ? StreamingSheetReader.GetSheetNames(file, docType) : sheetNames;
+			List<SheetResult> sheets = names.stream().map(SheetResult::new).collect(Collectors.toList());
+			logger.info("Importing " + sheets.size() + " sheets into " + entityName + " with " + parallelism + " workers" + (preserveOrder ? ", in order" : ""));
+
+			// reading the sheets in order is what makes the hand-over order deterministic
+			readers = Executors.newFixedThreadPool(preserveOrder ? 1 : Math.max(1, Math.min(parallelism, sheets.size())), CreateThreadFactory("reader"));
+			workers = Executors.newFixedThreadPool(parallelism, CreateThreadFactory("worker"));
+			for (SheetResult sheet : sheets) {
+				readers.execute(() -> ReadSheet(file, docType, sheet));
+			}
+			readers.shutdown();
+			while (!readers.awaitTermination(PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS)) { LogProgress(); }
+			// every chunk holds a permit until it is handed over
+			while (!chunksInFlight.tryAcquire(maxChunksInFlight, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS)) { LogProgress(); }
+			chunksInFlight.release(maxChunksInFlight);
+
+			String report = CreateReport(sheets, System.currentTimeMillis() - start);
+			logger.info("Imported " + rowsImported.get() + " of " + rowsRead.get() + " rows into " + entityName + " in " + (System.currentTimeMillis() - start) + " ms"
+				+ (errorCount.get() > 0 ? ", " + errorCount.get() + " errors" : ""));
+			return report;
+		} finally {
+			if (readers != null) { readers.shutdownNow(); }
+			if (workers != null) { workers.shutdownNow(); }
+			file.delete();
+		}
+	}
+
+	private void ReadSheet(File file, DocumentType docType, SheetResult sheet)
+	{
+		Chunk[] current = new Chunk[1];
+		String[][] headings = new String[1][];
+		try {
+			StreamingSheetReader.Read(file, docType, sheet.name, ImportMapping.DATE_PATTERN, (rowNum, cells, values) -> {
+				if (rowNum < titleRowIndex) { return; }
+				if (rowNum == titleRowIndex) {
+					// compile once here to fail the sheet on unknown headings before any chunk is read
+					ImportMapping.Compile(metaEntity, cells, titleRowIndex, attributesMapping, attributesToSkip);
+					headings[0] = cells;
+					return;
+				}
+				if (headings[0] == null) { throw new Exception("Title Row not found"); }
+
+				if (current[0] == null) { current[0] = NewChunk(sheet, headings[0]); }
+				current[0].rowNums.add(rowNum);
+				current[0].rows.add(cells);
+				current[0].values.add(values);
+				rowsRead.incrementAndGet();
+				if (current[0].rows.size() >= batchSize) {
+					Submit(current[0]);
+					current[0] = null;
+				}
+			});
+			if (headings[0] == null) { throw new Exception("Title Row not found"); }
+		} catch (Exception e) {
+			sheet.error = e.getMessage() != null ? e.getMessage() : e.toString();
+			AddError("Sheet " + sheet.name + ": " + sheet.error);
+			logger.error("ERROR in Advanced_Excel.ParallelImport: sheet " + sheet.name + ": " + e.getMessage() + "\n" + e.toString(), e);
+		} finally {
+			// the rows read before a failure are still imported
+			if (current[0] != null) { Submit(current[0]); }
+		}
+	}
+
+	private Chunk NewChunk(SheetResult sheet, String[] headings) throws InterruptedException
+	{
+		// blocks the reader while the workers are behind
+		chunksInFlight.acquire();
+		return new Chunk(sheet, headings, positions.getAndIncrement());
+	}
+
+	private void Submit(Chunk chunk)
+	{ workers.execute(() -> Process(chunk)); }
+
+	private void Process(Chunk chunk)
+	{
+		try {
+			Map(chunk);
+			if (!preserveOrder) {
+				HandOver(chunk);
+				return;
+			}
+			synchronized (mappedChunks) {
+				mappedChunks.put(chunk.position, chunk);
+				// whoever completes the next chunk in line hands over all consecutive chunks that are ready
+				while (!mappedChunks.isEmpty() && mappedChunks.firstKey() == nextPosition) {
+					HandOver(mappedChunks.pollFirstEntry().getValue());
+					nextPosition++;
+				}
+			}
+		} catch (RuntimeException e) {
+			logger.error("ERROR in Advanced_Excel.ParallelImport: " + e.getMessage() + "\n" + e.toString(), e);
+		}
+	}
+
+	private void Map(Chunk chunk)
+	{
+		try {
+			chunk.context = CreateWorkerContext();
+			// the mapping is not thread safe, compiling it per chunk is cheap compared to the rows
+			ImportMapping mapping = ImportMapping.Compile(metaEntity, chunk.headings, titleRowIndex, attributesMapping, attributesToSkip);
+			List<IMendixObject> objects = new ArrayList<IMendixObject>(chunk.rows.size());
+			for (int i = 0; i < chunk.rows.size(); i++) {
+				IMendixObject object = Core.instantiate(chunk.context, entityName);
+				mapping.SetValues(chunk.context, object, chunk.rowNums.get(i), chunk.rows.get(i), chunk.values.get(i));
+				objects.add(object);
+			}
+			chunk.objects = objects;
+			if (mapping.GetErrorCount() > 0) {
+				conversionErrors.addAndGet(mapping.GetErrorCount());
+				for (String error : mapping.GetErrors()) { AddError("Sheet " + chunk.sheet.name + ": " + error); }
+			}
+		} catch (Exception e) {
+			chunk.objects = null;
+			Fail(chunk, e);
+		}
+	}
+
+	private void HandOver(Chunk chunk)
+	{
+		try {
+			if (chunk.objects == null) { return; } // mapping failed
+			if (batchMicroflow == null) {
+				Core.commit(chunk.context, chunk.objects);
+			} else {
+				Core.microflowCall(batchMicroflow).withParam(batchParameter, chunk.objects).execute(chunk.context);
+			}
+			rowsImported.addAndGet(chunk.objects.size());
+			chunk.sheet.imported.addAndGet(chunk.objects.size());
+			logger.debug("Imported " + chunk.Describe());
+		} catch (Exception e) {
+			Fail(chunk, e);
+		} finally {
+			chunk.objects = null;
+			chunk.rows.clear();
+			chunk.values.clear();
+			chunksInFlight.release();
+		}
+	}
+
+	private void Fail(Chunk chunk, Exception e)
+	{
+		rowsFailed.addAndGet(chunk.rows.size());
+		chunk.sheet.failed.addAndGet(chunk.rows.size());
+		AddError(chunk.Describe() + ": " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+		logger.error("ERROR in Advanced_Excel.ParallelImport: " + chunk.Describe() + ": " + e.getMessage() + "\n" + e.toString(), e);
+	}
+
+	private IContext CreateWorkerContext()
+	{
+		// contexts are not thread safe, every chunk is mapped and handed over in a context of its own
+		ISession session = context.getSession();
+		if (context.isSystem() || session == null) { return Core.createSystemContext(); }
+		IContext workerContext = session.createContext();
+		return context.isSudo() ? workerContext.createSudoClone() : workerContext;
+	}
+
+	private void AddError(String error)
+	{
+		if (errorCount.incrementAndGet() <= MAX_REPORTED_ERRORS) { errors.add(error); }
+	}
+
+	private void LogProgress()
+	{
+		logger.info("Import into " + entityName + ": " + rowsRead.get() + " rows read, " + rowsImported.get() + " imported, " + rowsFailed.get() + " failed");
+	}
+
+	private String CreateReport(List<SheetResult> sheets, long duration)
+	{
+		StringBuilder report = new StringBuilder("{");
+		report.append("\"rowsRead\":").append(rowsRead.get());
+		report.append(",\"rowsImported\":").append(rowsImported.get());
+		report.append(",\"rowsFailed\":").append(rowsFailed.get());
+		report.append(",\"conversionErrors\":").append(conversionErrors.get());
+		report.append(",\"durationMs\":").append(duration);
+		report.append(",\"sheets\":").append(sheets.stream()
+			.map(sheet -> "{\"name\":" + Quote(sheet.name) + ",\"rowsImported\":" + sheet.imported.get() + ",\"rowsFailed\":" + sheet.failed.get() + ",\"error\":" + Quote(sheet.error) + "}")
+			.collect(Collectors.joining(",", "[", "]")));
+		synchronized (errors) {
+			report.append(",\"errors\":").append(errors.stream().map(ParallelImport::Quote).collect(Collectors.joining(",", "[", "]")));
+		}
+		report.append(",\"errorCount\":").append(errorCount.get());
+		return report.append("}").toString();
+	}
+
+	private static String Quote(String value)
+	{
+		if (value == null) { return "null"; }
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') { quoted.append('\\').append(c); }
+			else if (c == '\n') { quoted.append("\\n"); }
+			else if (c < 0x20) { quoted.append(String.format("\\u%04x", (int) c)); }
+			else { quoted.append(c); }
+		}
+		return quoted.append('"').toString();
+	}
+
+	private static ThreadFactory CreateThreadFactory(String role)
+	{
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, "Advanced_Excel import " + role + " " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private static String GetListParameter(String microflow) throws Exception
+	{
+		Map<String, IDataType> parameters = Core.getInputParameters(microflow);
+		if (parameters == null) { throw new Exception("Microflow " + microflow + " not found"); }
+		for (Map.Entry<String, IDataType> parameter : parameters.entrySet()) {
+			if (parameter.getValue().isList()) { return parameter.getKey(); }
+		}
+		throw new Exception("Microflow " + microflow + " should have a list parameter to receive the imported objects");
+	}
+}
@@ -0,0 +1,121 @@
+package advanced_excel;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import advanced_excel.proxies.DocumentType;
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IDataType;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+
+/**
+ * Maps the rows reported by the {@link StreamingSheetReader} to objects and hands them over in batches,
+ * either to a microflow that takes the list of objects as its only list parameter or, without a
+ * microflow, by committing them. Only the current batch is kept in memory.
+ *
+ * The title row is compiled into an {@link ImportMapping} like ExcelToList does, values that cannot be
+ * converted are left empty and reported in the log at the end of the import.
+ */
+public class StreamingImport implements StreamingSheetReader.RowHandler
+{
+	public static final String LINE_ENTITY = "Advanced_Excel.Line";
+
+	private static final ILogNode logger = Core.getLogger("Advanced_Excel");
+
+	private final IContext context;
+	private final String entityName;
+	private final boolean lines;
+	private final int titleRowIndex;
+	private final String attributesMapping;
+	private final String attributesToSkip;
+	private final int batchSize;
+	private final String batchMicroflow;
+	private final String batchParameter;
+
+	private ImportMapping mapping;
+	private List<IMendixObject> batch;
+	private long imported = 0;
+
+	private StreamingImport(IContext context, String entityName, boolean lines, int titleRowNum, String attributesMapping, String attributesToSkip, int batchSize, String batchMicroflow) throws Exception
+	{
+		if (titleRowNum < 1) { throw new Exception("TitleRowNum should be 1 or higher"); }
+		if (batchSize < 1) { throw new Exception("BatchSize should be 1 or higher"); }
+		this.context = context;
+		this.entityName = entityName;
+		this.lines = lines;
+		this.titleRowIndex = titleRowNum - 1;
+		this.attributesMapping = attributesMapping;
+		this.attributesToSkip = attributesToSkip;
+		this.batchSize = batchSize;
+		this.batchMicroflow = batchMicroflow == null || batchMicroflow.trim().isEmpty() ? null : batchMicroflow.trim();
+		this.batchParameter = this.batchMicroflow == null ? null : GetListParameter(this.batchMicroflow);
+		this.batch = new ArrayList<IMendixObject>(batchSize);
+	}
+
+	public static StreamingImport ForEntity(IContext context, String listType, int titleRowNum, String attributesMapping, String attributesToSkip, int batchSize, String batchMicroflow) throws Exception
+	{
+		if (Core.getMetaObject(listType) == null) { throw new Exception("Entity " + listType + " not found"); }
+		return new StreamingImport(context, listType, false, titleRowNum, attributesMapping, attributesToSkip, batchSize, batchMicroflow);
+	}
+
+	public static StreamingImport ForLines(IContext context, int titleRowNum, int batchSize, String batchMicroflow) throws Exception
+	{ return new StreamingImport(context, LINE_ENTITY, true, titleRowNum, null, null, batchSize, batchMicroflow); }
+
+	/**
+	 * Imports the sheet and hands over the last, incomplete batch.
+	 * @return the number of imported rows
+	 */
+	public long Run(InputStream inStream, DocumentType docType, String sheetName) throws Exception
+	{
+		StreamingSheetReader.Read(inStream, docType, sheetName, lines ? null : ImportMapping.DATE_PATTERN, this);
+		if (mapping == null) { throw new Exception("Title Row not found"); }
+		Flush();
+		mapping.LogErrors(logger, entityName);
+		logger.info("Imported " + imported + " rows from sheet " + sheetName + " into " + entityName);
+		return imported;
+	}
+
+	@Override
+	public void HandleRow(int rowNum, String[] cells, Object[] values) throws Exception
+	{
+		if (rowNum < titleRowIndex) { return; }
+		if (rowNum == titleRowIndex) {
+			mapping = lines ? ImportMapping.ForLines(cells.length) : ImportMapping.Compile(Core.getMetaObject(entityName), cells, titleRowIndex, attributesMapping, attributesToSkip);
+			return;
+		}
+		if (mapping == null) { throw new Exception("Title Row not found"); }
+
+		IMendixObject object = Core.instantiate(context, entityName);
+		mapping.SetValues(context, object, rowNum, cells, values);
+		batch.add(object);
+		if (batch.size() >= batchSize) { Flush(); }
+	}
+
+	private void Flush() throws CoreException
+	{
+		if (batch.isEmpty()) { return; }
+		if (batchMicroflow == null) {
+			Core.commit(context, batch);
+		} else {
+			Core.microflowCall(batchMicroflow).withParam(batchParameter, batch).execute(context);
+		}
+		imported += batch.size();
+		logger.debug("Imported batch of " + batch.size() + " rows, " + imported + " rows so far");
+		// start a new list rather than clearing it, the microflow may have kept a reference
+		batch = new ArrayList<IMendixObject>(batchSize);
+	}
+
+	private static String GetListParameter(String microflow) throws Exception
+	{
+		Map<String, IDataType> parameters = Core.getInputParameters(microflow);
+		if (parameters == null) { throw new Exception("Microflow " + microflow + " not found"); }
+		for (Map.Entry<String, IDataType> parameter : parameters.entrySet()) {
+			if (parameter.getValue().isList()) { return parameter.getKey(); }
+		}
+		throw new Exception("Microflow " + microflow + " should have a list parameter to receive the imported objects");
+	}
+}
@@ -0,0 +1,415 @@
+package advanced_excel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import advanced_excel.proxies.DocumentType;
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * Reads a single sheet of an Excel file row by row without building the workbook in memory, using the
+ * SAX based event model of POI for XLSX files and the record based event model for XLS files.
+ * Only the values of the current row are held, so the memory used does not depend on the size of the sheet.
+ *
+ * Rows without any cells are not reported. Cell values are formatted the way the workbook based
+ * actions format them; numeric cells with a date format are formatted with the given date pattern
+ * if there is one. Next to the formatted text, the values of numeric and boolean cells are reported as
+ * they are stored, so typed attributes do not depend on the display format of the cell.
+ */
+public class StreamingSheetReader
+{
+	public interface RowHandler
+	{
+		/**
+		 * @param rowNum zero based index of the row in the sheet
+		 * @param cells the formatted cell values indexed by column, null for cells that are not present
+		 * @param values the stored cell values indexed by column: a Date for numeric cells with a date format,
+		 * a Double for other numeric cells, a Boolean for boolean cells and null for text and other cells
+		 */
+		void HandleRow(int rowNum, String[] cells, Object[] values) throws Exception;
+	}
+
+	public static void Read(InputStream inStream, DocumentType docType, String sheetName, String datePattern, RowHandler handler) throws Exception
+	{
+		File file = Spool(inStream, docType);
+		try {
+			Read(file, docType, sheetName, datePattern, handler);
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Copies the stream to a temporary file, which the caller has to delete.
+	 */
+	public static File Spool(InputStream inStream, DocumentType docType) throws IOException
+	{
+		// both event models need random access to the file, so spool it to disk instead of into memory
+		File file = File.createTempFile("advanced_excel_import", docType == DocumentType.XLS ? ".xls" : ".xlsx");
+		try (OutputStream outStream = new FileOutputStream(file)) {
+			inStream.transferTo(outStream);
+		} catch (IOException e) {
+			file.delete();
+			throw e;
+		}
+		return file;
+	}
+
+	/**
+	 * Reads a sheet of a spooled file. The file is only read, so several sheets of the same file can be read concurrently.
+	 */
+	public static void Read(File file, DocumentType docType, String sheetName, String datePattern, RowHandler handler) throws Exception
+	{
+		try {
+			ValueFormatter formatter = new ValueFormatter(datePattern);
+			if (docType == DocumentType.XLS) {
+				ReadXLS(file, sheetName, formatter, handler);
+			} else {
+				ReadXLSX(file, sheetName, formatter, handler);
+			}
+		} catch (HandlerException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * @return the names of the sheets of a spooled file, in workbook order
+	 */
+	public static List<String> GetSheetNames(File file, DocumentType docType) throws Exception
+	{
+		List<String> names = new ArrayList<String>();
+		if (docType == DocumentType.XLS) {
+			try (POIFSFileSystem fs = new POIFSFileSystem(file, true)) {
+				List<BoundSheetRecord> boundSheets = new ArrayList<BoundSheetRecord>();
+				HSSFRequest request = new HSSFRequest();
+				// the sheet names are in the workbook globals, stop at the first sheet
+				request.addListenerForAllRecords(new AbortableHSSFListener() {
+					@Override
+					public short abortableProcessRecord(Record record)
+					{
+						if (record instanceof BoundSheetRecord) { boundSheets.add((BoundSheetRecord) record); }
+						return record instanceof BOFRecord && ((BOFRecord) record).getType() != BOFRecord.TYPE_WORKBOOK ? (short) 1 : (short) 0;
+					}
+				});
+				new HSSFEventFactory().abortableProcessWorkbookEvents(request, fs);
+				for (BoundSheetRecord boundSheet : BoundSheetRecord.orderByBofPosition(boundSheets)) {
+					names.add(boundSheet.getSheetname());
+				}
+			}
+		} else {
+			try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+				XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) new XSSFReader(pkg).getSheetsData();
+				while (sheets.hasNext()) {
+					try (InputStream sheetStream = sheets.next()) {
+						names.add(sheets.getSheetName());
+					}
+				}
+			}
+		}
+		return names;
+	}
+
+	private static void ReadXLSX(File file, String sheetName, ValueFormatter formatter, RowHandler handler) throws Exception
+	{
+		try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+			XSSFReader reader = new XSSFReader(pkg);
+			ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+			StylesTable styles = reader.getStylesTable();
+			XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+			while (sheets.hasNext()) {
+				try (InputStream sheetStream = sheets.next()) {
+					if (!sheets.getSheetName().equals(sheetName)) { continue; }
+
+					XMLReader parser = XMLHelper.newXMLReader();
+					parser.setContentHandler(new XSSFSheetXMLHandler(styles, strings, new XLSXRowCollector(handler, formatter), formatter, false));
+					parser.parse(new InputSource(sheetStream));
+					return;
+				}
+			}
+		}
+		throw new Exception("Sheet: " + sheetName + " not found!");
+	}
+
+	private static void ReadXLS(File file, String sheetName, ValueFormatter formatter, RowHandler handler) throws Exception
+	{
+		try (POIFSFileSystem fs = new POIFSFileSystem(file, true)) {
+			XLSRowCollector collector = new XLSRowCollector(sheetName, formatter, handler);
+			HSSFRequest request = new HSSFRequest();
+			request.addListenerForAllRecords(collector.formats);
+			new HSSFEventFactory().processWorkbookEvents(request, fs);
+			if (!collector.sheetFound) { throw new Exception("Sheet: " + sheetName + " not found!"); }
+		}
+	}
+
+	/**
+	 * Carries exceptions of the row handler through the POI callbacks, which cannot throw checked exceptions.
+	 */
+	private static class HandlerException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		HandlerException(Exception cause)
+		{ super(cause); }
+
+		@Override
+		public synchronized Exception getCause()
+		{ return (Exception) super.getCause(); }
+	}
+
+	private static class RowBuffer
+	{
+		private final RowHandler handler;
+		private final List<String> cells = new ArrayList<String>();
+		private final List<Object> values = new ArrayList<Object>();
+		private int rowNum = -1;
+
+		RowBuffer(RowHandler handler)
+		{ this.handler = handler; }
+
+		void Start(int rowNum)
+		{
+			Flush();
+			this.rowNum = rowNum;
+		}
+
+		void Set(int column, String text, Object value)
+		{
+			while (cells.size() <= column) {
+				cells.add(null);
+				values.add(null);
+			}
+			cells.set(column, text);
+			values.set(column, value);
+		}
+
+		int Size()
+		{ return cells.size(); }
+
+		void Flush()
+		{
+			if (rowNum >= 0 && !cells.isEmpty()) {
+				try {
+					handler.HandleRow(rowNum, cells.toArray(new String[cells.size()]), values.toArray());
+				} catch (Exception e) {
+					throw new HandlerException(e);
+				}
+			}
+			cells.clear();
+			values.clear();
+			rowNum = -1;
+		}
+	}
+
+	private static class XLSXRowCollector extends RowBuffer implements XSSFSheetXMLHandler.SheetContentsHandler
+	{
+		private final ValueFormatter formatter;
+
+		XLSXRowCollector(RowHandler handler, ValueFormatter formatter)
+		{
+			super(handler);
+			this.formatter = formatter;
+		}
+
+		@Override
+		public void startRow(int rowNum)
+		{ Start(rowNum); }
+
+		@Override
+		public void endRow(int rowNum)
+		{ Flush(); }
+
+		@Override
+		public void cell(String cellReference, String formattedValue, XSSFComment comment)
+		{
+			// the reference may be omitted in files written by other tools, in which case the cell follows the previous one
+			int column = cellReference == null ? Size() : new CellReference(cellReference).getCol();
+			// the handler formats numeric cells right before reporting them, text and boolean cells are not formatted
+			Object value = formatter.TakeValue();
+			if (value == null && ("TRUE".equals(formattedValue) || "FALSE".equals(formattedValue))) { value = Boolean.valueOf(formattedValue); }
+			Set(column, formattedValue, value);
+		}
+	}
+
+	private static class XLSRowCollector extends RowBuffer implements HSSFListener
+	{
+		private final String sheetName;
+		private final ValueFormatter formatter;
+		private final FormatTrackingHSSFListener formats;
+		private final List<BoundSheetRecord> boundSheets = new ArrayList<BoundSheetRecord>();
+		private BoundSheetRecord[] orderedSheets;
+		private SSTRecord sharedStrings;
+		private int sheetIndex = -1;
+		// substreams nest: a worksheet contains the substreams of its embedded charts
+		private int depth = 0;
+		private boolean active = false;
+		private boolean sheetFound = false;
+		private int currentRow = -1;
+		private int pendingFormulaColumn = -1;
+
+		XLSRowCollector(String sheetName, ValueFormatter formatter, RowHandler handler)
+		{
+			super(handler);
+			this.sheetName = sheetName;
+			this.formatter = formatter;
+			this.formats = new FormatTrackingHSSFListener(this);
+		}
+
+		@Override
+		public void processRecord(Record record)
+		{
+			switch (record.getSid()) {
+				case BoundSheetRecord.sid:
+					boundSheets.add((BoundSheetRecord) record);
+					return;
+				case BOFRecord.sid:
+					int type = ((BOFRecord) record).getType();
+					// every top level substream after the workbook globals is a sheet, of any type, in the order of the bound sheets
+					if (depth++ == 0 && type != BOFRecord.TYPE_WORKBOOK) {
+						if (orderedSheets == null) { orderedSheets = BoundSheetRecord.orderByBofPosition(boundSheets); }
+						sheetIndex++;
+						active = type == BOFRecord.TYPE_WORKSHEET && sheetIndex < orderedSheets.length && orderedSheets[sheetIndex].getSheetname().equals(sheetName);
+						sheetFound |= active;
+					}
+					return;
+				case EOFRecord.sid:
+					if (--depth == 0) {
+						if (active) { Flush(); }
+						active = false;
+					}
+					return;
+				case SSTRecord.sid:
+					sharedStrings = (SSTRecord) record;
+					return;
+			}
+			if (!active || depth != 1) { return; }
+
+			switch (record.getSid()) {
+				case LabelSSTRecord.sid:
+					LabelSSTRecord labelSST = (LabelSSTRecord) record;
+					SetCell(labelSST, sharedStrings.getString(labelSST.getSSTIndex()).getString(), null);
+					break;
+				case LabelRecord.sid:
+					LabelRecord label = (LabelRecord) record;
+					SetCell(label, label.getValue(), null);
+					break;
+				case NumberRecord.sid:
+					NumberRecord number = (NumberRecord) record;
+					String text = formatter.formatRawCellContents(number.getValue(), formats.getFormatIndex(number), formats.getFormatString(number));
+					SetCell(number, text, formatter.TakeValue());
+					break;
+				case BoolErrRecord.sid:
+					BoolErrRecord boolErr = (BoolErrRecord) record;
+					SetCell(boolErr, boolErr.isBoolean() ? (boolErr.getBooleanValue() ? "TRUE" : "FALSE") : "", boolErr.isBoolean() ? boolErr.getBooleanValue() : null);
+					break;
+				case FormulaRecord.sid:
+					// use the cached result, like the workbook based actions do
+					FormulaRecord formula = (FormulaRecord) record;
+					switch (formula.getCachedResultTypeEnum()) {
+						case STRING:
+							// the value follows in a separate string record
+							SetCell(formula, "", null);
+							pendingFormulaColumn = formula.getColumn();
+							break;
+						case BOOLEAN:
+							SetCell(formula, String.valueOf(formula.getCachedBooleanValue()), formula.getCachedBooleanValue());
+							break;
+						case NUMERIC:
+							// formatted like a number cell, so dates are detected as well
+							String result = formatter.formatRawCellContents(formula.getValue(), formats.getFormatIndex(formula), formats.getFormatString(formula));
+							SetCell(formula, result, formatter.TakeValue());
+							break;
+						default:
+							SetCell(formula, "", null);
+					}
+					break;
+				case StringRecord.sid:
+					if (pendingFormulaColumn >= 0) {
+						Set(pendingFormulaColumn, ((StringRecord) record).getString(), null);
+						pendingFormulaColumn = -1;
+					}
+					break;
+			}
+		}
+
+		private void SetCell(CellValueRecordInterface cell, String text, Object value)
+		{
+			// cell records are stored row by row, so a new row number means the previous row is complete
+			if (cell.getRow() != currentRow) {
+				currentRow = cell.getRow();
+				Start(currentRow);
+			}
+			pendingFormulaColumn = -1;
+			Set(cell.getColumn(), text, value);
+		}
+	}
+
+	/**
+	 * Formats numeric cells that have a date format with a fixed pattern, if there is one, and all other cells
+	 * like the default formatter. The value of the last formatted cell is kept until it is taken, so the
+	 * collectors can report it next to the text the event model passes them.
+	 */
+	private static class ValueFormatter extends DataFormatter
+	{
+		private final SimpleDateFormat dateFormat;
+		private Object value;
+
+		ValueFormatter(String datePattern)
+		{ this.dateFormat = datePattern == null ? null : new SimpleDateFormat(datePattern); }
+
+		@Override
+		public String formatRawCellContents(double value, int formatIndex, String formatString, boolean use1904Windowing)
+		{
+			if (DateUtil.isADateFormat(formatIndex, formatString) && DateUtil.isValidExcelDate(value)) {
+				Date date = DateUtil.getJavaDate(value, use1904Windowing);
+				this.value = date;
+				if (dateFormat != null) { return dateFormat.format(date); }
+			} else {
+				this.value = value;
+			}
+			return super.formatRawCellContents(value, formatIndex, formatString, use1904Windowing);
+		}
+
+		Object TakeValue()
+		{
+			Object taken = value;
+			value = null;
+			return taken;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package advanced_excel;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import advanced_excel.proxies.CellFormat;
+import advanced_excel.proxies.Color;
+import advanced_excel.proxies.DocumentType;
+import org.apache.poi.hssf.usermodel.HSSFPalette;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.DefaultIndexedColorMap;
+import org.apache.poi.xssf.usermodel.XSSFColor;
+import org.apache.poi.xssf.usermodel.XSSFFont;
+
+/**
+ * Per workbook registry of the cell styles, fonts, colors and data formats created by the write actions.
+ * A CellFormat is reduced to a key of its values, together with the wrap text flag and the data format,
+ * and every distinct key is created only once. This keeps the number of styles and fonts in the file at
+ * the number of distinct formats instead of growing with every written cell or action call, which
+ * would otherwise hit the style limits of Excel on large exports.
+ *
+ * Styles returned by the registry are shared between cells and must not be modified.
+ *
+ * The registry of a workbook refers to the workbook and its styles, so it is kept until Remove is called;
+ * WorkbookRegistry does that when it releases or spills the workbook.
+ */
+public class StyleRegistry
+{
+	private static final Map<Workbook, StyleRegistry> iRegistries = Collections.synchronizedMap(new HashMap<Workbook, StyleRegistry>());
+
+	private final Workbook workbook;
+	private final DocumentType docType;
+	private final HashMap<String, CellStyle> styles = new HashMap<String, CellStyle>();
+	private final HashMap<String, Font> fonts = new HashMap<String, Font>();
+	private final HashMap<String, Short> dataFormats = new HashMap<String, Short>();
+	private final HashMap<Integer, XSSFColor> xssfColors = new HashMap<Integer, XSSFColor>();
+	private final HashMap<Integer, Short> paletteIndexes = new HashMap<Integer, Short>();
+	private DefaultIndexedColorMap colorMap;
+	private DataFormat dataFormat;
+
+	private StyleRegistry(Workbook workbook)
+	{
+		this.workbook = workbook;
+		this.docType = workbook instanceof HSSFWorkbook ? DocumentType.XLS : DocumentType.XLSX;
+	}
+
+	public static StyleRegistry Get(Workbook workbook)
+	{ return iRegistries.computeIfAbsent(workbook, StyleRegistry::new); }
+
+	public static void Remove(Workbook workbook)
+	{ iRegistries.remove(workbook); }
+
+	/**
+	 * Returns the style for the given format, creating it the first time.
+	 * @param cellFormat the format, or null for the default format
+	 * @param wrapText whether text wraps in the cell
+	 * @param dataFormat the data format to use, or null to use the custom format of the CellFormat
+	 */
+	public synchronized CellStyle GetStyle(CellFormat cellFormat, boolean wrapText, String dataFormat)
+	{
+		String format = dataFormat != null ? dataFormat : cellFormat != null ? cellFormat.getCustomFormat() : null;
+		String key = GetKey(cellFormat) + "|wrap=" + wrapText + "|format=" + format;
+		CellStyle style = styles.get(key);
+		if (style == null) {
+			style = workbook.createCellStyle();
+			Utils.CreateStyle(workbook, style, cellFormat, docType);
+			if (format != null) { style.setDataFormat(GetDataFormat(format)); }
+			if (wrapText) { style.setWrapText(true); }
+			styles.put(key, style);
+		}
+		return style;
+	}
+
+	public synchronized int GetStyleCount()
+	{ return styles.size(); }
+
+	public synchronized int GetFontCount()
+	{ return fonts.size(); }
+
+	synchronized Font GetFont(CellFormat cellFormat)
+	{
+		String key = cellFormat.getFontName() + "|" + cellFormat.getFontSize() + "|" + GetKey(cellFormat.getFontColor()) + "|" + Boolean.TRUE.equals(cellFormat.getBold());
+		Font font = fonts.get(key);
+		if (font == null) {
+			font = workbook.createFont();
+			String FontName = cellFormat.getFontName();
+			if (FontName != null) {
+				font.setFontName(FontName);
+			}
+			Integer FontSize = cellFormat.getFontSize();
+			if (FontSize != null) {
+				font.setFontHeightInPoints(FontSize.shortValue());
+			}
+			Color FontColor = cellFormat.getFontColor();
+			if (FontColor != null) {
+				if (docType == DocumentType.XLS) { font.setColor(GetPaletteIndex(FontColor)); }
+				else { ((XSSFFont)font).setColor(GetXSSFColor(FontColor)); }
+			}
+			font.setBold(Boolean.TRUE.equals(cellFormat.getBold()));
+			fonts.put(key, font);
+		}
+		return font;
+	}
+
+	synchronized short GetDataFormat(String format)
+	{
+		Short index = dataFormats.get(format);
+		if (index == null) {
+			if (dataFormat == null) { dataFormat = workbook.getCreationHelper().createDataFormat(); }
+			index = dataFormat.getFormat(format);
+			dataFormats.put(format, index);
+		}
+		return index;
+	}
+
+	synchronized XSSFColor GetXSSFColor(Color color)
+	{
+		Integer rgb = GetRGB(color);
+		XSSFColor xssfColor = xssfColors.get(rgb);
+		if (xssfColor == null) {
+			if (colorMap == null) { colorMap = new DefaultIndexedColorMap(); }
+			xssfColor = new XSSFColor(new java.awt.Color(color.getr(), color.getg(), color.getb()), colorMap);
+			xssfColors.put(rgb, xssfColor);
+		}
+		return xssfColor;
+	}
+
+	synchronized short GetPaletteIndex(Color color)
+	{
+		Integer rgb = GetRGB(color);
+		Short index = paletteIndexes.get(rgb);
+		if (index == null) {
+			HSSFPalette palette = ((HSSFWorkbook)workbook).getCustomPalette();
+			index = palette.findSimilarColor(color.getr(), color.getg(), color.getb()).getIndex();
+			paletteIndexes.put(rgb, index);
+		}
+		return index;
+	}
+
+	private static Integer GetRGB(Color color)
+	{ return (color.getr() << 16) | (color.getg() << 8) | color.getb(); }
+
+	private static String GetKey(Color color)
+	{ return color == null ? "-" : Integer.toHexString(GetRGB(color)); }
+
+	private static String GetKey(CellFormat cellFormat)
+	{
+		if (cellFormat == null) { return "default"; }
+		return GetKey(cellFormat.getBackgroundColor())
+			+ "|" + cellFormat.getTextAlignment()
+			+ "|" + cellFormat.getBorderBottom() + ":" + GetKey(cellFormat.getBorderBottom_Color())
+			+ "|" + cellFormat.getBorderTop() + ":" + GetKey(cellFormat.getBorderTop_Color())
+			+ "|" + cellFormat.getBorderLeft() + ":" + GetKey(cellFormat.getBorderLeft_Color())
+			+ "|" + cellFormat.getBorderRight() + ":" + GetKey(cellFormat.getBorderRight_Color())
+			+ "|" + cellFormat.getFontName() + "|" + cellFormat.getFontSize() + "|" + GetKey(cellFormat.getFontColor()) + "|" + Boolean.TRUE.equals(cellFormat.getBold());
+	}
+}
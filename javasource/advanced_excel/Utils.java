@@ -1,10 +1,15 @@
 package advanced_excel;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Map;
-import java.util.UUID;
 import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
 import java.text.SimpleDateFormat;
 import advanced_excel.proxies.CellType;
 import advanced_excel.proxies.CellFormat;
@@ -13,24 +18,22 @@ import advanced_excel.proxies.TextAlignment;
 import org.apache.poi.ss.usermodel.FillPatternType;
 import org.apache.poi.ss.usermodel.HorizontalAlignment;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.BorderStyle;
-import org.apache.poi.hssf.usermodel.HSSFPalette;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.hssf.usermodel.HSSFFont;
-import org.apache.poi.hssf.usermodel.HSSFPalette;
 import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.apache.poi.xssf.usermodel.XSSFFont;
-import org.apache.poi.xssf.usermodel.XSSFColor;
 import org.apache.poi.xssf.usermodel.XSSFCellStyle;
-import org.apache.poi.xssf.usermodel.DefaultIndexedColorMap;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 
 public class Utils {
-	static HashMap<String, Workbook> iWorkBooks = new HashMap<String, Workbook>();
-	static HashMap<String, DocumentType> iDocumentTypes = new HashMap<String, DocumentType>();
+	public static final String DATETIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
+	
+	// open workbooks are held by WorkbookRegistry, which releases abandoned workbooks and spills idle ones to disk
 	/*
 	static Workbook iWorkBook;
 	static DocumentType iDocumentType;
@@ -49,25 +52,86 @@ public class Utils {
 	*/
 	
 	public static String AddWorkBook(Workbook workbook, DocumentType doctype)
+	{ return WorkbookRegistry.Add(workbook, doctype); }
+	
+	public static String AddStreamingWorkBook(int rowAccessWindow, boolean compressTempFiles)
 	{
-		String uid = UUID.randomUUID().toString();
-		iWorkBooks.put(uid, workbook);
-		iDocumentTypes.put(uid, doctype);
-		return uid;
+		SXSSFWorkbook workbook = new SXSSFWorkbook(null, rowAccessWindow, compressTempFiles);
+		return AddWorkBook(workbook, DocumentType.XLSX);
 	}
 	
 	public static void CloseWorkBook(String UID)
-	{
-		iWorkBooks.remove(UID);
-		iDocumentTypes.remove(UID);
-	}
+	{ WorkbookRegistry.Close(UID); }
 	
 	public static DocumentType GetDocumentType(String UID)
-	{ return iDocumentTypes.get(UID); }
+	{ return WorkbookRegistry.GetDocumentType(UID); }
 	
+	/**
+	 * Returns the workbook pinned for the calling action, which has to call ReleaseWorkBook when it is done.
+	 */
 	public static Workbook GetWorkBook(String UID)
-	{ return iWorkBooks.get(UID); }
-
+	{ return WorkbookRegistry.Acquire(UID); }
+	
+	public static void ReleaseWorkBook(String UID)
+	{ WorkbookRegistry.Release(UID); }
+	
+	/**
+	 * Writes the workbook into the file document through a temporary file, so the written file is never held
+	 * in memory next to the workbook. With close, the workbook is released before the file is stored.
+	 */
+	public static void WriteWorkBook(IContext context, String UID, Workbook workbook, IMendixObject fileDocument, boolean close) throws Exception
+	{
+		// set the widths of the autofit columns written by single cell writes
+		ColumnWidths.ApplyPending(workbook);
+		
+		File file = File.createTempFile("advanced_excel_write", workbook instanceof HSSFWorkbook ? ".xls" : ".xlsx");
+		try {
+			try (OutputStream outStream = new FileOutputStream(file)) {
+				workbook.write(outStream);
+			}
+			if (close) { CloseWorkBook(UID); }
+			try (InputStream inStream = new FileInputStream(file)) {
+				Core.storeFileDocumentContent(context, fileDocument, inStream);
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	public static boolean IsStreaming(Workbook workbook)
+	{ return workbook instanceof SXSSFWorkbook; }
+	
+	public static Sheet GetSheet(Workbook workbook, String sheetName) throws Exception
+	{
+		Sheet sheet = workbook.getSheet(sheetName);
+		if (sheet == null) { throw new Exception("Sheet: " + sheetName + " not found!"); }
+		return sheet;
+	}
+	
+	/**
+	 * Returns the row, creating it if needed. A streaming workbook only keeps the last rows of the
+	 * row access window in memory, rows before that have been written to disk and cannot be
+	 * accessed anymore.
+	 */
+	public static Row GetOrCreateRow(Sheet sheet, int rowNum)
+	{
+		Row row = sheet.getRow(rowNum);
+		if (row != null) { return row; }
+		if (sheet instanceof SXSSFSheet && rowNum <= ((SXSSFSheet)sheet).getLastFlushedRowNum()) {
+			throw new IllegalStateException("Row " + rowNum + " of sheet " + sheet.getSheetName() 
+				+ " has already been flushed to disk by the streaming workbook (last flushed row: " + ((SXSSFSheet)sheet).getLastFlushedRowNum() 
+				+ "). Write rows in ascending order or use a larger row access window.");
+		}
+		return sheet.createRow(rowNum);
+	}
+	
+	public static Cell GetOrCreateCell(Row row, int colNum)
+	{
+		Cell cell = row.getCell(colNum);
+		if (cell == null) { cell = row.createCell(colNum); }
+		return cell;
+	}
+	
 	public static void SetCellValue(Workbook workbook, Cell cell, CellType cellType, String cellValue)
 	{
 		if (cellValue == null) { return; }
@@ -92,7 +156,7 @@ public class Utils {
 			else if (cellType == CellType.datetime)
 			{
 				if (!cellValue.equals(null) && !cellValue.equals(""))
-				{ cell.setCellValue(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(cellValue)); }
+				{ cell.setCellValue(new SimpleDateFormat(DATETIME_FORMAT).parse(cellValue)); }
 			}
 			else if (cellType == CellType.formula)
 			{
@@ -108,19 +172,25 @@ public class Utils {
 		}
 	}
 	
+	/**
+	 * Returns the shared style of the workbook for the given format, see {@link StyleRegistry}.
+	 */
+	public static CellStyle GetStyle(Workbook workbook, CellFormat cellFormat, boolean wrapText, String dataFormat)
+	{ return StyleRegistry.Get(workbook).GetStyle(cellFormat, wrapText, dataFormat); }
+	
 	public static void CreateStyle(Workbook workbook, CellStyle style, CellFormat cellFormat, DocumentType docType)
 	{
 		try
 		{
 			if (cellFormat != null)
 			{
-				HSSFPalette palette = null;
-				if (docType == DocumentType.XLS) { palette = ((HSSFWorkbook)workbook).getCustomPalette(); }
+				// fonts, colors and data formats are shared through the registry of the workbook
+				StyleRegistry registry = StyleRegistry.Get(workbook);
 				
 				advanced_excel.proxies.Color BkgColor = cellFormat.getBackgroundColor();
 				if (BkgColor != null) {
-					if (docType == DocumentType.XLS) { ((HSSFCellStyle)style).setFillForegroundColor(palette.findSimilarColor(BkgColor.getr(), BkgColor.getg(), BkgColor.getb()).getIndex()); }
-					else { ((XSSFCellStyle)style).setFillForegroundColor(new XSSFColor(new java.awt.Color(BkgColor.getr(), BkgColor.getg(), BkgColor.getb()), new DefaultIndexedColorMap())); }
+					if (docType == DocumentType.XLS) { ((HSSFCellStyle)style).setFillForegroundColor(registry.GetPaletteIndex(BkgColor)); }
+					else { ((XSSFCellStyle)style).setFillForegroundColor(registry.GetXSSFColor(BkgColor)); }
 					style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
 				}
 				
@@ -138,8 +208,8 @@ public class Utils {
 				style.setBorderBottom(border);
 				advanced_excel.proxies.Color borderColor = cellFormat.getBorderBottom_Color();
 				if (borderColor != null) {
-					if (docType == DocumentType.XLS) { ((HSSFCellStyle)style).setBottomBorderColor(palette.findSimilarColor(borderColor.getr(), borderColor.getg(), borderColor.getb()).getIndex()); }
-					else { ((XSSFCellStyle)style).setBottomBorderColor(new XSSFColor(new java.awt.Color(borderColor.getr(), borderColor.getg(), borderColor.getb()), new DefaultIndexedColorMap())); }
+					if (docType == DocumentType.XLS) { ((HSSFCellStyle)style).setBottomBorderColor(registry.GetPaletteIndex(borderColor)); }
+					else { ((XSSFCellStyle)style).setBottomBorderColor(registry.GetXSSFColor(borderColor)); }
 				}
 				
 				borderStyle = cellFormat.getBorderTop();
@@ -147,8 +217,8 @@ public class Utils {
 				style.setBorderTop(border);
 				borderColor = cellFormat.getBorderTop_Color();
 				if (borderColor != null) {
-					if (docType == DocumentType.XLS) { ((HSSFCellStyle)style).setTopBorderColor(palette.findSimilarColor(borderColor.getr(), borderColor.getg(), borderColor.getb()).getIndex()); }
-					else { ((XSSFCellStyle)style).setTopBorderColor(new XSSFColor(new java.awt.Color(borderColor.getr(), borderColor.getg(), borderColor.getb()), new DefaultIndexedColorMap())); }
+					if (docType == DocumentType.XLS) { ((HSSFCellStyle)style).setTopBorderColor(registry.GetPaletteIndex(borderColor)); }
+					else { ((XSSFCellStyle)style).setTopBorderColor(registry.GetXSSFColor(borderColor)); }
 				}
 				
 				borderStyle = cellFormat.getBorderLeft();
@@ -156,8 +226,8 @@ public class Utils {
 				style.setBorderLeft(border);
 				borderColor = cellFormat.getBorderLeft_Color();
 				if (borderColor != null) {
-					if (docType == DocumentType.XLS) { ((HSSFCellStyle)style).setLeftBorderColor(palette.findSimilarColor(borderColor.getr(), borderColor.getg(), borderColor.getb()).getIndex()); }
-					else { ((XSSFCellStyle)style).setLeftBorderColor(new XSSFColor(new java.awt.Color(borderColor.getr(), borderColor.getg(), borderColor.getb()), new DefaultIndexedColorMap())); }
+					if (docType == DocumentType.XLS) { ((HSSFCellStyle)style).setLeftBorderColor(registry.GetPaletteIndex(borderColor)); }
+					else { ((XSSFCellStyle)style).setLeftBorderColor(registry.GetXSSFColor(borderColor)); }
 				}
 				
 				borderStyle = cellFormat.getBorderRight();
@@ -165,50 +235,15 @@ public class Utils {
 				style.setBorderRight(border);
 				borderColor = cellFormat.getBorderRight_Color();
 				if (borderColor != null) {
-					if (docType == DocumentType.XLS) { ((HSSFCellStyle)style).setRightBorderColor(palette.findSimilarColor(borderColor.getr(), borderColor.getg(), borderColor.getb()).getIndex()); }
-					else { ((XSSFCellStyle)style).setRightBorderColor(new XSSFColor(new java.awt.Color(borderColor.getr(), borderColor.getg(), borderColor.getb()), new DefaultIndexedColorMap())); }
+					if (docType == DocumentType.XLS) { ((HSSFCellStyle)style).setRightBorderColor(registry.GetPaletteIndex(borderColor)); }
+					else { ((XSSFCellStyle)style).setRightBorderColor(registry.GetXSSFColor(borderColor)); }
 				}
 				
-				if (docType == DocumentType.XLS)
-				{
-					HSSFFont font = ((HSSFWorkbook)workbook).createFont();
-					String FontName = cellFormat.getFontName();
-					if (FontName != null) {
-						font.setFontName(FontName);
-					}
-					Integer FontSize = cellFormat.getFontSize();
-					if (FontSize != null) {
-						font.setFontHeightInPoints(FontSize.shortValue());
-					}
-					advanced_excel.proxies.Color FontColor = cellFormat.getFontColor();
-					if (FontColor != null) {
-						font.setColor(palette.findSimilarColor(FontColor.getr(), FontColor.getg(), FontColor.getb()).getIndex()); 
-					}
-					font.setBold(cellFormat.getBold());
-					((HSSFCellStyle)style).setFont(font);
-				}
-				else
-				{
-					XSSFFont font = ((XSSFWorkbook)workbook).createFont();
-					String FontName = cellFormat.getFontName();
-					if (FontName != null) {
-						font.setFontName(FontName);
-					}
-					Integer FontSize = cellFormat.getFontSize();
-					if (FontSize != null) {
-						font.setFontHeightInPoints(FontSize.shortValue());
-					}
-					advanced_excel.proxies.Color FontColor = cellFormat.getFontColor();
-					if (FontColor != null) {
-						font.setColor(new XSSFColor(new java.awt.Color(FontColor.getr(), FontColor.getg(), FontColor.getb()), new DefaultIndexedColorMap()));
-					}
-					font.setBold(cellFormat.getBold());
-					((XSSFCellStyle)style).setFont(font);
-				}
+				style.setFont(registry.GetFont(cellFormat));
 				
 				String CustomFormat = cellFormat.getCustomFormat();
 				if (CustomFormat != null) {
-					style.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat(CustomFormat));
+					style.setDataFormat(registry.GetDataFormat(CustomFormat));
 				}
 			}
 		} catch (Exception e) {
@@ -0,0 +1,393 @@
+package advanced_excel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import advanced_excel.proxies.DocumentType;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.util.ZipSecureFile;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Thread-safe registry of the open workbooks, used through the workbook functions of Utils.
+ *
+ * An action pins the workbook it uses with Acquire and unpins it with Release when it is done, in a finally
+ * block. A pinned workbook is never estimated, spilled or released, so it is not changed or dropped under
+ * an action that is still reading or writing it; Close defers releasing it until the last pin is gone.
+ *
+ * Every workbook has a lease: a workbook that has not been pinned for its time to live is released as if
+ * Workbook_Close was called, so workbooks of microflows that failed before closing them do not stay in
+ * memory forever.
+ *
+ * The memory used by each workbook is estimated from its number of rows and cells. When the estimated
+ * total exceeds the memory budget, the least recently used workbooks that have been idle for a while are
+ * spilled to compressed temporary files and reloaded on their next access. Streaming workbooks already
+ * keep most of their rows on disk and are never spilled.
+ */
+public class WorkbookRegistry
+{
+	private static final ILogNode logger = Core.getLogger("Advanced_Excel");
+
+	// rough heap use of the workbook model, measured for typical exports
+	private static final long BYTES_PER_WORKBOOK = 512 * 1024;
+	private static final long BYTES_PER_XSSF_CELL = 600;
+	private static final long BYTES_PER_HSSF_CELL = 150;
+	private static final long SWEEP_INTERVAL_SECONDS = 30;
+
+	private static final ConcurrentHashMap<String, Entry> iEntries = new ConcurrentHashMap<String, Entry>();
+	// closed workbooks that are still pinned by an action
+	private static final ConcurrentHashMap<String, Entry> iClosing = new ConcurrentHashMap<String, Entry>();
+
+	private static volatile long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+	private static volatile long defaultTimeToLive = TimeUnit.MINUTES.toMillis(30);
+	private static volatile long spillAfterIdle = TimeUnit.SECONDS.toMillis(60);
+	private static ScheduledExecutorService sweeper;
+
+	private static long spills = 0;
+	private static long reloads = 0;
+	private static long expirations = 0;
+	private static long peakEstimatedBytes = 0;
+
+	private static final class Entry
+	{
+		private final String uid;
+		private final DocumentType docType;
+		private Workbook workbook;
+		private File spillFile;
+		private volatile long lastAccess = System.currentTimeMillis();
+		private volatile long timeToLive = defaultTimeToLive;
+		private volatile long estimatedBytes = 0;
+		// pins per thread, so an unmatched Release of one action cannot unpin the workbook for another
+		private final Map<Thread, Integer> pins = new HashMap<Thread, Integer>();
+		private boolean closed = false;
+		private boolean disposed = false;
+
+		private Entry(String uid, Workbook workbook, DocumentType docType)
+		{
+			this.uid = uid;
+			this.workbook = workbook;
+			this.docType = docType;
+		}
+	}
+
+	public static String Add(Workbook workbook, DocumentType docType)
+	{
+		String uid = UUID.randomUUID().toString();
+		Entry entry = new Entry(uid, workbook, docType);
+		entry.estimatedBytes = Estimate(workbook);
+		iEntries.put(uid, entry);
+		StartSweeper();
+		EnforceBudget(uid);
+		return uid;
+	}
+
+	/**
+	 * Pins the workbook for the current thread until Release is called with the same id.
+	 * @return the workbook, reloaded from disk if it was spilled, or null if there is no open workbook with this id
+	 */
+	public static Workbook Acquire(String uid)
+	{
+		Entry entry = uid == null ? null : iEntries.get(uid);
+		if (entry == null) { return null; }
+		boolean reloaded = false;
+		Workbook workbook;
+		synchronized (entry) {
+			// released by the sweeper or closed after the lookup
+			if (entry.disposed || entry.closed) { return null; }
+			entry.lastAccess = System.currentTimeMillis();
+			if (entry.workbook == null && entry.spillFile != null) {
+				Reload(entry);
+				reloaded = true;
+			}
+			workbook = entry.workbook;
+			if (workbook == null) { return null; }
+			entry.pins.merge(Thread.currentThread(), 1, Integer::sum);
+		}
+		if (reloaded) {
+			// counted outside the lock of the entry, EnforceBudget locks the entries while holding the class lock
+			synchronized (WorkbookRegistry.class) { reloads++; }
+			EnforceBudget(uid);
+		}
+		return workbook;
+	}
+
+	/**
+	 * Removes a pin of the current thread, releasing the workbook if it was closed while pinned.
+	 * Does nothing if the current thread did not pin the workbook.
+	 */
+	public static void Release(String uid)
+	{
+		if (uid == null) { return; }
+		Entry entry = iEntries.get(uid);
+		if (entry == null) { entry = iClosing.get(uid); }
+		if (entry == null) { return; }
+		synchronized (entry) {
+			Integer count = entry.pins.get(Thread.currentThread());
+			if (count == null) { return; }
+			if (count > 1) { entry.pins.put(Thread.currentThread(), count - 1); }
+			else { entry.pins.remove(Thread.currentThread()); }
+			entry.lastAccess = System.currentTimeMillis();
+			if (entry.closed && entry.pins.isEmpty()) {
+				iClosing.remove(uid, entry);
+				Dispose(entry);
+			}
+		}
+	}
+
+	public static DocumentType GetDocumentType(String uid)
+	{
+		Entry entry = uid == null ? null : iEntries.get(uid);
+		return entry == null ? null : entry.docType;
+	}
+
+	/**
+	 * Releases the workbook, or marks it closed until the actions of other threads that pinned it are done.
+	 */
+	public static void Close(String uid)
+	{
+		Entry entry = uid == null ? null : iEntries.remove(uid);
+		if (entry == null) { return; }
+		synchronized (entry) {
+			// the calling action is done with the workbook when it closes it
+			entry.pins.remove(Thread.currentThread());
+			if (entry.pins.isEmpty()) {
+				Dispose(entry);
+			} else {
+				entry.closed = true;
+				iClosing.put(uid, entry);
+			}
+		}
+	}
+
+	/**
+	 * Sets the time the workbook may stay unused before it is released.
+	 */
+	public static void SetTimeToLive(String uid, long timeToLiveMillis)
+	{
+		if (timeToLiveMillis <= 0) { throw new IllegalArgumentException("Time to live should be positive"); }
+		Entry entry = iEntries.get(uid);
+		if (entry == null) { throw new IllegalArgumentException("Workbook " + uid + " not found"); }
+		entry.timeToLive = timeToLiveMillis;
+		entry.lastAccess = System.currentTimeMillis();
+	}
+
+	/**
+	 * @param memoryBudgetBytes estimated memory all open workbooks may use before idle ones are spilled to disk
+	 * @param timeToLiveMillis time a newly opened workbook may stay unused before it is released
+	 * @param spillAfterIdleMillis time a workbook has to be unused before it may be spilled to disk
+	 */
+	public static void Configure(long memoryBudgetBytes, long timeToLiveMillis, long spillAfterIdleMillis)
+	{
+		if (memoryBudgetBytes <= 0 || timeToLiveMillis <= 0 || spillAfterIdleMillis < 0) {
+			throw new IllegalArgumentException("Memory budget and time to live should be positive");
+		}
+		memoryBudget = memoryBudgetBytes;
+		defaultTimeToLive = timeToLiveMillis;
+		spillAfterIdle = spillAfterIdleMillis;
+		logger.info("Workbook registry: memory budget " + (memoryBudgetBytes / (1024 * 1024)) + " MB, time to live " + timeToLiveMillis + " ms, spill after " + spillAfterIdleMillis + " ms idle");
+		EnforceBudget(null);
+	}
+
+	public static synchronized Map<String, Object> GetStatistics()
+	{
+		int inMemory = 0;
+		int spilled = 0;
+		int pinned = 0;
+		long estimatedBytes = 0;
+		for (Entry entry : iEntries.values()) {
+			synchronized (entry) {
+				if (!entry.pins.isEmpty()) { pinned++; }
+			}
+			if (entry.workbook != null) {
+				inMemory++;
+				estimatedBytes += entry.estimatedBytes;
+			} else {
+				spilled++;
+			}
+		}
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("openWorkbooks", inMemory + spilled);
+		statistics.put("inMemory", inMemory);
+		statistics.put("spilled", spilled);
+		statistics.put("pinned", pinned);
+		statistics.put("estimatedBytes", estimatedBytes);
+		statistics.put("peakEstimatedBytes", peakEstimatedBytes);
+		statistics.put("memoryBudgetBytes", memoryBudget);
+		statistics.put("spills", spills);
+		statistics.put("reloads", reloads);
+		statistics.put("expirations", expirations);
+		return statistics;
+	}
+
+	public static synchronized void ResetStatistics()
+	{ spills = reloads = expirations = peakEstimatedBytes = 0; }
+
+	private static synchronized void StartSweeper()
+	{
+		if (sweeper != null) { return; }
+		sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "Advanced_Excel workbook registry");
+			thread.setDaemon(true);
+			return thread;
+		});
+		sweeper.scheduleWithFixedDelay(WorkbookRegistry::Sweep, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	private static void Sweep()
+	{
+		try {
+			long now = System.currentTimeMillis();
+			for (Entry entry : iEntries.values()) {
+				synchronized (entry) {
+					if (!entry.pins.isEmpty() || now - entry.lastAccess <= entry.timeToLive || !iEntries.remove(entry.uid, entry)) { continue; }
+					logger.warn("Workbook " + entry.uid + " was not used for " + ((now - entry.lastAccess) / 1000) + " seconds and is released, use Workbook_Close to release workbooks when done");
+					Dispose(entry);
+				}
+				synchronized (WorkbookRegistry.class) { expirations++; }
+			}
+			EnforceBudget(null);
+		} catch (RuntimeException e) {
+			// an exception would cancel the scheduled sweeps
+			logger.error("ERROR in Advanced_Excel.WorkbookRegistry: " + e.getMessage() + "\n" + e.toString(), e);
+		}
+	}
+
+	/**
+	 * Re-estimates the unpinned workbooks in memory and spills the least recently used idle ones while the total is over budget.
+	 * Pinned workbooks may be changed by their action, so they count with their last estimate.
+	 */
+	private static synchronized void EnforceBudget(String keepUid)
+	{
+		long total = 0;
+		List<Entry> candidates = new ArrayList<Entry>();
+		long now = System.currentTimeMillis();
+		for (Entry entry : iEntries.values()) {
+			synchronized (entry) {
+				Workbook workbook = entry.workbook;
+				if (workbook == null) { continue; }
+				if (entry.pins.isEmpty()) { entry.estimatedBytes = Estimate(workbook); }
+				total += entry.estimatedBytes;
+				if (entry.pins.isEmpty() && !entry.uid.equals(keepUid) && !(workbook instanceof SXSSFWorkbook) && now - entry.lastAccess >= spillAfterIdle) {
+					candidates.add(entry);
+				}
+			}
+		}
+		peakEstimatedBytes = Math.max(peakEstimatedBytes, total);
+		if (total <= memoryBudget) { return; }
+
+		candidates.sort(Comparator.comparingLong(entry -> entry.lastAccess));
+		for (Entry entry : candidates) {
+			if (total <= memoryBudget) { break; }
+			synchronized (entry) {
+				// skip workbooks pinned, used or closed since they were selected
+				if (entry.workbook == null || !entry.pins.isEmpty() || now - entry.lastAccess < spillAfterIdle || entry.disposed) { continue; }
+				if (Spill(entry)) { total -= entry.estimatedBytes; }
+			}
+		}
+		if (total > memoryBudget) {
+			logger.warn("Open workbooks use an estimated " + (total / (1024 * 1024)) + " MB, which exceeds the budget of " + (memoryBudget / (1024 * 1024)) + " MB, but no more workbooks are idle");
+		}
+	}
+
+	private static long Estimate(Workbook workbook)
+	{
+		long cells = 0;
+		for (Sheet sheet : workbook) {
+			long rows = sheet.getPhysicalNumberOfRows();
+			if (workbook instanceof SXSSFWorkbook) {
+				rows = Math.min(rows, ((SXSSFWorkbook)workbook).getRandomAccessWindowSize());
+			}
+			// estimate the width from the first and last row rather than visiting every row
+			int width = 1;
+			Row first = sheet.getRow(sheet.getFirstRowNum());
+			if (first != null) { width = Math.max(width, first.getPhysicalNumberOfCells()); }
+			Row last = sheet.getRow(sheet.getLastRowNum());
+			if (last != null) { width = Math.max(width, last.getPhysicalNumberOfCells()); }
+			cells += rows * width;
+		}
+		return BYTES_PER_WORKBOOK + cells * (workbook instanceof HSSFWorkbook ? BYTES_PER_HSSF_CELL : BYTES_PER_XSSF_CELL);
+	}
+
+	private static boolean Spill(Entry entry)
+	{
+		File file = null;
+		try {
+			file = File.createTempFile("advanced_excel_spill", entry.docType == DocumentType.XLS ? ".xls.gz" : ".xlsx.gz");
+			// recorded column widths refer to the sheets of this instance, set them before it is dropped
+			ColumnWidths.ApplyPending(entry.workbook);
+			try (OutputStream outStream = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+				entry.workbook.write(outStream);
+			}
+			StyleRegistry.Remove(entry.workbook);
+			ColumnWidths.Remove(entry.workbook);
+			entry.workbook = null;
+			entry.spillFile = file;
+			spills++;
+			logger.debug("Spilled workbook " + entry.uid + " (estimated " + (entry.estimatedBytes / 1024) + " KB) to " + file.getName());
+			return true;
+		} catch (Exception e) {
+			if (file != null) { file.delete(); }
+			logger.error("ERROR in Advanced_Excel.WorkbookRegistry: could not spill workbook " + entry.uid + ": " + e.getMessage() + "\n" + e.toString(), e);
+			return false;
+		}
+	}
+
+	private static void Reload(Entry entry)
+	{
+		try {
+			// the spill file was written by this registry, so it is trusted like the files opened by Workbook_LoadFile
+			ZipSecureFile.setMinInflateRatio(0);
+			try (InputStream inStream = new GZIPInputStream(new BufferedInputStream(new FileInputStream(entry.spillFile)))) {
+				entry.workbook = entry.docType == DocumentType.XLS ? new HSSFWorkbook(inStream) : new XSSFWorkbook(inStream);
+			}
+			entry.spillFile.delete();
+			entry.spillFile = null;
+			logger.debug("Reloaded workbook " + entry.uid);
+		} catch (Exception e) {
+			logger.error("ERROR in Advanced_Excel.WorkbookRegistry: could not reload workbook " + entry.uid + ": " + e.getMessage() + "\n" + e.toString(), e);
+		}
+	}
+
+	private static void Dispose(Entry entry)
+	{
+		synchronized (entry) {
+			entry.disposed = true;
+			if (entry.workbook != null) {
+				StyleRegistry.Remove(entry.workbook);
+				ColumnWidths.Remove(entry.workbook);
+				if (entry.workbook instanceof SXSSFWorkbook) {
+					// remove the temporary files holding the rows that were flushed out of the window
+					((SXSSFWorkbook)entry.workbook).dispose();
+				}
+				entry.workbook = null;
+			}
+			if (entry.spillFile != null) {
+				entry.spillFile.delete();
+				entry.spillFile = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package advanced_excel.actions;
+
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import advanced_excel.Benchmark;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Measures the export, load and import paths of the module on synthetic xls and xlsx workbooks of Rows rows and Columns columns, to compare changes to the module on the same server.
+ * TypeMix is a ',' separated list of column types (text, number, date, boolean) repeated over the columns, default text,number,date,boolean. Styled gives the columns a mix of cell formats with fonts, colors, borders and a custom format. Every scenario runs once to warm up and then Iterations times.
+ * Returns JSON with, per scenario, the average time, rows per second, bytes allocated per row and peak heap use. Xls workbooks are limited to 65535 rows.
+ * Runs in the calling thread and uses as much memory as the workbooks need: only run it in test environments.
+ */
+public class Benchmark_Run extends UserAction<java.lang.String>
+{
+	private final java.lang.Long Rows;
+	private final java.lang.Long Columns;
+	private final java.lang.String TypeMix;
+	private final java.lang.Boolean Styled;
+	private final java.lang.Long Iterations;
+
+	public Benchmark_Run(
+		IContext context,
+		java.lang.Long _rows,
+		java.lang.Long _columns,
+		java.lang.String _typeMix,
+		java.lang.Boolean _styled,
+		java.lang.Long _iterations
+	)
+	{
+		super(context);
+		this.Rows = _rows;
+		this.Columns = _columns;
+		this.TypeMix = _typeMix;
+		this.Styled = _styled;
+		this.Iterations = _iterations;
+	}
+
+	@java.lang.Override
+	public java.lang.String executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		try
+		{
+			int iterations = Iterations == null || Iterations <= 0 ? DEFAULT_ITERATIONS : Iterations.intValue();
+			return new Benchmark(this.getContext(), Rows.intValue(), Columns.intValue(), TypeMix, Boolean.TRUE.equals(Styled), iterations).Run();
+		} catch (Exception e) {
+			logger.error("ERROR in Advanced_Excel.Benchmark_Run: " + e.getMessage() + "\n" + e.toString(), e);
+			return null;
+		} 
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "Benchmark_Run";
+	}
+
+	// BEGIN EXTRA CODE
+	protected static ILogNode logger = Core.getLogger("Advanced_Excel");
+	
+	private static final int DEFAULT_ITERATIONS = 3;
+	// END EXTRA CODE
+}
@@ -97,7 +97,9 @@ public class Cell_ReadBoolean extends UserAction<java.lang.Boolean>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Cell_ReadBoolean: " + e.getMessage() + "\n" + e.toString(), e);
 			return false;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
@@ -114,7 +114,9 @@ public class Cell_ReadByIndex extends UserAction<java.lang.String>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Cell_ReadByIndex: " + e.getMessage() + "\n" + e.toString(), e);
 			return "";
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
@@ -97,7 +97,9 @@ public class Cell_ReadDate extends UserAction<java.util.Date>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Cell_ReadDate: " + e.getMessage() + "\n" + e.toString(), e);
 			return cellValue;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
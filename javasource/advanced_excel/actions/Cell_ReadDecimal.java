@@ -98,6 +98,8 @@ public class Cell_ReadDecimal extends UserAction<java.math.BigDecimal>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Cell_ReadDecimal: " + e.getMessage() + "\n" + e.toString(), e);
 			return cellValue;
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
 		}
 		// END USER CODE
 	}
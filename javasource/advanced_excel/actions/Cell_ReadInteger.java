@@ -99,6 +99,8 @@ public class Cell_ReadInteger extends UserAction<java.lang.Long>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Cell_ReadInteger: " + e.getMessage() + "\n" + e.toString(), e);
 			return cellValue;
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
 		}
 		// END USER CODE
 	}
@@ -97,7 +97,9 @@ public class Cell_ReadString extends UserAction<java.lang.String>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Cell_ReadString: " + e.getMessage() + "\n" + e.toString(), e);
 			return cellValue;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
@@ -122,7 +122,9 @@ public class Cell_SetName extends UserAction<java.lang.Boolean>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Cell_SetName: " + e.getMessage() + "\n" + e.toString(), e);
 			return false;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
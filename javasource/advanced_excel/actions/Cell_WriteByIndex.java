@@ -12,21 +12,12 @@ package advanced_excel.actions;
 import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import advanced_excel.proxies.DocumentType;
+import advanced_excel.ColumnWidths;
 import advanced_excel.Utils;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.xssf.usermodel.XSSFCell;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Cell;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.UserAction;
@@ -76,90 +67,44 @@ public class Cell_WriteByIndex extends UserAction<java.lang.Boolean>
 		// BEGIN USER CODE
 		try
 		{
-			DocumentType docType = Utils.GetDocumentType(WorkbookID);
 			Workbook workbook = Utils.GetWorkBook(WorkbookID);
 			if (workbook == null) {
 				logger.error("ERROR in Advanced_Excel.Cell_WriteByIndex:\nWorkbook object not found\nyou have to use Workbook_Create, Workbook_Open or Workbook_LoadFile to create the Workbook object");
 				return false;
 			}
 			
-			if (docType == DocumentType.XLS) {
-				HSSFSheet sheet = ((HSSFWorkbook)workbook).getSheet(this.SheetName);
-				if (sheet == null) { throw new Exception("Sheet: " + this.SheetName + " not found!"); }
-				
-				HSSFCellStyle style = ((HSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, style, this.CellFormat, docType);
-				if (this.CellType == CellType.datetime && this.CellFormat != null && this.CellFormat.getCustomFormat() == null) {
-					style.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-MM-dd HH:mm:ss"));
-				}
-				
-				Integer rowNum = this.Row.intValue();
-				Integer colNum = this.Column.intValue();
-				
-				HSSFRow row = sheet.getRow(rowNum);
-				if (row == null) {
-					row = sheet.createRow(rowNum);
-				}
-				HSSFCell cell = row.getCell(colNum);
-				if (cell == null) {
-					cell = row.createCell(colNum);
-				}
-				
-				Utils.SetCellValue(workbook, cell, this.CellType, CellValue);
-				if (CellValue != null && CellValue.indexOf('\n') != -1) {
-					HSSFCellStyle newStyle = ((HSSFWorkbook)workbook).createCellStyle();
-					newStyle.cloneStyleFrom(style);
-					newStyle.setWrapText(true);
-					cell.setCellStyle(newStyle);
-				} else if (this.CellFormat != null) {
-					cell.setCellStyle(style);
-				}
-				
-				if (this.CellFormat != null && this.CellFormat.getAutofitColumn()) {
-					sheet.autoSizeColumn(colNum);
-				}
-			} else {
-				XSSFSheet sheet = ((XSSFWorkbook)workbook).getSheet(this.SheetName);
-				if (sheet == null) { throw new Exception("Sheet: " + this.SheetName + " not found!"); }
-				
-				XSSFCellStyle style = ((XSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, style, this.CellFormat, docType);
-				if (this.CellType == CellType.datetime && this.CellFormat != null && this.CellFormat.getCustomFormat() == null) {
-					style.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-MM-dd HH:mm:ss"));
-				}
-				
-				Integer rowNum = this.Row.intValue();
-				Integer colNum = this.Column.intValue();
-				
-				XSSFRow row = sheet.getRow(rowNum);
-				if (row == null) {
-					row = sheet.createRow(rowNum);
-				}
-				XSSFCell cell = row.getCell(colNum);
-				if (cell == null) {
-					cell = row.createCell(colNum);
-				}
-				
-				Utils.SetCellValue(workbook, cell, this.CellType, CellValue);
-				if (CellValue != null && CellValue.indexOf('\n') != -1) {
-					XSSFCellStyle newStyle = ((XSSFWorkbook)workbook).createCellStyle();
-					newStyle.cloneStyleFrom(style);
-					newStyle.setWrapText(true);
-					cell.setCellStyle(newStyle);
-				} else if (this.CellFormat != null) {
-					cell.setCellStyle(style);
-				}
-				
-				if (this.CellFormat != null && this.CellFormat.getAutofitColumn()) {
-					sheet.autoSizeColumn(colNum);
-				}
+			Sheet sheet = Utils.GetSheet(workbook, this.SheetName);
+			
+			String dataFormat = null;
+			if (this.CellType == CellType.datetime && this.CellFormat != null && this.CellFormat.getCustomFormat() == null) {
+				dataFormat = Utils.DATETIME_FORMAT;
+			}
+			
+			Integer rowNum = this.Row.intValue();
+			Integer colNum = this.Column.intValue();
+			
+			Row row = Utils.GetOrCreateRow(sheet, rowNum);
+			Cell cell = Utils.GetOrCreateCell(row, colNum);
+			
+			Utils.SetCellValue(workbook, cell, this.CellType, CellValue);
+			if (CellValue != null && CellValue.indexOf('\n') != -1) {
+				cell.setCellStyle(Utils.GetStyle(workbook, this.CellFormat, true, dataFormat));
+			} else if (this.CellFormat != null) {
+				cell.setCellStyle(Utils.GetStyle(workbook, this.CellFormat, false, dataFormat));
+			}
+			
+			if (this.CellFormat != null && this.CellFormat.getAutofitColumn()) {
+				// the width is set when the workbook is written, so that it is estimated once for many cell writes
+				ColumnWidths.Get(workbook).Record(cell);
 			}
 			
 			return true;
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Cell_WriteByIndex: " + e.getMessage() + "\n" + e.toString(), e);
 			return false;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
@@ -12,26 +12,16 @@ package advanced_excel.actions;
 import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import advanced_excel.proxies.DocumentType;
+import advanced_excel.CellWriter;
+import advanced_excel.ColumnWidths;
 import advanced_excel.Utils;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Name;
 import org.apache.poi.ss.util.AreaReference;
 import org.apache.poi.ss.util.CellReference;
-import org.apache.poi.ss.SpreadsheetVersion;
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFName;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.xssf.usermodel.XSSFCell;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFName;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.UserAction;
@@ -75,102 +65,52 @@ public class Cell_WriteByName extends UserAction<java.lang.Boolean>
 		// BEGIN USER CODE
 		try
 		{
-			DocumentType docType = Utils.GetDocumentType(WorkbookID);
 			Workbook workbook = Utils.GetWorkBook(WorkbookID);
 			if (workbook == null) {
 				logger.error("ERROR in Advanced_Excel.Cell_WriteByName:\nWorkbook object not found\nyou have to use Workbook_Create, Workbook_Open or Workbook_LoadFile to create the Workbook object");
 				return false;
 			}
 			
-			if (docType == DocumentType.XLS) {
-				HSSFCellStyle style = ((HSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, style, this.CellFormat, docType);
-				if (this.CellType == CellType.datetime) {
-					style.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-MM-dd HH:mm:ss"));
-				}
-				
-				Boolean AutofitColumn = false;
-				String CustomFormat = null;
-				if (this.CellFormat != null)
-				{
-					AutofitColumn = this.CellFormat.getAutofitColumn();
-					CustomFormat = this.CellFormat.getCustomFormat();
-				}
-
-				// retrieve the named range
-				HSSFName aNamedCell = ((HSSFWorkbook)workbook).getName(CellName);
+			Boolean AutofitColumn = false;
+			String CustomFormat = null;
+			if (this.CellFormat != null)
+			{
+				AutofitColumn = this.CellFormat.getAutofitColumn();
+				CustomFormat = this.CellFormat.getCustomFormat();
+			}
+			String dataFormat = this.CellType == CellType.datetime && CustomFormat == null ? Utils.DATETIME_FORMAT : null;
+			
+			// convert the value once for all cells of the range, a value that cannot be converted is logged and not written
+			CellWriter writer = CellWriter.ForCellType(this.CellType);
+			Object value = null;
+			try {
+				value = writer.Parse(CellValue);
+			} catch (Exception e) {
+				logger.error("ERROR in Advanced_Excel.SetCellValue: " + e.getMessage() + "\n" + e.toString(), e);
+			}
+			
+			// retrieve the named range
+			Name aNamedCell = workbook.getName(CellName);
 
-				// retrieve the cell at the named range and test its contents
-				AreaReference aref = new AreaReference(aNamedCell.getRefersToFormula(), SpreadsheetVersion.EXCEL97);
-				CellReference[] crefs = aref.getAllReferencedCells();
-				for (int i=0; i<crefs.length; i++) {
-					HSSFSheet sheet = ((HSSFWorkbook)workbook).getSheet(crefs[i].getSheetName());
-					HSSFRow row = sheet.getRow(crefs[i].getRow());
-					Short colNum = crefs[i].getCol();
-					HSSFCell cell = row.getCell(colNum);
+			// retrieve the cell at the named range and test its contents
+			AreaReference aref = new AreaReference(aNamedCell.getRefersToFormula(), workbook.getSpreadsheetVersion());
+			CellReference[] crefs = aref.getAllReferencedCells();
+			for (int i=0; i<crefs.length; i++) {
+				Sheet sheet = workbook.getSheet(crefs[i].getSheetName());
+				Row row = sheet.getRow(crefs[i].getRow());
+				Short colNum = crefs[i].getCol();
+				Cell cell = row.getCell(colNum);
 
-					Utils.SetCellValue(workbook, cell, this.CellType, CellValue);
-					if (CustomFormat != null) {
-						style.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat(CustomFormat));
-					}
-					
-					if (CellValue != null && CellValue.indexOf('\n') != -1) {
-						HSSFCellStyle newStyle = ((HSSFWorkbook)workbook).createCellStyle();
-						newStyle.cloneStyleFrom(style);
-						newStyle.setWrapText(true);
-						cell.setCellStyle(newStyle);
-					} else if (this.CellFormat != null) {
-						cell.setCellStyle(style);
-					}
-					
-					if (AutofitColumn) {
-						sheet.autoSizeColumn(colNum);
-					}
-				}
-			} else {
-				XSSFCellStyle style = ((XSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, style, this.CellFormat, docType);
-				if (this.CellType == CellType.datetime) {
-					style.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-MM-dd HH:mm:ss"));
-				}
-				
-				Boolean AutofitColumn = false;
-				String CustomFormat = null;
-				if (this.CellFormat != null)
-				{
-					AutofitColumn = this.CellFormat.getAutofitColumn();
-					CustomFormat = this.CellFormat.getCustomFormat();
+				writer.Write(cell, value);
+				if (CellValue != null && CellValue.indexOf('\n') != -1) {
+					cell.setCellStyle(Utils.GetStyle(workbook, this.CellFormat, true, dataFormat));
+				} else if (this.CellFormat != null) {
+					cell.setCellStyle(Utils.GetStyle(workbook, this.CellFormat, false, dataFormat));
 				}
-
-				// retrieve the named range
-				XSSFName aNamedCell = ((XSSFWorkbook)workbook).getName(CellName);
-
-				// retrieve the cell at the named range and test its contents
-				AreaReference aref = new AreaReference(aNamedCell.getRefersToFormula(), SpreadsheetVersion.EXCEL2007);
-				CellReference[] crefs = aref.getAllReferencedCells();
-				for (int i=0; i<crefs.length; i++) {
-					XSSFSheet sheet = ((XSSFWorkbook)workbook).getSheet(crefs[i].getSheetName());
-					XSSFRow row = sheet.getRow(crefs[i].getRow());
-					Short colNum = crefs[i].getCol();
-					XSSFCell cell = row.getCell(colNum);
-
-					Utils.SetCellValue(workbook, cell, this.CellType, CellValue);
-					if (CustomFormat != null) {
-						style.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat(CustomFormat));
-					}
-					
-					if (CellValue != null && CellValue.indexOf('\n') != -1) {
-						XSSFCellStyle newStyle = ((XSSFWorkbook)workbook).createCellStyle();
-						newStyle.cloneStyleFrom(style);
-						newStyle.setWrapText(true);
-						cell.setCellStyle(newStyle);
-					} else if (this.CellFormat != null) {
-						cell.setCellStyle(style);
-					}
 				
-					if (AutofitColumn) {
-						sheet.autoSizeColumn(colNum);
-					}
+				if (AutofitColumn) {
+					// the width is set when the workbook is written, so that it is estimated once for many cell writes
+					ColumnWidths.Get(workbook).Record(cell);
 				}
 			}
 			
@@ -178,7 +118,9 @@ public class Cell_WriteByName extends UserAction<java.lang.Boolean>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Cell_WriteByName: " + e.getMessage() + "\n" + e.toString(), e);
 			return false;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
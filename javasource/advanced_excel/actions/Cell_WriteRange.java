@@ -16,19 +16,13 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import advanced_excel.proxies.CellType;
 import advanced_excel.proxies.DocumentType;
+import advanced_excel.ColumnWidths;
 import advanced_excel.Utils;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.xssf.usermodel.XSSFCell;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.ss.usermodel.CellStyle;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.UserAction;
@@ -85,127 +79,60 @@ public class Cell_WriteRange extends UserAction<java.lang.Boolean>
 				return false;
 			} 
 			
-			if (docType == DocumentType.XLS) {
-				HSSFSheet sheet = ((HSSFWorkbook)workbook).getSheet(this.SheetName);
-				if (sheet == null) { throw new Exception("Sheet: " + this.SheetName + " not found!"); }
-				
-				HSSFCellStyle style = ((HSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, style, this.CellFormat, docType);
-				
-				HSSFCellStyle dateStyle = ((HSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, dateStyle, this.CellFormat, docType);
-				dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-MM-dd HH:mm:ss"));
-				
-				Boolean AutofitColumn = false;
-				String CustomFormat = null;
-				if (this.CellFormat != null)
-				{
-					AutofitColumn = this.CellFormat.getAutofitColumn();
-					CustomFormat = this.CellFormat.getCustomFormat();
-				}
-				
-				Integer rowNum = 0;
-				Integer colNum = 0;
-				for (advanced_excel.proxies.Data Data : DataSet)
-				{
-					cellValue = Data.getCellValue();
-					cellType = Data.getCellType();
-					rowNum = Data.getRow();
-					colNum = Data.getColumn();
-					HSSFRow row = sheet.getRow(rowNum);
-					if (row == null) {
-						row = sheet.createRow(rowNum);
-					}
-					HSSFCell cell = row.getCell(colNum);
-					if (cell == null) {
-						cell = row.createCell(colNum);
-					}
-					
-					Utils.SetCellValue(workbook, cell, cellType, cellValue);
-					if (CustomFormat != null) {
-						style.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat(CustomFormat));
-						dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat(CustomFormat));
-					}
-					
-					if (cellType == CellType.datetime) {
-						cell.setCellStyle(dateStyle);
-					} else if (cellValue != null && cellValue.indexOf('\n') != -1) {
-						HSSFCellStyle newStyle = ((HSSFWorkbook)workbook).createCellStyle();
-						newStyle.cloneStyleFrom(style);
-						newStyle.setWrapText(true);
-						cell.setCellStyle(newStyle);
-					} else {
-						cell.setCellStyle(style);
-					}
-					
-					if (AutofitColumn) {
-						sheet.autoSizeColumn(colNum);
-					}
-				}
-			} else {
-				XSSFSheet sheet = ((XSSFWorkbook)workbook).getSheet(this.SheetName);
-				if (sheet == null) { throw new Exception("Sheet: " + this.SheetName + " not found!"); }
-				
-				XSSFCellStyle style = ((XSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, style, this.CellFormat, docType);
+			Sheet sheet = Utils.GetSheet(workbook, this.SheetName);
+			
+			Boolean AutofitColumn = false;
+			String CustomFormat = null;
+			if (this.CellFormat != null)
+			{
+				AutofitColumn = this.CellFormat.getAutofitColumn();
+				CustomFormat = this.CellFormat.getCustomFormat();
+			}
+			
+			// the custom format of the CellFormat takes precedence over the date format
+			CellStyle style = Utils.GetStyle(workbook, this.CellFormat, false, null);
+			CellStyle wrapStyle = Utils.GetStyle(workbook, this.CellFormat, true, null);
+			CellStyle dateStyle = Utils.GetStyle(workbook, this.CellFormat, false, CustomFormat == null ? Utils.DATETIME_FORMAT : null);
+			
+			// widths are estimated while writing and set once at the end
+			ColumnWidths widths = AutofitColumn ? ColumnWidths.Get(workbook) : null;
+			
+			Integer rowNum = 0;
+			Integer colNum = 0;
+			for (advanced_excel.proxies.Data Data : DataSet)
+			{
+				cellValue = Data.getCellValue();
+				cellType = Data.getCellType();
+				rowNum = Data.getRow();
+				colNum = Data.getColumn();
+				Row row = Utils.GetOrCreateRow(sheet, rowNum);
+				Cell cell = Utils.GetOrCreateCell(row, colNum);
 				
-				XSSFCellStyle dateStyle = ((XSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, dateStyle, this.CellFormat, docType);
-				dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-MM-dd HH:mm:ss"));
+				Utils.SetCellValue(workbook, cell, cellType, cellValue);
 				
-				Boolean AutofitColumn = false;
-				String CustomFormat = null;
-				if (this.CellFormat != null)
-				{
-					AutofitColumn = this.CellFormat.getAutofitColumn();
-					CustomFormat = this.CellFormat.getCustomFormat();
+				if (cellType == CellType.datetime) {
+					cell.setCellStyle(dateStyle);
+				} else if (cellValue != null && cellValue.indexOf('\n') != -1) {
+					cell.setCellStyle(wrapStyle);
+				} else {
+					cell.setCellStyle(style);
 				}
 				
-				Integer rowNum = 0;
-				Integer colNum = 0;
-				for (advanced_excel.proxies.Data Data : DataSet)
-				{
-					cellValue = Data.getCellValue();
-					cellType = Data.getCellType();
-					rowNum = Data.getRow();
-					colNum = Data.getColumn();
-					XSSFRow row = sheet.getRow(rowNum);
-					if (row == null) {
-						row = sheet.createRow(rowNum);
-					}
-					XSSFCell cell = row.getCell(colNum);
-					if (cell == null) {
-						cell = row.createCell(colNum);
-					}
-					
-					Utils.SetCellValue(workbook, cell, cellType, cellValue);
-					if (CustomFormat != null) {
-						style.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat(CustomFormat));
-						dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat(CustomFormat));
-					}
-					
-					if (cellType == CellType.datetime) {
-						cell.setCellStyle(dateStyle);
-					} else if (cellValue != null && cellValue.indexOf('\n') != -1) {
-						XSSFCellStyle newStyle = ((XSSFWorkbook)workbook).createCellStyle();
-						newStyle.cloneStyleFrom(style);
-						newStyle.setWrapText(true);
-						cell.setCellStyle(newStyle);
-					} else {
-						cell.setCellStyle(style);
-					}
-					
-					if (AutofitColumn) {
-						sheet.autoSizeColumn(colNum);
-					}
+				if (widths != null) {
+					widths.Record(cell);
 				}
 			}
+			if (widths != null) {
+				widths.Apply(sheet);
+			}
 			
 			return true;
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Cell_WriteRange: " + e.getMessage() + "\n" + e.toString(), e);
 			return false;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
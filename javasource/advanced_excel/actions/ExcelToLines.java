@@ -124,7 +124,9 @@ public class ExcelToLines extends UserAction<java.util.List<IMendixObject>>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.ExcelToList: " + e.getMessage() + "\n" + e.toString(), e);
 			return null;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
@@ -10,37 +10,27 @@
 package advanced_excel.actions;
 
 import advanced_excel.proxies.DocumentType;
+import advanced_excel.ImportMapping;
 import advanced_excel.Utils;
 import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
-import com.mendix.core.CoreException;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
-import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
-import org.apache.poi.ss.usermodel.DateUtil;
-import org.apache.poi.ss.usermodel.CellType;
-import org.apache.poi.ss.usermodel.CreationHelper;
-import org.apache.poi.ss.usermodel.FormulaEvaluator;
 import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import com.mendix.systemwideinterfaces.core.UserAction;
 
 /**
  * Converts an Excel object to a Record List.
  * To use this function you need an Entity that matches the Excel file content you want to import. The function matches the attributes of the Entity specified in the ListType property with column headings in the Excel file.
  * If the Entity doesn't match, you can use the AttributesMapping and AttributesToSkip properties to define the mapping between attributes of the Entity and column headings of the Excel file.
+ * Values that cannot be converted to the type of their attribute are left empty and reported in the log.
  */
 public class ExcelToList extends UserAction<java.util.List<IMendixObject>>
 {
@@ -84,15 +74,8 @@ public class ExcelToList extends UserAction<java.util.List<IMendixObject>>
 				return null;
 			} 
 			
-			String[] MappingArray = AttributesMapping == null ? new String[0] : AttributesMapping.split(";");
-			String[] SkipArray = AttributesToSkip == null ? new String[0] : AttributesToSkip.split(";");
-			
 			Cell cell;
 			Row row;
-			String field;
-            DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd hh:mm:ss");  
-			CreationHelper helper = workbook.getCreationHelper();
-			FormulaEvaluator evaluator = helper.createFormulaEvaluator();
 			DataFormatter formatter = new DataFormatter();
 			IMetaObject metaEntity = Core.getMetaObject(ListType);
 			Sheet sheet = workbook.getSheet(this.SheetName);
@@ -107,28 +90,13 @@ public class ExcelToList extends UserAction<java.util.List<IMendixObject>>
 			int cellTotal = row.getPhysicalNumberOfCells();
 			logger.info("Cell Total: " + cellTotal);
 			
-			List<String> Fields = new ArrayList<String>();
+			String[] headings = new String[cellTotal];
 			for (int i = 0; i < cellTotal; i++) {
 				cell = row.getCell(i);
-				if (cell == null) { throw new Exception("Cell 0 - " + i + " not found"); }
-				
-				// Manage Attribute skipped
-				field = formatter.formatCellValue(cell);
-				if (Arrays.asList(SkipArray).contains(field))
-				{ Fields.add(""); continue; }
-				
-				// Manage attribute mapping
-				for (String mapping : MappingArray)
-				{
-					if (mapping.contains(field + "="))
-					{ field = mapping.substring(field.length() + 1); break; }
-				}
-					
-				IMetaPrimitive attribute = metaEntity.getMetaPrimitive(field);
-				if (attribute == null) { throw new Exception("Attribute " + field + " not found in the entity"); }
-					
-				Fields.add(field);
+				headings[i] = cell == null ? null : formatter.formatCellValue(cell);
 			}
+			// resolve the attribute and converter of every column once instead of per cell
+			ImportMapping mapping = ImportMapping.Compile(metaEntity, headings, TitleRowNum.intValue() - 1, AttributesMapping, AttributesToSkip);
 
 			List<IMendixObject> EntityList = new ArrayList<IMendixObject>();
 			IMendixObject object;
@@ -137,47 +105,18 @@ public class ExcelToList extends UserAction<java.util.List<IMendixObject>>
 				if (row == null) { continue; }
 				
 				object = Core.instantiate(context, ListType);
-				for (int j = 0; j < Fields.size(); j++) {
-					if (Fields.get(j) == "") { continue; } // Attribute skipped
-
-					cell = row.getCell(j);
-					if (cell == null) { continue; }
-					
-					String cellValue = "";
-					if (cell.getCellType() == CellType.FORMULA) {
-						switch (cell.getCachedFormulaResultType()) {
-							case BOOLEAN:
-								cellValue = "" + cell.getBooleanCellValue();
-								break;
-							case NUMERIC:
-								cellValue = String.valueOf(cell.getNumericCellValue());
-								break;
-							case STRING:
-								cellValue = "" + cell.getRichStringCellValue();
-								break;
-						}
-					}
-					else if (cell.getCellType() == CellType.NUMERIC) {
-						if (DateUtil.isCellDateFormatted(cell)) {
-							Date date = cell.getDateCellValue();
-							cellValue = dateFormat.format(date);
-						}
-						else
-						{ cellValue = formatter.formatCellValue(cell); }
-					}
-					else
-					{ cellValue = formatter.formatCellValue(cell); }
-					
-					object.setValue​(context, Fields.get(j), cellValue);
-				}
+				mapping.SetValues(context, object, row);
 				EntityList.add(object);
 			}
+			mapping.LogErrors(logger, ListType);
 			
 			return EntityList;
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.ExcelToList: " + e.getMessage() + "\n" + e.toString(), e);
 			return null;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
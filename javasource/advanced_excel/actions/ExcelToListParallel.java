@@ -0,0 +1,113 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package advanced_excel.actions;
+
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import advanced_excel.ParallelImport;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Imports several sheets of an Excel file, or one large sheet, into objects of the Entity specified in the ListType property, using several threads.
+ * SheetNames is a ';' separated list of the sheets to import, or empty to import all sheets. Every sheet has a title row at TitleRowNum whose columns are matched with attributes like ExcelToList does, using AttributesMapping and AttributesToSkip.
+ * The rows are cut into batches of BatchSize rows that are mapped and handed over concurrently by Parallelism workers (default: the number of processors), each in a context of its own: to BatchMicroflow, which must have a list parameter of the ListType entity, or, if no microflow is given, by committing them.
+ * If PreserveOrder is true, the sheets are read one after the other and the batches are handed over in sheet and row order; otherwise the sheets are read concurrently and the order is not defined.
+ * Values that cannot be converted, batches that fail and sheets that cannot be read do not stop the import. Returns a JSON report with the number of rows read, imported and failed per sheet and the first errors, or empty if the import could not start.
+ */
+public class ExcelToListParallel extends UserAction<java.lang.String>
+{
+	/** @deprecated use ExcelFile.getMendixObject() instead. */
+	@java.lang.Deprecated(forRemoval = true)
+	private final IMendixObject __ExcelFile;
+	private final advanced_excel.proxies.AdvancedExcel ExcelFile;
+	private final java.lang.String SheetNames;
+	private final java.lang.String ListType;
+	private final java.lang.Long TitleRowNum;
+	private final java.lang.String AttributesMapping;
+	private final java.lang.String AttributesToSkip;
+	private final java.lang.Long BatchSize;
+	private final java.lang.String BatchMicroflow;
+	private final java.lang.Long Parallelism;
+	private final java.lang.Boolean PreserveOrder;
+
+	public ExcelToListParallel(
+		IContext context,
+		IMendixObject _excelFile,
+		java.lang.String _sheetNames,
+		java.lang.String _listType,
+		java.lang.Long _titleRowNum,
+		java.lang.String _attributesMapping,
+		java.lang.String _attributesToSkip,
+		java.lang.Long _batchSize,
+		java.lang.String _batchMicroflow,
+		java.lang.Long _parallelism,
+		java.lang.Boolean _preserveOrder
+	)
+	{
+		super(context);
+		this.__ExcelFile = _excelFile;
+		this.ExcelFile = _excelFile == null ? null : advanced_excel.proxies.AdvancedExcel.initialize(getContext(), _excelFile);
+		this.SheetNames = _sheetNames;
+		this.ListType = _listType;
+		this.TitleRowNum = _titleRowNum;
+		this.AttributesMapping = _attributesMapping;
+		this.AttributesToSkip = _attributesToSkip;
+		this.BatchSize = _batchSize;
+		this.BatchMicroflow = _batchMicroflow;
+		this.Parallelism = _parallelism;
+		this.PreserveOrder = _preserveOrder;
+	}
+
+	@java.lang.Override
+	public java.lang.String executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		try
+		{
+			List<String> sheetNames = new ArrayList<String>();
+			if (SheetNames != null) {
+				for (String sheetName : SheetNames.split(";")) {
+					if (!sheetName.trim().isEmpty()) { sheetNames.add(sheetName.trim()); }
+				}
+			}
+			int batchSize = BatchSize == null || BatchSize <= 0 ? DEFAULT_BATCH_SIZE : BatchSize.intValue();
+			int parallelism = Parallelism == null || Parallelism <= 0 ? Runtime.getRuntime().availableProcessors() : Parallelism.intValue();
+			ParallelImport parallelImport = new ParallelImport(getContext(), ListType, TitleRowNum.intValue(), AttributesMapping, AttributesToSkip, batchSize, BatchMicroflow, parallelism, Boolean.TRUE.equals(PreserveOrder));
+			try (InputStream inStream = Core.getFileDocumentContent(getContext(), ExcelFile.getMendixObject())) {
+				return parallelImport.Run(inStream, ExcelFile.getDocumentType(), sheetNames);
+			}
+		} catch (Exception e) {
+			logger.error("ERROR in Advanced_Excel.ExcelToListParallel: " + e.getMessage() + "\n" + e.toString(), e);
+			return null;
+		} 
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "ExcelToListParallel";
+	}
+
+	// BEGIN EXTRA CODE
+	protected static ILogNode logger = Core.getLogger("Advanced_Excel");
+	
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+	// END EXTRA CODE
+}
@@ -0,0 +1,97 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package advanced_excel.actions;
+
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import java.io.InputStream;
+import advanced_excel.StreamingImport;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Imports a sheet of an Excel file into objects of the Entity specified in the ListType property, without loading the workbook in memory.
+ * Columns are matched with attributes like ExcelToList does, using the same TitleRowNum, AttributesMapping and AttributesToSkip properties.
+ * The file is read row by row and the objects are handed over in batches of BatchSize objects: to BatchMicroflow, which must have a list parameter of the ListType entity, or, if no microflow is given, by committing them. Memory use depends on the batch size only, not on the size of the file.
+ * Returns the number of imported rows, or empty if the import failed. Batches handed over before the failure are not rolled back.
+ */
+public class ExcelToListStreaming extends UserAction<java.lang.Long>
+{
+	/** @deprecated use ExcelFile.getMendixObject() instead. */
+	@java.lang.Deprecated(forRemoval = true)
+	private final IMendixObject __ExcelFile;
+	private final advanced_excel.proxies.AdvancedExcel ExcelFile;
+	private final java.lang.String SheetName;
+	private final java.lang.String ListType;
+	private final java.lang.Long TitleRowNum;
+	private final java.lang.String AttributesMapping;
+	private final java.lang.String AttributesToSkip;
+	private final java.lang.Long BatchSize;
+	private final java.lang.String BatchMicroflow;
+
+	public ExcelToListStreaming(
+		IContext context,
+		IMendixObject _excelFile,
+		java.lang.String _sheetName,
+		java.lang.String _listType,
+		java.lang.Long _titleRowNum,
+		java.lang.String _attributesMapping,
+		java.lang.String _attributesToSkip,
+		java.lang.Long _batchSize,
+		java.lang.String _batchMicroflow
+	)
+	{
+		super(context);
+		this.__ExcelFile = _excelFile;
+		this.ExcelFile = _excelFile == null ? null : advanced_excel.proxies.AdvancedExcel.initialize(getContext(), _excelFile);
+		this.SheetName = _sheetName;
+		this.ListType = _listType;
+		this.TitleRowNum = _titleRowNum;
+		this.AttributesMapping = _attributesMapping;
+		this.AttributesToSkip = _attributesToSkip;
+		this.BatchSize = _batchSize;
+		this.BatchMicroflow = _batchMicroflow;
+	}
+
+	@java.lang.Override
+	public java.lang.Long executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		try
+		{
+			int batchSize = BatchSize == null || BatchSize <= 0 ? DEFAULT_BATCH_SIZE : BatchSize.intValue();
+			StreamingImport streamingImport = StreamingImport.ForEntity(getContext(), ListType, TitleRowNum.intValue(), AttributesMapping, AttributesToSkip, batchSize, BatchMicroflow);
+			try (InputStream inStream = Core.getFileDocumentContent(getContext(), ExcelFile.getMendixObject())) {
+				return streamingImport.Run(inStream, ExcelFile.getDocumentType(), SheetName);
+			}
+		} catch (Exception e) {
+			logger.error("ERROR in Advanced_Excel.ExcelToListStreaming: " + e.getMessage() + "\n" + e.toString(), e);
+			return null;
+		} 
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "ExcelToListStreaming";
+	}
+
+	// BEGIN EXTRA CODE
+	protected static ILogNode logger = Core.getLogger("Advanced_Excel");
+	
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+	// END EXTRA CODE
+}
@@ -11,6 +11,9 @@ package advanced_excel.actions;
 
 import advanced_excel.proxies.CellType;
 import advanced_excel.proxies.DocumentType;
+import advanced_excel.CellWriter;
+import advanced_excel.ColumnWidths;
+import advanced_excel.ExportPlan;
 import advanced_excel.Utils;
 import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
@@ -24,23 +27,9 @@ import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFCell;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.apache.poi.xssf.usermodel.XSSFCellStyle;
 import java.util.Map;
 import java.util.List;
-import java.util.Date;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.io.FileOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
@@ -102,63 +91,47 @@ public class ListToExcel extends UserAction<java.lang.Boolean>
 				return false;
 			}
 			
-			String[] attrOrder = AttributeOrder == null ? new String[0] : AttributeOrder.split(";");
+			// compile the attribute order once and retrieve all associated objects for the whole list up front
+			ExportPlan plan = null;
+			if (AttributeOrder != null && !AttributeOrder.isEmpty()) {
+				plan = ExportPlan.Compile(AttributeOrder);
+				plan.Prefetch(this.getContext(), List);
+			}
 			Sheet sheet;
 			Row row;
 			Cell cell;
 			CellStyle style;
+			CellStyle wrapStyle;
 			CellStyle dateStyle;
 			CellStyle title;
-			if (docType == DocumentType.XLS) {
-				sheet = ((HSSFWorkbook)workbook).getSheet(this.SheetName);
-				if (sheet == null) { throw new Exception("Sheet: " + this.SheetName + " not found!"); }
-				
-				style = ((HSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, style, this.CellFormat, docType);
-				
-				dateStyle = ((HSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, dateStyle, this.CellFormat, docType);
-				dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-MM-dd HH:mm:ss"));
-				
-				title = ((HSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, title, this.TitleFormat, docType);
-			} else {
-				sheet = ((XSSFWorkbook)workbook).getSheet(this.SheetName);
-				if (sheet == null) { throw new Exception("Sheet: " + this.SheetName + " not found!"); }
-				
-				style = ((XSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, style, this.CellFormat, docType);
-				
-				dateStyle = ((XSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, dateStyle, this.CellFormat, docType);
-				dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-MM-dd HH:mm:ss"));
-				
-				title = ((XSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, title, this.TitleFormat, docType);
-			}
+			sheet = Utils.GetSheet(workbook, this.SheetName);
+			
+			style = Utils.GetStyle(workbook, this.CellFormat, false, null);
+			wrapStyle = Utils.GetStyle(workbook, this.CellFormat, true, null);
+			dateStyle = Utils.GetStyle(workbook, this.CellFormat, false, Utils.DATETIME_FORMAT);
+			title = Utils.GetStyle(workbook, this.TitleFormat, false, null);
+			
+			boolean autofit = (this.CellFormat != null && this.CellFormat.getAutofitColumn()) || (this.TitleFormat != null && this.TitleFormat.getAutofitColumn());
+			// widths are estimated while writing and set once at the end
+			ColumnWidths widths = autofit ? ColumnWidths.Get(workbook) : null;
 
 			Integer rowNum = 0;
 			Integer colNum = 0;
+			CellWriter[] writers = null;
 			for (IMendixObject obj:List)
 			{
 				colNum = 0;
 				Map<String, ? extends IMendixObjectMember<?>> members = obj.getMembers(this.getContext());
+				if (writers == null) {
+					// the writer of a column is resolved from its member on the first row
+					writers = new CellWriter[plan == null ? members.size() : plan.GetColumns().size()];
+				}
 				
 				// Create Title row
 				if (rowNum == 0)
 				{
-					if (docType == DocumentType.XLS) {
-						row = ((HSSFSheet)sheet).getRow(rowNum);
-						if (row == null) {
-							row = ((HSSFSheet)sheet).createRow(rowNum);
-						}
-					} else {
-						row = ((XSSFSheet)sheet).getRow(rowNum);
-						if (row == null) {
-							row = ((XSSFSheet)sheet).createRow(rowNum);
-						}
-					}
-					if (attrOrder.length == 0) {
+					row = Utils.GetOrCreateRow(sheet, rowNum);
+					if (plan == null) {
 						for (String key : members.keySet()) {
 							IMendixObjectMember<?> m = members.get(key);
 							if (m.isVirtual()) {
@@ -168,65 +141,32 @@ public class ListToExcel extends UserAction<java.lang.Boolean>
 								continue;
 							}
 							
-							if (docType == DocumentType.XLS) {
-								cell = ((HSSFRow)row).getCell(colNum);
-								if (cell == null) {
-									cell = ((HSSFRow)row).createCell(colNum);
-								}
-							} else {
-								cell = ((XSSFRow)row).getCell(colNum);
-								if (cell == null) {
-									cell = ((XSSFRow)row).createCell(colNum);
-								}
-							}
+							cell = Utils.GetOrCreateCell(row, colNum);
 							Utils.SetCellValue(workbook, cell, CellType.text, m.getName());
 							if (this.TitleFormat != null) { cell.setCellStyle(title); };
+							if (widths != null) { widths.Record(cell); }
 							colNum++;
 						}
 					} else {
-						for (String attr : attrOrder) {
-							if (docType == DocumentType.XLS) {
-								cell = ((HSSFRow)row).getCell(colNum);
-								if (cell == null) {
-									cell = ((HSSFRow)row).createCell(colNum);
-								}
+						for (ExportPlan.Column column : plan.GetColumns()) {
+							cell = Utils.GetOrCreateCell(row, colNum);
+							
+							if (column.GetTitle() != null) {
+								Utils.SetCellValue(workbook, cell, CellType.text, column.GetTitle());
+								if (this.TitleFormat != null) { cell.setCellStyle(title); };
+								if (widths != null) { widths.Record(cell); }
 							} else {
-								cell = ((XSSFRow)row).getCell(colNum);
-								if (cell == null) {
-									cell = ((XSSFRow)row).createCell(colNum);
-								}
-							}
-								
-							if (attr.contains("/")) {
-								String[] paths = attr.split("/");
-								int attPos = paths.length - 1;
-								
-								if (paths[attPos].contains(":")) {
-									String[] names = paths[attPos].split(":");
-									Utils.SetCellValue(workbook, cell, CellType.text, names[1]);
-									if (this.TitleFormat != null) { cell.setCellStyle(title); };
-								} else {
-									Utils.SetCellValue(workbook, cell, CellType.text, paths[1]);
-									if (this.TitleFormat != null) { cell.setCellStyle(title); };
+								IMendixObjectMember<?> m = obj.getMember(this.getContext(), column.GetAttribute());
+								if (m.isVirtual()) {
+									continue;
 								}
-							}
-							else {
-								if (attr.contains(":")) {
-									String[] names = attr.split(":");
-									Utils.SetCellValue(workbook, cell, CellType.text, names[1]);
-									if (this.TitleFormat != null) { cell.setCellStyle(title); };
-								} else {
-									IMendixObjectMember<?> m = obj.getMember(this.getContext(), attr);
-									if (m.isVirtual()) {
-										continue;
-									}
-									if (m instanceof MendixAutoNumber) {
-										continue;
-									}
-									
-									Utils.SetCellValue(workbook, cell, CellType.text, m.getName());
-									if (this.TitleFormat != null) { cell.setCellStyle(title); };
+								if (m instanceof MendixAutoNumber) {
+									continue;
 								}
+								
+								Utils.SetCellValue(workbook, cell, CellType.text, m.getName());
+								if (this.TitleFormat != null) { cell.setCellStyle(title); };
+								if (widths != null) { widths.Record(cell); }
 							}
 							colNum++;
 						}
@@ -236,19 +176,9 @@ public class ListToExcel extends UserAction<java.lang.Boolean>
 					colNum = 0;
 				}
 			
-				if (docType == DocumentType.XLS) {
-					row = ((HSSFSheet)sheet).getRow(rowNum);
-					if (row == null) {
-						row = ((HSSFSheet)sheet).createRow(rowNum);
-					}
-				} else {
-					row = ((XSSFSheet)sheet).getRow(rowNum);
-					if (row == null) {
-						row = ((XSSFSheet)sheet).createRow(rowNum);
-					}
-				}
+				row = Utils.GetOrCreateRow(sheet, rowNum);
 				
-				if (attrOrder.length == 0) {
+				if (plan == null) {
 					for (String key : members.keySet()) {
 						IMendixObjectMember<?> m = members.get(key);
 						if (m.isVirtual()) {
@@ -258,92 +188,40 @@ public class ListToExcel extends UserAction<java.lang.Boolean>
 							continue;
 						}
 						
-						if (docType == DocumentType.XLS) {
-							cell = ((HSSFRow)row).getCell(colNum);
-							if (cell == null) {
-								cell = ((HSSFRow)row).createCell(colNum);
-							}
-						} else {
-							cell = ((XSSFRow)row).getCell(colNum);
-							if (cell == null) {
-								cell = ((XSSFRow)row).createCell(colNum);
-							}
-						}
+						cell = Utils.GetOrCreateCell(row, colNum);
 						
-						if (SetMemberValue(this.getContext(), m, workbook, cell)) {
+						if (SetMemberValue(this.getContext(), m, writers, colNum, cell)) {
 							cell.setCellStyle(dateStyle);
 						} else if (this.CellFormat != null) {
 							cell.setCellStyle(style);
 						}
+						if (widths != null) { widths.Record(cell); }
 						colNum++;
 					}
 				} else {
-					for (String attr : attrOrder) {
-						if (docType == DocumentType.XLS) {
-							cell = ((HSSFRow)row).getCell(colNum);
-							if (cell == null) {
-								cell = ((HSSFRow)row).createCell(colNum);
-							}
-						} else {
-							cell = ((XSSFRow)row).getCell(colNum);
-							if (cell == null) {
-								cell = ((XSSFRow)row).createCell(colNum);
-							}
-						}
+					for (ExportPlan.Column column : plan.GetColumns()) {
+						cell = Utils.GetOrCreateCell(row, colNum);
 						
-						IMendixObjectMember<?> m;
-						if (attr.contains("/")) {
-							String[] paths = attr.split("/");
-							int attPos = paths.length - 1;
-							
-							List<IMendixObject> curObjs = Arrays.asList(obj);
-							for (int i = 0; i < attPos; i++) {
-								List<IMendixObject> objs = Core.retrieveByPath(this.getContext(), curObjs.get(0), paths[i]);
-								if (objs.size() > 1 && i < attPos - 1) { throw new Exception("too much associated object found: " + paths[i] + "\nPath: " + attr); }
-								else if (objs.size() == 0) { colNum++; curObjs = null; continue; }
+						List<IMendixObject> curObjs = plan.Resolve(column, obj);
+						if (curObjs.isEmpty()) { colNum++; continue; }
+						
+						if (curObjs.size() > 1) {
+							String valStr = "";
+							for (IMendixObject curObj : curObjs) {
+								var val = curObj.getMember(this.getContext(), column.GetAttribute()).getValue(this.getContext());
+								if (val == null) { continue; }
 								
-								curObjs = objs;
+								valStr = valStr == "" ? val.toString() : valStr + "\r\n" + val.toString();
 							}
 							
-							if (curObjs == null) { continue; }
-							
-							if (curObjs.size() > 1) {
-								String valStr = "";
-								for (IMendixObject curObj : curObjs) {
-									if (paths[attPos].contains(":")) {
-										String[] names = paths[attPos].split(":");
-										m = curObj.getMember(this.getContext(), names[0]);
-									} else {
-										m = curObj.getMember(this.getContext(), paths[attPos]);
-									}
-									var val = m.getValue(this.getContext());
-									if (val == null) { continue; }
-									
-									valStr = valStr == "" ? val.toString() : valStr + "\r\n" + val.toString();
-								}
-								
-								Utils.SetCellValue(workbook, cell, CellType.text, valStr);
-								style.setWrapText(true);
-								cell.setCellStyle(style);
-								colNum++;
-								continue;
-							} else {
-								if (paths[attPos].contains(":")) {
-									String[] names = paths[attPos].split(":");
-									m = curObjs.get(0).getMember(this.getContext(), names[0]);
-								} else {
-									m = curObjs.get(0).getMember(this.getContext(), paths[attPos]);
-								}
-							}
-						} else {
-							if (attr.contains(":")) {
-								String[] names = attr.split(":");
-								m = obj.getMember(this.getContext(), names[0]);
-							} else {
-								m = obj.getMember(this.getContext(), attr);
-							}
+							Utils.SetCellValue(workbook, cell, CellType.text, valStr);
+							cell.setCellStyle(wrapStyle);
+							if (widths != null) { widths.Record(cell); }
+							colNum++;
+							continue;
 						}
 						
+						IMendixObjectMember<?> m = curObjs.get(0).getMember(this.getContext(), column.GetAttribute());
 						if (m.isVirtual()) {
 							continue;
 						}
@@ -351,26 +229,28 @@ public class ListToExcel extends UserAction<java.lang.Boolean>
 							continue;
 						}
 						
-						if (SetMemberValue(this.getContext(), m, workbook, cell)) {
+						if (SetMemberValue(this.getContext(), m, writers, colNum, cell)) {
 							cell.setCellStyle(dateStyle);
 						} else if (this.CellFormat != null) {
 							cell.setCellStyle(style);
 						}
+						if (widths != null) { widths.Record(cell); }
 						colNum++;
 					}
 				}
 				rowNum++;
 			}
 			
-			if ((this.CellFormat != null && this.CellFormat.getAutofitColumn()) || (this.TitleFormat != null && this.TitleFormat.getAutofitColumn())) {
-				for (int i = 0; i < colNum; i++)
-				{ sheet.autoSizeColumn(i); }
+			if (widths != null) {
+				widths.Apply(sheet);
 			}
 			
 			return true;
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.ListToExcel: " + e.getMessage() + "\n" + e.toString(), e);
 			return false;
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
 		}
 		// END USER CODE
 	}
@@ -388,24 +268,13 @@ public class ListToExcel extends UserAction<java.lang.Boolean>
 	// BEGIN EXTRA CODE
 	protected static ILogNode logger = Core.getLogger("Advanced_Excel");
 	
-	protected static Boolean SetMemberValue(IContext context, IMendixObjectMember<?> member, Workbook workbook, Cell cell)
+	protected static boolean SetMemberValue(IContext context, IMendixObjectMember<?> member, CellWriter[] writers, int colNum, Cell cell)
 	{
-		CellType cellType = CellType.text;
-		var val = member.getValue(context);
-		String valStr = val == null ? "" : val.toString();
-		if (member instanceof MendixInteger) { cellType = CellType.integer; }
-		else if (member instanceof MendixBoolean) { cellType = CellType._boolean; }
-		else if (member instanceof MendixDecimal) { cellType = CellType.decimal; }
-		else if (member instanceof MendixLong) { cellType = CellType.integer; }
-		else if (member instanceof MendixString) { cellType = CellType.text; }
-		else if (member instanceof MendixDateTime) {
-			cellType = CellType.datetime;
-			DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");  
-			valStr = val == null ? "" : dateFormat.format((Date)val);
+		if (writers[colNum] == null) {
+			writers[colNum] = CellWriter.ForMember(member);
 		}
-		
-		Utils.SetCellValue(workbook, cell, cellType, valStr);
-		return cellType == CellType.datetime;
+		writers[colNum].Write(cell, member.getValue(context));
+		return writers[colNum].IsDateTime();
 	}
 	// END EXTRA CODE
 }
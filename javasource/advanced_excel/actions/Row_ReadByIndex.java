@@ -92,7 +92,9 @@ public class Row_ReadByIndex extends UserAction<java.util.List<IMendixObject>>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Row_ReadByIndex: " + e.getMessage() + "\n" + e.toString(), e);
 			return null;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
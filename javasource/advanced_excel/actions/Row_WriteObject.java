@@ -9,8 +9,8 @@
 
 package advanced_excel.actions;
 
-import advanced_excel.proxies.CellType;
 import advanced_excel.proxies.DocumentType;
+import advanced_excel.CellWriter;
 import advanced_excel.Utils;
 import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
@@ -24,19 +24,6 @@ import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFCell;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.apache.poi.xssf.usermodel.XSSFCellStyle;
-import java.util.Date;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -93,46 +80,13 @@ public class Row_WriteObject extends UserAction<java.lang.Boolean>
 			CellStyle style;
 			CellStyle wrapStyle;
 			CellStyle dateStyle;
-			CellType cellType;
-			if (docType == DocumentType.XLS) {
-				sheet = ((HSSFWorkbook)workbook).getSheet(this.SheetName);
-				if (sheet == null) { throw new Exception("Sheet: " + this.SheetName + " not found!"); }
-				
-				style = ((HSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, style, this.CellFormat, docType);
-				
-				dateStyle = ((HSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, dateStyle, this.CellFormat, docType);
-				dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-MM-dd HH:mm:ss"));
-				
-				wrapStyle = ((HSSFWorkbook)workbook).createCellStyle();
-				wrapStyle.cloneStyleFrom(style);
-				wrapStyle.setWrapText(true);
-				
-				row = ((HSSFSheet)sheet).getRow(RowNb.intValue());
-				if (row == null) {
-					row = ((HSSFSheet)sheet).createRow(RowNb.intValue());
-				}
-			} else {
-				sheet = ((XSSFWorkbook)workbook).getSheet(this.SheetName);
-				if (sheet == null) { throw new Exception("Sheet: " + this.SheetName + " not found!"); }
-				
-				style = ((XSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, style, this.CellFormat, docType);
-				
-				dateStyle = ((XSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, dateStyle, this.CellFormat, docType);
-				dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-MM-dd HH:mm:ss"));
-				
-				wrapStyle = ((XSSFWorkbook)workbook).createCellStyle();
-				wrapStyle.cloneStyleFrom(style);
-				wrapStyle.setWrapText(true);
-				
-				row = ((XSSFSheet)sheet).getRow(RowNb.intValue());
-				if (row == null) {
-					row = ((XSSFSheet)sheet).createRow(RowNb.intValue());
-				}
-			}
+			sheet = Utils.GetSheet(workbook, this.SheetName);
+			
+			style = Utils.GetStyle(workbook, this.CellFormat, false, null);
+			dateStyle = Utils.GetStyle(workbook, this.CellFormat, false, Utils.DATETIME_FORMAT);
+			wrapStyle = Utils.GetStyle(workbook, this.CellFormat, true, null);
+			
+			row = Utils.GetOrCreateRow(sheet, RowNb.intValue());
 			
 			String[] attributes = Attributes == null ? new String[0] : Attributes.split(";");
 			for (int i = 0; i < attributes.length; i++) {
@@ -161,45 +115,26 @@ public class Row_WriteObject extends UserAction<java.lang.Boolean>
 					continue;
 				}
 				
-				String valStr = "";
-				var val = m.getValue(context);
+				Object value;
+				CellWriter writer;
 				if (curObjs.size() > 1) {
+					String valStr = "";
 					for (int j = 0; j < curObjs.size(); j++) {
-						val = curObjs.get(j).getMember(context, attr).getValue(context);
+						var val = curObjs.get(j).getMember(context, attr).getValue(context);
 						valStr = (j == 0 ? "" : valStr + ";") + (val == null ? "" : val.toString());
 					}
+					value = valStr;
+					writer = CellWriter.TEXT;
 				} else {
-					valStr = val == null ? "" : val.toString();
-				}
-				
-				cellType = CellType.text;
-				if (curObjs.size() > 1) { cellType = CellType.text; }
-				else if (m instanceof MendixInteger) { cellType = CellType.integer; }
-				else if (m instanceof MendixBoolean) { cellType = CellType._boolean; }
-				else if (m instanceof MendixDecimal) { cellType = CellType.decimal; }
-				else if (m instanceof MendixLong) { cellType = CellType.integer; }
-				else if (m instanceof MendixDateTime) {
-					cellType = CellType.datetime;
-					DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");  
-					valStr = val == null ? "" : dateFormat.format((Date)val);
+					value = m.getValue(context);
+					writer = CellWriter.ForMember(m);
 				}
-				else { cellType = CellType.text; }
 				
-				if (docType == DocumentType.XLS) {
-					cell = ((HSSFRow)row).getCell(i);
-					if (cell == null) {
-						cell = ((HSSFRow)row).createCell(i);
-					}
-				} else {
-					cell = ((XSSFRow)row).getCell(i);
-					if (cell == null) {
-						cell = ((XSSFRow)row).createCell(i);
-					}
-				}
-				Utils.SetCellValue(workbook, cell, cellType, valStr);
-				if (cellType == CellType.datetime) {
+				cell = Utils.GetOrCreateCell(row, i);
+				writer.Write(cell, value);
+				if (writer.IsDateTime()) {
 					cell.setCellStyle(dateStyle);
-				} else if (valStr != null && valStr.indexOf('\n') != -1) {
+				} else if (value instanceof String && ((String) value).indexOf('\n') != -1) {
 					cell.setCellStyle(wrapStyle);
 				} else if (this.CellFormat != null) {
 					cell.setCellStyle(style);
@@ -209,7 +144,9 @@ public class Row_WriteObject extends UserAction<java.lang.Boolean>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Row_WriteObject: " + e.getMessage() + "\n" + e.toString(), e);
 			return false;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
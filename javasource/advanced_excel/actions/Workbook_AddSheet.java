@@ -15,10 +15,6 @@ import java.io.IOException;
 import advanced_excel.proxies.DocumentType;
 import advanced_excel.Utils;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.UserAction;
@@ -55,17 +51,15 @@ public class Workbook_AddSheet extends UserAction<java.lang.Boolean>
 				return false;
 			} 
 			
-			if (docType == DocumentType.XLS) {
-				HSSFSheet sheet = ((HSSFWorkbook)workbook).createSheet(this.SheetName);
-			} else {
-				XSSFSheet sheet = ((XSSFWorkbook)workbook).createSheet(this.SheetName);
-			}
+			workbook.createSheet(this.SheetName);
 			
 			return true;
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Workbook_AddSheet: " + e.getMessage() + "\n" + e.toString(), e);
 			return false;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
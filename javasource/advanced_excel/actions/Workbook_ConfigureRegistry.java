@@ -0,0 +1,79 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package advanced_excel.actions;
+
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import java.util.concurrent.TimeUnit;
+import advanced_excel.WorkbookRegistry;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Configures how open workbooks are kept in memory. Call it from an after startup microflow.
+ * MemoryBudgetMB: estimated memory all open workbooks may use. Above it, workbooks that have not been used for SpillAfterIdleSeconds are written to compressed temporary files and loaded again when they are used. Default: a quarter of the maximum heap.
+ * IdleTimeoutMinutes: time a workbook may stay unused before it is released as if Workbook_Close was called. Default: 30 minutes.
+ * SpillAfterIdleSeconds: time a workbook has to be unused before it may be written to disk. Default: 60 seconds.
+ * Streaming workbooks are never written to disk by the registry.
+ */
+public class Workbook_ConfigureRegistry extends UserAction<java.lang.Boolean>
+{
+	private final java.lang.Long MemoryBudgetMB;
+	private final java.lang.Long IdleTimeoutMinutes;
+	private final java.lang.Long SpillAfterIdleSeconds;
+
+	public Workbook_ConfigureRegistry(
+		IContext context,
+		java.lang.Long _memoryBudgetMB,
+		java.lang.Long _idleTimeoutMinutes,
+		java.lang.Long _spillAfterIdleSeconds
+	)
+	{
+		super(context);
+		this.MemoryBudgetMB = _memoryBudgetMB;
+		this.IdleTimeoutMinutes = _idleTimeoutMinutes;
+		this.SpillAfterIdleSeconds = _spillAfterIdleSeconds;
+	}
+
+	@java.lang.Override
+	public java.lang.Boolean executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		try
+		{
+			long budget = MemoryBudgetMB == null || MemoryBudgetMB <= 0 ? Runtime.getRuntime().maxMemory() / 4 : MemoryBudgetMB * 1024 * 1024;
+			long timeToLive = IdleTimeoutMinutes == null || IdleTimeoutMinutes <= 0 ? DEFAULT_IDLE_TIMEOUT_MINUTES : IdleTimeoutMinutes;
+			long spillAfter = SpillAfterIdleSeconds == null || SpillAfterIdleSeconds < 0 ? DEFAULT_SPILL_AFTER_IDLE_SECONDS : SpillAfterIdleSeconds;
+			WorkbookRegistry.Configure(budget, TimeUnit.MINUTES.toMillis(timeToLive), TimeUnit.SECONDS.toMillis(spillAfter));
+			return true;
+		} catch (Exception e) {
+			logger.error("ERROR in Advanced_Excel.Workbook_ConfigureRegistry: " + e.getMessage() + "\n" + e.toString(), e);
+			return false;
+		} 
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "Workbook_ConfigureRegistry";
+	}
+
+	// BEGIN EXTRA CODE
+	protected static ILogNode logger = Core.getLogger("Advanced_Excel");
+	
+	private static final long DEFAULT_IDLE_TIMEOUT_MINUTES = 30;
+	private static final long DEFAULT_SPILL_AFTER_IDLE_SECONDS = 60;
+	// END EXTRA CODE
+}
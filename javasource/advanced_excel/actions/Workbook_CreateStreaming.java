@@ -0,0 +1,71 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package advanced_excel.actions;
+
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import advanced_excel.Utils;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Creates a new streaming xlsx workbook for large exports.
+ * Only the last RowAccessWindow rows of each sheet are kept in memory, older rows are written to temporary files (compressed if CompressTempFiles is true), so heap use stays flat regardless of the number of rows.
+ * Rows have to be written in ascending order: writing to a row that has already left the window fails with an error. Reading cells back is not supported.
+ * The workbook can be used with ListToExcel, Row_WriteObject, Cell_WriteRange, Worksheet_WriteValues and Workbook_WriteFile. Always call Workbook_Close to remove the temporary files.
+ */
+public class Workbook_CreateStreaming extends UserAction<java.lang.String>
+{
+	private final java.lang.Long RowAccessWindow;
+	private final java.lang.Boolean CompressTempFiles;
+
+	public Workbook_CreateStreaming(
+		IContext context,
+		java.lang.Long _rowAccessWindow,
+		java.lang.Boolean _compressTempFiles
+	)
+	{
+		super(context);
+		this.RowAccessWindow = _rowAccessWindow;
+		this.CompressTempFiles = _compressTempFiles;
+	}
+
+	@java.lang.Override
+	public java.lang.String executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		try
+		{
+			int window = RowAccessWindow == null || RowAccessWindow <= 0 ? DEFAULT_ROW_ACCESS_WINDOW : RowAccessWindow.intValue();
+			return Utils.AddStreamingWorkBook(window, CompressTempFiles == null || CompressTempFiles);
+		} catch (Exception e) {
+			logger.error("ERROR in Advanced_Excel.Workbook_CreateStreaming: " + e.getMessage() + "\n" + e.toString(), e);
+			return null;
+		} 
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "Workbook_CreateStreaming";
+	}
+
+	// BEGIN EXTRA CODE
+	protected static ILogNode logger = Core.getLogger("Advanced_Excel");
+	
+	private static final int DEFAULT_ROW_ACCESS_WINDOW = 100;
+	// END EXTRA CODE
+}
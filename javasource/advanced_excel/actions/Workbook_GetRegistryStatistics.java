@@ -0,0 +1,67 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package advanced_excel.actions;
+
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import java.util.stream.Collectors;
+import advanced_excel.WorkbookRegistry;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Returns the state of the open workbooks as JSON: the number of open workbooks, in memory and spilled to disk, their estimated memory use and peak, the memory budget, and the number of spills, reloads and expirations of abandoned workbooks.
+ * The counters are reset afterwards if ResetStatistics is true.
+ */
+public class Workbook_GetRegistryStatistics extends UserAction<java.lang.String>
+{
+	private final java.lang.Boolean ResetStatistics;
+
+	public Workbook_GetRegistryStatistics(
+		IContext context,
+		java.lang.Boolean _resetStatistics
+	)
+	{
+		super(context);
+		this.ResetStatistics = _resetStatistics;
+	}
+
+	@java.lang.Override
+	public java.lang.String executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		try
+		{
+			String json = WorkbookRegistry.GetStatistics().entrySet().stream()
+				.map(entry -> "\"" + entry.getKey() + "\":" + entry.getValue())
+				.collect(Collectors.joining(",", "{", "}"));
+			if (Boolean.TRUE.equals(ResetStatistics)) { WorkbookRegistry.ResetStatistics(); }
+			return json;
+		} catch (Exception e) {
+			logger.error("ERROR in Advanced_Excel.Workbook_GetRegistryStatistics: " + e.getMessage() + "\n" + e.toString(), e);
+			return null;
+		} 
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "Workbook_GetRegistryStatistics";
+	}
+
+	// BEGIN EXTRA CODE
+	protected static ILogNode logger = Core.getLogger("Advanced_Excel");
+	// END EXTRA CODE
+}
@@ -0,0 +1,67 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package advanced_excel.actions;
+
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import java.util.concurrent.TimeUnit;
+import advanced_excel.WorkbookRegistry;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Sets the time the workbook may stay unused before it is released as if Workbook_Close was called.
+ * Use it for workbooks that are kept open between requests for longer than the idle timeout of Workbook_ConfigureRegistry.
+ */
+public class Workbook_SetTimeToLive extends UserAction<java.lang.Boolean>
+{
+	private final java.lang.String WorkbookID;
+	private final java.lang.Long TimeToLiveMinutes;
+
+	public Workbook_SetTimeToLive(
+		IContext context,
+		java.lang.String _workbookID,
+		java.lang.Long _timeToLiveMinutes
+	)
+	{
+		super(context);
+		this.WorkbookID = _workbookID;
+		this.TimeToLiveMinutes = _timeToLiveMinutes;
+	}
+
+	@java.lang.Override
+	public java.lang.Boolean executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		try
+		{
+			WorkbookRegistry.SetTimeToLive(WorkbookID, TimeUnit.MINUTES.toMillis(TimeToLiveMinutes));
+			return true;
+		} catch (Exception e) {
+			logger.error("ERROR in Advanced_Excel.Workbook_SetTimeToLive: " + e.getMessage() + "\n" + e.toString(), e);
+			return false;
+		} 
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "Workbook_SetTimeToLive";
+	}
+
+	// BEGIN EXTRA CODE
+	protected static ILogNode logger = Core.getLogger("Advanced_Excel");
+	// END EXTRA CODE
+}
@@ -12,9 +12,6 @@ package advanced_excel.actions;
 import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
 import java.io.IOException;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.io.ByteArrayInputStream;
 import advanced_excel.Utils;
 import org.apache.poi.ss.usermodel.Workbook;
 import com.mendix.systemwideinterfaces.core.IContext;
@@ -56,18 +53,15 @@ public class Workbook_WriteFile extends UserAction<java.lang.Boolean>
 				return false;
 			} 
 			
-			try (ByteArrayOutputStream outStream = new ByteArrayOutputStream()) {
-				workbook.write(outStream);
-				try (ByteArrayInputStream inputStream = new ByteArrayInputStream(outStream.toByteArray())) {
-					Core.storeFileDocumentContent(getContext(), ExcelFile.getMendixObject(), inputStream);
-				}
-			}
+			Utils.WriteWorkBook(getContext(), WorkbookID, workbook, ExcelFile.getMendixObject(), false);
 			
 			return true;
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Workbook_WriteFile: " + e.getMessage() + "\n" + e.toString(), e);
 			return false;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
@@ -0,0 +1,82 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package advanced_excel.actions;
+
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import java.io.IOException;
+import advanced_excel.Utils;
+import org.apache.poi.ss.usermodel.Workbook;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Write WorkBook in Advanced Excel object and close it, as Workbook_WriteFile followed by Workbook_Close.
+ * The workbook is released as soon as it has been written, before the file is stored, so its memory can be reclaimed while the file is uploaded.
+ */
+public class Workbook_WriteFileAndClose extends UserAction<java.lang.Boolean>
+{
+	private final java.lang.String WorkbookID;
+	/** @deprecated use ExcelFile.getMendixObject() instead. */
+	@java.lang.Deprecated(forRemoval = true)
+	private final IMendixObject __ExcelFile;
+	private final advanced_excel.proxies.AdvancedExcel ExcelFile;
+
+	public Workbook_WriteFileAndClose(
+		IContext context,
+		java.lang.String _workbookID,
+		IMendixObject _excelFile
+	)
+	{
+		super(context);
+		this.WorkbookID = _workbookID;
+		this.__ExcelFile = _excelFile;
+		this.ExcelFile = _excelFile == null ? null : advanced_excel.proxies.AdvancedExcel.initialize(getContext(), _excelFile);
+	}
+
+	@java.lang.Override
+	public java.lang.Boolean executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		try
+		{
+			Workbook workbook = Utils.GetWorkBook(WorkbookID);
+			if (workbook == null) {
+				logger.error("ERROR in Advanced_Excel.Workbook_WriteFileAndClose:\nWorkbook object not found\nyou have to use Workbook_Create, Workbook_Open or Workbook_LoadFile to create the Workbook object");
+				return false;
+			} 
+			
+			Utils.WriteWorkBook(getContext(), WorkbookID, workbook, ExcelFile.getMendixObject(), true);
+			
+			return true;
+		} catch (Exception e) {
+			logger.error("ERROR in Advanced_Excel.Workbook_WriteFileAndClose: " + e.getMessage() + "\n" + e.toString(), e);
+			return false;
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "Workbook_WriteFileAndClose";
+	}
+
+	// BEGIN EXTRA CODE
+	protected static ILogNode logger = Core.getLogger("Advanced_Excel");
+	// END EXTRA CODE
+}
@@ -55,7 +55,9 @@ public class Worksheet_DeleteByIndex extends UserAction<java.lang.Boolean>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Worksheet_DeleteByIndex: " + e.getMessage() + "\n" + e.toString(), e);
 			return false;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
@@ -61,7 +61,9 @@ public class Worksheet_GetIndexByName extends UserAction<java.lang.Long>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Worksheet_GetIndexByName: " + e.getMessage() + "\n" + e.toString(), e);
 			return new Long(-1);
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
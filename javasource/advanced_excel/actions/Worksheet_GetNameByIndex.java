@@ -57,7 +57,9 @@ public class Worksheet_GetNameByIndex extends UserAction<java.lang.String>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Worksheet_GetNameByIndex: " + e.getMessage() + "\n" + e.toString(), e);
 			return "";
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
@@ -12,20 +12,13 @@ package advanced_excel.actions;
 import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
 import java.io.IOException;
-import advanced_excel.proxies.DocumentType;
 import advanced_excel.Utils;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.xssf.usermodel.XSSFCell;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.UserAction;
@@ -84,72 +77,32 @@ public class Worksheet_SetStyleByRange extends UserAction<java.lang.Boolean>
 		// BEGIN USER CODE
 		try
 		{
-			DocumentType docType = Utils.GetDocumentType(WorkbookID);
 			Workbook workbook = Utils.GetWorkBook(WorkbookID);
 			if (workbook == null) {
 				logger.error("ERROR in Advanced_Excel.Worksheet_SetStyleByRange:\nWorkbook object not found\nyou have to use Workbook_Create, Workbook_Open or Workbook_LoadFile to create the Workbook object");
 				return false;
 			}
 			
-			if (docType == DocumentType.XLS) {
-				HSSFSheet sheet = ((HSSFWorkbook)workbook).getSheet(this.SheetName);
-				if (sheet == null) { throw new Exception("Sheet: " + this.SheetName + " not found!"); }
-				
-				HSSFCellStyle style = ((HSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, style, this.CellFormat, docType);
-				
-				for (int i = FirstRow.intValue(); i <= LastRow.intValue(); i++)
-				{
-					HSSFRow row = sheet.getRow(i);
-					if (row == null) { row = sheet.createRow(i); }
-					for (int j = FirstCol.intValue(); j <= LastCol.intValue(); j++)
-					{
-						HSSFCell cell = row.getCell(j);
-						if (cell == null) { cell = row.createCell(j); }
-						
-						if (CellFormat.getCustomFormat() == null)
-						{
-							HSSFCellStyle cellStyle = cell.getCellStyle();
-							if (cellStyle != null)
-							{
-								short format = cellStyle.getDataFormat();
-								style.setDataFormat(format);
-								cell.setCellStyle(style);
-							}
-						}
-						else
-						{ cell.setCellStyle(style); }
-					}
-				}
-			} else {
-				XSSFSheet sheet = ((XSSFWorkbook)workbook).getSheet(this.SheetName);
-				if (sheet == null) { throw new Exception("Sheet: " + this.SheetName + " not found!"); }
-				
-				XSSFCellStyle style = ((XSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, style, this.CellFormat, docType);
-				
-				for (int i = FirstRow.intValue(); i <= LastRow.intValue(); i++)
+			Sheet sheet = Utils.GetSheet(workbook, this.SheetName);
+			
+			CellStyle style = Utils.GetStyle(workbook, this.CellFormat, false, null);
+			
+			for (int i = FirstRow.intValue(); i <= LastRow.intValue(); i++)
+			{
+				Row row = Utils.GetOrCreateRow(sheet, i);
+				for (int j = FirstCol.intValue(); j <= LastCol.intValue(); j++)
 				{
-					XSSFRow row = sheet.getRow(i);
-					if (row == null) { row = sheet.createRow(i); }
-					for (int j = FirstCol.intValue(); j <= LastCol.intValue(); j++)
+					Cell cell = Utils.GetOrCreateCell(row, j);
+					
+					if (CellFormat.getCustomFormat() == null)
 					{
-						XSSFCell cell = row.getCell(j);
-						if (cell == null) { cell = row.createCell(j); }
-						
-						if (CellFormat.getCustomFormat() == null)
-						{
-							XSSFCellStyle cellStyle = cell.getCellStyle();
-							if (cellStyle != null)
-							{
-								short format = cellStyle.getDataFormat();
-								style.setDataFormat(format);
-								cell.setCellStyle(style);
-							}
-						}
-						else
-						{ cell.setCellStyle(style); }
+						// keep the data format of the cell
+						CellStyle cellStyle = cell.getCellStyle();
+						if (cellStyle != null)
+						{ cell.setCellStyle(Utils.GetStyle(workbook, this.CellFormat, false, cellStyle.getDataFormatString())); }
 					}
+					else
+					{ cell.setCellStyle(style); }
 				}
 			}
 			
@@ -157,7 +110,9 @@ public class Worksheet_SetStyleByRange extends UserAction<java.lang.Boolean>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Worksheet_SetStyleByRange: " + e.getMessage() + "\n" + e.toString(), e);
 			return false;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
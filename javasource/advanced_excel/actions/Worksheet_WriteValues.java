@@ -20,16 +20,6 @@ import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.xssf.usermodel.XSSFCell;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.UserAction;
@@ -81,50 +71,15 @@ public class Worksheet_WriteValues extends UserAction<java.lang.Boolean>
 			Cell cell;
 			CellStyle style;
 			CellStyle wrapStyle;
-			if (docType == DocumentType.XLS) {
-				sheet = ((HSSFWorkbook)workbook).getSheet(this.SheetName);
-				if (sheet == null) { throw new Exception("Sheet: " + this.SheetName + " not found!"); }
-				
-				style = ((HSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, style, this.CellFormat, docType);
-				
-				wrapStyle = ((HSSFWorkbook)workbook).createCellStyle();
-				wrapStyle.cloneStyleFrom(style);
-				wrapStyle.setWrapText(true);
-				
-				row = ((HSSFSheet)sheet).getRow(RowNb.intValue());
-				if (row == null) {
-					row = ((HSSFSheet)sheet).createRow(RowNb.intValue());
-				}
-			} else {
-				sheet = ((XSSFWorkbook)workbook).getSheet(this.SheetName);
-				if (sheet == null) { throw new Exception("Sheet: " + this.SheetName + " not found!"); }
-				
-				style = ((XSSFWorkbook)workbook).createCellStyle();
-				Utils.CreateStyle(workbook, style, this.CellFormat, docType);
-				
-				wrapStyle = ((XSSFWorkbook)workbook).createCellStyle();
-				wrapStyle.cloneStyleFrom(style);
-				wrapStyle.setWrapText(true);
-				
-				row = ((XSSFSheet)sheet).getRow(RowNb.intValue());
-				if (row == null) {
-					row = ((XSSFSheet)sheet).createRow(RowNb.intValue());
-				}
-			}
+			sheet = Utils.GetSheet(workbook, this.SheetName);
+			
+			style = Utils.GetStyle(workbook, this.CellFormat, false, null);
+			wrapStyle = Utils.GetStyle(workbook, this.CellFormat, true, null);
+			
+			row = Utils.GetOrCreateRow(sheet, RowNb.intValue());
 			
 			for (int i = 0; i < values.length; i++) {
-				if (docType == DocumentType.XLS) {
-					cell = ((HSSFRow)row).getCell(i);
-					if (cell == null) {
-						cell = ((HSSFRow)row).createCell(i);
-					}
-				} else {
-					cell = ((XSSFRow)row).getCell(i);
-					if (cell == null) {
-						cell = ((XSSFRow)row).createCell(i);
-					}
-				}
+				cell = Utils.GetOrCreateCell(row, i);
 					
 				String valStr = values[i];
 				Utils.SetCellValue(workbook, cell, CellType.text, valStr);
@@ -138,7 +93,9 @@ public class Worksheet_WriteValues extends UserAction<java.lang.Boolean>
 		} catch (Exception e) {
 			logger.error("ERROR in Advanced_Excel.Cell_WriteRange: " + e.getMessage() + "\n" + e.toString(), e);
 			return false;
-		} 
+		} finally {
+			Utils.ReleaseWorkBook(WorkbookID);
+		}
 		// END USER CODE
 	}
 
@@ -0,0 +1,324 @@
+package communitycommons;
+
+import communitycommons.proxies.LogNodes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Background executor with named lanes. Every lane has its own threads and its own bounded queue, so
+ * independent background workloads do not wait for each other: the microflows queued by
+ * RunMicroflowAsyncInQueue, those started by executeMicroflowInBackground and the batch jobs each have a
+ * lane of their own.
+ *
+ * Within a lane, tasks with a higher priority run first and tasks with the same priority run in the order
+ * they were submitted. Lanes run one task at a time unless configured otherwise, which preserves the first
+ * come first serve behavior of the actions. When the queue of a lane is full, its rejection policy decides
+ * what happens to a new task.
+ */
+public class BackgroundExecutor {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+
+	public static final String QUEUE_LANE = "queue";
+	public static final String BACKGROUND_LANE = "background";
+	public static final String BATCH_LANE = "batch";
+
+	public static final int DEFAULT_PRIORITY = 0;
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+	public enum RejectionPolicy {
+		/** Fail the submission with a RejectedExecutionException */
+		ABORT,
+		/** Run the task in the submitting thread */
+		CALLER_RUNS,
+		/** Wait until the queue has room, tasks submitted from the lane itself run in the submitting thread */
+		BLOCK,
+		/** Drop the task with a warning */
+		DISCARD
+	}
+
+	private static final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the lane with the given name, creating it with one thread, the default queue capacity and the
+	 * ABORT policy if it was not configured.
+	 */
+	public static Lane lane(String name) {
+		return lanes.computeIfAbsent(name, n -> new Lane(n, 1, DEFAULT_QUEUE_CAPACITY, RejectionPolicy.ABORT, false));
+	}
+
+	/**
+	 * Replaces the lane with the given name. Tasks already queued on the previous lane still run.
+	 *
+	 * @param parallelism the number of tasks of the lane that run at the same time
+	 * @param queueCapacity the number of tasks that can wait for a thread
+	 * @param virtualThreads whether to run the tasks on virtual threads, if the Java version supports them
+	 */
+	public static synchronized Lane configure(String name, int parallelism, int queueCapacity, RejectionPolicy policy, boolean virtualThreads) {
+		if (parallelism < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("Parallelism and queue capacity should be 1 or higher");
+		}
+		Lane lane = new Lane(name, parallelism, queueCapacity, policy, virtualThreads);
+		Lane previous = lanes.put(name, lane);
+		if (previous != null) {
+			previous.shutdown();
+		}
+		Logging.info(LOGNODE, "[BackgroundExecutor] Lane '" + name + "': parallelism " + parallelism + ", queue capacity " + queueCapacity + ", " + policy + (lane.virtual ? ", virtual threads" : ""));
+		return lane;
+	}
+
+	/**
+	 * @return the statistics of every lane, by lane name
+	 */
+	public static Map<String, Map<String, Object>> getStatistics() {
+		Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+		lanes.values().stream()
+			.sorted((a, b) -> a.name.compareTo(b.name))
+			.forEach(lane -> result.put(lane.name, lane.getStatistics()));
+		return result;
+	}
+
+	public static final class Lane {
+
+		private final String name;
+		private final int parallelism;
+		private final int queueCapacity;
+		private final RejectionPolicy policy;
+		private final boolean virtual;
+		private final ThreadPoolExecutor executor;
+		private final Semaphore queueSlots;
+		private final ThreadLocal<Boolean> isLaneThread = ThreadLocal.withInitial(() -> false);
+
+		private final AtomicLong tasknr = new AtomicLong();
+		private final AtomicLong completed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+		private final AtomicLong callerRuns = new AtomicLong();
+		private final AtomicLong totalWaitNanos = new AtomicLong();
+		private final AtomicLong totalRunNanos = new AtomicLong();
+		private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+		private final LongAccumulator maxRunNanos = new LongAccumulator(Math::max, 0);
+
+		private Lane(String name, int parallelism, int queueCapacity, RejectionPolicy policy, boolean virtualThreads) {
+			this.name = name;
+			this.parallelism = parallelism;
+			this.queueCapacity = queueCapacity;
+			this.policy = policy;
+			this.queueSlots = new Semaphore(queueCapacity);
+
+			ThreadFactory factory = virtualThreads ? createVirtualThreadFactory(name) : null;
+			this.virtual = factory != null;
+			if (factory == null) {
+				factory = new ThreadFactory() {
+
+					//Default thread factory takes care of setting the proper thread context
+					private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+					private final AtomicLong threadnr = new AtomicLong();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread t = defaultFactory.newThread(runnable);
+						t.setPriority(Thread.MIN_PRIORITY);
+						t.setName("CommunityCommons background lane '" + name + "' thread " + threadnr.incrementAndGet());
+						return t;
+					}
+
+				};
+			}
+			// the queue orders by priority, its capacity is enforced by the queue slots
+			this.executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), factory);
+			this.executor.allowCoreThreadTimeOut(true);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getParallelism() {
+			return parallelism;
+		}
+
+		/**
+		 * @return whether the current thread is running a task of this lane
+		 */
+		public boolean isLaneThread() {
+			return isLaneThread.get();
+		}
+
+		public Future<?> submit(Runnable task) {
+			return submit(task, DEFAULT_PRIORITY);
+		}
+
+		public Future<?> submit(Runnable task, int priority) {
+			if (task == null) {
+				throw new NullPointerException("task");
+			}
+			return submit(Executors.callable(task), priority);
+		}
+
+		/**
+		 * Queues the task on the lane.
+		 *
+		 * @param priority tasks with a higher priority run first
+		 * @return the future of the task, which fails with the exception of the task
+		 */
+		public <T> Future<T> submit(Callable<T> task, int priority) {
+			if (task == null) {
+				throw new NullPointerException("task");
+			}
+			LaneTask<T> laneTask = new LaneTask<>(task, priority, tasknr.incrementAndGet());
+			Logging.debug(LOGNODE, "[" + name + "] Scheduling task #" + laneTask.nr);
+
+			if (!queueSlots.tryAcquire()) {
+				switch (policy) {
+					case CALLER_RUNS:
+						return runInCaller(laneTask);
+					case BLOCK:
+						// waiting for a slot from a thread of the lane itself could wait forever
+						if (isLaneThread.get()) {
+							return runInCaller(laneTask);
+						}
+						try {
+							queueSlots.acquire();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new RejectedExecutionException("Interrupted while waiting for room in lane '" + name + "'", e);
+						}
+						break;
+					case DISCARD:
+						rejected.incrementAndGet();
+						Logging.warn(LOGNODE, "[" + name + "] Queue is full (" + queueCapacity + " tasks), discarded task #" + laneTask.nr);
+						laneTask.cancel(false);
+						return laneTask;
+					default:
+						rejected.incrementAndGet();
+						throw new RejectedExecutionException("Queue of lane '" + name + "' is full (" + queueCapacity + " tasks)");
+				}
+			}
+			laneTask.queued = true;
+			executor.execute(laneTask);
+			return laneTask;
+		}
+
+		private <T> Future<T> runInCaller(LaneTask<T> laneTask) {
+			callerRuns.incrementAndGet();
+			laneTask.run();
+			return laneTask;
+		}
+
+		public int getQueueDepth() {
+			return executor.getQueue().size();
+		}
+
+		public Map<String, Object> getStatistics() {
+			long done = completed.get() + failed.get();
+			Map<String, Object> statistics = new LinkedHashMap<>();
+			statistics.put("parallelism", parallelism);
+			statistics.put("queueCapacity", queueCapacity);
+			statistics.put("rejectionPolicy", "\"" + policy + "\"");
+			statistics.put("virtualThreads", virtual);
+			statistics.put("queueDepth", getQueueDepth());
+			statistics.put("active", executor.getActiveCount());
+			statistics.put("submitted", tasknr.get());
+			statistics.put("completed", completed.get());
+			statistics.put("failed", failed.get());
+			statistics.put("rejected", rejected.get());
+			statistics.put("callerRuns", callerRuns.get());
+			statistics.put("averageWaitMs", done == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / done));
+			statistics.put("maxWaitMs", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+			statistics.put("averageRunMs", done == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalRunNanos.get() / done));
+			statistics.put("maxRunMs", TimeUnit.NANOSECONDS.toMillis(maxRunNanos.get()));
+			return statistics;
+		}
+
+		private void shutdown() {
+			executor.shutdown();
+		}
+
+		private final class LaneTask<T> extends FutureTask<T> implements Comparable<LaneTask<?>> {
+
+			private final int priority;
+			private final long nr;
+			private final long submittedAt = System.nanoTime();
+			private boolean queued = false;
+
+			LaneTask(Callable<T> callable, int priority, long nr) {
+				super(callable);
+				this.priority = priority;
+				this.nr = nr;
+			}
+
+			@Override
+			public void run() {
+				if (queued) {
+					queueSlots.release();
+				}
+				long started = System.nanoTime();
+				totalWaitNanos.addAndGet(started - submittedAt);
+				maxWaitNanos.accumulate(started - submittedAt);
+
+				Logging.debug(LOGNODE, "[" + name + "] Running task #" + nr);
+				boolean wasLaneThread = isLaneThread.get();
+				isLaneThread.set(true);
+				try {
+					super.run();
+				} finally {
+					isLaneThread.set(wasLaneThread);
+					long runtime = System.nanoTime() - started;
+					totalRunNanos.addAndGet(runtime);
+					maxRunNanos.accumulate(runtime);
+				}
+			}
+
+			@Override
+			protected void set(T value) {
+				super.set(value);
+				completed.incrementAndGet();
+				Logging.debug(LOGNODE, "[" + name + "] Completed task #" + nr + ". Tasks left: " + getQueueDepth());
+			}
+
+			@Override
+			protected void setException(Throwable t) {
+				super.setException(t);
+				failed.incrementAndGet();
+				Logging.error(LOGNODE, "[" + name + "] Execution of task #" + nr + " failed: " + t.getMessage(), t);
+			}
+
+			@Override
+			public int compareTo(LaneTask<?> other) {
+				if (priority != other.priority) {
+					return Integer.compare(other.priority, priority);
+				}
+				return Long.compare(nr, other.nr);
+			}
+		}
+	}
+
+	/**
+	 * Creates a factory for virtual threads through reflection, so the module still runs on Java versions without them.
+	 */
+	private static ThreadFactory createVirtualThreadFactory(String laneName) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "CommunityCommons background lane '" + laneName + "' thread ", 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			Logging.warn(LOGNODE, "[BackgroundExecutor] Virtual threads are not available on this Java version, lane '" + laneName + "' uses platform threads");
+			return null;
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IDataType;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import communitycommons.proxies.LogNodes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processes the objects of an XPath query in batches on the batch lane of the {@link BackgroundExecutor}, as
+ * used by executeMicroflowInBatches and recommitInBatches.
+ *
+ * The id space of the query is split into keyset ranges of about the same number of objects, and every range
+ * is paged through by id on a worker of the lane. Each batch is processed in a system context of its own,
+ * in a single transaction that is rolled back when the batch fails. How many ranges are processed at the
+ * same time follows from the parallelism of the batch lane, one unless configured otherwise with
+ * ConfigureBackgroundLane. The objects are processed in id order within a range, not across ranges.
+ */
+public class BatchEngine {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+
+	/** More ranges than workers, so a worker that finishes early picks up the next range */
+	private static final int RANGES_PER_WORKER = 4;
+	private static final long PROGRESS_INTERVAL_MS = 10000;
+
+	public interface IBatchHandler {
+
+		void process(IContext context, List<IMendixObject> objects) throws Exception;
+
+	}
+
+	/**
+	 * Starts processing the objects of the query.
+	 *
+	 * @param description describes the job in the log
+	 * @param asc whether ranges and batches are processed in ascending id order
+	 * @return true if the job was started, or, if waitUntilFinished is true, whether all batches succeeded
+	 */
+	public static Boolean execute(String description, String xpathRaw, int batchsize, boolean waitUntilFinished, boolean asc, IBatchHandler handler) throws CoreException, InterruptedException {
+		if (batchsize < 1) {
+			throw new IllegalArgumentException("Batch size should be 1 or higher");
+		}
+		String xpath = xpathRaw.startsWith("//") ? xpathRaw : "//" + xpathRaw;
+		BackgroundExecutor.Lane lane = BackgroundExecutor.lane(BackgroundExecutor.BATCH_LANE);
+
+		IContext context = Core.createSystemContext();
+		long count = Core.createXPathQuery("count(" + xpath + ")").executeAggregateLong(context);
+		List<Range> ranges = partition(context, xpath, count, (int) Math.min(lane.getParallelism() * RANGES_PER_WORKER, Math.max(1, count / batchsize)));
+		if (!asc) {
+			Collections.reverse(ranges);
+		}
+
+		Job job = new Job(description, xpath, batchsize, asc, handler, count, ranges.size());
+		Logging.debug(LOGNODE,
+			"[ExecuteInBatches] Starting batch of " + description + " on ~ " + count + " objects divided over " + ranges.size() + " ranges of ~ "
+			+ (long) Math.ceil(((float) count) / ranges.size() / batchsize) + " batches. "
+			+ (waitUntilFinished ? "Waiting until the batch has finished..." : "")
+		);
+
+		// waiting in a thread of the lane for tasks queued behind it would never finish
+		boolean inline = waitUntilFinished && lane.isLaneThread();
+		for (int i = 0; i < ranges.size(); i++) {
+			Range range = ranges.get(i);
+			if (inline) {
+				try {
+					job.run(range);
+				} catch (RuntimeException e) {
+					Logging.error(LOGNODE, e.getMessage(), e);
+				}
+				continue;
+			}
+			RuntimeException rejected = null;
+			try {
+				if (!lane.submit(() -> job.run(range)).isCancelled()) {
+					continue;
+				}
+			} catch (RuntimeException e) {
+				rejected = e;
+			}
+			// the lane did not accept the range, the ranges that were not queued yet are not run either
+			job.fail();
+			for (int j = i; j < ranges.size(); j++) {
+				job.finish();
+			}
+			if (rejected != null) {
+				throw rejected;
+			}
+			break;
+		}
+
+		if (waitUntilFinished) {
+			try {
+				return job.done.get();
+			} catch (ExecutionException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Processes the next batch of the range after the object with id last, in a system context and transaction of its own.
+	 *
+	 * @return the processed objects, empty if the range is done
+	 */
+	static List<IMendixObject> processBatch(String xpath, Range range, Long last, int batchsize, boolean asc, IBatchHandler handler) throws Exception {
+		IContext c = Core.createSystemContext();
+		c.startTransaction();
+		try {
+			List<IMendixObject> objects =
+				Core.createXPathQuery(xpath + range.constraint() + (last != null ? "[id " + (asc ? "> " : "< ") + last + "]" : ""))
+					.setAmount(batchsize)
+					.setOffset(0)
+					.addSort("id", asc)
+					.execute(c);
+			if (!objects.isEmpty()) {
+				handler.process(c, objects);
+			}
+			c.endTransaction();
+			return objects;
+		} catch (Exception e) {
+			c.rollbackTransaction();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return a handler that calls the microflow for every object, the microflow should accept one argument
+	 */
+	public static IBatchHandler microflowHandler(String microflow) {
+		Map<String, IDataType> parameters = Core.getInputParameters(microflow);
+		if (parameters == null || parameters.size() != 1) {
+			throw new IllegalArgumentException("Microflow '" + microflow + "' should exist and accept one argument");
+		}
+		String parameter = parameters.keySet().iterator().next();
+
+		return (context, objects) -> {
+			for (IMendixObject obj : objects) {
+				Core.microflowCall(microflow).withParam(parameter, obj).execute(context);
+			}
+		};
+	}
+
+	/**
+	 * @return a handler that commits the objects as a list
+	 */
+	public static IBatchHandler commitHandler() {
+		return (context, objects) -> Core.commit(context, objects);
+	}
+
+	/**
+	 * Splits the objects of the query into ranges of about the same size by looking up the ids at the boundaries.
+	 * The first and last range are open, so objects created while the job runs are processed too.
+	 */
+	static List<Range> partition(IContext context, String xpath, long count, int rangeCount) {
+		List<Range> ranges = new ArrayList<>();
+		Long lower = null;
+		for (int i = 1; i < rangeCount; i++) {
+			List<IMendixObject> boundary = Core.createXPathQuery(xpath)
+				.setAmount(1)
+				.setOffset((int) (count * i / rangeCount))
+				.addSort("id", true)
+				.execute(context);
+			if (boundary.isEmpty()) {
+				break;
+			}
+			long id = boundary.get(0).getId().toLong();
+			if (lower == null || id > lower) {
+				ranges.add(new Range(lower, id));
+				lower = id;
+			}
+		}
+		ranges.add(new Range(lower, null));
+		return ranges;
+	}
+
+	/**
+	 * Ids from lower, inclusive, up to upper, exclusive. Null bounds are open.
+	 */
+	static class Range {
+
+		final Long lower;
+		final Long upper;
+
+		Range(Long lower, Long upper) {
+			this.lower = lower;
+			this.upper = upper;
+		}
+
+		String constraint() {
+			return (lower != null ? "[id >= " + lower + "]" : "") + (upper != null ? "[id < " + upper + "]" : "");
+		}
+	}
+
+	private static class Job {
+
+		private final String description;
+		private final String xpath;
+		private final int batchsize;
+		private final boolean asc;
+		private final IBatchHandler handler;
+		private final long count;
+		private final long started = System.nanoTime();
+		private final AtomicInteger rangesLeft;
+		private final AtomicLong processed = new AtomicLong();
+		private final AtomicLong lastProgress = new AtomicLong(System.currentTimeMillis());
+		private final CompletableFuture<Boolean> done = new CompletableFuture<>();
+		private volatile boolean failed = false;
+
+		Job(String description, String xpath, int batchsize, boolean asc, IBatchHandler handler, long count, int ranges) {
+			this.description = description;
+			this.xpath = xpath;
+			this.batchsize = batchsize;
+			this.asc = asc;
+			this.handler = handler;
+			this.count = count;
+			this.rangesLeft = new AtomicInteger(ranges);
+		}
+
+		void run(Range range) {
+			try {
+				Long last = null;
+				while (!failed) {
+					List<IMendixObject> objects = processBatch(xpath, range, last, batchsize, asc, handler);
+					//no new objects found :)
+					if (objects.isEmpty()) {
+						break;
+					}
+					last = objects.get(objects.size() - 1).getId().toLong();
+					progress(objects.size());
+				}
+			} catch (Exception e) {
+				fail();
+				throw new RuntimeException("[ExecuteInBatches] Failed to run in batch: " + e.getMessage(), e);
+			} finally {
+				finish();
+			}
+		}
+
+		private void progress(int size) {
+			long total = processed.addAndGet(size);
+			long now = System.currentTimeMillis();
+			long previous = lastProgress.get();
+			if (now - previous >= PROGRESS_INTERVAL_MS && lastProgress.compareAndSet(previous, now)) {
+				Logging.info(LOGNODE, "[ExecuteInBatches] Batch of " + description + ": processed " + total + " of ~ " + count + " objects"
+					+ (count > 0 ? " (" + Math.min(100, total * 100 / count) + "%)" : "") + ", " + throughput(total) + " objects/s");
+			}
+		}
+
+		void fail() {
+			failed = true;
+		}
+
+		void finish() {
+			if (rangesLeft.decrementAndGet() > 0) {
+				return;
+			}
+			long total = processed.get();
+			if (failed) {
+				Logging.error(LOGNODE, "[ExecuteInBatches] Failed to finish batch of " + description + " after " + total + " objects. Please check the application log for more details.");
+			} else {
+				Logging.debug(LOGNODE, "[ExecuteInBatches] Succesfully finished batch of " + description + " on " + total + " objects in "
+					+ TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started) + " s, " + throughput(total) + " objects/s.");
+			}
+			done.complete(!failed);
+		}
+
+		private long throughput(long total) {
+			long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+			return total * 1000 / elapsedMs;
+		}
+	}
+}
@@ -0,0 +1,498 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Jobs and range leases of the {@link DistributedBatch}, kept in two tables in the application database so
+ * every instance of the cluster sees them. The tables are not part of the domain model: they are created
+ * on first use through the JDBC connection of the runtime.
+ *
+ * A range is claimed by increasing its version, so two instances that try to claim the same range cannot
+ * both succeed. A claim holds until its lease expires, after which any instance can take the range over.
+ */
+public class BatchLeaseStore {
+
+	static final String JOB_TABLE = "communitycommons_batchjob";
+	static final String LEASE_TABLE = "communitycommons_batchlease";
+
+	public static final String RUNNING = "RUNNING";
+	public static final String DONE = "DONE";
+	public static final String FAILED = "FAILED";
+	static final String OPEN = "OPEN";
+	static final String LEASED = "LEASED";
+
+	private static final int CLAIM_CANDIDATES = 10;
+
+	public interface SqlFunction<T> {
+
+		T apply(Connection connection) throws SQLException;
+
+	}
+
+	public interface ConnectionProvider {
+
+		<T> T withConnection(SqlFunction<T> function) throws SQLException;
+
+	}
+
+	private final ConnectionProvider connections;
+	private volatile boolean tablesChecked = false;
+
+	public BatchLeaseStore(ConnectionProvider connections) {
+		this.connections = connections;
+	}
+
+	/**
+	 * @return a store in the database of the runtime
+	 */
+	public static BatchLeaseStore forRuntime() {
+		return new BatchLeaseStore(runtimeConnections());
+	}
+
+	/**
+	 * @return connections to the database of the runtime, outside of the transactions of the contexts
+	 */
+	static ConnectionProvider runtimeConnections() {
+		return new ConnectionProvider() {
+			@Override
+			public <T> T withConnection(SqlFunction<T> function) throws SQLException {
+				try {
+					return Core.dataStorage().executeWithConnection(connection -> {
+						try {
+							T result = function.apply(connection);
+							if (!connection.getAutoCommit()) {
+								connection.commit();
+							}
+							return result;
+						} catch (SQLException e) {
+							throw new RuntimeException(e);
+						}
+					});
+				} catch (RuntimeException e) {
+					if (e.getCause() instanceof SQLException) {
+						throw (SQLException) e.getCause();
+					}
+					throw e;
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return a store in the database at the JDBC url, for example a shared HSQLDB server to run several
+	 * coordinators against locally
+	 */
+	public static BatchLeaseStore forUrl(String url, String user, String password) {
+		return new BatchLeaseStore(urlConnections(url, user, password));
+	}
+
+	/**
+	 * @return connections to the database at the JDBC url, a new one for every function
+	 */
+	static ConnectionProvider urlConnections(String url, String user, String password) {
+		return new ConnectionProvider() {
+			@Override
+			public <T> T withConnection(SqlFunction<T> function) throws SQLException {
+				try (Connection connection = DriverManager.getConnection(url, user, password)) {
+					return function.apply(connection);
+				}
+			}
+		};
+	}
+
+	static class Job {
+
+		String id;
+		String description;
+		String xpath;
+		String microflow;
+		int batchsize;
+		boolean asc;
+		String status;
+		long count;
+	}
+
+	static class Lease {
+
+		String jobId;
+		int rangeNr;
+		Long lower;
+		Long upper;
+		Long cursor;
+		long version;
+		long processed;
+	}
+
+	private <T> T execute(SqlFunction<T> function) throws SQLException {
+		if (!tablesChecked) {
+			createTables();
+		}
+		return connections.withConnection(function);
+	}
+
+	private synchronized void createTables() throws SQLException {
+		if (tablesChecked) {
+			return;
+		}
+		connections.withConnection(connection -> {
+			for (String[] table : new String[][] {
+				{ JOB_TABLE, "CREATE TABLE " + JOB_TABLE + " (job_id VARCHAR(36) NOT NULL, description VARCHAR(400), xpath VARCHAR(4000) NOT NULL, "
+					+ "microflow VARCHAR(400), batchsize DECIMAL(10) NOT NULL, sort_ascending DECIMAL(1) NOT NULL, status VARCHAR(16) NOT NULL, "
+					+ "total_count DECIMAL(19) NOT NULL, created DECIMAL(19) NOT NULL, finished DECIMAL(19), PRIMARY KEY (job_id))" },
+				{ LEASE_TABLE, "CREATE TABLE " + LEASE_TABLE + " (job_id VARCHAR(36) NOT NULL, range_nr DECIMAL(10) NOT NULL, lower_id DECIMAL(19), "
+					+ "upper_id DECIMAL(19), cursor_id DECIMAL(19), status VARCHAR(16) NOT NULL, owner VARCHAR(200), lease_until DECIMAL(19) NOT NULL, "
+					+ "version DECIMAL(19) NOT NULL, processed DECIMAL(19) NOT NULL, PRIMARY KEY (job_id, range_nr))" } }) {
+				if (!tableExists(connection, table[0])) {
+					try (Statement statement = connection.createStatement()) {
+						statement.executeUpdate(table[1]);
+					} catch (SQLException e) {
+						// another instance may have created it in the meantime
+						if (!tableExists(connection, table[0])) {
+							throw e;
+						}
+					}
+				}
+			}
+			return null;
+		});
+		tablesChecked = true;
+	}
+
+	static boolean tableExists(Connection connection, String table) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		for (String name : new String[] { table, table.toUpperCase() }) {
+			try (ResultSet tables = metaData.getTables(null, null, name, null)) {
+				if (tables.next()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	void createJob(Job job, List<BatchEngine.Range> ranges, long now) throws SQLException {
+		execute(connection -> {
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try {
+				try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + JOB_TABLE
+					+ " (job_id, description, xpath, microflow, batchsize, sort_ascending, status, total_count, created) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+					statement.setString(1, job.id);
+					statement.setString(2, job.description);
+					statement.setString(3, job.xpath);
+					statement.setString(4, job.microflow);
+					statement.setInt(5, job.batchsize);
+					statement.setInt(6, job.asc ? 1 : 0);
+					statement.setString(7, RUNNING);
+					statement.setLong(8, job.count);
+					statement.setLong(9, now);
+					statement.executeUpdate();
+				}
+				try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + LEASE_TABLE
+					+ " (job_id, range_nr, lower_id, upper_id, status, lease_until, version, processed) VALUES (?, ?, ?, ?, ?, 0, 0, 0)")) {
+					for (int i = 0; i < ranges.size(); i++) {
+						statement.setString(1, job.id);
+						statement.setInt(2, i);
+						setLong(statement, 3, ranges.get(i).lower);
+						setLong(statement, 4, ranges.get(i).upper);
+						statement.setString(5, OPEN);
+						statement.addBatch();
+					}
+					statement.executeBatch();
+				}
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+			return null;
+		});
+	}
+
+	Job getJob(String jobId) throws SQLException {
+		return execute(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement("SELECT description, xpath, microflow, batchsize, sort_ascending, status, total_count FROM "
+				+ JOB_TABLE + " WHERE job_id = ?")) {
+				statement.setString(1, jobId);
+				try (ResultSet result = statement.executeQuery()) {
+					if (!result.next()) {
+						return null;
+					}
+					Job job = new Job();
+					job.id = jobId;
+					job.description = result.getString(1);
+					job.xpath = result.getString(2);
+					job.microflow = result.getString(3);
+					job.batchsize = result.getInt(4);
+					job.asc = result.getInt(5) == 1;
+					job.status = result.getString(6);
+					job.count = result.getLong(7);
+					return job;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Claims an open range, or a range of which the lease expired, of a running job. If there is none, running
+	 * jobs of which all ranges are done are closed.
+	 *
+	 * @return the claimed range, or null if there is none
+	 */
+	Lease claim(String owner, long now, long leaseMs) throws SQLException {
+		Lease claimed = execute(connection -> {
+			List<Lease> candidates = new ArrayList<>();
+			try (PreparedStatement statement = connection.prepareStatement("SELECT l.job_id, l.range_nr, l.lower_id, l.upper_id, l.cursor_id, l.version, l.processed FROM "
+				+ LEASE_TABLE + " l INNER JOIN " + JOB_TABLE + " j ON j.job_id = l.job_id WHERE j.status = ? AND (l.status = ? OR (l.status = ? AND l.lease_until < ?)) "
+				+ "ORDER BY j.created, l.range_nr")) {
+				statement.setMaxRows(CLAIM_CANDIDATES);
+				statement.setString(1, RUNNING);
+				statement.setString(2, OPEN);
+				statement.setString(3, LEASED);
+				statement.setLong(4, now);
+				try (ResultSet result = statement.executeQuery()) {
+					while (result.next()) {
+						Lease lease = new Lease();
+						lease.jobId = result.getString(1);
+						lease.rangeNr = result.getInt(2);
+						lease.lower = getLong(result, 3);
+						lease.upper = getLong(result, 4);
+						lease.cursor = getLong(result, 5);
+						lease.version = result.getLong(6);
+						lease.processed = result.getLong(7);
+						candidates.add(lease);
+					}
+				}
+			}
+			for (Lease lease : candidates) {
+				try (PreparedStatement statement = connection.prepareStatement("UPDATE " + LEASE_TABLE
+					+ " SET status = ?, owner = ?, lease_until = ?, version = ? WHERE job_id = ? AND range_nr = ? AND version = ?")) {
+					statement.setString(1, LEASED);
+					statement.setString(2, owner);
+					statement.setLong(3, now + leaseMs);
+					statement.setLong(4, lease.version + 1);
+					statement.setString(5, lease.jobId);
+					statement.setInt(6, lease.rangeNr);
+					statement.setLong(7, lease.version);
+					if (statement.executeUpdate() == 1) {
+						lease.version++;
+						return lease;
+					}
+				}
+			}
+			return null;
+		});
+		if (claimed == null) {
+			closeFinishedJobs(now);
+		}
+		return claimed;
+	}
+
+	/**
+	 * Extends the lease, and records the progress if cursor is not null.
+	 *
+	 * @return false if the lease was taken over by another instance or the job is no longer running
+	 */
+	boolean renew(Lease lease, Long cursor, long processed, long leaseUntil) throws SQLException {
+		return execute(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement("UPDATE " + LEASE_TABLE + " SET lease_until = ?"
+				+ (cursor != null ? ", cursor_id = ?, processed = ?" : "") + " WHERE job_id = ? AND range_nr = ? AND version = ? AND status = ? AND job_id IN (SELECT job_id FROM " + JOB_TABLE + " WHERE status = ?)")) {
+				int i = 1;
+				statement.setLong(i++, leaseUntil);
+				if (cursor != null) {
+					statement.setLong(i++, cursor);
+					statement.setLong(i++, processed);
+				}
+				statement.setString(i++, lease.jobId);
+				statement.setInt(i++, lease.rangeNr);
+				statement.setLong(i++, lease.version);
+				statement.setString(i++, LEASED);
+				statement.setString(i++, RUNNING);
+				return statement.executeUpdate() == 1;
+			}
+		});
+	}
+
+	/**
+	 * Marks the range done, and the job done if it was the last range. The range is committed before the job
+	 * is checked, so of two instances that finish the last two ranges at the same time at least one sees both.
+	 *
+	 * @return false if the lease was taken over by another instance
+	 */
+	boolean complete(Lease lease, long processed, long now) throws SQLException {
+		boolean completed = execute(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement("UPDATE " + LEASE_TABLE
+				+ " SET status = ?, processed = ? WHERE job_id = ? AND range_nr = ? AND version = ? AND status = ?")) {
+				statement.setString(1, DONE);
+				statement.setLong(2, processed);
+				statement.setString(3, lease.jobId);
+				statement.setInt(4, lease.rangeNr);
+				statement.setLong(5, lease.version);
+				statement.setString(6, LEASED);
+				return statement.executeUpdate() == 1;
+			}
+		});
+		if (completed) {
+			closeIfFinished(lease.jobId, now);
+		}
+		return completed;
+	}
+
+	/**
+	 * Marks the job done if it is running and all of its ranges are done.
+	 *
+	 * @return whether the job was marked done
+	 */
+	boolean closeIfFinished(String jobId, long now) throws SQLException {
+		return execute(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement("UPDATE " + JOB_TABLE + " SET status = ?, finished = ? WHERE job_id = ? AND status = ? "
+				+ "AND NOT EXISTS (SELECT 1 FROM " + LEASE_TABLE + " WHERE job_id = ? AND status <> ?)")) {
+				statement.setString(1, DONE);
+				statement.setLong(2, now);
+				statement.setString(3, jobId);
+				statement.setString(4, RUNNING);
+				statement.setString(5, jobId);
+				statement.setString(6, DONE);
+				return statement.executeUpdate() == 1;
+			}
+		});
+	}
+
+	/**
+	 * Marks every running job of which all ranges are done as done, for jobs of which the last range completed
+	 * on an instance that stopped before it could close the job.
+	 */
+	void closeFinishedJobs(long now) throws SQLException {
+		execute(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement("UPDATE " + JOB_TABLE + " SET status = ?, finished = ? WHERE status = ? "
+				+ "AND NOT EXISTS (SELECT 1 FROM " + LEASE_TABLE + " l WHERE l.job_id = " + JOB_TABLE + ".job_id AND l.status <> ?)")) {
+				statement.setString(1, DONE);
+				statement.setLong(2, now);
+				statement.setString(3, RUNNING);
+				statement.setString(4, DONE);
+				statement.executeUpdate();
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Marks the range and the job failed, so no instance claims its ranges anymore.
+	 */
+	void fail(Lease lease, long now) throws SQLException {
+		execute(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement("UPDATE " + LEASE_TABLE
+				+ " SET status = ? WHERE job_id = ? AND range_nr = ? AND version = ?")) {
+				statement.setString(1, FAILED);
+				statement.setString(2, lease.jobId);
+				statement.setInt(3, lease.rangeNr);
+				statement.setLong(4, lease.version);
+				statement.executeUpdate();
+			}
+			try (PreparedStatement statement = connection.prepareStatement("UPDATE " + JOB_TABLE + " SET status = ?, finished = ? WHERE job_id = ? AND status = ?")) {
+				statement.setString(1, FAILED);
+				statement.setLong(2, now);
+				statement.setString(3, lease.jobId);
+				statement.setString(4, RUNNING);
+				statement.executeUpdate();
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Deletes the jobs that are done or failed and finished before the given time, with their ranges.
+	 *
+	 * @return the number of deleted jobs
+	 */
+	int deleteFinishedJobs(long finishedBefore) throws SQLException {
+		return execute(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + LEASE_TABLE + " WHERE job_id IN (SELECT job_id FROM "
+				+ JOB_TABLE + " WHERE status <> ? AND finished < ?)")) {
+				statement.setString(1, RUNNING);
+				statement.setLong(2, finishedBefore);
+				statement.executeUpdate();
+			}
+			try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + JOB_TABLE + " WHERE status <> ? AND finished < ?")) {
+				statement.setString(1, RUNNING);
+				statement.setLong(2, finishedBefore);
+				return statement.executeUpdate();
+			}
+		});
+	}
+
+	/**
+	 * @return the status and the progress of the job, aggregated over all ranges, or null if the job does not exist
+	 */
+	Map<String, Object> getStatus(String jobId) throws SQLException {
+		Job job = getJob(jobId);
+		if (job == null) {
+			return null;
+		}
+		return execute(connection -> {
+			Map<String, Object> status = new LinkedHashMap<>();
+			status.put("jobId", jobId);
+			status.put("description", job.description);
+			status.put("status", job.status);
+			status.put("count", job.count);
+			try (PreparedStatement statement = connection.prepareStatement("SELECT status, COUNT(*), SUM(processed) FROM " + LEASE_TABLE
+				+ " WHERE job_id = ? GROUP BY status")) {
+				statement.setString(1, jobId);
+				long ranges = 0;
+				long processed = 0;
+				Map<String, Long> perStatus = new LinkedHashMap<>();
+				try (ResultSet result = statement.executeQuery()) {
+					while (result.next()) {
+						perStatus.put(result.getString(1), result.getLong(2));
+						ranges += result.getLong(2);
+						processed += result.getLong(3);
+					}
+				}
+				status.put("processed", processed);
+				status.put("ranges", ranges);
+				status.put("rangesDone", perStatus.getOrDefault(DONE, 0L));
+				status.put("rangesLeased", perStatus.getOrDefault(LEASED, 0L));
+				status.put("rangesOpen", perStatus.getOrDefault(OPEN, 0L));
+			}
+			List<String> owners = new ArrayList<>();
+			try (PreparedStatement statement = connection.prepareStatement("SELECT DISTINCT owner FROM " + LEASE_TABLE
+				+ " WHERE job_id = ? AND owner IS NOT NULL ORDER BY owner")) {
+				statement.setString(1, jobId);
+				try (ResultSet result = statement.executeQuery()) {
+					while (result.next()) {
+						owners.add(result.getString(1));
+					}
+				}
+			}
+			status.put("instances", owners);
+			return status;
+		});
+	}
+
+	private static void setLong(PreparedStatement statement, int index, Long value) throws SQLException {
+		if (value == null) {
+			statement.setNull(index, Types.DECIMAL);
+		} else {
+			statement.setLong(index, value);
+		}
+	}
+
+	private static Long getLong(ResultSet result, int index) throws SQLException {
+		long value = result.getLong(index);
+		return result.wasNull() ? null : value;
+	}
+}
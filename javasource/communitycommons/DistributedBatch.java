@@ -0,0 +1,362 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import communitycommons.proxies.LogLevel;
+import communitycommons.proxies.LogNodes;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Processes the objects of an XPath query in batches on all instances of a cluster.
+ *
+ * Starting a job splits the id space of the query into keyset ranges, which are recorded in the
+ * {@link BatchLeaseStore}. The workers of every instance claim open ranges, process them batch by batch like
+ * the {@link BatchEngine} does, and record the last processed id after every batch. A claimed range is
+ * leased: the worker extends the lease while it works on it, and when an instance stops, its leases expire
+ * and the other instances take the ranges over from the last recorded id. A batch that was processed right
+ * before an instance stopped may therefore be processed again. Leases are compared with the clocks of the
+ * instances, which should be in sync.
+ *
+ * Workers only run on instances that started them, so start them in the after startup microflow on every
+ * instance. The instance that starts a job starts its workers if it has none. Idle workers delete jobs that
+ * finished more than a week ago, with their ranges.
+ *
+ * {@link DistributedBatchHarness} runs several coordinators against one HSQLDB database without the runtime.
+ */
+public class DistributedBatch {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+
+	public static final long DEFAULT_LEASE_MS = 60000;
+	public static final long DEFAULT_POLL_MS = 5000;
+	private static final int MAX_RANGES = 64;
+	private static final long RETENTION_MS = TimeUnit.DAYS.toMillis(7);
+	private static final long PURGE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
+
+	private static DistributedBatch instance;
+
+	private final BatchLeaseStore store;
+	private final String owner;
+	private final long leaseMs;
+	private final long pollMs;
+	private final BatchProcessor processor;
+	private final Log log;
+	private final Map<String, BatchEngine.IBatchHandler> handlers = new ConcurrentHashMap<>();
+	private final Set<ActiveLease> activeLeases = ConcurrentHashMap.newKeySet();
+	private final List<Thread> workers = new ArrayList<>();
+	private ScheduledExecutorService heartbeat;
+	private volatile boolean running = false;
+	private volatile long nextPurge = 0;
+
+	/**
+	 * Processes the next batch of a range, like {@link BatchEngine#processBatch}.
+	 */
+	interface BatchProcessor {
+
+		/**
+		 * @param last the last processed id of the range, or null to start at the beginning
+		 * @return the processed ids in order, or an empty list if the range has no objects left
+		 */
+		List<Long> process(BatchLeaseStore.Job job, BatchEngine.Range range, Long last) throws Exception;
+
+	}
+
+	interface Log {
+
+		void log(LogLevel level, String message, Throwable e);
+
+	}
+
+	/**
+	 * @param owner identifies this instance in the leases, should be unique in the cluster
+	 */
+	public DistributedBatch(BatchLeaseStore store, String owner, long leaseMs, long pollMs) {
+		this(store, owner, leaseMs, pollMs, null, (level, message, e) -> Logging.log(LOGNODE, level, message, e));
+	}
+
+	/**
+	 * @param processor processes the batches, or null to query the objects and process them in the runtime
+	 */
+	DistributedBatch(BatchLeaseStore store, String owner, long leaseMs, long pollMs, BatchProcessor processor, Log log) {
+		this.store = store;
+		this.owner = owner;
+		this.leaseMs = leaseMs;
+		this.pollMs = pollMs;
+		this.processor = processor != null ? processor : this::processObjects;
+		this.log = log;
+	}
+
+	/**
+	 * @return the coordinator of this instance, which keeps its jobs in the application database
+	 */
+	public static synchronized DistributedBatch instance() {
+		if (instance == null) {
+			instance = new DistributedBatch(BatchLeaseStore.forRuntime(), "instance " + Misc.getCFInstanceIndex() + " (" + Core.getXASId() + ")",
+				DEFAULT_LEASE_MS, DEFAULT_POLL_MS);
+		}
+		return instance;
+	}
+
+	/**
+	 * Records a job for the objects of the query.
+	 *
+	 * @param microflow the microflow to call for every object, or empty to recommit the objects
+	 * @return the id of the job
+	 */
+	public String start(String xpathRaw, String microflow, int batchsize, boolean asc) throws Exception {
+		if (batchsize < 1) {
+			throw new IllegalArgumentException("Batch size should be 1 or higher");
+		}
+		boolean recommit = microflow == null || microflow.trim().isEmpty();
+		// fail early on this instance if the microflow does not fit
+		getHandler(recommit ? null : microflow.trim());
+
+		BatchLeaseStore.Job job = new BatchLeaseStore.Job();
+		job.description = recommit ? "recommit" : "microflow '" + microflow.trim() + "'";
+		job.xpath = xpathRaw.startsWith("//") ? xpathRaw : "//" + xpathRaw;
+		job.microflow = recommit ? null : microflow.trim();
+		job.batchsize = batchsize;
+		job.asc = asc;
+
+		IContext context = Core.createSystemContext();
+		job.count = Core.createXPathQuery("count(" + job.xpath + ")").executeAggregateLong(context);
+		List<BatchEngine.Range> ranges = BatchEngine.partition(context, job.xpath, job.count, (int) Math.min(MAX_RANGES, Math.max(1, job.count / batchsize)));
+		if (!asc) {
+			Collections.reverse(ranges);
+		}
+		return createJob(job, ranges);
+	}
+
+	/**
+	 * Records the job with its ranges, which are claimed in the given order.
+	 *
+	 * @return the id of the job
+	 */
+	String createJob(BatchLeaseStore.Job job, List<BatchEngine.Range> ranges) throws SQLException {
+		job.id = UUID.randomUUID().toString();
+		store.createJob(job, ranges, System.currentTimeMillis());
+		log.log(LogLevel.Info, "[DistributedBatch] Started job " + job.id + ", batch of " + job.description + " on ~ " + job.count + " objects divided over " + ranges.size() + " ranges", null);
+		return job.id;
+	}
+
+	/**
+	 * Waits until the job is done or failed.
+	 *
+	 * @return whether the job succeeded
+	 */
+	public boolean await(String jobId) throws Exception {
+		while (true) {
+			BatchLeaseStore.Job job = store.getJob(jobId);
+			if (job == null) {
+				throw new IllegalArgumentException("Distributed batch job " + jobId + " does not exist");
+			}
+			if (!BatchLeaseStore.RUNNING.equals(job.status)) {
+				return BatchLeaseStore.DONE.equals(job.status);
+			}
+			if (store.closeIfFinished(jobId, System.currentTimeMillis())) {
+				return true;
+			}
+			Thread.sleep(Math.min(pollMs, 1000));
+		}
+	}
+
+	/**
+	 * @return the status and progress of the job over all instances as JSON, or null if the job does not exist
+	 */
+	public String getStatus(String jobId) throws Exception {
+		Map<String, Object> status = store.getStatus(jobId);
+		return status == null ? null : toJson(status);
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Starts the workers of this instance, if they are not running yet.
+	 *
+	 * @param parallelism the number of ranges this instance processes at the same time
+	 */
+	public synchronized void startWorkers(int parallelism) {
+		if (running) {
+			return;
+		}
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism should be 1 or higher");
+		}
+		running = true;
+		heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread t = new Thread(runnable, "CommunityCommons distributed batch heartbeat");
+			t.setDaemon(true);
+			return t;
+		});
+		heartbeat.scheduleWithFixedDelay(this::renewLeases, leaseMs / 4, leaseMs / 4, TimeUnit.MILLISECONDS);
+		for (int i = 1; i <= parallelism; i++) {
+			Thread worker = new Thread(this::work, "CommunityCommons distributed batch worker " + i);
+			worker.setDaemon(true);
+			worker.setPriority(Thread.MIN_PRIORITY);
+			workers.add(worker);
+			worker.start();
+		}
+		log.log(LogLevel.Info, "[DistributedBatch] Started " + parallelism + " workers on " + owner, null);
+	}
+
+	/**
+	 * Stops the workers after their current batch. Their ranges are taken over by other instances when the leases expire.
+	 */
+	public synchronized void stopWorkers() throws InterruptedException {
+		if (!running) {
+			return;
+		}
+		running = false;
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		workers.clear();
+		heartbeat.shutdownNow();
+		log.log(LogLevel.Info, "[DistributedBatch] Stopped the workers on " + owner, null);
+	}
+
+	private void work() {
+		while (running) {
+			try {
+				BatchLeaseStore.Lease lease = store.claim(owner, System.currentTimeMillis(), leaseMs);
+				if (lease == null) {
+					purgeFinishedJobs();
+					Thread.sleep(pollMs);
+				} else {
+					process(lease);
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (Exception e) {
+				log.log(LogLevel.Error, "[DistributedBatch] Failed to claim a range: " + e.getMessage(), e);
+				try {
+					Thread.sleep(pollMs);
+				} catch (InterruptedException e1) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void process(BatchLeaseStore.Lease lease) throws Exception {
+		BatchLeaseStore.Job job = store.getJob(lease.jobId);
+		ActiveLease active = new ActiveLease(lease);
+		activeLeases.add(active);
+		log.log(LogLevel.Debug, "[DistributedBatch] Processing range " + lease.rangeNr + " of job " + lease.jobId
+			+ (lease.cursor != null ? " from id " + lease.cursor : ""), null);
+		try {
+			BatchEngine.Range range = new BatchEngine.Range(lease.lower, lease.upper);
+			Long last = lease.cursor;
+			long processed = lease.processed;
+			boolean completed = false;
+			while (running && !active.lost) {
+				List<Long> ids = processor.process(job, range, last);
+				//no new objects found :)
+				if (ids.isEmpty()) {
+					completed = store.complete(lease, processed, System.currentTimeMillis());
+					if (completed) {
+						log.log(LogLevel.Debug, "[DistributedBatch] Finished range " + lease.rangeNr + " of job " + lease.jobId, null);
+					} else {
+						active.lost = true;
+					}
+					break;
+				}
+				last = ids.get(ids.size() - 1);
+				processed += ids.size();
+				if (!store.renew(lease, last, processed, System.currentTimeMillis() + leaseMs)) {
+					active.lost = true;
+				}
+			}
+			// a heartbeat that ran while the range completed does not count
+			if (active.lost && !completed) {
+				log.log(LogLevel.Warning, "[DistributedBatch] Lost the lease on range " + lease.rangeNr + " of job " + lease.jobId + ", it was taken over or the job stopped", null);
+			}
+		} catch (Exception e) {
+			log.log(LogLevel.Error, "[DistributedBatch] Failed to run range " + lease.rangeNr + " of job " + lease.jobId + ": " + e.getMessage(), e);
+			store.fail(lease, System.currentTimeMillis());
+		} finally {
+			activeLeases.remove(active);
+		}
+	}
+
+	private void renewLeases() {
+		for (ActiveLease active : activeLeases) {
+			try {
+				if (!store.renew(active.lease, null, 0, System.currentTimeMillis() + leaseMs)) {
+					active.lost = true;
+				}
+			} catch (Exception e) {
+				log.log(LogLevel.Warning, "[DistributedBatch] Failed to renew the lease on range " + active.lease.rangeNr + " of job " + active.lease.jobId + ": " + e.getMessage(), null);
+			}
+		}
+	}
+
+	private List<Long> processObjects(BatchLeaseStore.Job job, BatchEngine.Range range, Long last) throws Exception {
+		List<IMendixObject> objects = BatchEngine.processBatch(job.xpath, range, last, job.batchsize, job.asc, getHandler(job.microflow));
+		return objects.stream().map(object -> object.getId().toLong()).collect(Collectors.toList());
+	}
+
+	/**
+	 * Deletes the jobs that finished more than the retention ago, at most once per purge interval.
+	 */
+	private void purgeFinishedJobs() {
+		long now = System.currentTimeMillis();
+		if (now < nextPurge) {
+			return;
+		}
+		nextPurge = now + PURGE_INTERVAL_MS;
+		try {
+			int deleted = store.deleteFinishedJobs(now - RETENTION_MS);
+			if (deleted > 0) {
+				log.log(LogLevel.Debug, "[DistributedBatch] Deleted " + deleted + " finished jobs", null);
+			}
+		} catch (Exception e) {
+			log.log(LogLevel.Warning, "[DistributedBatch] Failed to delete finished jobs: " + e.getMessage(), null);
+		}
+	}
+
+	private BatchEngine.IBatchHandler getHandler(String microflow) {
+		return microflow == null
+			? BatchEngine.commitHandler()
+			: handlers.computeIfAbsent(microflow, BatchEngine::microflowHandler);
+	}
+
+	private static String toJson(Object value) {
+		if (value instanceof Map) {
+			return ((Map<?, ?>) value).entrySet().stream()
+				.map(entry -> toJson(entry.getKey()) + ":" + toJson(entry.getValue()))
+				.collect(Collectors.joining(",", "{", "}"));
+		}
+		if (value instanceof List) {
+			return ((List<?>) value).stream().map(DistributedBatch::toJson).collect(Collectors.joining(",", "[", "]"));
+		}
+		if (value instanceof String) {
+			return "\"" + ((String) value).replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+		}
+		return String.valueOf(value);
+	}
+
+	private static class ActiveLease {
+
+		private final BatchLeaseStore.Lease lease;
+		private volatile boolean lost = false;
+
+		ActiveLease(BatchLeaseStore.Lease lease) {
+			this.lease = lease;
+		}
+	}
+}
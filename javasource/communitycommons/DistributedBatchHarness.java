@@ -0,0 +1,170 @@
+package communitycommons;
+
+import communitycommons.proxies.LogLevel;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs several coordinators of the {@link DistributedBatch} against one in-memory HSQLDB database, without
+ * the runtime, and checks that every range is completed exactly once and every id is processed exactly once.
+ *
+ * The ranges divide the ids 1 to count instead of the objects of a query. Every coordinator has its own
+ * store and connections, like the instances of a cluster. The first coordinator stops halfway, so the
+ * others take its ranges over once its leases expire. Afterwards the finished job is deleted.
+ *
+ * Run with the HSQLDB driver on the classpath, the exit code is 1 if a check failed:
+ * java communitycommons.DistributedBatchHarness [coordinators] [workers per coordinator] [count] [ranges]
+ */
+public class DistributedBatchHarness {
+
+	private static final int BATCH_SIZE = 50;
+	private static final long LEASE_MS = 1000;
+	private static final long POLL_MS = 50;
+	private static final long TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+
+	public static void main(String[] args) throws Exception {
+		int coordinators = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		int workers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+		int rangeCount = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+		List<String> failures = run(coordinators, workers, count, rangeCount);
+		for (String failure : failures) {
+			System.out.println("FAILED: " + failure);
+		}
+		System.out.println(failures.isEmpty() ? "OK" : failures.size() + " checks failed");
+		System.exit(failures.isEmpty() ? 0 : 1);
+	}
+
+	/**
+	 * @return the checks that failed, empty if all passed
+	 */
+	static List<String> run(int coordinators, int workers, int count, int rangeCount) throws Exception {
+		String url = "jdbc:hsqldb:mem:distributedbatch" + System.nanoTime();
+		AtomicIntegerArray processed = new AtomicIntegerArray(count + 1);
+		AtomicLong total = new AtomicLong();
+		Map<Integer, AtomicInteger> completions = new ConcurrentHashMap<>();
+		DistributedBatch.Log log = (level, message, e) -> {
+			if (level != LogLevel.Debug && level != LogLevel.Trace) {
+				System.out.println(level + " " + message + (e != null ? ": " + e : ""));
+			}
+		};
+		DistributedBatch.BatchProcessor processor = (job, range, last) -> {
+			long from = last != null ? last + 1 : range.lower != null ? range.lower : 1;
+			long to = range.upper != null ? range.upper : count + 1;
+			List<Long> ids = new ArrayList<>();
+			for (long id = from; id < to && ids.size() < job.batchsize; id++) {
+				processed.incrementAndGet((int) id);
+				ids.add(id);
+			}
+			total.addAndGet(ids.size());
+			return ids;
+		};
+
+		List<DistributedBatch> nodes = new ArrayList<>();
+		for (int i = 0; i < coordinators; i++) {
+			nodes.add(new DistributedBatch(countingStore(url, completions), "coordinator " + i, LEASE_MS, POLL_MS, processor, log));
+		}
+		BatchLeaseStore.Job job = new BatchLeaseStore.Job();
+		job.description = "harness";
+		job.xpath = "//DistributedBatchHarness";
+		job.batchsize = BATCH_SIZE;
+		job.asc = true;
+		job.count = count;
+		String jobId = nodes.get(0).createJob(job, partition(count, rangeCount));
+
+		List<String> failures = new ArrayList<>();
+		ExecutorService waiter = Executors.newSingleThreadExecutor();
+		try {
+			for (DistributedBatch node : nodes) {
+				node.startWorkers(workers);
+			}
+			if (coordinators > 1) {
+				long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+				while (total.get() < count / 2 && System.currentTimeMillis() < deadline) {
+					Thread.sleep(10);
+				}
+				nodes.get(0).stopWorkers();
+			}
+			Future<Boolean> done = waiter.submit(() -> nodes.get(coordinators - 1).await(jobId));
+			if (!done.get(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				failures.add("job " + jobId + " failed");
+			}
+		} catch (TimeoutException e) {
+			failures.add("job " + jobId + " did not finish within " + TIMEOUT_MS + " ms");
+		} finally {
+			waiter.shutdownNow();
+			for (DistributedBatch node : nodes) {
+				node.stopWorkers();
+			}
+		}
+
+		for (int rangeNr = 0; rangeNr < rangeCount; rangeNr++) {
+			AtomicInteger completed = completions.get(rangeNr);
+			if (completed == null || completed.get() != 1) {
+				failures.add("range " + rangeNr + " completed " + (completed == null ? 0 : completed.get()) + " times");
+			}
+		}
+		int missing = 0;
+		int repeated = 0;
+		for (int id = 1; id <= count; id++) {
+			if (processed.get(id) == 0) {
+				missing++;
+			} else if (processed.get(id) > 1) {
+				repeated++;
+			}
+		}
+		if (missing > 0 || repeated > 0) {
+			failures.add(missing + " ids not processed, " + repeated + " ids processed more than once");
+		}
+
+		BatchLeaseStore store = BatchLeaseStore.forUrl(url, "SA", "");
+		Map<String, Object> status = store.getStatus(jobId);
+		if (status == null || !Long.valueOf(count).equals(status.get("processed"))) {
+			failures.add("status reports " + (status == null ? null : status.get("processed")) + " processed objects instead of " + count);
+		}
+		if (store.deleteFinishedJobs(System.currentTimeMillis() + 1) != 1 || store.getStatus(jobId) != null) {
+			failures.add("the finished job was not deleted");
+		}
+		return failures;
+	}
+
+	/**
+	 * @return a store that counts the completions of every range
+	 */
+	private static BatchLeaseStore countingStore(String url, Map<Integer, AtomicInteger> completions) {
+		return new BatchLeaseStore(BatchLeaseStore.urlConnections(url, "SA", "")) {
+			@Override
+			boolean complete(Lease lease, long processed, long now) throws SQLException {
+				boolean completed = super.complete(lease, processed, now);
+				if (completed) {
+					completions.computeIfAbsent(lease.rangeNr, rangeNr -> new AtomicInteger()).incrementAndGet();
+				}
+				return completed;
+			}
+		};
+	}
+
+	/**
+	 * Divides the ids 1 to count into ranges, open ended at both ends like {@link BatchEngine#partition}.
+	 */
+	private static List<BatchEngine.Range> partition(int count, int rangeCount) {
+		List<BatchEngine.Range> ranges = new ArrayList<>();
+		for (int i = 0; i < rangeCount; i++) {
+			Long lower = i == 0 ? null : 1 + (long) i * count / rangeCount;
+			Long upper = i == rangeCount - 1 ? null : 1 + (long) (i + 1) * count / rangeCount;
+			ranges.add(new BatchEngine.Range(lower, upper));
+		}
+		return ranges;
+	}
+}
@@ -0,0 +1,462 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import communitycommons.proxies.LogNodes;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import system.proxies.FileDocument;
+
+/**
+ * Downloads URLs into FileDocuments, as used by storeURLToFileDocument and StoreURLsToFileDocuments.
+ *
+ * Content is streamed into storage through a stream that fails once more than {@link #MAX_REMOTE_FILESIZE}
+ * bytes were read, so the size of a download does not affect the heap. Connections are left to the keep
+ * alive pool of the JVM by reading responses to the end and not disconnecting them.
+ *
+ * When a cache size is configured, HTTP responses with an ETag or Last-Modified header are kept in
+ * temporary files, and the next download of the URL asks the server whether the content changed, using the
+ * cached file if it did not.
+ */
+public class Downloader {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+
+	public static final long MAX_REMOTE_FILESIZE = 1024 * 1024 * 200; //maximum of 200 MB
+	private static final int TIMEOUT_MS = 20000;
+
+	private static final AtomicLong threadnr = new AtomicLong();
+
+	private static volatile long maxCacheBytes = 0;
+	private static long cacheBytes = 0;
+	private static final Map<String, CacheEntry> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private static final Map<String, AtomicLong> nextRequestByHost = new ConcurrentHashMap<>();
+
+	private static final AtomicLong downloads = new AtomicLong();
+	private static final AtomicLong notModified = new AtomicLong();
+	private static final AtomicLong bytes = new AtomicLong();
+
+	public interface ContentSink {
+
+		void accept(InputStream content) throws IOException;
+
+	}
+
+	/**
+	 * @param maxBytes the disk space for cached downloads, 0 to disable the cache
+	 */
+	public static void configure(long maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Cache size should be 0 or higher");
+		}
+		maxCacheBytes = maxBytes;
+		synchronized (cache) {
+			evict();
+		}
+		Logging.info(LOGNODE, "[Downloader] Cache size " + maxBytes + " bytes");
+	}
+
+	/**
+	 * Downloads the URL into the document, in the context of the caller.
+	 */
+	public static void download(IContext context, String url, IMendixObject document, String filename) throws IOException, URISyntaxException {
+		fetch(url, 0, content -> Core.storeFileDocumentContent(context, document, filename, content));
+	}
+
+	/**
+	 * Downloads the URL of every document into the document. The downloads run at the same time on a pool of
+	 * parallelism threads into temporary files, which are stored by the calling thread, in its context. A
+	 * failing download is logged and does not stop the others.
+	 *
+	 * @param urlAttribute the attribute of the documents that holds the URL
+	 * @param maxRequestsPerSecondPerHost the maximum number of requests per second to one host, 0 for no limit
+	 * @return the number of documents that were downloaded
+	 */
+	public static long downloadAll(IContext context, List<IMendixObject> documents, String urlAttribute, int parallelism, double maxRequestsPerSecondPerHost) throws IOException {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism should be 1 or higher");
+		}
+		long interval = maxRequestsPerSecondPerHost > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / maxRequestsPerSecondPerHost) : 0;
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread t = new Thread(runnable, "CommunityCommons download " + threadnr.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		// bounds the number of downloads waiting on disk to be stored
+		Semaphore pending = new Semaphore(parallelism * 2);
+		List<Future<File>> results = new ArrayList<>();
+		long succeeded = 0;
+		try {
+			int stored = 0;
+			for (IMendixObject document : documents) {
+				String url = document.getValue(context, urlAttribute);
+				while (!pending.tryAcquire()) {
+					succeeded += store(context, documents.get(stored), urlAttribute, results.get(stored));
+					results.set(stored++, null);
+					pending.release();
+				}
+				results.add(pool.submit(() -> {
+					File file = Files.createTempFile("communitycommons-download-", ".tmp").toFile();
+					try {
+						fetch(url, interval, content -> Files.copy(content, file.toPath(), StandardCopyOption.REPLACE_EXISTING));
+					} catch (IOException | URISyntaxException | RuntimeException e) {
+						Files.deleteIfExists(file.toPath());
+						throw e;
+					}
+					if (Thread.currentThread().isInterrupted()) {
+						// the download outlived the shutdown of the pool, nobody is going to store or delete it
+						Files.deleteIfExists(file.toPath());
+						throw new InterruptedException("Download of " + url + " was cancelled");
+					}
+					return file;
+				}));
+			}
+			for (; stored < results.size(); stored++) {
+				succeeded += store(context, documents.get(stored), urlAttribute, results.get(stored));
+				results.set(stored, null);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while downloading documents", e);
+		} finally {
+			shutdown(pool, results);
+		}
+		Logging.debug(LOGNODE, "[Downloader] Downloaded " + succeeded + " of " + documents.size() + " documents");
+		return succeeded;
+	}
+
+	/**
+	 * Stops the pool and deletes the downloads that were not stored. Downloads that did not start are
+	 * cancelled, as the pool drops them without completing their futures.
+	 */
+	private static void shutdown(ExecutorService pool, List<Future<File>> results) {
+		for (Runnable queued : pool.shutdownNow()) {
+			((Future<?>) queued).cancel(false);
+		}
+		try {
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Future<File> result : results) {
+			if (result != null && result.isDone() && !result.isCancelled()) {
+				deleteResult(result);
+			}
+		}
+	}
+
+	private static void deleteResult(Future<File> result) {
+		try {
+			Files.deleteIfExists(result.get().toPath());
+		} catch (Exception e) {
+			// the download failed, it cleaned up after itself
+		}
+	}
+
+	private static int store(IContext context, IMendixObject document, String urlAttribute, Future<File> result) throws InterruptedException {
+		String url = document.getValue(context, urlAttribute);
+		try {
+			File file = result.get();
+			try (InputStream content = Files.newInputStream(file.toPath())) {
+				Core.storeFileDocumentContent(context, document, getFilename(context, document, url), content);
+			} finally {
+				Files.deleteIfExists(file.toPath());
+			}
+			return 1;
+		} catch (ExecutionException | IOException | RuntimeException e) {
+			Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+			Logging.error(LOGNODE, String.format("A problem occurred while reading from URL %s: %s", url, cause.getMessage()));
+			return 0;
+		}
+	}
+
+	private static String getFilename(IContext context, IMendixObject document, String url) {
+		String name = document.getValue(context, FileDocument.MemberNames.Name.toString());
+		if (name != null && !name.isEmpty()) {
+			return name;
+		}
+		String path = URI.create(url).getPath();
+		return path == null || path.isEmpty() ? "download" : path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * Downloads the URL and passes the content to the sink.
+	 *
+	 * @param interval the minimum time between the starts of requests to the same host, in nanoseconds
+	 */
+	public static void fetch(String url, long interval, ContentSink sink) throws IOException, URISyntaxException {
+		if (url == null || url.isEmpty()) {
+			throw new IllegalArgumentException("No URL provided");
+		}
+		URL remote = new URI(url).toURL();
+		if (interval > 0) {
+			waitForTurn(remote.getHost(), interval);
+		}
+		URLConnection connection = remote.openConnection();
+		//we connect in 20 seconds or not at all
+		connection.setConnectTimeout(TIMEOUT_MS);
+		connection.setReadTimeout(TIMEOUT_MS);
+
+		boolean http = connection instanceof HttpURLConnection;
+		CacheEntry cached = null;
+		if (http && maxCacheBytes > 0) {
+			synchronized (cache) {
+				cached = cache.get(url);
+				if (cached != null) {
+					// the file is not deleted while it may be read
+					cached.readers++;
+				}
+			}
+		}
+		try {
+			if (cached != null) {
+				if (cached.etag != null) {
+					connection.setRequestProperty("If-None-Match", cached.etag);
+				}
+				if (cached.lastModified > 0) {
+					connection.setIfModifiedSince(cached.lastModified);
+				}
+			}
+			connection.connect();
+
+			if (cached != null && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				close(connection);
+				notModified.incrementAndGet();
+				Logging.trace(LOGNODE, String.format("Not modified, using the cached content of %s", url));
+				try (InputStream is = Files.newInputStream(cached.file.toPath())) {
+					sink.accept(is);
+				}
+				return;
+			}
+		} finally {
+			if (cached != null) {
+				release(cached);
+			}
+		}
+
+		long contentLength = connection.getContentLengthLong();
+
+		//check on forehand the size of the remote file, we don't want to kill the server by providing a 3 terabyte image.
+		Logging.trace(LOGNODE, String.format("Remote filesize: %d", contentLength));
+
+		if (contentLength > MAX_REMOTE_FILESIZE) { //maximum of 200 mb
+			close(connection);
+			throw new IllegalArgumentException(String.format("Wrong filesize of remote url: %d (max: %d)", contentLength, MAX_REMOTE_FILESIZE));
+		}
+
+		String etag = connection.getHeaderField("ETag");
+		long lastModified = connection.getLastModified();
+		String cacheControl = connection.getHeaderField("Cache-Control");
+		boolean cacheable = http && maxCacheBytes > 0 && (etag != null || lastModified > 0)
+			&& (cacheControl == null || !cacheControl.toLowerCase().contains("no-store"))
+			&& contentLength <= maxCacheBytes;
+
+		downloads.incrementAndGet();
+		try (InputStream content = new LimitedInputStream(connection.getInputStream(), MAX_REMOTE_FILESIZE)) {
+			if (!cacheable) {
+				sink.accept(content);
+			} else {
+				File file = Files.createTempFile("communitycommons-download-cache-", ".tmp").toFile();
+				try {
+					Files.copy(content, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				} catch (IOException | RuntimeException e) {
+					Files.deleteIfExists(file.toPath());
+					throw e;
+				}
+				CacheEntry entry = new CacheEntry(file, etag, lastModified);
+				synchronized (cache) {
+					// held by this download until the sink is done, so eviction cannot delete the file before it is read
+					entry.readers++;
+					if (entry.size <= maxCacheBytes) {
+						CacheEntry previous = cache.put(url, entry);
+						cacheBytes += entry.size;
+						if (previous != null) {
+							remove(previous);
+						}
+						evict();
+					} else {
+						entry.removed = true;
+					}
+				}
+				try (InputStream is = Files.newInputStream(file.toPath())) {
+					sink.accept(is);
+				} finally {
+					release(entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the rest of a response, so the connection can be reused.
+	 */
+	private static void close(URLConnection connection) {
+		try (InputStream is = connection.getInputStream()) {
+			byte[] buffer = new byte[8192];
+			while (is.read(buffer) >= 0) {
+				// discard
+			}
+		} catch (IOException e) {
+			// the connection is not reused
+		}
+	}
+
+	private static void waitForTurn(String host, long interval) throws IOException {
+		AtomicLong next = nextRequestByHost.computeIfAbsent(host, h -> new AtomicLong(System.nanoTime()));
+		long turn;
+		while (true) {
+			long previous = next.get();
+			turn = Math.max(System.nanoTime(), previous);
+			if (next.compareAndSet(previous, turn + interval)) {
+				break;
+			}
+		}
+		long wait = turn - System.nanoTime();
+		if (wait > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting to request " + host, e);
+			}
+		}
+	}
+
+	// call while holding the cache lock
+	private static void evict() {
+		Iterator<CacheEntry> entries = cache.values().iterator();
+		while (cacheBytes > maxCacheBytes && entries.hasNext()) {
+			CacheEntry eldest = entries.next();
+			entries.remove();
+			remove(eldest);
+		}
+	}
+
+	// call while holding the cache lock
+	private static void remove(CacheEntry entry) {
+		cacheBytes -= entry.size;
+		entry.removed = true;
+		if (entry.readers == 0) {
+			delete(entry);
+		}
+	}
+
+	private static void release(CacheEntry entry) {
+		synchronized (cache) {
+			entry.readers--;
+			if (entry.removed && entry.readers == 0) {
+				delete(entry);
+			}
+		}
+	}
+
+	private static void delete(CacheEntry entry) {
+		try {
+			Files.deleteIfExists(entry.file.toPath());
+		} catch (IOException e) {
+			Logging.warn(LOGNODE, "[Downloader] Failed to delete cached download " + entry.file + ": " + e.getMessage());
+		}
+	}
+
+	public static Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put("downloads", downloads.get());
+		statistics.put("notModified", notModified.get());
+		statistics.put("bytes", bytes.get());
+		synchronized (cache) {
+			statistics.put("cachedUrls", cache.size());
+			statistics.put("cachedBytes", cacheBytes);
+		}
+		statistics.put("maxCacheBytes", maxCacheBytes);
+		return Collections.unmodifiableMap(statistics);
+	}
+
+	private static class CacheEntry {
+
+		private final File file;
+		private final String etag;
+		private final long lastModified;
+		private final long size;
+		// guarded by the cache lock: the downloads that may still read the file, and whether it left the cache
+		private int readers = 0;
+		private boolean removed = false;
+
+		CacheEntry(File file, String etag, long lastModified) {
+			this.file = file;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.size = file.length();
+		}
+	}
+
+	/**
+	 * Fails when more than limit bytes are read, instead of silently truncating the content.
+	 */
+	static class LimitedInputStream extends FilterInputStream {
+
+		private final long limit;
+		private long read = 0;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.limit = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count(n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count(skipped);
+			return skipped;
+		}
+
+		private void count(long n) throws IOException {
+			read += n;
+			bytes.addAndGet(n);
+			if (read > limit) {
+				throw new IOException(String.format("Remote file is larger than the maximum of %d bytes", limit));
+			}
+		}
+	}
+}
@@ -0,0 +1,309 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import communitycommons.proxies.LogNodes;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks by key, as used by XPath.findOrCreateSynchronized, so only callers with the same key wait for each other.
+ *
+ * Keys are hashed onto a fixed set of lock stripes; two different keys share a stripe only by chance. Waiting
+ * for a lock times out, after which a CoreException is thrown. In cluster mode the lock is also taken in a
+ * lock table in the application database, so callers on other instances with the same key wait as well.
+ * The rows of held locks are renewed in the background; rows of an instance that stopped while holding a
+ * lock expire after a minute.
+ */
+public class KeyedLocks {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+
+	public static final long DEFAULT_TIMEOUT_MS = 30000;
+	static final String LOCK_TABLE = "communitycommons_keylock";
+
+	private static final int STRIPES = 1024;
+	private static final long CLUSTER_LOCK_EXPIRY_MS = 60000;
+	private static final long CLUSTER_RETRY_MS = 200;
+	private static final long CLUSTER_RENEW_MS = CLUSTER_LOCK_EXPIRY_MS / 3;
+
+	private static final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+	static {
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	private static volatile long timeoutMs = DEFAULT_TIMEOUT_MS;
+	private static volatile boolean clusterWide = false;
+	private static BatchLeaseStore.ConnectionProvider connections;
+	private static final ThreadLocal<Set<String>> clusterKeysHeld = ThreadLocal.withInitial(HashSet::new);
+	// the owner of every cluster lock held by this instance, by cluster key
+	private static final Map<String, String> clusterOwners = new ConcurrentHashMap<>();
+	private static ScheduledExecutorService renewer;
+
+	private static final AtomicLong acquired = new AtomicLong();
+	private static final AtomicLong contended = new AtomicLong();
+	private static final AtomicLong timedOut = new AtomicLong();
+	private static final AtomicLong clusterAcquired = new AtomicLong();
+	private static final AtomicLong clusterContended = new AtomicLong();
+	private static final AtomicLong totalWaitNanos = new AtomicLong();
+	private static final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+	public interface LockedAction<R> {
+
+		R run() throws CoreException;
+
+	}
+
+	/**
+	 * @param timeout how long to wait for a lock, in milliseconds
+	 * @param cluster whether to lock across the instances of the cluster as well
+	 */
+	public static void configure(long timeout, boolean cluster) {
+		if (timeout < 1) {
+			throw new IllegalArgumentException("Timeout should be 1 ms or higher");
+		}
+		timeoutMs = timeout;
+		clusterWide = cluster;
+		Logging.info(LOGNODE, "[KeyedLocks] Lock timeout " + timeout + " ms" + (cluster ? ", cluster wide" : ""));
+	}
+
+	/**
+	 * Runs the action while holding the lock for the key.
+	 */
+	public static <R> R withLock(String key, LockedAction<R> action) throws CoreException, InterruptedException {
+		long start = System.nanoTime();
+		long timeout = timeoutMs;
+		ReentrantLock lock = stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+		if (!lock.tryLock()) {
+			contended.incrementAndGet();
+			if (!lock.tryLock(timeout, TimeUnit.MILLISECONDS)) {
+				timedOut.incrementAndGet();
+				throw new CoreException("Timed out after " + timeout + " ms waiting for the lock on " + key);
+			}
+		}
+		try {
+			String clusterKey = clusterWide ? hash(key) : null;
+			boolean clusterLocked = clusterKey != null && clusterKeysHeld.get().add(clusterKey);
+			if (clusterLocked) {
+				try {
+					lockCluster(key, clusterKey, start + TimeUnit.MILLISECONDS.toNanos(timeout), timeout);
+				} catch (CoreException | InterruptedException | RuntimeException e) {
+					clusterKeysHeld.get().remove(clusterKey);
+					throw e;
+				}
+			}
+			long wait = System.nanoTime() - start;
+			acquired.incrementAndGet();
+			totalWaitNanos.addAndGet(wait);
+			maxWaitNanos.accumulate(wait);
+			try {
+				return action.run();
+			} finally {
+				if (clusterLocked) {
+					clusterKeysHeld.get().remove(clusterKey);
+					unlockCluster(clusterKey);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public static Map<String, Object> getStatistics() {
+		long count = acquired.get();
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put("timeoutMs", timeoutMs);
+		statistics.put("clusterWide", clusterWide);
+		statistics.put("acquired", count);
+		statistics.put("contended", contended.get());
+		statistics.put("timedOut", timedOut.get());
+		statistics.put("clusterAcquired", clusterAcquired.get());
+		statistics.put("clusterContended", clusterContended.get());
+		statistics.put("averageWaitMs", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / count));
+		statistics.put("maxWaitMs", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+		return statistics;
+	}
+
+	public static void resetStatistics() {
+		acquired.set(0);
+		contended.set(0);
+		timedOut.set(0);
+		clusterAcquired.set(0);
+		clusterContended.set(0);
+		totalWaitNanos.set(0);
+		maxWaitNanos.reset();
+	}
+
+	/**
+	 * Uses the given connections for the lock table instead of the database of the runtime, for example to run
+	 * several instances against one HSQLDB database locally.
+	 */
+	static synchronized void setConnections(BatchLeaseStore.ConnectionProvider provider) {
+		connections = provider;
+	}
+
+	private static synchronized BatchLeaseStore.ConnectionProvider getConnections() throws SQLException {
+		if (connections == null) {
+			connections = BatchLeaseStore.runtimeConnections();
+		}
+		createTable(connections);
+		return connections;
+	}
+
+	private static volatile boolean tableChecked = false;
+
+	private static void createTable(BatchLeaseStore.ConnectionProvider provider) throws SQLException {
+		if (tableChecked) {
+			return;
+		}
+		provider.withConnection(connection -> {
+			if (!BatchLeaseStore.tableExists(connection, LOCK_TABLE)) {
+				try (Statement statement = connection.createStatement()) {
+					statement.executeUpdate("CREATE TABLE " + LOCK_TABLE
+						+ " (lock_key VARCHAR(64) NOT NULL, owner VARCHAR(200) NOT NULL, expires DECIMAL(19) NOT NULL, PRIMARY KEY (lock_key))");
+				} catch (SQLException e) {
+					// another instance may have created it in the meantime
+					if (!BatchLeaseStore.tableExists(connection, LOCK_TABLE)) {
+						throw e;
+					}
+				}
+			}
+			return null;
+		});
+		tableChecked = true;
+	}
+
+	private static void lockCluster(String key, String clusterKey, long deadline, long timeout) throws CoreException, InterruptedException {
+		String owner = Core.getXASId() + "/" + Thread.currentThread().getId();
+		boolean waited = false;
+		try {
+			BatchLeaseStore.ConnectionProvider provider = getConnections();
+			while (true) {
+				long now = System.currentTimeMillis();
+				boolean inserted = provider.withConnection(connection -> {
+					// take over the lock of an instance that stopped
+					try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + LOCK_TABLE + " WHERE lock_key = ? AND expires < ?")) {
+						statement.setString(1, clusterKey);
+						statement.setLong(2, now);
+						statement.executeUpdate();
+					}
+					try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + LOCK_TABLE + " (lock_key, owner, expires) VALUES (?, ?, ?)")) {
+						statement.setString(1, clusterKey);
+						statement.setString(2, owner);
+						statement.setLong(3, now + CLUSTER_LOCK_EXPIRY_MS);
+						statement.executeUpdate();
+						return true;
+					} catch (SQLException e) {
+						// integrity constraint violation: the lock is held
+						if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+							return false;
+						}
+						throw e;
+					}
+				});
+				if (inserted) {
+					clusterOwners.put(clusterKey, owner);
+					startRenewer();
+					clusterAcquired.incrementAndGet();
+					return;
+				}
+				if (!waited) {
+					waited = true;
+					clusterContended.incrementAndGet();
+				}
+				if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLUSTER_RETRY_MS) > deadline) {
+					timedOut.incrementAndGet();
+					throw new CoreException("Timed out after " + timeout + " ms waiting for the cluster lock on " + key);
+				}
+				Thread.sleep(CLUSTER_RETRY_MS);
+			}
+		} catch (SQLException e) {
+			throw new CoreException("Failed to take the cluster lock on " + key + ": " + e.getMessage(), e);
+		}
+	}
+
+	private static void unlockCluster(String clusterKey) {
+		String owner = clusterOwners.remove(clusterKey);
+		try {
+			int deleted = getConnections().withConnection(connection -> {
+				try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + LOCK_TABLE + " WHERE lock_key = ? AND owner = ?")) {
+					statement.setString(1, clusterKey);
+					statement.setString(2, owner);
+					return statement.executeUpdate();
+				}
+			});
+			if (deleted == 0) {
+				Logging.error(LOGNODE, "[KeyedLocks] The cluster lock " + clusterKey + " expired while it was held, another instance may have taken it");
+			}
+		} catch (SQLException e) {
+			Logging.error(LOGNODE, "[KeyedLocks] Failed to release the cluster lock " + clusterKey + ", it expires in " + CLUSTER_LOCK_EXPIRY_MS + " ms: " + e.getMessage(), e);
+		}
+	}
+
+	private static synchronized void startRenewer() {
+		if (renewer == null) {
+			renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread t = new Thread(runnable, "CommunityCommons KeyedLocks renewal");
+				t.setDaemon(true);
+				return t;
+			});
+			renewer.scheduleWithFixedDelay(KeyedLocks::renewClusterLocks, CLUSTER_RENEW_MS, CLUSTER_RENEW_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Extends the expiry of the cluster locks held by this instance, so that a lock held for longer than the
+	 * expiry is not taken over by another instance.
+	 */
+	private static void renewClusterLocks() {
+		for (Map.Entry<String, String> held : clusterOwners.entrySet()) {
+			try {
+				int renewed = getConnections().withConnection(connection -> {
+					try (PreparedStatement statement = connection.prepareStatement("UPDATE " + LOCK_TABLE + " SET expires = ? WHERE lock_key = ? AND owner = ?")) {
+						statement.setLong(1, System.currentTimeMillis() + CLUSTER_LOCK_EXPIRY_MS);
+						statement.setString(2, held.getKey());
+						statement.setString(3, held.getValue());
+						return statement.executeUpdate();
+					}
+				});
+				// a lock released in the meantime is not lost
+				if (renewed == 0 && held.getValue().equals(clusterOwners.get(held.getKey()))) {
+					Logging.error(LOGNODE, "[KeyedLocks] Lost the cluster lock " + held.getKey() + ", it expired before it could be renewed");
+				}
+			} catch (SQLException | RuntimeException e) {
+				Logging.error(LOGNODE, "[KeyedLocks] Failed to renew the cluster lock " + held.getKey() + ": " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private static String hash(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
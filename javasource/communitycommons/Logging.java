@@ -2,16 +2,14 @@ package communitycommons;
 
 import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.core.IContext;
 import communitycommons.proxies.LogLevel;
 import communitycommons.proxies.LogNodes;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 public class Logging {
 
-	private static Map<String, Long> timers = new HashMap<String, Long>();
-
 	public static void trace(String lognode, String message) {
 		log(lognode, LogLevel.Trace, message, null);
 	}
@@ -70,18 +68,29 @@ public class Logging {
 
 	public static Long measureEnd(String timerName, LogLevel loglevel,
 		String message) {
-		Long cur = new Date().getTime();
-		if (!timers.containsKey(timerName)) {
-			throw new IllegalArgumentException(String.format("Timer with key %s not found", timerName));
-		}
-		Long timeTaken = cur - timers.get(timerName);
-		String time = String.format("%d", timeTaken);
+		return measureEnd(null, timerName, loglevel, message);
+	}
+
+	/**
+	 * Stops the timer that was started in the same context, see {@link Timers}.
+	 *
+	 * @return the time taken in ms
+	 */
+	public static Long measureEnd(IContext context, String timerName, LogLevel loglevel,
+		String message) {
+		long elapsed = Timers.stop(context, timerName);
+		Long timeTaken = TimeUnit.NANOSECONDS.toMillis(elapsed);
+		String time = String.format(Locale.ROOT, "%.3f", elapsed / 1000000.0);
 		log(LogNodes.CommunityCommons.name(), loglevel, "Timer " + timerName + " finished in " + time + " ms. " + message, null);
 		return timeTaken;
 	}
 
 	public static void measureStart(String timerName) {
-		timers.put(timerName, new Date().getTime());
+		measureStart(null, timerName);
+	}
+
+	public static void measureStart(IContext context, String timerName) {
+		Timers.start(context, timerName);
 	}
 
 	public static ILogNode createLogNode(String logNode) {
@@ -11,17 +11,14 @@ import com.mendix.systemwideinterfaces.core.IUser;
 import communitycommons.proxies.LogNodes;
 import static communitycommons.proxies.constants.Constants.getMergeMultiplePdfs_MaxAtOnce;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -29,16 +26,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import org.apache.commons.io.IOUtils;
-import org.apache.pdfbox.multipdf.Overlay;
-import org.apache.pdfbox.multipdf.PDFMergerUtility;
-import org.apache.pdfbox.pdmodel.PDDocument;
 import system.proxies.FileDocument;
 import system.proxies.Language;
 
@@ -235,36 +225,8 @@ public class Misc {
 			throw new IllegalArgumentException("No document, filename or URL provided");
 		}
 
-		final int MAX_REMOTE_FILESIZE = 1024 * 1024 * 200; //maximum of 200 MB
 		try {
-			URL imageUrl = new URI(url).toURL();
-			URLConnection connection = imageUrl.openConnection();
-			//we connect in 20 seconds or not at all
-			connection.setConnectTimeout(20000);
-			connection.setReadTimeout(20000);
-			connection.connect();
-
-			int contentLength = connection.getContentLength();
-
-			//check on forehand the size of the remote file, we don't want to kill the server by providing a 3 terabyte image.
-			Logging.trace(LOGNODE, String.format("Remote filesize: %d", contentLength));
-
-			if (contentLength > MAX_REMOTE_FILESIZE) { //maximum of 200 mb
-				throw new IllegalArgumentException(String.format("Wrong filesize of remote url: %d (max: %d)", contentLength, MAX_REMOTE_FILESIZE));
-			}
-
-			InputStream fileContentIS;
-			try (InputStream connectionInputStream = connection.getInputStream()) {
-				if (contentLength >= 0) {
-					fileContentIS = connectionInputStream;
-				} else { // contentLength is negative or unknown
-					Logging.trace(LOGNODE, String.format("Unknown content length; limiting to %d", MAX_REMOTE_FILESIZE));
-					byte[] outBytes = new byte[MAX_REMOTE_FILESIZE];
-					int actualLength = IOUtils.read(connectionInputStream, outBytes, 0, MAX_REMOTE_FILESIZE);
-					fileContentIS = new ByteArrayInputStream(Arrays.copyOf(outBytes, actualLength));
-				}
-				Core.storeFileDocumentContent(context, __document, filename, fileContentIS);
-			}
+			Downloader.download(context, url, __document, filename);
 		} catch (IOException | URISyntaxException e) {
 			Logging.error(LOGNODE, String.format("A problem occurred while reading from URL %s: %s", url, e.getMessage()));
 			throw e;
@@ -273,6 +235,20 @@ public class Misc {
 		return true;
 	}
 
+	/**
+	 * Downloads the URL in the urlAttribute of every document into the document, see {@link Downloader}.
+	 *
+	 * @param parallelism the number of URLs that are downloaded at the same time
+	 * @param maxRequestsPerSecondPerHost the maximum number of requests per second to one host, 0 for no limit
+	 * @return the number of documents that were downloaded
+	 */
+	public static long storeURLsToFileDocuments(IContext context, List<IMendixObject> documents, String urlAttribute, int parallelism, double maxRequestsPerSecondPerHost) throws IOException {
+		if (urlAttribute == null || urlAttribute.isEmpty()) {
+			throw new IllegalArgumentException("No URL attribute provided");
+		}
+		return Downloader.downloadAll(context, documents, urlAttribute, parallelism, maxRequestsPerSecondPerHost);
+	}
+
 	public static Long getFileSize(IContext context, IMendixObject document) {
 		final int BUFFER_SIZE = 4096;
 		long size = 0;
@@ -375,61 +351,15 @@ public class Misc {
 		return Core.microflowCall(microflowName).withParams(params).execute(c);
 	}
 
-	//MWE: based on: http://download.oracle.com/javase/6/docs/api/java/util/concurrent/Executor.html
-	static class MFSerialExecutor {
-
-		private static MFSerialExecutor _instance = new MFSerialExecutor();
-
-		private final AtomicLong tasknr = new AtomicLong();
-		private final ExecutorService executor;
-
-		public static MFSerialExecutor instance() {
-			return _instance;
-		}
-
-		private MFSerialExecutor() {
-			executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
-
-				//Default thread factory takes care of setting the proper thread context
-				private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
-
-				@Override
-				public Thread newThread(Runnable runnable) {
-					Thread t = defaultFactory.newThread(runnable);
-					t.setPriority(Thread.MIN_PRIORITY);
-					t.setName("CommunityCommons background pool executor thread");
-					return t;
-				}
-
-			});
-		}
-
-		public void execute(final Runnable command) {
-			if (command == null) {
-				throw new NullPointerException("command");
-			}
-
-			final long currenttasknr = tasknr.incrementAndGet();
-			Logging.debug(LOGNODE, "[RunMicroflowAsyncInQueue] Scheduling task #" + currenttasknr);
-
-			executor.submit(new Runnable() {
-				@Override
-				public void run() {
-					Logging.debug(LOGNODE, "[RunMicroflowAsyncInQueue] Running task #" + currenttasknr);
-					try {
-						command.run();
-					} catch (RuntimeException e) {
-						Logging.error(LOGNODE, "[RunMicroflowAsyncInQueue] Execution of task #" + currenttasknr + " failed: " + e.getMessage(), e);
-						throw e; //single thread executor will continue, even if an exception is thrown.
-					}
-					Logging.debug(LOGNODE, "[RunMicroflowAsyncInQueue] Completed task #" + currenttasknr + ". Tasks left: " + (tasknr.get() - currenttasknr));
-				}
-			});
-		}
+	public static Boolean runMicroflowAsyncInQueue(final String microflowName) {
+		return runMicroflowAsyncInLane(microflowName, BackgroundExecutor.QUEUE_LANE, BackgroundExecutor.DEFAULT_PRIORITY);
 	}
 
-	public static Boolean runMicroflowAsyncInQueue(final String microflowName) {
-		MFSerialExecutor.instance().execute(new Runnable() {
+	/**
+	 * Queues the microflow on the given lane of the {@link BackgroundExecutor}, the microflow runs in a system context.
+	 */
+	public static Boolean runMicroflowAsyncInLane(final String microflowName, String laneName, int priority) {
+		BackgroundExecutor.lane(laneName).submit(new Runnable() {
 			@Override
 			public void run() {
 				try {
@@ -439,14 +369,14 @@ public class Misc {
 					throw new RuntimeException("Failed to run Async: " + microflowName + ": " + e.getMessage(), e);
 				}
 			}
-		});
+		}, priority);
 		return true;
 	}
 
 	public static Boolean runMicroflowInBackground(final IContext context, final String microflowName,
 		final IMendixObject paramObject) {
 
-		MFSerialExecutor.instance().execute(new Runnable() {
+		BackgroundExecutor.lane(BackgroundExecutor.BACKGROUND_LANE).submit(new Runnable() {
 
 			@Override
 			public void run() {
@@ -467,126 +397,17 @@ public class Misc {
 		return true;
 	}
 
-	private interface IBatchItemHandler {
-
-		void exec(IContext context, IMendixObject obj) throws Exception;
-
-	}
-
-	private static class BatchState {
-
-		private int state = 0; //-1 = error, 1 = done.
-		private final IBatchItemHandler callback;
-
-		public BatchState(IBatchItemHandler callback) {
-			this.callback = callback;
-		}
-
-		public void setState(int state) {
-			this.state = state;
-		}
-
-		public int getState() {
-			return state;
-		}
-
-		public void handle(IContext context, IMendixObject obj) throws Exception {
-			callback.exec(context, obj);
-		}
-	}
-
 	public static Boolean executeMicroflowInBatches(String xpath, final String microflow, int batchsize, boolean waitUntilFinished, boolean asc) throws CoreException, InterruptedException {
 		Logging.debug(LOGNODE, "[ExecuteInBatches] Starting microflow batch '" + microflow + "...");
 
-		return executeInBatches(xpath, new BatchState(new IBatchItemHandler() {
-
-			@Override
-			public void exec(IContext context, IMendixObject obj) throws Exception {
-				Core.executeAsync(context, microflow, true, obj).get();
-			}
-
-		}), batchsize, waitUntilFinished, asc);
+		return BatchEngine.execute("microflow '" + microflow + "'", xpath, batchsize, waitUntilFinished, asc, BatchEngine.microflowHandler(microflow));
 	}
 
 	public static Boolean recommitInBatches(String xpath, int batchsize,
 		boolean waitUntilFinished, Boolean asc) throws CoreException, InterruptedException {
 		Logging.debug(LOGNODE, "[ExecuteInBatches] Starting recommit batch...");
 
-		return executeInBatches(xpath, new BatchState(new IBatchItemHandler() {
-
-			@Override
-			public void exec(IContext context, IMendixObject obj) throws Exception {
-				Core.commit(context, obj);
-			}
-
-		}), batchsize, waitUntilFinished, asc);
-	}
-
-	public static Boolean executeInBatches(String xpathRaw, BatchState batchState, int batchsize, boolean waitUntilFinished, boolean asc) throws CoreException, InterruptedException {
-		String xpath = xpathRaw.startsWith("//") ? xpathRaw : "//" + xpathRaw;
-
-		long count = Core.createXPathQuery("count(" + xpath + ")").executeAggregateLong(Core.createSystemContext());
-		int loop = (int) Math.ceil(((float) count) / ((float) batchsize));
-
-		Logging.debug(LOGNODE,
-			"[ExecuteInBatches] Starting batch on ~ " + count + " objects divided over ~ " + loop + " batches. "
-			+ (waitUntilFinished ? "Waiting until the batch has finished..." : "")
-		);
-
-		executeInBatchesHelper(xpath, batchsize, 0, batchState, count, asc);
-
-		if (waitUntilFinished) {
-			while (batchState.getState() == 0) {
-				Thread.sleep(5000);
-			}
-			if (batchState.getState() == 1) {
-				Logging.debug(LOGNODE, "[ExecuteInBatches] Successfully finished batch");
-				return true;
-			}
-			Logging.error(LOGNODE, "[ExecuteInBatches] Failed to finish batch. Please check the application log for more details.");
-			return false;
-		}
-
-		return true;
-	}
-
-	static void executeInBatchesHelper(final String xpath, final int batchsize, final long last, final BatchState batchState, final long count, final boolean asc) {
-		MFSerialExecutor.instance().execute(new Runnable() {
-
-			@Override
-			public void run() {
-				try {
-					Thread.sleep(200);
-					IContext c = Core.createSystemContext();
-
-					List<IMendixObject> objects = 
-						Core.createXPathQuery(xpath + (last > 0 ? "[id " + (asc ? "> " : "< ") + last + "]" : ""))
-							.setAmount(batchsize)
-							.setOffset(0)
-							.addSort("id", asc ? true : false)
-							.execute(c);
-
-					//no new objects found :)
-					if (objects.isEmpty()) {
-						Logging.debug(LOGNODE, "[ExecuteInBatches] Succesfully finished batch on ~" + count + " objects.");
-						batchState.setState(1);
-					} else {
-
-						//process objects
-						for (IMendixObject obj : objects) {
-							batchState.handle(c, obj);
-						}
-
-						//invoke next batch
-						executeInBatchesHelper(xpath, batchsize, objects.get(objects.size() - 1).getId().toLong(), batchState, count, asc);
-					}
-				} catch (Exception e) {
-					batchState.setState(-1);
-					throw new RuntimeException("[ExecuteInBatches] Failed to run in batch: " + e.getMessage(), e);
-				}
-			}
-
-		});
+		return BatchEngine.execute("recommit", xpath, batchsize, waitUntilFinished, asc == null || asc, BatchEngine.commitHandler());
 	}
 
 	/**
@@ -627,37 +448,24 @@ public class Misc {
 	}
 
 	public static boolean mergePDF(IContext context, List<FileDocument> documents, IMendixObject mergedDocument) throws IOException {
-		if (getMergeMultiplePdfs_MaxAtOnce() <= 0 || documents.size() <= getMergeMultiplePdfs_MaxAtOnce()) {
-
-			List<InputStream> sources = new ArrayList<>();
-			try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-				PDFMergerUtility mergePdf = new PDFMergerUtility();
-
-				for (FileDocument file : documents) {
-					InputStream content = Core.getFileDocumentContent(context, file.getMendixObject());
-					sources.add(content);
-				}
-				mergePdf.addSources(sources);
-				mergePdf.setDestinationStream(out);
-				mergePdf.mergeDocuments(null);
-
-				Core.storeFileDocumentContent(context, mergedDocument, new ByteArrayInputStream(out.toByteArray()));
-
-				out.reset();
-				documents.clear();
-			} catch (IOException e) {
-				throw new RuntimeException("Failed to merge documents" + e.getMessage(), e);
-			} finally { // We cannot use try-with-resources because streams would be prematurely closed
-				for (InputStream is : sources) {
-					is.close();
-				}
-			}
+		return mergePDF(context, documents, mergedDocument, 1);
+	}
 
-			return true;
-		} else {
-			throw new IllegalArgumentException("MergeMultiplePDFs: you cannot merge more than " + getMergeMultiplePdfs_MaxAtOnce()
-				+ " PDF files at once. You are trying to merge " + documents.size() + " PDF files.");
+	/**
+	 * Merges the documents on disk in groups of MergeMultiplePdfs_MaxAtOnce documents, see {@link PdfMerger}.
+	 *
+	 * @param parallelism the number of groups that are merged at the same time
+	 */
+	public static boolean mergePDF(IContext context, List<FileDocument> documents, IMendixObject mergedDocument, int parallelism) throws IOException {
+		int fanIn = getMergeMultiplePdfs_MaxAtOnce() > 1 ? getMergeMultiplePdfs_MaxAtOnce().intValue() : PdfMerger.DEFAULT_FAN_IN;
+		try {
+			new PdfMerger(fanIn, parallelism).merge(context,
+				documents.stream().map(FileDocument::getMendixObject).collect(Collectors.toList()), mergedDocument);
+			documents.clear();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to merge documents" + e.getMessage(), e);
 		}
+		return true;
 	}
 
 	/**
@@ -673,39 +481,23 @@ public class Misc {
 	 * @throws IOException
 	 */
 	public static boolean overlayPdf(IContext context, IMendixObject generatedDocumentMendixObject, IMendixObject overlayMendixObject, boolean onTopOfContent) throws IOException {
-		Logging.trace(LOGNODE, "Retrieve generated document");
-		try (
-			PDDocument inputDoc = PDDocument.load(Core.getFileDocumentContent(context, generatedDocumentMendixObject));
-			PDDocument overlayDoc = PDDocument.load(Core.getFileDocumentContent(context, overlayMendixObject));
-			ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-			Logging.trace(LOGNODE, "Overlay PDF start, retrieve overlay PDF");
-
-			Logging.trace(LOGNODE, "Perform overlay");
-			try (Overlay overlay = new Overlay()) {
-				overlay.setInputPDF(inputDoc);
-				overlay.setDefaultOverlayPDF(overlayDoc);
-				if (onTopOfContent) {
-					overlay.setOverlayPosition(Overlay.Position.FOREGROUND);
-				} else {
-					overlay.setOverlayPosition(Overlay.Position.BACKGROUND);
-				}
-
-				Logging.trace(LOGNODE, "Save result in output stream");
-
-				overlay.overlay(new HashMap<>()).save(baos);
-			}
-
-			Logging.trace(LOGNODE, "Duplicate result in input stream");
-			try (InputStream overlayedContent = new ByteArrayInputStream(baos.toByteArray())) {
-				Logging.trace(LOGNODE, "Store result in original document");
-				Core.storeFileDocumentContent(context, generatedDocumentMendixObject, overlayedContent);
-			}
-		}
-
+		Logging.trace(LOGNODE, "Overlay PDF start");
+		PdfOverlayer.overlay(context, Collections.singletonList(generatedDocumentMendixObject), overlayMendixObject, onTopOfContent, 1);
 		Logging.trace(LOGNODE, "Overlay PDF end");
 		return true;
 	}
 
+	/**
+	 * Overlays every document with the overlay, see {@link PdfOverlayer}.
+	 *
+	 * @param parallelism the number of documents that are overlaid at the same time
+	 */
+	public static boolean overlayPdfs(IContext context, List<FileDocument> generatedDocuments, FileDocument overlay, boolean onTopOfContent, int parallelism) throws IOException {
+		PdfOverlayer.overlay(context, generatedDocuments.stream().map(FileDocument::getMendixObject).collect(Collectors.toList()),
+			overlay.getMendixObject(), onTopOfContent, parallelism);
+		return true;
+	}
+
 	/**
 	 * Get the Cloud Foundry Instance Index (0 for leader and >0 for slave)
 	 *
@@ -22,10 +22,16 @@ import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive.PrimitiveType;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 public class ORM {
 
@@ -77,22 +83,105 @@ public class ORM {
 		return item.getMember(member).isValueChanged(context);
 	}
 
+	/** The number of ids per retrieve or reverse association query of deepClone */
+	private static final int CLONE_CHUNK_SIZE = 500;
+
+	/**
+	 * Clones the graph of the source into the target, level by level. Every level retrieves the referenced
+	 * objects of the level with one retrieve by ids and the objects over the reverse associations with one query
+	 * per association, in chunks. All clones are committed at once at the end.
+	 */
 	public static void deepClone(IContext c, IMendixObject source, IMendixObject target, String membersToSkip, String membersToKeep, String reverseAssociations, String excludeEntities, String excludeModules) throws CoreException {
-		List<String> toskip = Arrays.asList((membersToSkip + ",createdDate,changedDate").split(","));
-		List<String> tokeep = Arrays.asList((membersToKeep + ",System.owner,System.changedBy").split(","));
-		List<String> revAssoc = Arrays.asList(reverseAssociations.split(","));
-		List<String> skipEntities = Arrays.asList(excludeEntities.split(","));
-		List<String> skipModules = Arrays.asList(excludeModules.split(","));
+		Set<String> toskip = new HashSet<>(Arrays.asList((membersToSkip + ",createdDate,changedDate").split(",")));
+		Set<String> tokeep = new HashSet<>(Arrays.asList((membersToKeep + ",System.owner,System.changedBy").split(",")));
+		List<String> revAssoc = parseReverseAssociations(reverseAssociations);
+		Set<String> skipEntities = new HashSet<>(Arrays.asList(excludeEntities.split(",")));
+		Set<String> skipModules = new HashSet<>(Arrays.asList(excludeModules.split(",")));
+
 		Map<IMendixIdentifier, IMendixIdentifier> mappedIDs = new HashMap<IMendixIdentifier, IMendixIdentifier>();
-		duplicate(c, source, target, toskip, tokeep, revAssoc, skipEntities, skipModules, mappedIDs);
+		List<IMendixObject> clones = new ArrayList<IMendixObject>();
+		Map<IMendixObject, IMendixObject> level = new LinkedHashMap<IMendixObject, IMendixObject>();
+		mappedIDs.put(source.getId(), target.getId());
+		level.put(source, target);
+
+		while (!level.isEmpty()) {
+			Map<IMendixObject, IMendixObject> next = new LinkedHashMap<IMendixObject, IMendixObject>();
+
+			// retrieve the objects this level refers to that were not cloned yet
+			Set<IMendixIdentifier> referenced = new LinkedHashSet<IMendixIdentifier>();
+			for (IMendixObject src : level.keySet()) {
+				String type = src.getType() + "/";
+				for (var entry : src.getMembers(c).entrySet()) {
+					String key = entry.getKey();
+					IMendixObjectMember<?> m = entry.getValue();
+					if (toskip.contains(key) || toskip.contains(type + key) || tokeep.contains(key) || tokeep.contains(type + key) || m.isVirtual()) {
+						continue;
+					}
+					if (m instanceof MendixObjectReference && m.getValue(c) != null) {
+						referenced.add(((MendixObjectReference) m).getValue(c));
+					} else if (m instanceof MendixObjectReferenceSet && m.getValue(c) != null) {
+						referenced.addAll(((MendixObjectReferenceSet) m).getValue(c));
+					}
+				}
+			}
+			referenced.removeAll(mappedIDs.keySet());
+			List<IMendixIdentifier> ids = new ArrayList<IMendixIdentifier>(referenced);
+			for (int i = 0; i < ids.size(); i += CLONE_CHUNK_SIZE) {
+				for (IMendixObject o : Core.retrieveIdList(c, ids.subList(i, Math.min(i + CLONE_CHUNK_SIZE, ids.size())))) {
+					addClone(c, o, skipEntities, skipModules, mappedIDs, next);
+				}
+			}
+
+			// clone the objects that refer to this level over the reverse associations
+			for (IMendixObject o : retrieveReverseAssociations(c, level.keySet(), revAssoc, skipEntities, skipModules)) {
+				addClone(c, o, skipEntities, skipModules, mappedIDs, next);
+			}
+
+			for (var pair : level.entrySet()) {
+				copyMembers(c, pair.getKey(), pair.getValue(), toskip, tokeep, mappedIDs);
+				clones.add(pair.getValue());
+			}
+			level = next;
+		}
+		Core.commitWithoutEvents(c, clones);
+	}
+
+	private static List<String> parseReverseAssociations(String reverseAssociations) {
+		List<String> assocnames = new ArrayList<String>();
+		for (String fullAssocName : reverseAssociations.split(",")) {
+			String[] parts = fullAssocName.split("/");
+
+			if (parts.length != 1 && parts.length != 3) //specifying entity has no meaning anymore, but remain backward compatible.
+			{
+				throw new IllegalArgumentException("Reverse association is not defined correctly, please mention the relation name only: '" + fullAssocName + "'");
+			}
+
+			String assocname = parts.length == 3 ? parts[1] : parts[0]; //support length 3 for backward compatibility
+			if (!assocname.isEmpty() && !assocnames.contains(assocname)) {
+				assocnames.add(assocname);
+			}
+		}
+		return assocnames;
 	}
 
-	private static void duplicate(IContext ctx, IMendixObject src, IMendixObject tar,
-		List<String> toskip, List<String> tokeep, List<String> revAssoc,
-		List<String> skipEntities, List<String> skipModules,
-		Map<IMendixIdentifier, IMendixIdentifier> mappedObjects) throws CoreException {
-		mappedObjects.put(src.getId(), tar.getId());
+	private static void addClone(IContext ctx, IMendixObject src, Set<String> skipEntities, Set<String> skipModules,
+		Map<IMendixIdentifier, IMendixIdentifier> mappedObjects, Map<IMendixObject, IMendixObject> next) {
+		// if object is already being cloned, the references are set to the clone
+		if (mappedObjects.containsKey(src.getId())) {
+			return;
+		}
+		// if object should be skipped based on module or entity, references keep pointing to the source object
+		if (skipEntities.contains(src.getMetaObject().getName()) || skipModules.contains(src.getMetaObject().getModuleName())) {
+			mappedObjects.put(src.getId(), src.getId());
+			return;
+		}
+		IMendixObject clone = Core.instantiate(ctx, src.getType());
+		mappedObjects.put(src.getId(), clone.getId());
+		next.put(src, clone);
+	}
 
+	private static void copyMembers(IContext ctx, IMendixObject src, IMendixObject tar,
+		Set<String> toskip, Set<String> tokeep, Map<IMendixIdentifier, IMendixIdentifier> mappedObjects) {
 		Map<String, ? extends IMendixObjectMember<?>> members = src.getMembers(ctx);
 		String type = src.getType() + "/";
 
@@ -107,21 +196,14 @@ public class ORM {
 				boolean keep = tokeep.contains(key) || tokeep.contains(type + key);
 
 				if (m instanceof MendixObjectReference && !keep && m.getValue(ctx) != null) {
-					IMendixObject o = Core.retrieveId(ctx, ((MendixObjectReference) m).getValue(ctx));
-					IMendixIdentifier refObj = getCloneOfObject(ctx, o, toskip, tokeep, revAssoc, skipEntities, skipModules, mappedObjects);
-					tar.setValue(ctx, key, refObj);
+					IMendixIdentifier ref = ((MendixObjectReference) m).getValue(ctx);
+					tar.setValue(ctx, key, mappedObjects.getOrDefault(ref, ref));
 				} else if (m instanceof MendixObjectReferenceSet && !keep && m.getValue(ctx) != null) {
-					MendixObjectReferenceSet rs = (MendixObjectReferenceSet) m;
 					List<IMendixIdentifier> res = new ArrayList<IMendixIdentifier>();
-					for (IMendixIdentifier item : rs.getValue(ctx)) {
-						IMendixObject o = Core.retrieveId(ctx, item);
-						IMendixIdentifier refObj = getCloneOfObject(ctx, o, toskip, tokeep, revAssoc, skipEntities, skipModules, mappedObjects);
-						res.add(refObj);
+					for (IMendixIdentifier item : ((MendixObjectReferenceSet) m).getValue(ctx)) {
+						res.add(mappedObjects.getOrDefault(item, item));
 					}
 					tar.setValue(ctx, key, res);
-				} else if (m instanceof MendixAutoNumber) //skip autonumbers! Ticket 14893
-				{
-					// do nothing
 				} else if ("__UUID__".equals(key) && (isFileDocument(src) || isFileDocument(tar))) {
 					// do nothing
 				} else {
@@ -129,73 +211,51 @@ public class ORM {
 				}
 			}
 		}
-		Core.commitWithoutEvents(ctx, tar);
-		duplicateReverseAssociations(ctx, src, tar, toskip, tokeep, revAssoc, skipEntities, skipModules, mappedObjects);
 	}
 
-	private static IMendixIdentifier getCloneOfObject(IContext ctx, IMendixObject src,
-		List<String> toskip, List<String> tokeep, List<String> revAssoc,
-		List<String> skipEntities, List<String> skipModules,
-		Map<IMendixIdentifier, IMendixIdentifier> mappedObjects) throws CoreException {
-		String objType = src.getMetaObject().getName();
-		String modName = src.getMetaObject().getModuleName();
-
-		// if object is already being cloned, return ref to clone
-		if (mappedObjects.containsKey(src.getId())) {
-			return mappedObjects.get(src.getId());
-			// if object should be skipped based on module or entity, return source object
-		} else if (skipEntities.contains(objType) || skipModules.contains(modName)) {
-			return src.getId();
-			// if not already being cloned, create clone
-		} else {
-			IMendixObject clone = Core.instantiate(ctx, src.getType());
-			duplicate(ctx, src, clone, toskip, tokeep, revAssoc, skipEntities, skipModules, mappedObjects);
-			return clone.getId();
+	private static List<IMendixObject> retrieveReverseAssociations(IContext ctx, Collection<IMendixObject> sources, List<String> revAssocs,
+		Set<String> skipEntities, Set<String> skipModules) throws CoreException {
+		List<IMendixObject> result = new ArrayList<IMendixObject>();
+		if (revAssocs.isEmpty()) {
+			return result;
 		}
-	}
-
-	private static void duplicateReverseAssociations(IContext ctx, IMendixObject src, IMendixObject tar,
-		List<String> toskip, List<String> tokeep, List<String> revAssocs,
-		List<String> skipEntities, List<String> skipModules,
-		Map<IMendixIdentifier, IMendixIdentifier> mappedObjects) throws CoreException {
-		for (String fullAssocName : revAssocs) {
-			String[] parts = fullAssocName.split("/");
-
-			if (parts.length != 1 && parts.length != 3) //specifying entity has no meaning anymore, but remain backward compatible.
-			{
-				throw new IllegalArgumentException("Reverse association is not defined correctly, please mention the relation name only: '" + fullAssocName + "'");
-			}
 
-			String assocname = parts.length == 3 ? parts[1] : parts[0]; //support length 3 for backward compatibility
+		Map<IMetaObject, List<IMendixIdentifier>> sourcesByType = new LinkedHashMap<IMetaObject, List<IMendixIdentifier>>();
+		for (IMendixObject src : sources) {
+			sourcesByType.computeIfAbsent(src.getMetaObject(), t -> new ArrayList<IMendixIdentifier>()).add(src.getId());
+		}
 
-			IMetaAssociation massoc = src.getMetaObject().getDeclaredMetaAssociationChild(assocname);
+		for (var type : sourcesByType.entrySet()) {
+			for (String assocname : revAssocs) {
+				IMetaAssociation massoc = type.getKey().getDeclaredMetaAssociationChild(assocname);
+				if (massoc == null) {
+					continue;
+				}
 
-			if (massoc != null) {
 				IMetaObject relationParent = massoc.getParent();
 				// if the parent is in the exclude list, we can't clone the parent, and setting the
 				// references to the newly cloned target object will screw up the source data.
 				if (skipEntities.contains(relationParent.getName()) || skipModules.contains(relationParent.getModuleName())) {
-					throw new IllegalArgumentException("A reverse reference has been specified that starts at an entity in the exclude list, this is not possible to clone: '" + fullAssocName + "'");
+					throw new IllegalArgumentException("A reverse reference has been specified that starts at an entity in the exclude list, this is not possible to clone: '" + assocname + "'");
 				}
 
 				//MWE: what to do with reverse reference sets? -> to avoid spam creating objects on
 				//reverse references, do not support referenceset (todo: we could keep a map of converted guids and reuse that!)
 				if (massoc.getType() == AssociationType.REFERENCESET) {
-					throw new IllegalArgumentException("It is not possible to clone reverse referencesets: '" + fullAssocName + "'");
+					throw new IllegalArgumentException("It is not possible to clone reverse referencesets: '" + assocname + "'");
 				}
 
-				List<IMendixObject> objs = Core.createXPathQuery(String.format("//%s[%s=$value]", relationParent.getName(), assocname))
-					.setVariable("value", src)
-					.execute(ctx);
-
-				for (IMendixObject obj : objs) {
-					@SuppressWarnings("unused") // object is unused on purpose
-					IMendixIdentifier refObj = getCloneOfObject(ctx, obj, toskip, tokeep, revAssocs, skipEntities, skipModules, mappedObjects);
-					// setting reference explicitly is not necessary, this has been done in the
-					// duplicate() call.
+				// setting the reference to the clone is not necessary, the reference is mapped when the members are copied
+				List<IMendixIdentifier> ids = type.getValue();
+				for (int i = 0; i < ids.size(); i += CLONE_CHUNK_SIZE) {
+					String constraint = ids.subList(i, Math.min(i + CLONE_CHUNK_SIZE, ids.size())).stream()
+						.map(id -> assocname + " = " + XPath.valueToXPathValue(id))
+						.collect(Collectors.joining(" or ", "[", "]"));
+					result.addAll(Core.createXPathQuery("//" + relationParent.getName() + constraint).execute(ctx));
 				}
 			}
 		}
+		return result;
 	}
 
 	public static Boolean commitWithoutEvents(IContext context, IMendixObject subject) throws CoreException {
@@ -203,10 +263,23 @@ public class ORM {
 		return true;
 	}
 
+	private static final String DEFAULT_DATETIME_FORMAT = "EEE dd MMM yyyy, HH:mm";
+
+	/** SimpleDateFormat is not thread safe, so every thread keeps its own formatter per pattern */
+	private static final ThreadLocal<Map<String, SimpleDateFormat>> DATE_FORMATS = ThreadLocal.withInitial(HashMap::new);
+
 	public static String getValueOfPath(IContext context, IMendixObject substitute, String fullpath, String datetimeformat) throws Exception {
-		String[] path = fullpath.split("/");
-		if (path.length == 1) {
-			IMendixObjectMember<?> member = substitute.getMember(path[0]);
+		return getValueOfPath(context, substitute, fullpath.split("/"), 0, datetimeformat, new HashMap<IMendixIdentifier, IMendixObject>());
+	}
+
+	/**
+	 * Resolves path[from..] on the substitute. The objects retrieved for the hops of the path are kept in
+	 * retrieved, so paths that share a prefix, or a prefetch, do not retrieve them again.
+	 */
+	static String getValueOfPath(IContext context, IMendixObject substitute, String[] path, int from, String datetimeformat,
+		Map<IMendixIdentifier, IMendixObject> retrieved) throws Exception {
+		if (path.length - from == 1) {
+			IMendixObjectMember<?> member = substitute.getMember(path[from]);
 
 			//special case, see ticket 9135, format datetime.
 			if (member instanceof MendixDateTime) {
@@ -214,8 +287,8 @@ public class ORM {
 				if (time == null) {
 					return "";
 				}
-				String f = datetimeformat != null && !datetimeformat.isEmpty() ? datetimeformat : "EEE dd MMM yyyy, HH:mm";
-				return new SimpleDateFormat(f).format(time);
+				String f = datetimeformat != null && !datetimeformat.isEmpty() ? datetimeformat : DEFAULT_DATETIME_FORMAT;
+				return DATE_FORMATS.get().computeIfAbsent(f, SimpleDateFormat::new).format(time);
 			}
 
 			if (member instanceof MendixEnum) {
@@ -230,21 +303,21 @@ public class ORM {
 			}
 			//default
 			return member.parseValueToString(context);
-		} else if (path.length == 0) {
+		} else if (path.length - from < 1) {
 			throw new Exception("communitycommons.ORM.getValueOfPath: Unexpected end of path.");
 		} else {
-			IMendixObjectMember<?> member = substitute.getMember(path[0]);
+			IMendixObjectMember<?> member = substitute.getMember(path[from]);
 			if (member instanceof MendixObjectReference) {
 				MendixObjectReference ref = (MendixObjectReference) member;
 				IMendixIdentifier id = ref.getValue(context);
 				if (id == null) {
 					return "";
 				}
-				IMendixObject obj = Core.retrieveId(context, id);
+				IMendixObject obj = retrieve(context, id, retrieved);
 				if (obj == null) {
 					return "";
 				}
-				return getValueOfPath(context, obj, fullpath.substring(fullpath.indexOf("/") + 1), datetimeformat);
+				return getValueOfPath(context, obj, path, from + 1, datetimeformat, retrieved);
 			} else if (member instanceof MendixObjectReferenceSet) {
 				MendixObjectReferenceSet ref = (MendixObjectReferenceSet) member;
 				List<IMendixIdentifier> ids = ref.getValue(context);
@@ -256,20 +329,30 @@ public class ORM {
 					if (id == null) {
 						continue;
 					}
-					IMendixObject obj = Core.retrieveId(context, id);
+					IMendixObject obj = retrieve(context, id, retrieved);
 					if (obj == null) {
 						continue;
 					}
 					res.append(", ");
-					res.append(getValueOfPath(context, obj, fullpath.substring(fullpath.indexOf("/") + 1), datetimeformat));
+					res.append(getValueOfPath(context, obj, path, from + 1, datetimeformat, retrieved));
 				}
 				return res.length() > 1 ? res.toString().substring(2) : "";
 			} else {
-				throw new Exception("communitycommons.ORM.getValueOfPath: Not a valid reference: '" + path[0] + "' in '" + fullpath + "'");
+				String fullpath = String.join("/", Arrays.asList(path).subList(from, path.length));
+				throw new Exception("communitycommons.ORM.getValueOfPath: Not a valid reference: '" + path[from] + "' in '" + fullpath + "'");
 			}
 		}
 	}
 
+	private static IMendixObject retrieve(IContext context, IMendixIdentifier id, Map<IMendixIdentifier, IMendixObject> retrieved) throws CoreException {
+		if (retrieved.containsKey(id)) {
+			return retrieved.get(id);
+		}
+		IMendixObject obj = Core.retrieveId(context, id);
+		retrieved.put(id, obj);
+		return obj;
+	}
+
 	private static boolean isFileDocument(IMendixObject object) {
 		return object.getMetaObject().isFileDocument();
 	}
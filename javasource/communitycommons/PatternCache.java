@@ -0,0 +1,157 @@
+package communitycommons;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled regular expressions shared by the string actions, so a pattern is compiled once instead of on every
+ * call. The cache holds a limited number of patterns; when it is full, arbitrary patterns are evicted to make
+ * room.
+ *
+ * Splitting on, and replacing, a separator without regex metacharacters does not use a pattern at all.
+ */
+public class PatternCache {
+
+	public static final int MAX_SIZE = 500;
+	private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+	private static final Map<Key, Pattern> patterns = new ConcurrentHashMap<>();
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static final AtomicLong evictions = new AtomicLong();
+	private static final AtomicLong literals = new AtomicLong();
+
+	public static Pattern get(String regex) {
+		return get(regex, 0);
+	}
+
+	/**
+	 * @param flags the flags of {@link Pattern#compile(String, int)}
+	 */
+	public static Pattern get(String regex, int flags) {
+		Key key = new Key(regex, flags);
+		Pattern pattern = patterns.get(key);
+		if (pattern != null) {
+			hits.incrementAndGet();
+			return pattern;
+		}
+		misses.incrementAndGet();
+		pattern = Pattern.compile(regex, flags);
+		if (patterns.size() >= MAX_SIZE) {
+			evict();
+		}
+		patterns.put(key, pattern);
+		return pattern;
+	}
+
+	/**
+	 * Same as String.split(regex).
+	 */
+	public static String[] split(String input, String regex) {
+		if (!isLiteral(regex)) {
+			return get(regex).split(input);
+		}
+		literals.incrementAndGet();
+		List<String> parts = new ArrayList<>();
+		int start = 0;
+		int index;
+		while ((index = input.indexOf(regex, start)) >= 0) {
+			parts.add(input.substring(start, index));
+			start = index + regex.length();
+		}
+		if (parts.isEmpty()) {
+			return new String[] { input };
+		}
+		parts.add(input.substring(start));
+		// like String.split, trailing empty strings are not included
+		int size = parts.size();
+		while (size > 0 && parts.get(size - 1).isEmpty()) {
+			size--;
+		}
+		return parts.subList(0, size).toArray(new String[0]);
+	}
+
+	/**
+	 * Same as String.replaceAll(regex, replacement).
+	 */
+	public static String replaceAll(String input, String regex, String replacement) {
+		if (isLiteral(regex) && replacement.indexOf('$') < 0 && replacement.indexOf('\\') < 0) {
+			literals.incrementAndGet();
+			return input.replace(regex, replacement);
+		}
+		return get(regex).matcher(input).replaceAll(replacement);
+	}
+
+	/**
+	 * @return whether the regex matches the string without regex metacharacters, an empty regex does not
+	 */
+	static boolean isLiteral(String regex) {
+		if (regex.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < regex.length(); i++) {
+			if (METACHARACTERS.indexOf(regex.charAt(i)) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void evict() {
+		Iterator<Key> keys = patterns.keySet().iterator();
+		// make some room at once, rather than evicting on every miss
+		for (int i = 0; i < MAX_SIZE / 10 && keys.hasNext(); i++) {
+			keys.next();
+			keys.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	public static Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put("size", patterns.size());
+		statistics.put("maxSize", MAX_SIZE);
+		statistics.put("hits", hits.get());
+		statistics.put("misses", misses.get());
+		statistics.put("evictions", evictions.get());
+		statistics.put("literals", literals.get());
+		return statistics;
+	}
+
+	public static void clear() {
+		patterns.clear();
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+		literals.set(0);
+	}
+
+	private static final class Key {
+
+		private final String regex;
+		private final int flags;
+
+		Key(String regex, int flags) {
+			this.regex = regex;
+			this.flags = flags;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && ((Key) other).flags == flags && ((Key) other).regex.equals(regex);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(regex, flags);
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import communitycommons.proxies.LogNodes;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+
+/**
+ * Merges PDF documents on disk, as used by MergeMultiplePdfs.
+ *
+ * The documents are merged in groups of at most fanIn documents into temporary files, which are merged in
+ * groups again until one file is left, which is streamed into the merged document. PDFBox keeps its scratch
+ * data in temporary files as well, so the heap only holds the documents of the groups being merged, regardless
+ * of the number and size of the documents. Groups of the same level can be merged in parallel.
+ */
+public class PdfMerger {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+
+	public static final int DEFAULT_FAN_IN = 10;
+
+	private static final AtomicLong threadnr = new AtomicLong();
+
+	private final int fanIn;
+	private final int parallelism;
+
+	/**
+	 * @param fanIn the number of documents that are merged at once
+	 * @param parallelism the number of groups that are merged at the same time
+	 */
+	public PdfMerger(int fanIn, int parallelism) {
+		if (fanIn < 2 || parallelism < 1) {
+			throw new IllegalArgumentException("Fan-in should be 2 or higher and parallelism 1 or higher");
+		}
+		this.fanIn = fanIn;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @param documents the FileDocuments to merge, in order
+	 */
+	public void merge(IContext context, List<IMendixObject> documents, IMendixObject mergedDocument) throws IOException {
+		List<File> temporary = new ArrayList<>();
+		ExecutorService pool = parallelism > 1 ? Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread t = new Thread(runnable, "CommunityCommons PDF merge " + threadnr.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}) : null;
+		try {
+			List<Source> level = new ArrayList<>();
+			for (IMendixObject document : documents) {
+				level.add(new Source(document, null));
+			}
+			int depth = 0;
+			do {
+				List<List<Source>> groups = new ArrayList<>();
+				for (int i = 0; i < level.size(); i += fanIn) {
+					groups.add(level.subList(i, Math.min(i + fanIn, level.size())));
+				}
+				Logging.debug(LOGNODE, "[PdfMerger] Merging " + level.size() + " documents in " + groups.size() + " groups, level " + depth);
+
+				List<Source> next = new ArrayList<>();
+				List<Future<?>> merges = new ArrayList<>();
+				for (List<Source> group : groups) {
+					File target = Files.createTempFile("communitycommons-merge-", ".pdf").toFile();
+					temporary.add(target);
+					next.add(new Source(null, target));
+					if (pool == null) {
+						mergeGroup(context, group, target);
+					} else {
+						// contexts are not thread safe, every group reads the documents with a clone
+						IContext clone = context.createClone();
+						merges.add(pool.submit(() -> {
+							mergeGroup(clone, group, target);
+							return null;
+						}));
+					}
+				}
+				for (Future<?> merge : merges) {
+					merge.get();
+				}
+
+				// the merged files of the previous level are no longer needed
+				for (Source source : level) {
+					if (source.file != null) {
+						Files.deleteIfExists(source.file.toPath());
+					}
+				}
+				level = next;
+				depth++;
+			} while (level.size() > 1);
+
+			try (InputStream merged = level.isEmpty() ? new ByteArrayInputStream(new byte[0]) : Files.newInputStream(level.get(0).file.toPath())) {
+				Core.storeFileDocumentContent(context, mergedDocument, merged);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while merging documents", e);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause().getMessage(), e.getCause());
+		} finally {
+			if (pool != null) {
+				pool.shutdownNow();
+			}
+			for (File file : temporary) {
+				Files.deleteIfExists(file.toPath());
+			}
+		}
+	}
+
+	private static void mergeGroup(IContext context, List<Source> group, File target) throws IOException {
+		List<InputStream> streams = new ArrayList<>();
+		try {
+			PDFMergerUtility merger = new PDFMergerUtility();
+			for (Source source : group) {
+				if (source.file != null) {
+					merger.addSource(source.file);
+				} else {
+					InputStream content = Core.getFileDocumentContent(context, source.document);
+					streams.add(content);
+					merger.addSource(content);
+				}
+			}
+			merger.setDestinationFileName(target.getAbsolutePath());
+			merger.mergeDocuments(MemoryUsageSetting.setupTempFileOnly());
+		} finally { // We cannot use try-with-resources because streams would be prematurely closed
+			for (InputStream is : streams) {
+				is.close();
+			}
+		}
+	}
+
+	/**
+	 * A document to merge, or a temporary file with documents that were merged already.
+	 */
+	private static class Source {
+
+		private final IMendixObject document;
+		private final File file;
+
+		Source(IMendixObject document, File file) {
+			this.document = document;
+			this.file = file;
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import communitycommons.proxies.LogNodes;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.Overlay;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import system.proxies.FileDocument;
+
+/**
+ * Overlays generated PDF documents with a stationery PDF, as used by OverlayPdfDocument and
+ * OverlayPdfDocuments.
+ *
+ * The content of the stationery is cached by FileDocument id, changed date and size, so it is read from
+ * storage once; every thread that overlays parses it once per batch, as parsed documents cannot be shared
+ * between threads. The generated documents are loaded and saved with temporary files as scratch memory,
+ * and the results are streamed from disk into the documents by the calling thread, in its context.
+ */
+public class PdfOverlayer {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+
+	private static final int STATIONERY_CACHE_SIZE = 16;
+
+	private static final AtomicLong threadnr = new AtomicLong();
+
+	private static final Map<String, byte[]> stationeries = Collections.synchronizedMap(new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+			return size() > STATIONERY_CACHE_SIZE;
+		}
+	});
+
+	/**
+	 * Overlays every document with the stationery and stores the result in the document.
+	 *
+	 * @param parallelism the number of documents that are overlaid at the same time
+	 */
+	public static void overlay(IContext context, List<IMendixObject> documents, IMendixObject stationery, boolean onTopOfContent, int parallelism) throws IOException {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism should be 1 or higher");
+		}
+		byte[] stationeryContent = getStationery(context, stationery);
+		Overlay.Position position = onTopOfContent ? Overlay.Position.FOREGROUND : Overlay.Position.BACKGROUND;
+		Map<Thread, PDDocument> parsed = Collections.synchronizedMap(new HashMap<>());
+		long started = System.nanoTime();
+
+		ExecutorService pool = parallelism > 1 ? Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread t = new Thread(runnable, "CommunityCommons PDF overlay " + threadnr.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}) : null;
+		// bounds the number of results waiting on disk to be stored
+		Semaphore pending = new Semaphore(parallelism * 2);
+		List<Future<File>> results = new ArrayList<>();
+		try {
+			if (pool == null) {
+				for (IMendixObject document : documents) {
+					store(context, document, overlay(context, document, stationeryContent, position, parsed));
+				}
+			} else {
+				int stored = 0;
+				for (IMendixObject document : documents) {
+					// contexts are not thread safe, every document is read with a clone
+					IContext clone = context.createClone();
+					while (!pending.tryAcquire()) {
+						store(context, documents.get(stored), results.get(stored).get());
+						results.set(stored++, null);
+						pending.release();
+					}
+					results.add(pool.submit(() -> overlay(clone, document, stationeryContent, position, parsed)));
+				}
+				for (; stored < results.size(); stored++) {
+					store(context, documents.get(stored), results.get(stored).get());
+					results.set(stored, null);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while overlaying documents", e);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause().getMessage(), e.getCause());
+		} finally {
+			if (pool != null) {
+				shutdown(pool, results);
+			}
+			for (PDDocument document : parsed.values()) {
+				document.close();
+			}
+		}
+		Logging.debug(LOGNODE, "[PdfOverlayer] Overlaid " + documents.size() + " documents in " + (System.nanoTime() - started) / 1000000 + " ms");
+	}
+
+	private static File overlay(IContext context, IMendixObject document, byte[] stationeryContent, Overlay.Position position, Map<Thread, PDDocument> parsed) throws IOException {
+		PDDocument stationery = parsed.get(Thread.currentThread());
+		if (stationery == null) {
+			stationery = PDDocument.load(stationeryContent);
+			parsed.put(Thread.currentThread(), stationery);
+		}
+
+		File result = Files.createTempFile("communitycommons-overlay-", ".pdf").toFile();
+		try (
+			InputStream content = Core.getFileDocumentContent(context, document);
+			PDDocument inputDoc = PDDocument.load(content, MemoryUsageSetting.setupTempFileOnly())) {
+			// the overlay is not closed, as that would close the stationery as well
+			Overlay overlay = new Overlay();
+			overlay.setInputPDF(inputDoc);
+			overlay.setDefaultOverlayPDF(stationery);
+			overlay.setOverlayPosition(position);
+			overlay.overlay(new HashMap<>()).save(result);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(result.toPath());
+			throw e;
+		}
+		return result;
+	}
+
+	private static void store(IContext context, IMendixObject document, File result) throws IOException {
+		try (InputStream overlaid = Files.newInputStream(result.toPath())) {
+			Core.storeFileDocumentContent(context, document, overlaid);
+		} finally {
+			Files.deleteIfExists(result.toPath());
+		}
+	}
+
+	/**
+	 * Stops the pool and deletes the results that were overlaid but not stored. Overlays that did not start
+	 * are cancelled, as the pool drops them without completing their futures.
+	 */
+	private static void shutdown(ExecutorService pool, List<Future<File>> results) {
+		for (Runnable queued : pool.shutdownNow()) {
+			((Future<?>) queued).cancel(false);
+		}
+		try {
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Future<File> result : results) {
+			if (result != null && result.isDone() && !result.isCancelled()) {
+				deleteResult(result);
+			}
+		}
+	}
+
+	private static void deleteResult(Future<File> result) {
+		try {
+			Files.deleteIfExists(result.get().toPath());
+		} catch (Exception e) {
+			// the overlay failed, it cleaned up after itself
+		}
+	}
+
+	private static byte[] getStationery(IContext context, IMendixObject stationery) throws IOException {
+		Date changed = stationery.getChangedDate(context);
+		Object size = stationery.getValue(context, FileDocument.MemberNames.Size.toString());
+		String key = stationery.getId().toLong() + "/" + (changed == null ? "" : changed.getTime()) + "/" + size;
+		byte[] content = stationeries.get(key);
+		if (content == null) {
+			try (InputStream is = Core.getFileDocumentContent(context, stationery)) {
+				content = IOUtils.toByteArray(is);
+			}
+			stationeries.put(key, content);
+		}
+		return content;
+	}
+}
@@ -1,6 +1,7 @@
 package communitycommons;
 
 import com.mendix.core.Core;
+import com.mendix.core.CoreException;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import communitycommons.proxies.SanitizerPolicy;
@@ -103,9 +104,7 @@ public class StringUtils {
 	 */
 	public static String regexReplaceAll(String haystack, String needleRegex,
 										 String replacement) {
-		Pattern pattern = Pattern.compile(needleRegex);
-		Matcher matcher = pattern.matcher(haystack);
-		return matcher.replaceAll(replacement);
+		return PatternCache.replaceAll(haystack, needleRegex, replacement);
 	}
 
 	public static String leftPad(String value, Long amount, String fillCharacter) {
@@ -128,20 +127,25 @@ public class StringUtils {
 
 	public static String substituteTemplate(final IContext context, String template,
 											final IMendixObject substitute, final boolean HTMLEncode, final String datetimeformat) {
-		return regexReplaceAll(template, "\\{(@)?([\\w./]+)\\}", (MatchResult match) -> {
-			String value;
-			String path = match.group(2);
-			if (match.group(1) != null) {
-				value = String.valueOf(Core.getConfiguration().getConstantValue(path));
-			} else {
-				try {
-					value = ORM.getValueOfPath(context, substitute, path, datetimeformat);
-				} catch (Exception e) {
-					throw new RuntimeException(e);
-				}
-			}
-			return HTMLEncode ? HTMLEncode(value) : value;
-		});
+		if (template == null || template.trim().isEmpty()) // avoid NPE's, save CPU
+		{
+			return "";
+		}
+		return Template.compile(template).render(context, substitute, HTMLEncode, datetimeformat);
+	}
+
+	/**
+	 * Substitutes the template for every substitute, retrieving the objects referred to by the template for all
+	 * substitutes at once.
+	 *
+	 * @return the results, in the order of the substitutes
+	 */
+	public static List<String> substituteTemplates(final IContext context, String template,
+											final List<IMendixObject> substitutes, final boolean HTMLEncode, final String datetimeformat) throws CoreException {
+		if (template == null || template.trim().isEmpty()) {
+			return new ArrayList<>(Collections.nCopies(substitutes.size(), ""));
+		}
+		return Template.compile(template).renderAll(context, substitutes, HTMLEncode, datetimeformat);
 	}
 
 	public static String regexReplaceAll(String source, String regexString, Function<MatchResult, String> replaceFunction) {
@@ -151,7 +155,7 @@ public class StringUtils {
 		}
 
 		StringBuffer resultString = new StringBuffer();
-		Pattern regex = Pattern.compile(regexString);
+		Pattern regex = PatternCache.get(regexString);
 		Matcher regexMatcher = regex.matcher(source);
 
 		while (regexMatcher.find()) {
@@ -506,7 +510,7 @@ public class StringUtils {
 
 	public static String stringSimplify(String value) {
 		String normalized = Normalizer.normalize(value, Normalizer.Form.NFD);
-		return normalized.replaceAll("\\p{M}", ""); // removes all characters in Unicode Mark category
+		return PatternCache.get("\\p{M}").matcher(normalized).replaceAll(""); // removes all characters in Unicode Mark category
 	}
 
 	public static Boolean isStringSimplified(String value) {
@@ -0,0 +1,205 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.core.objectmanagement.member.MendixObjectReference;
+import com.mendix.core.objectmanagement.member.MendixObjectReferenceSet;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.IMendixObjectMember;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A template of StringUtils.substituteTemplate, compiled once into literal text and placeholders.
+ *
+ * {Attribute} and {Module.Association/.../Attribute} placeholders are replaced by the value of the path on
+ * the substitute, where every segment but the last is a reference or reference set of the previous object, for
+ * example {System.changedBy/FullName}. {@Module.Constant} placeholders are replaced by the value of the constant. Compiled templates
+ * are cached by template string. A render retrieves every object on the paths once, even when several
+ * placeholders share a prefix; rendering a list of substitutes retrieves the objects of all paths level by
+ * level, with one retrieve per level.
+ */
+public class Template {
+
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\{(@)?([\\w./]+)\\}");
+	private static final int CACHE_SIZE = 1000;
+	private static final int RETRIEVE_CHUNK_SIZE = 500;
+
+	private static final Map<String, Template> cache = Collections.synchronizedMap(new LinkedHashMap<String, Template>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	});
+
+	private final List<Object> segments = new ArrayList<>();
+	private final List<String[]> paths = new ArrayList<>();
+
+	private Template(String template) {
+		Matcher matcher = PLACEHOLDER.matcher(template);
+		int end = 0;
+		while (matcher.find()) {
+			if (matcher.start() > end) {
+				segments.add(template.substring(end, matcher.start()));
+			}
+			Placeholder placeholder = new Placeholder(matcher.group(1) != null, matcher.group(2));
+			segments.add(placeholder);
+			if (!placeholder.constant) {
+				paths.add(placeholder.path);
+			}
+			end = matcher.end();
+		}
+		if (end < template.length()) {
+			segments.add(template.substring(end));
+		}
+	}
+
+	public static Template compile(String template) {
+		Template compiled = cache.get(template);
+		if (compiled == null) {
+			compiled = new Template(template);
+			cache.put(template, compiled);
+		}
+		return compiled;
+	}
+
+	public String render(IContext context, IMendixObject substitute, boolean HTMLEncode, String datetimeformat) {
+		return render(context, substitute, HTMLEncode, datetimeformat, new HashMap<IMendixIdentifier, IMendixObject>());
+	}
+
+	/**
+	 * Renders the template for every substitute, after retrieving the objects on the paths of the template for
+	 * all substitutes at once.
+	 */
+	public List<String> renderAll(IContext context, List<IMendixObject> substitutes, boolean HTMLEncode, String datetimeformat) throws CoreException {
+		Map<IMendixIdentifier, IMendixObject> retrieved = new HashMap<>();
+		prefetch(context, substitutes, retrieved);
+
+		List<String> result = new ArrayList<>(substitutes.size());
+		for (IMendixObject substitute : substitutes) {
+			result.add(render(context, substitute, HTMLEncode, datetimeformat, retrieved));
+		}
+		return result;
+	}
+
+	private String render(IContext context, IMendixObject substitute, boolean HTMLEncode, String datetimeformat, Map<IMendixIdentifier, IMendixObject> retrieved) {
+		StringBuilder result = new StringBuilder();
+		for (Object segment : segments) {
+			if (segment instanceof String) {
+				result.append((String) segment);
+				continue;
+			}
+			Placeholder placeholder = (Placeholder) segment;
+			String value;
+			if (placeholder.constant) {
+				value = String.valueOf(Core.getConfiguration().getConstantValue(placeholder.name));
+			} else {
+				try {
+					value = ORM.getValueOfPath(context, substitute, placeholder.path, 0, datetimeformat, retrieved);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+			result.append(HTMLEncode ? StringUtils.HTMLEncode(value) : value);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Walks the paths level by level. The objects at a prefix of the paths are known from the previous level,
+	 * the ids they refer to are retrieved together, in chunks.
+	 */
+	private void prefetch(IContext context, List<IMendixObject> substitutes, Map<IMendixIdentifier, IMendixObject> retrieved) throws CoreException {
+		Map<String, List<IMendixObject>> level = new HashMap<>();
+		level.put("", substitutes);
+		for (int depth = 0; ; depth++) {
+			Map<String, List<IMendixIdentifier>> next = new LinkedHashMap<>();
+			for (String[] path : paths) {
+				if (path.length - 1 <= depth) {
+					continue;
+				}
+				String prefix = String.join("/", Arrays.asList(path).subList(0, depth));
+				List<IMendixObject> objects = level.get(prefix);
+				String hop = (depth == 0 ? "" : prefix + "/") + path[depth];
+				if (objects == null || next.containsKey(hop)) {
+					continue;
+				}
+				List<IMendixIdentifier> ids = new ArrayList<>();
+				for (IMendixObject object : objects) {
+					IMendixObjectMember<?> member = object.getMember(path[depth]);
+					if (member instanceof MendixObjectReference) {
+						IMendixIdentifier id = ((MendixObjectReference) member).getValue(context);
+						if (id != null) {
+							ids.add(id);
+						}
+					} else if (member instanceof MendixObjectReferenceSet) {
+						List<IMendixIdentifier> set = ((MendixObjectReferenceSet) member).getValue(context);
+						if (set != null) {
+							ids.addAll(set);
+						}
+					}
+				}
+				next.put(hop, ids);
+			}
+			if (next.isEmpty()) {
+				return;
+			}
+
+			Set<IMendixIdentifier> missing = new LinkedHashSet<>();
+			for (List<IMendixIdentifier> ids : next.values()) {
+				for (IMendixIdentifier id : ids) {
+					if (id != null && !retrieved.containsKey(id)) {
+						missing.add(id);
+					}
+				}
+			}
+			List<IMendixIdentifier> toRetrieve = new ArrayList<>(missing);
+			for (int i = 0; i < toRetrieve.size(); i += RETRIEVE_CHUNK_SIZE) {
+				List<IMendixIdentifier> chunk = toRetrieve.subList(i, Math.min(i + RETRIEVE_CHUNK_SIZE, toRetrieve.size()));
+				for (IMendixIdentifier id : chunk) {
+					// objects that are not returned do not exist or are not accessible
+					retrieved.put(id, null);
+				}
+				for (IMendixObject object : Core.retrieveIdList(context, chunk)) {
+					retrieved.put(object.getId(), object);
+				}
+			}
+
+			level = new HashMap<>();
+			for (Map.Entry<String, List<IMendixIdentifier>> hop : next.entrySet()) {
+				List<IMendixObject> objects = new ArrayList<>();
+				for (IMendixIdentifier id : hop.getValue()) {
+					IMendixObject object = id == null ? null : retrieved.get(id);
+					if (object != null) {
+						objects.add(object);
+					}
+				}
+				level.put(hop.getKey(), objects);
+			}
+		}
+	}
+
+	private static class Placeholder {
+
+		private final boolean constant;
+		private final String name;
+		private final String[] path;
+
+		Placeholder(boolean constant, String name) {
+			this.constant = constant;
+			this.name = name;
+			this.path = name.split("/");
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package communitycommons;
+
+import com.mendix.externalinterface.connector.RequestHandler;
+import com.mendix.m2ee.api.IMxRuntimeRequest;
+import com.mendix.m2ee.api.IMxRuntimeResponse;
+import communitycommons.proxies.LogNodes;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Serves the statistics of the {@link Timers} as JSON. Requests should pass the token the handler was started
+ * with in the X-Timer-Token header or the token parameter; requests with the parameter reset=true reset the
+ * statistics after returning them.
+ */
+public class TimerStatisticsHandler extends RequestHandler {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+
+	private final byte[] token;
+
+	public TimerStatisticsHandler(String token) {
+		if (token == null || token.isEmpty()) {
+			throw new IllegalArgumentException("A token is required to serve the timer statistics");
+		}
+		this.token = token.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	protected void processRequest(IMxRuntimeRequest request, IMxRuntimeResponse response, String path) throws Exception {
+		String given = request.getHeader("X-Timer-Token");
+		if (given == null) {
+			given = request.getParameter("token");
+		}
+		if (given == null || !MessageDigest.isEqual(token, given.getBytes(StandardCharsets.UTF_8))) {
+			Logging.warn(LOGNODE, "[TimerStatisticsHandler] Refused a request without a valid token");
+			response.setStatus(IMxRuntimeResponse.FORBIDDEN);
+			return;
+		}
+
+		String json = Timers.getStatisticsAsJson();
+		if ("true".equals(request.getParameter("reset"))) {
+			Timers.resetStatistics();
+		}
+		response.setStatus(IMxRuntimeResponse.OK);
+		response.setContentType("application/json");
+		response.addHeader("Cache-Control", "no-store");
+		Writer writer = response.getWriter();
+		writer.write(json);
+		writer.flush();
+	}
+}
@@ -0,0 +1,141 @@
+package communitycommons;
+
+import com.mendix.systemwideinterfaces.core.IContext;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * The timers of TimeMeasureStart and TimeMeasureEnd, measured with System.nanoTime.
+ *
+ * Running timers are kept per context, so microflows that run at the same time can use the same timer name
+ * without overwriting each other's start time; they are dropped with the context. Timers started without a
+ * context are kept per thread. Every finished measurement is recorded in the statistics of the timer name:
+ * the count, mean and maximum over all measurements, and the percentiles over the last {@link #WINDOW_SIZE}
+ * measurements.
+ */
+public class Timers {
+
+	public static final int WINDOW_SIZE = 1024;
+
+	private static final Map<IContext, Map<String, Long>> contextTimers = Collections.synchronizedMap(new WeakHashMap<>());
+	private static final ThreadLocal<Map<String, Long>> threadTimers = ThreadLocal.withInitial(HashMap::new);
+	private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+	/**
+	 * Starts the timer, or restarts it if it was running.
+	 *
+	 * @param context the scope of the timer, or null for the current thread
+	 */
+	public static void start(IContext context, String timerName) {
+		running(context).put(timerName, System.nanoTime());
+	}
+
+	/**
+	 * Stops the timer and records the measurement.
+	 *
+	 * @return the time since the timer was started, in nanoseconds
+	 */
+	public static long stop(IContext context, String timerName) {
+		long now = System.nanoTime();
+		Long started = running(context).remove(timerName);
+		if (started == null) {
+			throw new IllegalArgumentException(String.format("Timer with key %s not found", timerName));
+		}
+		long elapsed = now - started;
+		histograms.computeIfAbsent(timerName, n -> new Histogram()).record(elapsed);
+		return elapsed;
+	}
+
+	private static Map<String, Long> running(IContext context) {
+		if (context == null) {
+			return threadTimers.get();
+		}
+		return contextTimers.computeIfAbsent(context, c -> new ConcurrentHashMap<>());
+	}
+
+	/**
+	 * @return the statistics by timer name, with the times in milliseconds
+	 */
+	public static Map<String, Map<String, Object>> getStatistics() {
+		Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+		new TreeMap<>(histograms).forEach((name, histogram) -> result.put(name, histogram.getStatistics()));
+		return result;
+	}
+
+	/**
+	 * @return the statistics as JSON, by timer name
+	 */
+	public static String getStatisticsAsJson() {
+		return getStatistics().entrySet().stream()
+			.map(timer -> toJson(timer.getKey()) + ":" + timer.getValue().entrySet().stream()
+				.map(entry -> toJson(entry.getKey()) + ":" + entry.getValue())
+				.collect(Collectors.joining(",", "{", "}")))
+			.collect(Collectors.joining(",", "{", "}"));
+	}
+
+	public static void resetStatistics() {
+		histograms.clear();
+	}
+
+	private static String toJson(String value) {
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	private static String millis(double nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1000000);
+	}
+
+	private static class Histogram {
+
+		private final long[] window = new long[WINDOW_SIZE];
+		private long count = 0;
+		private long total = 0;
+		private long max = 0;
+
+		synchronized void record(long nanos) {
+			window[(int) (count % WINDOW_SIZE)] = nanos;
+			count++;
+			total += nanos;
+			max = Math.max(max, nanos);
+		}
+
+		Map<String, Object> getStatistics() {
+			long[] recent;
+			long count;
+			long total;
+			long max;
+			synchronized (this) {
+				count = this.count;
+				total = this.total;
+				max = this.max;
+				recent = Arrays.copyOf(window, (int) Math.min(count, WINDOW_SIZE));
+			}
+			Arrays.sort(recent);
+
+			Map<String, Object> statistics = new LinkedHashMap<>();
+			statistics.put("count", count);
+			statistics.put("meanMs", millis(count == 0 ? 0 : (double) total / count));
+			statistics.put("p50Ms", millis(percentile(recent, 50)));
+			statistics.put("p95Ms", millis(percentile(recent, 95)));
+			statistics.put("p99Ms", millis(percentile(recent, 99)));
+			statistics.put("maxMs", millis(max));
+			return statistics;
+		}
+
+		private static long percentile(long[] sorted, int percentile) {
+			if (sorted.length == 0) {
+				return 0;
+			}
+			int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+			return sorted[Math.max(0, rank - 1)];
+		}
+	}
+}
@@ -6,6 +6,7 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -15,11 +16,15 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.translate.AggregateTranslator;
@@ -392,30 +397,50 @@ public class XPath<T> {
 
 	}
 
+	/**
+	 * Like findOrCreate, but only one caller at a time creates the object for the same keys and values. Callers
+	 * with other keys or values do not wait, see {@link KeyedLocks}.
+	 */
 	public T findOrCreateSynchronized(Object... keysAndValues) throws CoreException, InterruptedException {
 		T res = findFirst(keysAndValues);
 
 		if (res != null) {
 			return res;
 		} else {
-			synchronized (Core.getMetaObject(entity)) {
+			return KeyedLocks.withLock(lockKey(keysAndValues), () -> {
 				IContext synchronizedContext = context.getSession().createContext().createSudoClone();
 				try {
 					synchronizedContext.startTransaction();
-					res = createProxy(synchronizedContext, proxyClass,
+					T created = createProxy(synchronizedContext, proxyClass,
 						XPath.create(synchronizedContext, entity).findOrCreate(keysAndValues));
 					synchronizedContext.endTransaction();
-					return res;
+					return created;
 				} catch (CoreException e) {
 					if (synchronizedContext.isInTransaction()) {
 						synchronizedContext.rollbackTransaction();
 					}
 					throw e;
 				}
-			}
+			});
 		}
 	}
 
+	private String lockKey(Object... keysAndValues) {
+		if (keysAndValues.length % 2 != 0)
+			throw new IllegalArgumentException("Expected an even number of arguments, got " + keysAndValues.length);
+
+		// sorted by attribute, so callers passing the same pairs in another order take the same lock
+		List<String> pairs = new ArrayList<>();
+		for (int i = 0; i < keysAndValues.length; i += 2)
+			pairs.add(keysAndValues[i] + "=" + valueToXPathValue(keysAndValues[i + 1]));
+		Collections.sort(pairs);
+
+		StringBuilder key = new StringBuilder(entity);
+		for (String pair : pairs)
+			key.append('|').append(pair);
+		return key.toString();
+	}
+
 	public T findFirst(Object... keysAndValues)
 		throws IllegalStateException, CoreException {
 		if (builder.length() > 0)
@@ -733,33 +758,196 @@ public class XPath<T> {
 		public void onItem(T item, long offset, long total) throws Exception;
 	}
 
-	private static final class ParallelJobRunner<T> implements Callable<Boolean> {
+	/**
+	 * Runs the items of a parallel batch. The calling thread pages through the query and puts the items in a
+	 * bounded queue, from which the workers in the shared pool take chunks. The next page is retrieved while
+	 * the workers are busy with the queued items, and when the queue stays full, the calling thread processes
+	 * a chunk itself, so a batch also finishes when the pool is busy with other batches.
+	 */
+	private static final class ParallelBatch<T> {
+		private static final long POLL_MS = 50;
+
 		private final XPath<T> self;
 		private final IBatchProcessor<T> batchProcessor;
-		private final IMendixObject item;
-		private long index;
-		private long count;
+		private final int chunksize;
+		private final boolean transactional;
+		private final long count;
+		private final BlockingQueue<Item> queue;
+		private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		private final AtomicInteger active = new AtomicInteger();
+		private volatile boolean produced = false;
+		private volatile boolean closed = false;
+
+		private static final class Item {
+			final IMendixObject object;
+			final long index;
+
+			Item(IMendixObject object, long index) {
+				this.object = object;
+				this.index = index;
+			}
+		}
 
-		ParallelJobRunner(XPath<T> self, IBatchProcessor<T> batchProcessor, IMendixObject item, long index, long count) {
+		ParallelBatch(XPath<T> self, IBatchProcessor<T> batchProcessor, int batchsize, int chunksize, boolean transactional, long count) {
 			this.self = self;
 			this.batchProcessor = batchProcessor;
-			this.item = item;
-			this.index = index;
+			this.chunksize = chunksize;
+			this.transactional = transactional;
 			this.count = count;
+			this.queue = new ArrayBlockingQueue<Item>(Math.max(batchsize, chunksize));
+		}
+
+		void run(int batchsize, int threads) throws CoreException, InterruptedException, ExecutionException {
+			List<Future<?>> workers = new ArrayList<Future<?>>(threads);
+			ThreadPoolExecutor pool = getBatchPool();
+			for (int i = 0; i < threads; i++)
+				workers.add(pool.submit(this::work));
+
+			try {
+				produce(batchsize);
+			} catch (CoreException | InterruptedException | RuntimeException e) {
+				failure.compareAndSet(null, e);
+				throw e;
+			} finally {
+				produced = true;
+				// help with the last items, then wait for the workers that started
+				consume();
+				closed = true;
+				for (Future<?> worker : workers)
+					worker.cancel(false);
+				synchronized (active) {
+					while (active.get() > 0)
+						active.wait();
+				}
+			}
+
+			if (failure.get() != null)
+				throw new ExecutionException(failure.get());
+		}
+
+		private void produce(int batchsize) throws CoreException, InterruptedException {
+			// keyset pagination on id, unless the query is sorted on something else
+			boolean keyset = self.sorting.size() == 1 && self.sorting.containsKey(XPath.ID);
+			boolean asc = !keyset || "asc".equals(self.sorting.get(XPath.ID));
+			Long last = null;
+			int offset = 0;
+			long index = 0;
+
+			while (failure.get() == null) {
+				String xpath = self.getXPath();
+				if (keyset && last != null)
+					xpath += "[" + XPath.ID + (asc ? " > " : " < ") + last + "]";
+
+				XPathQuery query = (XPathQuery) Core.createXPathQuery(xpath).setAmount(batchsize).setOffset(keyset ? 0 : offset);
+				for (Map.Entry<String, String> sort : self.sorting.entrySet())
+					query.addSort(sort.getKey(), "asc".equals(sort.getValue()));
+				List<IMendixObject> data = query.execute(self.context);
+				if (data.isEmpty())
+					return;
+
+				for (IMendixObject item : data) {
+					Item queued = new Item(item, index++);
+					while (!queue.offer(queued, POLL_MS, TimeUnit.MILLISECONDS)) {
+						if (failure.get() != null)
+							return;
+						processChunk(); // the workers are not keeping up
+					}
+				}
+				last = data.get(data.size() - 1).getId().toLong();
+				offset += data.size();
+			}
+		}
+
+		private void work() {
+			active.incrementAndGet();
+			try {
+				if (!closed)
+					consume();
+			} finally {
+				synchronized (active) {
+					active.decrementAndGet();
+					active.notifyAll();
+				}
+			}
 		}
 
-		@Override
-		public Boolean call() {
+		private void consume() {
 			try {
-				batchProcessor.onItem(XPath.createProxy(Core.createSystemContext(), self.proxyClass, item), index, count);
-				return true;
+				while (failure.get() == null && !(produced && queue.isEmpty()))
+					processChunk();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure.compareAndSet(null, e);
+			}
+		}
+
+		private void processChunk() throws InterruptedException {
+			List<Item> chunk = new ArrayList<Item>(chunksize);
+			Item first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+			if (first == null)
+				return;
+			chunk.add(first);
+			queue.drainTo(chunk, chunksize - 1);
+
+			// one context for the chunk, or a context per item as before
+			IContext c = chunksize > 1 || transactional ? Core.createSystemContext() : null;
+			if (transactional)
+				c.startTransaction();
+			Item current = first;
+			try {
+				for (Item item : chunk) {
+					current = item;
+					batchProcessor.onItem(XPath.createProxy(c != null ? c : Core.createSystemContext(), self.proxyClass, item.object), item.index, count);
+				}
+				if (transactional)
+					c.endTransaction();
 			} catch (Exception e) {
-				throw new RuntimeException(String.format("Failed to execute batch on '%s' offset %d: %s", self.toString(),
-					self.offset, e.getMessage()), e);
+				if (transactional)
+					c.rollbackTransaction();
+				failure.compareAndSet(null, new RuntimeException(String.format("Failed to execute batch on '%s' item %d: %s", self.toString(),
+					current.index, e.getMessage()), e));
 			}
 		}
 	}
 
+	private static ThreadPoolExecutor batchPool;
+	private static int batchPoolSize = Runtime.getRuntime().availableProcessors() * 2;
+
+	/**
+	 * Sets the number of threads shared by all parallel batches, twice the number of processors by default.
+	 * Batches that ask for more threads than are free take turns.
+	 *
+	 * @param threads
+	 */
+	public static synchronized void setBatchPoolSize(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Pool size should be 1 or higher");
+
+		if (batchPool != null) {
+			if (threads > batchPoolSize) {
+				batchPool.setMaximumPoolSize(threads);
+				batchPool.setCorePoolSize(threads);
+			} else {
+				batchPool.setCorePoolSize(threads);
+				batchPool.setMaximumPoolSize(threads);
+			}
+		}
+		batchPoolSize = threads;
+	}
+
+	private static synchronized ThreadPoolExecutor getBatchPool() {
+		if (batchPool == null) {
+			AtomicInteger threadnr = new AtomicInteger();
+			batchPool = new ThreadPoolExecutor(batchPoolSize, batchPoolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+				Thread t = new Thread(runnable, "CommunityCommons XPath batch thread " + threadnr.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+			batchPool.allowCoreThreadTimeOut(true);
+		}
+		return batchPool;
+	}
+
 	/**
 	 * Retreives all items in this xpath query in batches of a limited size.
 	 * Not that this function does not start a new transaction for all the batches,
@@ -819,6 +1007,8 @@ public class XPath<T> {
 	 *
 	 * Instead, use: Item.getContext(); !!
 	 *
+	 * Every item gets a system context of its own, see the overload with a chunk size for
+	 * sharing contexts and transactions.
 	 *
 	 * @param batchsize
 	 * @param threads
@@ -829,36 +1019,38 @@ public class XPath<T> {
 	 */
 	public void batch(int batchsize, int threads, final IBatchProcessor<T> batchProcessor)
 		throws CoreException, InterruptedException, ExecutionException {
+		batch(batchsize, threads, 1, false, batchProcessor);
+	}
+
+	/**
+	 * Batch with parallelization on the shared batch pool, see {@link #setBatchPoolSize(int)}.
+	 *
+	 * Pages of batchsize items are retrieved by id (keyset pagination) unless the query is sorted on other
+	 * attributes, and the next page is retrieved while the current one is being processed. The items are
+	 * processed in chunks of chunksize items, which share a system context. With transactional, every chunk
+	 * runs in a transaction of its own, which is rolled back if an item of the chunk fails.
+	 *
+	 * IMPORTANT NOTE: DO NOT USE THE CONTEXT OF THE XPATH OBJECT ITSELF INSIDE THE
+	 * BATCH PROCESSOR! Use the context of the item instead.
+	 *
+	 * @param batchsize
+	 * @param threads the number of workers of this batch
+	 * @param chunksize
+	 * @param transactional
+	 * @param batchProcessor
+	 * @throws CoreException
+	 * @throws InterruptedException
+	 * @throws ExecutionException if an item failed, the remaining items are not processed
+	 */
+	public void batch(int batchsize, int threads, int chunksize, boolean transactional, final IBatchProcessor<T> batchProcessor)
+		throws CoreException, InterruptedException, ExecutionException {
+		if (batchsize < 1 || threads < 1 || chunksize < 1)
+			throw new IllegalArgumentException("Batch size, threads and chunk size should be 1 or higher");
 		if (sorting.isEmpty())
 			addSortingAsc(XPath.ID);
+		assertEmptyStack();
 
-		ExecutorService pool = Executors.newFixedThreadPool(threads);
-
-		final long itemcount = count();
-
-		int progress = 0;
-		List<Future<?>> futures = new ArrayList<Future<?>>(batchsize); // no need to synchronize
-
-		offset(0);
-		limit(batchsize);
-
-		List<IMendixObject> data = allMendixObjects();
-
-		while (data.size() > 0) {
-			for (final IMendixObject item : data) {
-				futures.add(pool.submit(new ParallelJobRunner<T>(this, batchProcessor, item, progress, itemcount)));
-				progress += 1;
-			}
-
-			while (!futures.isEmpty())
-				futures.remove(0).get(); // wait for all futures before proceeding to next iteration
-
-			offset(offset + data.size());
-			data = allMendixObjects();
-		}
-
-		if (pool.shutdownNow().size() > 0)
-			throw new IllegalStateException("Not all tasks where finished!");
+		new ParallelBatch<T>(this, batchProcessor, batchsize, chunksize, transactional, count()).run(batchsize, threads);
 	}
 
 	public static Class<?> getProxyClassForEntityName(String entityname) {
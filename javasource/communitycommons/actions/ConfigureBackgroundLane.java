@@ -0,0 +1,76 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import communitycommons.BackgroundExecutor;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Configures a lane of the background executor. The microflows of RunMicroflowAsyncInQueue run on the lane 'queue', those of executeMicroflowInBackground on the lane 'background' and the batches of executeMicroflowInBatches and recommitInBatches on the lane 'batch'. Other lane names can be used with RunMicroflowAsyncInLane.
+ * 
+ * Parallelism is the number of microflows of the lane that run at the same time, QueueCapacity the number of microflows that can wait. RejectionPolicy decides what happens when the queue is full: ABORT (default) fails the action that schedules the microflow, CALLER_RUNS runs the microflow in the scheduling thread, BLOCK waits until the queue has room and DISCARD drops the microflow with a warning. UseVirtualThreads runs the lane on virtual threads when the Java version supports them.
+ * 
+ * Microflows that are already queued on the lane still run. Lanes that are not configured run one microflow at a time.
+ */
+public class ConfigureBackgroundLane extends UserAction<java.lang.Boolean>
+{
+	private final java.lang.String LaneName;
+	private final java.lang.Long Parallelism;
+	private final java.lang.Long QueueCapacity;
+	private final java.lang.String RejectionPolicy;
+	private final java.lang.Boolean UseVirtualThreads;
+
+	public ConfigureBackgroundLane(
+		IContext context,
+		java.lang.String _laneName,
+		java.lang.Long _parallelism,
+		java.lang.Long _queueCapacity,
+		java.lang.String _rejectionPolicy,
+		java.lang.Boolean _useVirtualThreads
+	)
+	{
+		super(context);
+		this.LaneName = _laneName;
+		this.Parallelism = _parallelism;
+		this.QueueCapacity = _queueCapacity;
+		this.RejectionPolicy = _rejectionPolicy;
+		this.UseVirtualThreads = _useVirtualThreads;
+	}
+
+	@java.lang.Override
+	public java.lang.Boolean executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		BackgroundExecutor.RejectionPolicy policy = RejectionPolicy == null || RejectionPolicy.trim().isEmpty()
+			? BackgroundExecutor.RejectionPolicy.ABORT
+			: BackgroundExecutor.RejectionPolicy.valueOf(RejectionPolicy.trim().toUpperCase());
+		BackgroundExecutor.configure(LaneName,
+			Parallelism == null ? 1 : Parallelism.intValue(),
+			QueueCapacity == null ? BackgroundExecutor.DEFAULT_QUEUE_CAPACITY : QueueCapacity.intValue(),
+			policy, Boolean.TRUE.equals(UseVirtualThreads));
+		return true;
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "ConfigureBackgroundLane";
+	}
+
+	// BEGIN EXTRA CODE
+
+	// END EXTRA CODE
+}
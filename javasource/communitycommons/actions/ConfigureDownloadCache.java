@@ -0,0 +1,56 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import communitycommons.Downloader;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Configures the cache of storeURLToFileDocument and StoreURLsToFileDocuments.
+ * 
+ * MaxCacheSizeMB is the disk space in the temporary directory for cached downloads, no caching if empty or 0. Downloads with an ETag or Last-Modified header are cached, and retrieving the same URL again asks the server whether the content changed, using the cached content if it did not.
+ */
+public class ConfigureDownloadCache extends UserAction<java.lang.Boolean>
+{
+	private final java.lang.Long MaxCacheSizeMB;
+
+	public ConfigureDownloadCache(
+		IContext context,
+		java.lang.Long _maxCacheSizeMB
+	)
+	{
+		super(context);
+		this.MaxCacheSizeMB = _maxCacheSizeMB;
+	}
+
+	@java.lang.Override
+	public java.lang.Boolean executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		Downloader.configure(MaxCacheSizeMB == null ? 0 : MaxCacheSizeMB * 1024 * 1024);
+		return true;
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "ConfigureDownloadCache";
+	}
+
+	// BEGIN EXTRA CODE
+
+	// END EXTRA CODE
+}
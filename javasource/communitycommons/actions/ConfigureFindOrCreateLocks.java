@@ -0,0 +1,59 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import communitycommons.KeyedLocks;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Configures the locks of findOrCreateSynchronized, which only let callers with the same entity, keys and values wait for each other.
+ * 
+ * TimeoutMs is how long a caller waits for the lock before the action fails, 30000 if empty. ClusterWide also takes the lock in a table in the application database, so callers on the other instances of a cluster wait as well. This costs a few database round trips per created object.
+ */
+public class ConfigureFindOrCreateLocks extends UserAction<java.lang.Boolean>
+{
+	private final java.lang.Long TimeoutMs;
+	private final java.lang.Boolean ClusterWide;
+
+	public ConfigureFindOrCreateLocks(
+		IContext context,
+		java.lang.Long _timeoutMs,
+		java.lang.Boolean _clusterWide
+	)
+	{
+		super(context);
+		this.TimeoutMs = _timeoutMs;
+		this.ClusterWide = _clusterWide;
+	}
+
+	@java.lang.Override
+	public java.lang.Boolean executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		KeyedLocks.configure(TimeoutMs == null ? KeyedLocks.DEFAULT_TIMEOUT_MS : TimeoutMs, Boolean.TRUE.equals(ClusterWide));
+		return true;
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "ConfigureFindOrCreateLocks";
+	}
+
+	// BEGIN EXTRA CODE
+
+	// END EXTRA CODE
+}
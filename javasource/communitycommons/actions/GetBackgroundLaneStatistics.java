@@ -0,0 +1,57 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import communitycommons.BackgroundExecutor;
+import java.util.Map;
+import java.util.stream.Collectors;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Returns the statistics of the lanes of the background executor as JSON, by lane name: the configuration, the number of queued and running microflows, the number of submitted, completed, failed and rejected microflows and the average and maximum wait and run times in milliseconds.
+ */
+public class GetBackgroundLaneStatistics extends UserAction<java.lang.String>
+{
+	public GetBackgroundLaneStatistics(
+		IContext context
+	)
+	{
+		super(context);
+	}
+
+	@java.lang.Override
+	public java.lang.String executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		return BackgroundExecutor.getStatistics().entrySet().stream()
+			.map(lane -> "\"" + lane.getKey() + "\":" + toJson(lane.getValue()))
+			.collect(Collectors.joining(",", "{", "}"));
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "GetBackgroundLaneStatistics";
+	}
+
+	// BEGIN EXTRA CODE
+	private static String toJson(Map<String, Object> statistics) {
+		return statistics.entrySet().stream()
+			.map(entry -> "\"" + entry.getKey() + "\":" + entry.getValue())
+			.collect(Collectors.joining(",", "{", "}"));
+	}
+	// END EXTRA CODE
+}
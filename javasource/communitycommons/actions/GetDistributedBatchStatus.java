@@ -0,0 +1,53 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import communitycommons.DistributedBatch;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Returns the status of a job of StartDistributedBatch as JSON, aggregated over all instances: the status (RUNNING, DONE or FAILED), the estimated and processed number of objects, the number of ranges by state and the instances that worked on the job. Returns empty if the job does not exist.
+ */
+public class GetDistributedBatchStatus extends UserAction<java.lang.String>
+{
+	private final java.lang.String jobId;
+
+	public GetDistributedBatchStatus(
+		IContext context,
+		java.lang.String _jobId
+	)
+	{
+		super(context);
+		this.jobId = _jobId;
+	}
+
+	@java.lang.Override
+	public java.lang.String executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		return DistributedBatch.instance().getStatus(jobId);
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "GetDistributedBatchStatus";
+	}
+
+	// BEGIN EXTRA CODE
+
+	// END EXTRA CODE
+}
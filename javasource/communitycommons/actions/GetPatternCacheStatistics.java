@@ -0,0 +1,52 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import communitycommons.PatternCache;
+import java.util.stream.Collectors;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Returns the statistics of the cache of compiled regular expressions used by RegexReplaceAll, StringSplit, SubstituteTemplate and the like as JSON: the number of cached patterns, the number of cache hits, misses and evictions, and the number of calls that did not need a pattern because the separator or needle contained no regex metacharacters.
+ */
+public class GetPatternCacheStatistics extends UserAction<java.lang.String>
+{
+	public GetPatternCacheStatistics(
+		IContext context
+	)
+	{
+		super(context);
+	}
+
+	@java.lang.Override
+	public java.lang.String executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		return PatternCache.getStatistics().entrySet().stream()
+			.map(entry -> "\"" + entry.getKey() + "\":" + entry.getValue())
+			.collect(Collectors.joining(",", "{", "}"));
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "GetPatternCacheStatistics";
+	}
+
+	// BEGIN EXTRA CODE
+
+	// END EXTRA CODE
+}
@@ -0,0 +1,59 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import communitycommons.Timers;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Returns the statistics of the timers of TimeMeasureStart and TimeMeasureEnd as JSON, by timer name: the number of measurements, the mean and maximum time over all measurements and the 50th, 95th and 99th percentile over the last 1024 measurements, in milliseconds.
+ * 
+ * Reset clears the statistics after returning them.
+ */
+public class GetTimerStatistics extends UserAction<java.lang.String>
+{
+	private final java.lang.Boolean Reset;
+
+	public GetTimerStatistics(
+		IContext context,
+		java.lang.Boolean _reset
+	)
+	{
+		super(context);
+		this.Reset = _reset;
+	}
+
+	@java.lang.Override
+	public java.lang.String executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		String statistics = Timers.getStatisticsAsJson();
+		if (Boolean.TRUE.equals(Reset)) {
+			Timers.resetStatistics();
+		}
+		return statistics;
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "GetTimerStatistics";
+	}
+
+	// BEGIN EXTRA CODE
+
+	// END EXTRA CODE
+}
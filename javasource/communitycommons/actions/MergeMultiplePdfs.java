@@ -15,7 +15,7 @@ import communitycommons.Misc;
 import com.mendix.systemwideinterfaces.core.UserAction;
 
 /**
- * Restricted to 10 files at once for Mendix Cloud v4 compatibility. If you need to merge more than 10 files at once merge recursively instead or change the MergeMultiplePdfs_MaxAtOnce constant.
+ * Merges the files into MergedDocument, in order. The files are merged on disk in groups of MergeMultiplePdfs_MaxAtOnce files (10 by default), after which the groups are merged, so any number of files can be merged without running out of memory. Use MergeMultiplePdfsInParallel to merge the groups in parallel.
  */
 public class MergeMultiplePdfs extends UserAction<java.lang.Boolean>
 {
@@ -0,0 +1,77 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import communitycommons.Misc;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Overlays every generated PDF document with another PDF (containing the company stationary for example), like OverlayPdfDocument does for one document.
+ * 
+ * The overlay is read once and cached as long as it does not change. Parallelism is the number of documents that are overlaid at the same time, 1 if empty.
+ */
+public class OverlayPdfDocuments extends UserAction<java.lang.Boolean>
+{
+	/** @deprecated use com.mendix.utils.ListUtils.map(generatedDocuments, com.mendix.systemwideinterfaces.core.IEntityProxy::getMendixObject) instead. */
+	@java.lang.Deprecated(forRemoval = true)
+	private final java.util.List<IMendixObject> __generatedDocuments;
+	private final java.util.List<system.proxies.FileDocument> generatedDocuments;
+	/** @deprecated use overlay.getMendixObject() instead. */
+	@java.lang.Deprecated(forRemoval = true)
+	private final IMendixObject __overlay;
+	private final system.proxies.FileDocument overlay;
+	private final java.lang.Boolean onTopOfContent;
+	private final java.lang.Long parallelism;
+
+	public OverlayPdfDocuments(
+		IContext context,
+		java.util.List<IMendixObject> _generatedDocuments,
+		IMendixObject _overlay,
+		java.lang.Boolean _onTopOfContent,
+		java.lang.Long _parallelism
+	)
+	{
+		super(context);
+		this.__generatedDocuments = _generatedDocuments;
+		this.generatedDocuments = java.util.Optional.ofNullable(_generatedDocuments)
+			.orElse(java.util.Collections.emptyList())
+			.stream()
+			.map(generatedDocumentsElement -> system.proxies.FileDocument.initialize(getContext(), generatedDocumentsElement))
+			.collect(java.util.stream.Collectors.toList());
+		this.__overlay = _overlay;
+		this.overlay = _overlay == null ? null : system.proxies.FileDocument.initialize(getContext(), _overlay);
+		this.onTopOfContent = _onTopOfContent;
+		this.parallelism = _parallelism;
+	}
+
+	@java.lang.Override
+	public java.lang.Boolean executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		return Misc.overlayPdfs(getContext(), generatedDocuments, overlay, Boolean.TRUE.equals(onTopOfContent),
+			parallelism == null ? 1 : parallelism.intValue());
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "OverlayPdfDocuments";
+	}
+
+	// BEGIN EXTRA CODE
+	// END EXTRA CODE
+}
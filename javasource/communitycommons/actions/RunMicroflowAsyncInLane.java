@@ -0,0 +1,61 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import communitycommons.Misc;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Runs a microflow asynchronous on the given lane of the background executor, like RunMicroflowAsyncInQueue does on the lane 'queue'. Microflows with a higher priority are served first, microflows with the same priority in first come first serve order. The number of microflows served at a time depends on the configuration of the lane, see ConfigureBackgroundLane.
+ * 
+ * The microflow is run with system rights in its own transaction.
+ */
+public class RunMicroflowAsyncInLane extends UserAction<java.lang.Boolean>
+{
+	private final java.lang.String microflow;
+	private final java.lang.String laneName;
+	private final java.lang.Long priority;
+
+	public RunMicroflowAsyncInLane(
+		IContext context,
+		java.lang.String _microflow,
+		java.lang.String _laneName,
+		java.lang.Long _priority
+	)
+	{
+		super(context);
+		this.microflow = _microflow;
+		this.laneName = _laneName;
+		this.priority = _priority;
+	}
+
+	@java.lang.Override
+	public java.lang.Boolean executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		return Misc.runMicroflowAsyncInLane(microflow, laneName, priority == null ? 0 : priority.intValue());
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "RunMicroflowAsyncInLane";
+	}
+
+	// BEGIN EXTRA CODE
+
+	// END EXTRA CODE
+}
@@ -0,0 +1,85 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import communitycommons.DistributedBatch;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Processes the objects of an xpath query in batches on all instances of the cluster, like executeMicroflowInBatches and recommitInBatches do on a single instance. Returns the id of the job, which can be passed to GetDistributedBatchStatus.
+ * 
+ * The objects are divided over ranges that are kept in the database. Every instance that runs distributed batch workers (see StartDistributedBatchWorkers) claims ranges and processes them; ranges of an instance that stops are taken over by the others. This instance starts one worker if it has none yet.
+ * 
+ * Parameters:
+ * - xpath: Fully qualified xpath query that indicates the set of objects to process. For example:
+ * '//System.User[Active = true()]'
+ * - microflow: The microflow that should be invoked for every object, which should accept one argument of the same type as the xpath. Leave empty to recommit the objects instead.
+ * - batchsize: The amount of objects that should be processed in a single transaction.
+ * - waitUntilFinished: Whether this call should block (wait) until all objects are processed. An exception is thrown if the job failed.
+ * - ascending: Whether the objects are processed in ascending id order within a range.
+ * 
+ * Note that a batch that was processed right before an instance stopped can be processed again by the instance that takes over its range.
+ */
+public class StartDistributedBatch extends UserAction<java.lang.String>
+{
+	private final java.lang.String xpath;
+	private final java.lang.String microflow;
+	private final java.lang.Long batchsize;
+	private final java.lang.Boolean waitUntilFinished;
+	private final java.lang.Boolean ascending;
+
+	public StartDistributedBatch(
+		IContext context,
+		java.lang.String _xpath,
+		java.lang.String _microflow,
+		java.lang.Long _batchsize,
+		java.lang.Boolean _waitUntilFinished,
+		java.lang.Boolean _ascending
+	)
+	{
+		super(context);
+		this.xpath = _xpath;
+		this.microflow = _microflow;
+		this.batchsize = _batchsize;
+		this.waitUntilFinished = _waitUntilFinished;
+		this.ascending = _ascending;
+	}
+
+	@java.lang.Override
+	public java.lang.String executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		DistributedBatch coordinator = DistributedBatch.instance();
+		if (!coordinator.isRunning()) {
+			coordinator.startWorkers(1);
+		}
+		String jobId = coordinator.start(xpath, microflow, batchsize.intValue(), ascending == null || ascending);
+		if (Boolean.TRUE.equals(waitUntilFinished) && !coordinator.await(jobId)) {
+			throw new Exception("Distributed batch " + jobId + " failed. Please check the application log of the instances for more details.");
+		}
+		return jobId;
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "StartDistributedBatch";
+	}
+
+	// BEGIN EXTRA CODE
+
+	// END EXTRA CODE
+}
@@ -0,0 +1,56 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import communitycommons.DistributedBatch;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Starts the workers that process the ranges of the jobs of StartDistributedBatch on this instance. Call it from the after startup microflow, which runs on every instance of the cluster.
+ * 
+ * Parallelism is the number of ranges this instance processes at the same time. Does nothing if the workers of this instance are already running.
+ */
+public class StartDistributedBatchWorkers extends UserAction<java.lang.Boolean>
+{
+	private final java.lang.Long parallelism;
+
+	public StartDistributedBatchWorkers(
+		IContext context,
+		java.lang.Long _parallelism
+	)
+	{
+		super(context);
+		this.parallelism = _parallelism;
+	}
+
+	@java.lang.Override
+	public java.lang.Boolean executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		DistributedBatch.instance().startWorkers(parallelism == null ? 1 : parallelism.intValue());
+		return true;
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "StartDistributedBatchWorkers";
+	}
+
+	// BEGIN EXTRA CODE
+
+	// END EXTRA CODE
+}
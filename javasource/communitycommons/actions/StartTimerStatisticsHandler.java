@@ -0,0 +1,60 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import com.mendix.core.Core;
+import communitycommons.TimerStatisticsHandler;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Serves the statistics of GetTimerStatistics as JSON on the given path, for example 'timers/'. Call this action in the after startup microflow.
+ * 
+ * Requests should pass the Token in the X-Timer-Token header or the token query parameter, other requests are refused. Add reset=true to the query to reset the statistics after returning them.
+ */
+public class StartTimerStatisticsHandler extends UserAction<java.lang.Boolean>
+{
+	private final java.lang.String Path;
+	private final java.lang.String Token;
+
+	public StartTimerStatisticsHandler(
+		IContext context,
+		java.lang.String _path,
+		java.lang.String _token
+	)
+	{
+		super(context);
+		this.Path = _path;
+		this.Token = _token;
+	}
+
+	@java.lang.Override
+	public java.lang.Boolean executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		Core.addRequestHandler(Path, new TimerStatisticsHandler(Token));
+		return true;
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "StartTimerStatisticsHandler";
+	}
+
+	// BEGIN EXTRA CODE
+
+	// END EXTRA CODE
+}
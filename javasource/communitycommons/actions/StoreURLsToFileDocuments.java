@@ -0,0 +1,79 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import communitycommons.Misc;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Retrieves the URL of every document into the document using HTTP GET requests, like storeURLToFileDocument does for one document.
+ * - documents: the documents to store the data into, of an entity that stores the URL in an attribute
+ * - urlAttribute: the name of that attribute
+ * - parallelism: the number of URLs that are retrieved at the same time, 1 if empty
+ * - maxRequestsPerSecondPerHost: the maximum number of requests per second to the same host, no limit if empty
+ * 
+ * The documents are stored under their Name, or the last part of the URL if they have no name. A document whose URL cannot be retrieved is logged and skipped. Returns the number of documents that were retrieved.
+ * 
+ * NOTE: For images, no thumbnail will be generated.
+ */
+public class StoreURLsToFileDocuments extends UserAction<java.lang.Long>
+{
+	/** @deprecated use com.mendix.utils.ListUtils.map(documents, com.mendix.systemwideinterfaces.core.IEntityProxy::getMendixObject) instead. */
+	@java.lang.Deprecated(forRemoval = true)
+	private final java.util.List<IMendixObject> __documents;
+	private final java.util.List<system.proxies.FileDocument> documents;
+	private final java.lang.String urlAttribute;
+	private final java.lang.Long parallelism;
+	private final java.lang.Long maxRequestsPerSecondPerHost;
+
+	public StoreURLsToFileDocuments(
+		IContext context,
+		java.util.List<IMendixObject> _documents,
+		java.lang.String _urlAttribute,
+		java.lang.Long _parallelism,
+		java.lang.Long _maxRequestsPerSecondPerHost
+	)
+	{
+		super(context);
+		this.__documents = _documents;
+		this.documents = java.util.Optional.ofNullable(_documents)
+			.orElse(java.util.Collections.emptyList())
+			.stream()
+			.map(documentsElement -> system.proxies.FileDocument.initialize(getContext(), documentsElement))
+			.collect(java.util.stream.Collectors.toList());
+		this.urlAttribute = _urlAttribute;
+		this.parallelism = _parallelism;
+		this.maxRequestsPerSecondPerHost = _maxRequestsPerSecondPerHost;
+	}
+
+	@java.lang.Override
+	public java.lang.Long executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		return Misc.storeURLsToFileDocuments(getContext(), __documents, urlAttribute, parallelism == null ? 1 : parallelism.intValue(),
+			maxRequestsPerSecondPerHost == null ? 0 : maxRequestsPerSecondPerHost);
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "StoreURLsToFileDocuments";
+	}
+
+	// BEGIN EXTRA CODE
+	// END EXTRA CODE
+}
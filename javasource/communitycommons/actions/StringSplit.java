@@ -11,6 +11,7 @@ package communitycommons.actions;
 
 import java.util.ArrayList;
 import java.util.List;
+import communitycommons.PatternCache;
 import com.mendix.core.Core;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
@@ -38,7 +39,7 @@ public class StringSplit extends UserAction<java.util.List<IMendixObject>>
 	{
 		// BEGIN USER CODE
 		List<IMendixObject> returnList = new ArrayList<IMendixObject>();
-		String[] parts = this.inputString.split(this.splitParameter);
+		String[] parts = PatternCache.split(this.inputString, this.splitParameter);
 		Integer index = 0;
 		for (String part : parts) {
 			IMendixObject splitPart = Core.instantiate(getContext(), SplitItem.getType());
@@ -42,7 +42,7 @@ public class TimeMeasureEnd extends UserAction<java.lang.Long>
 	public java.lang.Long executeAction() throws Exception
 	{
 		// BEGIN USER CODE
-		return Logging.measureEnd(TimerName, Loglevel, message);
+		return Logging.measureEnd(getContext(), TimerName, Loglevel, message);
 		// END USER CODE
 	}
 
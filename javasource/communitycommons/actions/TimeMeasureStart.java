@@ -18,6 +18,7 @@ import com.mendix.systemwideinterfaces.core.UserAction;
  * - TimerName. Should correspond to the TimerName used in TimeMeasureEnd.
  * 
  * Note that multiple timers can run at once. Existing timers can be restarted using this function as well.
+ * Timers belong to the context of the microflow, so the same timer name can be used by microflows that run at the same time. Finished measurements are added to the statistics of GetTimerStatistics.
  */
 public class TimeMeasureStart extends UserAction<java.lang.Boolean>
 {
@@ -36,7 +37,7 @@ public class TimeMeasureStart extends UserAction<java.lang.Boolean>
 	public java.lang.Boolean executeAction() throws Exception
 	{
 		// BEGIN USER CODE
-		Logging.measureStart(TimerName);
+		Logging.measureStart(getContext(), TimerName);
 		return true;
 		// END USER CODE
 	}
@@ -11,6 +11,7 @@ package feedbackmodule.actions;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import communitycommons.PatternCache;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.UserAction;
 
@@ -56,31 +57,31 @@ public class XSS_Sanitizer extends UserAction<java.lang.String>
         }
 
         // Remove all occurrences of <script> tags and their contents
-        input = input.replaceAll("(?i)<script[^>]*>.*?</script>", "");
+        input = PatternCache.replaceAll(input, "(?i)<script[^>]*>.*?</script>", "");
 
         // Remove all event handler attributes (e.g., onclick, onmouseover)
-        input = input.replaceAll("(?i)\\bon\\w+\\s*=\\s*(\"[^\"]*\"|'[^']*'|[^\\s>]+)", "");
+        input = PatternCache.replaceAll(input, "(?i)\\bon\\w+\\s*=\\s*(\"[^\"]*\"|'[^']*'|[^\\s>]+)", "");
 
         // Remove all javascript: URLs
-        input = input.replaceAll("(?i)javascript:", "");
+        input = PatternCache.replaceAll(input, "(?i)javascript:", "");
 
         // Remove all <iframe> tags
-        input = input.replaceAll("(?i)<iframe[^>]*>.*?</iframe>", "");
+        input = PatternCache.replaceAll(input, "(?i)<iframe[^>]*>.*?</iframe>", "");
 
         // Remove all <object> tags
-        input = input.replaceAll("(?i)<object[^>]*>.*?</object>", "");
+        input = PatternCache.replaceAll(input, "(?i)<object[^>]*>.*?</object>", "");
 
         // Remove all <embed> tags
-        input = input.replaceAll("(?i)<embed[^>]*>.*?</embed>", "");
+        input = PatternCache.replaceAll(input, "(?i)<embed[^>]*>.*?</embed>", "");
 
         // Remove all <applet> tags
-        input = input.replaceAll("(?i)<applet[^>]*>.*?</applet>", "");
+        input = PatternCache.replaceAll(input, "(?i)<applet[^>]*>.*?</applet>", "");
 
         // Remove all <meta> tags that could potentially cause redirection
-        input = input.replaceAll("(?i)<meta[^>]*http-equiv[^>]*>", "");
+        input = PatternCache.replaceAll(input, "(?i)<meta[^>]*http-equiv[^>]*>", "");
 
         // Remove all other potentially dangerous HTML tags
-        Pattern pattern = Pattern.compile("<[^>]*(>|$)");
+        Pattern pattern = PatternCache.get("<[^>]*(>|$)");
         Matcher matcher = pattern.matcher(input);
         input = matcher.replaceAll("");
 
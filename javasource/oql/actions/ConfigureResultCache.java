@@ -0,0 +1,67 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package oql.actions;
+
+import com.mendix.systemwideinterfaces.core.IContext;
+import oql.implementation.OQLResultCache;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Enables or disables the result cache used by ExecuteOQLStatement and CountRowsOQLStatement. Call this from the after startup microflow to opt in.
+ * 
+ * Cached results are invalidated when an object of one of the entities in the FROM or JOIN clauses of the statement is committed or deleted on this node. Statements executed in a transaction bypass the cache, as they may see uncommitted changes. Changes on other nodes or outside the runtime are only picked up after the time to live has passed.
+ * 
+ * TimeToLiveSeconds: maximum age of a cached result.
+ * MaxCachedCells: upper bound on the total number of cached cells (rows times columns), least recently used results are evicted first.
+ */
+public class ConfigureResultCache extends UserAction<java.lang.Boolean>
+{
+	private final java.lang.Boolean enabled;
+	private final java.lang.Long timeToLiveSeconds;
+	private final java.lang.Long maxCachedCells;
+
+	public ConfigureResultCache(
+		IContext context,
+		java.lang.Boolean _enabled,
+		java.lang.Long _timeToLiveSeconds,
+		java.lang.Long _maxCachedCells
+	)
+	{
+		super(context);
+		this.enabled = _enabled;
+		this.timeToLiveSeconds = _timeToLiveSeconds;
+		this.maxCachedCells = _maxCachedCells;
+	}
+
+	@java.lang.Override
+	public java.lang.Boolean executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		OQLResultCache.configure(
+				Boolean.TRUE.equals(enabled), 
+				(timeToLiveSeconds != null ? timeToLiveSeconds : 60) * 1000, 
+				maxCachedCells != null ? maxCachedCells : 1000000);
+		return true;
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "ConfigureResultCache";
+	}
+
+	// BEGIN EXTRA CODE
+	// END EXTRA CODE
+}
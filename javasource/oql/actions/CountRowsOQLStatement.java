@@ -10,12 +10,12 @@
 package oql.actions;
 
 import java.util.List;
-import java.util.Map;
 import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import oql.implementation.OQL;
+import oql.implementation.OQLParameter;
 import com.mendix.systemwideinterfaces.core.UserAction;
 
 /**
@@ -49,12 +49,9 @@ public class CountRowsOQLStatement extends UserAction<java.lang.Long>
 		ILogNode logger = Core.getLogger(this.getClass().getSimpleName());
 		
 		logger.debug("Mapping parameters.");
-		Map<String, Object> parameters = OQL.getNextParameters();
-		Long result = 
-				OQL.countRowsOQL(context, statement, amount, parameters);	
-		
+		List<OQLParameter> parameters = OQL.getParameterBindings();
 		OQL.resetParameters();
-		return result;
+		return OQL.countRowsOQL(context, statement, amount, parameters);
 		// END USER CODE
 	}
 
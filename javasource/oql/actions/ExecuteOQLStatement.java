@@ -11,7 +11,6 @@ package oql.actions;
 
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
 import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
@@ -27,6 +26,7 @@ import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.meta.IMetaAssociation;
 import oql.implementation.OQL;
+import oql.implementation.OQLParameter;
 import com.mendix.systemwideinterfaces.core.UserAction;
 
 /**
@@ -101,14 +101,13 @@ public class ExecuteOQLStatement extends UserAction<java.util.List<IMendixObject
 		ILogNode logger = Core.getLogger(this.getClass().getSimpleName());
 		
 		logger.debug("Mapping parameters.");
-		Map<String, Object> parameters = OQL.getNextParameters();
-		List<IMendixObject> result = 
-				OQL.executeOQL(context, statement, returnEntity, amount, offset, parameters);	
-		
-		if (!this.preserveParameters) 
-			OQL.resetParameters();
-		
-		return result;
+		List<OQLParameter> parameters = OQL.getParameterBindings();
+		try {
+			return OQL.executeOQL(context, statement, returnEntity, amount, offset, parameters);
+		} finally {
+			if (!this.preserveParameters) 
+				OQL.resetParameters();
+		}
 		// END USER CODE
 	}
 
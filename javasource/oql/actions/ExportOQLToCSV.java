@@ -18,7 +18,6 @@ import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -29,14 +28,14 @@ import com.mendix.logging.ILogNode;
 import com.mendix.systemwideinterfaces.connectionbus.data.IDataColumnSchema;
 import com.mendix.systemwideinterfaces.connectionbus.data.IDataRow;
 import com.mendix.systemwideinterfaces.connectionbus.data.IDataTable;
-import com.mendix.systemwideinterfaces.connectionbus.requests.IParameterMap;
-import com.mendix.systemwideinterfaces.connectionbus.requests.IRetrievalSchema;
-import com.mendix.systemwideinterfaces.connectionbus.requests.types.IOQLTextGetRequest;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import oql.implementation.MxCSVWriter;
 import oql.implementation.OQL;
+import oql.implementation.OQLParameter;
+import oql.implementation.OQLStatementRegistry;
+import oql.implementation.OQLStatementRegistry.CompiledStatement;
 import system.proxies.FileDocument;
 import com.mendix.systemwideinterfaces.core.UserAction;
 
@@ -104,6 +103,10 @@ public class ExportOQLToCSV extends UserAction<IMendixObject>
 
 		IMendixObject result = Core.instantiate(getContext(), this.returnEntity);
 		
+		CompiledStatement compiledStatement = OQLStatementRegistry.compile(statement);
+		List<OQLParameter> parameters = OQL.getParameterBindings();
+		OQL.resetParameters();
+		
 		logger.debug("Executing query");
 		
 		int offset = 0;
@@ -113,7 +116,8 @@ public class ExportOQLToCSV extends UserAction<IMendixObject>
 			}
 			
 			IContext context = getContext().createSudoClone();
-			IDataTable results = Core.retrieveOQLDataTable(context, buildRequest(statement, offset, PAGE_SIZE));
+			IDataTable results = Core.retrieveOQLDataTable(context, 
+					compiledStatement.createRequest(parameters, (long) PAGE_SIZE, (long) offset));
 			
 			if (this.exportHeaders && offset == 0) {
 				List<String> headers = results.getSchema()
@@ -135,7 +139,6 @@ public class ExportOQLToCSV extends UserAction<IMendixObject>
 		result.setValue(getContext(), FileDocument.MemberNames.Name.toString(), tmpFile.getName());
 		Core.storeFileDocumentContent(getContext(), result, new FileInputStream(tmpFile));
 		tmpFile.delete();
-		OQL.resetParameters();
 		return result;
 		// END USER CODE
 	}
@@ -151,27 +154,6 @@ public class ExportOQLToCSV extends UserAction<IMendixObject>
 	}
 
 	// BEGIN EXTRA CODE
-	private IOQLTextGetRequest buildRequest(String statement, int offset, int pagesize) {
-		IOQLTextGetRequest request;
-		try {
-			request = Core.createOQLTextGetRequestFromDataSet(statement); 
-		} catch (IllegalArgumentException e) {
-			request = Core.createOQLTextGetRequest();
-			request.setQuery(statement);
-		}
-		
-		IParameterMap parameterMap = request.createParameterMap();
-		IRetrievalSchema schema = Core.createRetrievalSchema();
-		schema.setAmount(pagesize);
-		schema.setOffset(offset);
-		request.setRetrievalSchema(schema);
-		for (Entry<String, Object> entry : OQL.getNextParameters().entrySet()) {
-			parameterMap.put(entry.getKey(), entry.getValue());
-		}
-		request.setParameters(parameterMap);
-		return request;
-	}
-	
 	private void writeResults(IDataTable results, MxCSVWriter writer) throws IOException {
 		for (IDataRow row : results.getRows()) {
 			List<String> values = IntStream
@@ -0,0 +1,63 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package oql.actions;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+import com.mendix.systemwideinterfaces.core.IContext;
+import oql.implementation.OQLResultCache;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Returns the statistics of the OQL result cache as a JSON object: number of entries and cached cells, hits, misses, hit rate, expirations, evictions, invalidations and the average and maximum age of results served from the cache (in milliseconds).
+ * 
+ * If ResetStatistics is true, the counters are reset after reading them.
+ */
+public class GetResultCacheStatistics extends UserAction<java.lang.String>
+{
+	private final java.lang.Boolean resetStatistics;
+
+	public GetResultCacheStatistics(
+		IContext context,
+		java.lang.Boolean _resetStatistics
+	)
+	{
+		super(context);
+		this.resetStatistics = _resetStatistics;
+	}
+
+	@java.lang.Override
+	public java.lang.String executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		Map<String, Object> statistics = OQLResultCache.getStatistics();
+		if (Boolean.TRUE.equals(resetStatistics)) {
+			OQLResultCache.resetStatistics();
+		}
+		return statistics.entrySet()
+				.stream()
+				.map(entry -> "\"" + entry.getKey() + "\":" + entry.getValue())
+				.collect(Collectors.joining(",", "{", "}"));
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "GetResultCacheStatistics";
+	}
+
+	// BEGIN EXTRA CODE
+	// END EXTRA CODE
+}
@@ -5,7 +5,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import com.mendix.core.Core;
 import com.mendix.core.CoreException;
@@ -14,9 +13,6 @@ import com.mendix.systemwideinterfaces.connectionbus.data.IDataColumnSchema;
 import com.mendix.systemwideinterfaces.connectionbus.data.IDataRow;
 import com.mendix.systemwideinterfaces.connectionbus.data.IDataTable;
 import com.mendix.systemwideinterfaces.connectionbus.data.IDataTableSchema;
-import com.mendix.systemwideinterfaces.connectionbus.requests.IParameterMap;
-import com.mendix.systemwideinterfaces.connectionbus.requests.IRetrievalSchema;
-import com.mendix.systemwideinterfaces.connectionbus.requests.types.IOQLTextGetRequest;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
@@ -25,6 +21,8 @@ import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
 import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
 import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive.PrimitiveType;
 
+import oql.implementation.OQLStatementRegistry.CompiledStatement;
+
 public class OQL {
 	static ThreadLocal<Map<String, Object>> nextParameters = new ThreadLocal<Map<String, Object>>();
 	
@@ -45,50 +43,36 @@ public class OQL {
 		getNextParameters().put(name, value);
 	}
 	
+	/**
+	 * @return a snapshot of the parameters added so far on this thread as explicit bindings.
+	 */
+	public static List<OQLParameter> getParameterBindings() {
+		return OQLParameter.fromMap(nextParameters.get());
+	}
+	
 	public static Long countRowsOQL(IContext context, String statement, Long amount, Map<String, Object> parameters)
 		throws CoreException {
-		IOQLTextGetRequest request = Core.createOQLTextGetRequest();
-		request.setQuery(statement);
-		IParameterMap parameterMap = request.createParameterMap();
-		for (Entry<String, Object> entry : OQL.getNextParameters().entrySet()) {
-			parameterMap.put(entry.getKey(), entry.getValue());
-		}
-		request.setParameters(parameterMap);
-		
-		IRetrievalSchema schema = Core.createRetrievalSchema();
-		schema.setAmount(amount);
-		request.setRetrievalSchema(schema);
-
+		return countRowsOQL(context, statement, amount, OQLParameter.fromMap(parameters));
+	}
+	
+	public static Long countRowsOQL(IContext context, String statement, Long amount, List<OQLParameter> parameters)
+		throws CoreException {
 		logger.debug("Executing query");
-		IDataTable results = Core.retrieveOQLDataTable(context, request);
+		IDataTable results = retrieveDataTable(context, OQLStatementRegistry.compile(statement), parameters, amount, null);
 		return (long) results.getRowCount();
 	}
 	
 	public static List<IMendixObject> executeOQL(IContext context, String statement, String returnEntity, 
 			Long amount, Long offset, Map<String, Object> parameters) throws CoreException {
-		IOQLTextGetRequest request;
-		try {
-			request = Core.createOQLTextGetRequestFromDataSet(statement); 
-		} catch (IllegalArgumentException e) {
-			request = Core.createOQLTextGetRequest();
-			request.setQuery(statement);
-		}
-		
-		IParameterMap parameterMap = request.createParameterMap();
-		for (Entry<String, Object> entry : OQL.getNextParameters().entrySet()) {
-			parameterMap.put(entry.getKey(), entry.getValue());
-		}
-		request.setParameters(parameterMap);
-		
-		IRetrievalSchema schema = Core.createRetrievalSchema();
-		schema.setOffset(offset != null ? offset : 0);
-		schema.setAmount(amount != null ? amount : 0);
-		request.setRetrievalSchema(schema);
-		
+		return executeOQL(context, statement, returnEntity, amount, offset, OQLParameter.fromMap(parameters));
+	}
+	
+	public static List<IMendixObject> executeOQL(IContext context, String statement, String returnEntity, 
+			Long amount, Long offset, List<OQLParameter> parameters) throws CoreException {
 		if (logger.isDebugEnabled()) {
 			logger.debug("Executing query\n:" + statement);
 		}
-		IDataTable results = Core.retrieveOQLDataTable(context, request);
+		IDataTable results = retrieveDataTable(context, OQLStatementRegistry.compile(statement), parameters, amount, offset);
 		if (logger.isDebugEnabled()) {
 			logger.debug("Mapping " + results.getRowCount() + " results.");
 		}
@@ -152,6 +136,29 @@ public class OQL {
 		return result;
 	}
 
+	/**
+	 * Retrieves the data table for a statement, going through the result cache when it is enabled.
+	 * Only sudo contexts are cached, as results for user contexts depend on entity access, and only
+	 * outside transactions, as those may see their own uncommitted changes.
+	 */
+	private static IDataTable retrieveDataTable(IContext context, CompiledStatement statement, 
+			List<OQLParameter> parameters, Long amount, Long offset) throws CoreException {
+		if (!OQLResultCache.isEnabled() || !context.isSudo() || context.isInTransaction()) {
+			return Core.retrieveOQLDataTable(context, statement.createRequest(parameters, amount, offset));
+		}
+		
+		OQLResultCache.CacheKey key = OQLResultCache.createKey(statement, parameters, amount, offset);
+		IDataTable results = OQLResultCache.get(key);
+		if (results != null) {
+			logger.trace("Serving query from result cache");
+			return results;
+		}
+		long generation = OQLResultCache.currentGeneration(key);
+		results = Core.retrieveOQLDataTable(context, statement.createRequest(parameters, amount, offset));
+		OQLResultCache.put(key, generation, results);
+		return results;
+	}
+
 	private static IMetaAssociation getAssociation(IMendixObject targetObj, IDataColumnSchema columnSchema) {
 		/* Escaping an alias as described at https://docs.mendix.com/refguide7/oql-select-clause
 		 * leads to an error when using dots e.g. (OQL.ExamplePerson_ExamplePersonResult).
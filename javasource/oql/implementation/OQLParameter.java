@@ -0,0 +1,57 @@
+package oql.implementation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.mendix.systemwideinterfaces.connectionbus.requests.IParameterMap;
+
+/**
+ * A single named OQL parameter binding. Lists of these are passed explicitly to the OQL
+ * implementation so that a request never depends on whatever happens to be in the thread-local
+ * parameter map at execution time.
+ */
+public final class OQLParameter {
+	private final String name;
+	private final Object value;
+	
+	public OQLParameter(String name, Object value) {
+		if (name == null) {
+			throw new IllegalArgumentException("OQL parameter name cannot be null");
+		}
+		this.name = name;
+		this.value = value;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public Object getValue() {
+		return value;
+	}
+	
+	public static List<OQLParameter> fromMap(Map<String, Object> parameters) {
+		if (parameters == null || parameters.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<OQLParameter> result = new ArrayList<OQLParameter>(parameters.size());
+		for (Entry<String, Object> entry : parameters.entrySet()) {
+			result.add(new OQLParameter(entry.getKey(), entry.getValue()));
+		}
+		return Collections.unmodifiableList(result);
+	}
+	
+	static void bind(IParameterMap parameterMap, List<OQLParameter> parameters) {
+		for (OQLParameter parameter : parameters) {
+			parameterMap.put(parameter.name, parameter.value);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return name + "=" + value;
+	}
+}
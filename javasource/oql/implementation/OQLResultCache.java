@@ -0,0 +1,381 @@
+package oql.implementation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.connectionbus.data.IDataTable;
+import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+
+/**
+ * Opt-in cache for the raw data tables returned by OQL statements, keyed by statement, bound
+ * parameters and paging. Entries expire after a time to live, and are evicted least recently used
+ * once the estimated number of cached cells exceeds the configured bound.
+ *
+ * When an object of one of the entities read by the statement (the FROM and JOIN clauses) is
+ * committed or deleted on this node, the entries reading it are dropped. Contexts in a transaction
+ * neither read nor fill the cache, as they may see uncommitted changes of their own that a rollback
+ * undoes.
+ *
+ * The after commit and after delete events fire before the transaction of the committing context
+ * ends, so a statement outside a transaction that runs between the event and the end of that
+ * transaction can still cache the data as it was. Such results, and changes made on other cluster
+ * nodes or outside the runtime, are served at most for the time to live.
+ */
+public class OQLResultCache {
+	private static final ILogNode logger = Core.getLogger(OQL.class.getSimpleName());
+
+	// Module.Entity directly following JOIN, or Module.Entity / Module.Association following a '/' in a join path
+	private static final Pattern JOIN_PATTERN = Pattern.compile(
+			"(?i)(?:\\bJOIN|/)\\s*\"?([A-Za-z_]\\w*)\"?\\.\"?([A-Za-z_]\\w*)\"?");
+	private static final Pattern FROM_PATTERN = Pattern.compile("(?i)\\bFROM\\b");
+	// Module.Entity at the start of an item of the FROM list
+	private static final Pattern SOURCE_PATTERN = Pattern.compile("\"?([A-Za-z_]\\w*)\"?\\.\"?([A-Za-z_]\\w*)\"?");
+	private static final Pattern CLAUSE_END_PATTERN = Pattern.compile("(?i)(?:WHERE|GROUP|ORDER|HAVING|LIMIT|OFFSET|UNION)\\b");
+	private static final Pattern STRING_PATTERN = Pattern.compile("'(?:[^']|'')*'");
+
+	private static volatile boolean enabled = false;
+	private static volatile long timeToLiveMillis = 60000;
+	private static volatile long maxCachedCells = 1000000;
+	private static boolean listenersRegistered = false;
+
+	private static final LinkedHashMap<CacheKey, CacheEntry> entries = new LinkedHashMap<CacheKey, CacheEntry>(64, 0.75f, true);
+	private static final Map<String, Set<CacheKey>> keysByEntity = new HashMap<String, Set<CacheKey>>();
+	private static final Map<String, Long> invalidationGenerations = new HashMap<String, Long>();
+	private static long cachedCells = 0;
+
+	private static long hits = 0;
+	private static long misses = 0;
+	private static long expirations = 0;
+	private static long evictions = 0;
+	private static long invalidations = 0;
+	private static long totalHitAgeMillis = 0;
+	private static long maxHitAgeMillis = 0;
+
+	public static synchronized void configure(boolean enable, long timeToLiveMillis, long maxCachedCells) {
+		if (timeToLiveMillis <= 0 || maxCachedCells <= 0) {
+			throw new IllegalArgumentException("Time to live and maximum number of cached cells should be positive");
+		}
+		OQLResultCache.timeToLiveMillis = timeToLiveMillis;
+		OQLResultCache.maxCachedCells = maxCachedCells;
+		if (enable && !listenersRegistered) {
+			Core.getListenersRegistry().registerAfterCommitListener(OQLResultCache::invalidate);
+			Core.getListenersRegistry().registerAfterDeleteListener(OQLResultCache::invalidate);
+			listenersRegistered = true;
+		}
+		OQLResultCache.enabled = enable;
+		if (!enable) {
+			clear();
+		} else {
+			evictOverflow();
+		}
+		logger.info("OQL result cache " + (enable ? "enabled, time to live " + timeToLiveMillis + " ms, at most " + maxCachedCells + " cells" : "disabled"));
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the cached result, or null if caching is disabled or there is no valid entry.
+	 */
+	static IDataTable get(CacheKey key) {
+		if (!enabled) {
+			return null;
+		}
+		synchronized (OQLResultCache.class) {
+			CacheEntry entry = entries.get(key);
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+			long age = System.currentTimeMillis() - entry.created;
+			if (age > timeToLiveMillis) {
+				remove(key);
+				expirations++;
+				misses++;
+				return null;
+			}
+			hits++;
+			totalHitAgeMillis += age;
+			maxHitAgeMillis = Math.max(maxHitAgeMillis, age);
+			return entry.table;
+		}
+	}
+
+	/**
+	 * Returns a token to pass to {@link #put} once the statement has been executed; a result is only
+	 * stored if none of its entities were invalidated while the statement was running.
+	 */
+	static synchronized long currentGeneration(CacheKey key) {
+		long generation = 0;
+		for (String entity : key.entities) {
+			generation += invalidationGenerations.getOrDefault(entity, 0L);
+		}
+		return generation;
+	}
+
+	static void put(CacheKey key, long generation, IDataTable table) {
+		if (!enabled || key.entities.isEmpty()) {
+			return;
+		}
+		long cells = (long) table.getRowCount() * Math.max(1, table.getSchema().getColumnCount());
+		if (cells > maxCachedCells) {
+			return;
+		}
+		synchronized (OQLResultCache.class) {
+			if (currentGeneration(key) != generation) {
+				return;
+			}
+			remove(key);
+			entries.put(key, new CacheEntry(table, cells));
+			cachedCells += cells;
+			for (String entity : key.entities) {
+				keysByEntity.computeIfAbsent(entity, e -> new HashSet<CacheKey>()).add(key);
+			}
+			evictOverflow();
+		}
+	}
+
+	static CacheKey createKey(OQLStatementRegistry.CompiledStatement statement, List<OQLParameter> parameters, Long amount, Long offset) {
+		return new CacheKey(statement.getQuery(), parameters, amount, offset, statement.getEntities());
+	}
+
+	public static synchronized void clear() {
+		entries.clear();
+		keysByEntity.clear();
+		cachedCells = 0;
+	}
+
+	private static void invalidate(List<IMendixObject> objects) {
+		if (!enabled || objects == null || objects.isEmpty()) {
+			return;
+		}
+		Set<String> changedEntities = new HashSet<String>();
+		for (IMendixObject object : objects) {
+			// a statement on a generalization also reads the specializations
+			for (IMetaObject meta = object.getMetaObject(); meta != null; meta = meta.getSuperObject()) {
+				if (!changedEntities.add(meta.getName())) {
+					break;
+				}
+			}
+		}
+		synchronized (OQLResultCache.class) {
+			for (String entity : changedEntities) {
+				invalidationGenerations.merge(entity, 1L, Long::sum);
+				Set<CacheKey> keys = keysByEntity.remove(entity);
+				if (keys == null) {
+					continue;
+				}
+				for (CacheKey key : keys) {
+					if (remove(key)) {
+						invalidations++;
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean remove(CacheKey key) {
+		CacheEntry entry = entries.remove(key);
+		if (entry == null) {
+			return false;
+		}
+		cachedCells -= entry.cells;
+		for (String entity : key.entities) {
+			Set<CacheKey> keys = keysByEntity.get(entity);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					keysByEntity.remove(entity);
+				}
+			}
+		}
+		return true;
+	}
+
+	private static synchronized void evictOverflow() {
+		// iterate the entries rather than calling get, which would reorder the access-ordered map
+		Iterator<Map.Entry<CacheKey, CacheEntry>> eldest = entries.entrySet().iterator();
+		List<CacheKey> toEvict = new ArrayList<CacheKey>();
+		long cells = cachedCells;
+		while (cells > maxCachedCells && eldest.hasNext()) {
+			Map.Entry<CacheKey, CacheEntry> entry = eldest.next();
+			cells -= entry.getValue().cells;
+			toEvict.add(entry.getKey());
+		}
+		for (CacheKey key : toEvict) {
+			remove(key);
+			evictions++;
+		}
+	}
+
+	public static synchronized Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		long lookups = hits + misses;
+		statistics.put("enabled", enabled);
+		statistics.put("entries", entries.size());
+		statistics.put("cachedCells", cachedCells);
+		statistics.put("hits", hits);
+		statistics.put("misses", misses);
+		statistics.put("hitRate", lookups == 0 ? 0d : (double) hits / lookups);
+		statistics.put("expirations", expirations);
+		statistics.put("evictions", evictions);
+		statistics.put("invalidations", invalidations);
+		statistics.put("averageHitAgeMillis", hits == 0 ? 0 : totalHitAgeMillis / hits);
+		statistics.put("maxHitAgeMillis", maxHitAgeMillis);
+		return statistics;
+	}
+
+	public static synchronized void resetStatistics() {
+		hits = misses = expirations = evictions = invalidations = totalHitAgeMillis = maxHitAgeMillis = 0;
+	}
+
+	/**
+	 * Determines the entities a statement reads from. Association names in join paths are included
+	 * as well; they never match an object type and are therefore harmless.
+	 *
+	 * @return the entities, or an empty set if a FROM list could not be parsed, so that the statement
+	 * is not cached
+	 */
+	static Set<String> parseEntities(String query) {
+		Set<String> result = new HashSet<String>();
+		if (query == null) {
+			return result;
+		}
+		// string literals could contain keywords and commas
+		String stripped = STRING_PATTERN.matcher(query).replaceAll("''");
+		Matcher from = FROM_PATTERN.matcher(stripped);
+		while (from.find()) {
+			if (!parseFromList(stripped, from.end(), result)) {
+				logger.debug("Not caching statement, could not determine the entities it reads: " + query);
+				return Collections.emptySet();
+			}
+		}
+		Matcher matcher = JOIN_PATTERN.matcher(stripped);
+		while (matcher.find()) {
+			result.add(matcher.group(1) + "." + matcher.group(2));
+		}
+		return Collections.unmodifiableSet(result);
+	}
+
+	/**
+	 * Adds the entities of the comma separated FROM list starting at position. Every item should start
+	 * with an entity or a subquery; the FROM clause of a subquery is parsed on its own, and the joins of
+	 * an item are found by {@link #JOIN_PATTERN}.
+	 *
+	 * @return false if an item starts with anything else
+	 */
+	private static boolean parseFromList(String query, int position, Set<String> result) {
+		boolean itemStart = true;
+		int depth = 0;
+		for (int i = position; i < query.length(); i++) {
+			char c = query.charAt(i);
+			if (itemStart) {
+				if (Character.isWhitespace(c)) {
+					continue;
+				}
+				itemStart = false;
+				if (c == '(') {
+					depth++;
+					continue;
+				}
+				Matcher source = SOURCE_PATTERN.matcher(query).region(i, query.length());
+				if (!source.lookingAt()) {
+					return false;
+				}
+				result.add(source.group(1) + "." + source.group(2));
+				i = source.end() - 1;
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				// the end of the subquery this FROM list belongs to
+				if (depth == 0) {
+					return true;
+				}
+				depth--;
+			} else if (depth == 0) {
+				if (c == ',') {
+					itemStart = true;
+				} else if (!Character.isJavaIdentifierPart(query.charAt(i - 1))
+						&& CLAUSE_END_PATTERN.matcher(query).region(i, query.length()).lookingAt()) {
+					return true;
+				}
+			}
+		}
+		return !itemStart;
+	}
+
+	static final class CacheKey {
+		private final String query;
+		private final List<Object> parameters;
+		private final long amount;
+		private final long offset;
+		private final Set<String> entities;
+		private final int hash;
+
+		private CacheKey(String query, List<OQLParameter> parameters, Long amount, Long offset, Set<String> entities) {
+			this.query = query;
+			this.parameters = new ArrayList<Object>(parameters.size() * 2);
+			for (OQLParameter parameter : parameters) {
+				this.parameters.add(parameter.getName());
+				this.parameters.add(normalize(parameter.getValue()));
+			}
+			this.amount = amount != null ? amount : 0;
+			this.offset = offset != null ? offset : 0;
+			this.entities = entities;
+			this.hash = java.util.Objects.hash(query, this.parameters, this.amount, this.offset);
+		}
+
+		private static Object normalize(Object value) {
+			if (value instanceof IMendixIdentifier) {
+				return ((IMendixIdentifier) value).toLong();
+			} else if (value instanceof Date) {
+				return ((Date) value).getTime();
+			}
+			return value;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey other = (CacheKey) obj;
+			return hash == other.hash && amount == other.amount && offset == other.offset
+					&& query.equals(other.query) && parameters.equals(other.parameters);
+		}
+	}
+
+	private static final class CacheEntry {
+		private final IDataTable table;
+		private final long cells;
+		private final long created = System.currentTimeMillis();
+
+		private CacheEntry(IDataTable table, long cells) {
+			this.table = table;
+			this.cells = cells;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package oql.implementation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.connectionbus.requests.IParameterMap;
+import com.mendix.systemwideinterfaces.connectionbus.requests.IRetrievalSchema;
+import com.mendix.systemwideinterfaces.connectionbus.requests.types.IOQLTextGetRequest;
+
+/**
+ * Remembers per statement string whether it refers to a dataset or is a plain OQL text query, so
+ * resolving a statement only has to fall back on the IllegalArgumentException thrown by
+ * Core.createOQLTextGetRequestFromDataSet once instead of on every execution.
+ */
+public class OQLStatementRegistry {
+	private static final int MAX_STATEMENTS = 2048;
+	
+	private static final ILogNode logger = Core.getLogger(OQL.class.getSimpleName());
+	private static final Map<String, CompiledStatement> statements = new ConcurrentHashMap<String, CompiledStatement>();
+	
+	public enum StatementKind {
+		DATASET, TEXT
+	}
+	
+	public static CompiledStatement compile(String statement) {
+		if (statement == null) {
+			throw new IllegalArgumentException("OQL statement cannot be null");
+		}
+		CompiledStatement compiled = statements.get(statement);
+		if (compiled != null) {
+			return compiled;
+		}
+		compiled = resolve(statement);
+		// Statements are normally constants from the model; if they are built dynamically we stop
+		// remembering new ones rather than growing without bound.
+		if (statements.size() < MAX_STATEMENTS) {
+			CompiledStatement existing = statements.putIfAbsent(statement, compiled);
+			if (existing != null) {
+				return existing;
+			}
+		}
+		return compiled;
+	}
+	
+	public static void clear() {
+		statements.clear();
+	}
+	
+	private static CompiledStatement resolve(String statement) {
+		try {
+			IOQLTextGetRequest request = Core.createOQLTextGetRequestFromDataSet(statement);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Registered OQL statement '" + statement + "' as dataset.");
+			}
+			return new CompiledStatement(statement, StatementKind.DATASET, request.getQuery());
+		} catch (IllegalArgumentException e) {
+			return new CompiledStatement(statement, StatementKind.TEXT, statement);
+		}
+	}
+	
+	public static final class CompiledStatement {
+		private final String statement;
+		private final StatementKind kind;
+		private final String query;
+		private volatile Set<String> entities;
+		
+		private CompiledStatement(String statement, StatementKind kind, String query) {
+			this.statement = statement;
+			this.kind = kind;
+			this.query = query;
+		}
+		
+		public String getStatement() {
+			return statement;
+		}
+		
+		public StatementKind getKind() {
+			return kind;
+		}
+		
+		/**
+		 * @return the OQL text of the statement; for datasets this is the query of the dataset.
+		 */
+		public String getQuery() {
+			return query;
+		}
+		
+		/**
+		 * @return the entities read by this statement, as used for result cache invalidation.
+		 */
+		public Set<String> getEntities() {
+			if (entities == null) {
+				entities = OQLResultCache.parseEntities(query);
+			}
+			return entities;
+		}
+		
+		/**
+		 * Creates a fresh request for this statement. Requests are mutable, so a new one is built per
+		 * execution; only the dataset/text decision is shared.
+		 * 
+		 * @param amount the number of rows to retrieve, 0 or null for all rows
+		 * @param offset the row offset, null for 0
+		 */
+		public IOQLTextGetRequest createRequest(List<OQLParameter> parameters, Long amount, Long offset) {
+			IOQLTextGetRequest request;
+			if (kind == StatementKind.DATASET) {
+				request = Core.createOQLTextGetRequestFromDataSet(statement);
+			} else {
+				request = Core.createOQLTextGetRequest();
+				request.setQuery(query);
+			}
+			
+			IParameterMap parameterMap = request.createParameterMap();
+			OQLParameter.bind(parameterMap, parameters);
+			request.setParameters(parameterMap);
+			
+			IRetrievalSchema schema = Core.createRetrievalSchema();
+			schema.setOffset(offset != null ? offset : 0);
+			schema.setAmount(amount != null ? amount : 0);
+			request.setRetrievalSchema(schema);
+			return request;
+		}
+	}
+}